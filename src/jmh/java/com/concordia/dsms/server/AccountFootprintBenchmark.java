@@ -0,0 +1,90 @@
+package com.concordia.dsms.server;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to fill a store with customer accounts, and the heap they take. Every customer buys from
+ * the home store and once from another store. Each run is a single shot in a fork with a 4 GB
+ * heap, enough for the default 10 million customers; the heap used per customer is reported as
+ * the {@code bytesPerCustomer} secondary result.
+ * Example: {@code -Djmh.args="AccountFootprintBenchmark -p customers=1000000"}.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class AccountFootprintBenchmark {
+    private static final LocalDate PURCHASE_DATE = LocalDate.of(2025, 1, 1);
+
+    @Param({"10000000"})
+    public int customers;
+
+    @Param({"2"})
+    public int purchases;
+
+    // Heap used by the filled accounts, reported next to the fill time
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Footprint {
+        public long bytesPerCustomer;
+        private long heapBefore;
+        private CustomerAccountManager accounts;
+
+        @Setup(Level.Iteration)
+        public void measureEmptyHeap() throws InterruptedException {
+            accounts = null;
+            heapBefore = usedHeap();
+        }
+
+        @TearDown(Level.Iteration)
+        public void measureFilledHeap() throws InterruptedException {
+            long used = usedHeap() - heapBefore;
+            bytesPerCustomer = used / Math.max(1, accounts.getAccountCount());
+            accounts = null;
+        }
+    }
+
+    @Benchmark
+    public CustomerAccountManager fillAccounts(Footprint footprint) {
+        CustomerAccountManager accounts = new CustomerAccountManager("QC", StoreJournal.DISABLED);
+        for (int i = 0; i < customers; i++) {
+            String customerId = String.format("QCU%07d", i);
+            for (int p = 0; p < purchases; p++) {
+                // The last purchase of each customer comes from another store
+                boolean remote = p == purchases - 1 && p > 0;
+                String itemId = String.format(remote ? "ON%04d" : "QC%04d", (i + p) % 1_000);
+                accounts.attemptPurchase(customerId, remote ? "ON" : "QC", itemId, 10.0, PURCHASE_DATE);
+            }
+        }
+        // Keeps the accounts reachable until the heap was measured
+        footprint.accounts = accounts;
+        return accounts;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(200);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
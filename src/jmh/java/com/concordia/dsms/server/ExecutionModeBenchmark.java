@@ -0,0 +1,104 @@
+package com.concordia.dsms.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.rmi.server.UnicastRemoteObject;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time for a wave of concurrent clients to each make a cross-store purchase and return it,
+ * with the stores and the clients running on platform or virtual threads. Each client is a
+ * thread of the mode, the way RMI would dispatch it, and the owning store handles the peer
+ * request on a thread of the same mode. On a runtime without virtual threads both modes
+ * run on platform threads, which the setup reports.
+ * Example: {@code -Djmh.args="ExecutionModeBenchmark -p clients=2000"}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExecutionModeBenchmark {
+    private static final int ITEMS = 1000;
+
+    @Param({"platform", "virtual"})
+    public String threads;
+
+    @Param({"100", "1000"})
+    public int clients;
+
+    private StoreServerImpl[] servers;
+    private ExecutorService clientThreads;
+    private String[] customerIds;
+
+    @Setup(Level.Trial)
+    public void startStores() throws Exception {
+        ExecutionMode mode = ExecutionMode.parse(threads);
+        if (mode.effective() != mode) {
+            System.out.println("Virtual threads are not available on Java " + Runtime.version() + "; measuring platform threads.");
+        }
+        servers = new StoreServerImpl[3];
+        String[] storeCodes = {"QC", "ON", "BC"};
+        for (int i = 0; i < storeCodes.length; i++) {
+            servers[i] = new StoreServerImpl(storeCodes[i], StoreServerImpl.DEFAULT_REMOTE_LOOKUP_TIMEOUT,
+                    StoreJournal.DISABLED, mode);
+            StoreServerRegistry.bind(storeCodes[i], servers[i]);
+        }
+        // Every store is bound before stock is added, since adding an item notifies the other stores
+        for (int i = 0; i < storeCodes.length; i++) {
+            for (int item = 0; item < ITEMS; item++) {
+                servers[i].addItem(storeCodes[i] + "M0000", StoreServerBenchmark.itemId(storeCodes[i], item),
+                        StoreServerBenchmark.itemName(item), StoreServerBenchmark.STOCK, StoreServerBenchmark.PRICE);
+            }
+        }
+        clientThreads = Executors.newCachedThreadPool(mode.threadFactory("DSMS-bench-client"));
+        customerIds = new String[clients];
+        for (int i = 0; i < clients; i++) {
+            customerIds[i] = "QCU-V" + i;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stopStores() throws Exception {
+        clientThreads.shutdownNow();
+        for (StoreServerImpl server : servers) {
+            server.shutdown();
+            UnicastRemoteObject.unexportObject(server, true);
+        }
+    }
+
+    @Benchmark
+    public void crossStorePurchaseWave() {
+        CompletableFuture<?>[] wave = new CompletableFuture<?>[clients];
+        for (int i = 0; i < clients; i++) {
+            String customerId = customerIds[i];
+            wave[i] = CompletableFuture.runAsync(() -> {
+                String itemId = StoreServerBenchmark.itemId("ON", ThreadLocalRandom.current().nextInt(ITEMS));
+                try {
+                    servers[0].purchaseItem(customerId, itemId, StoreServerBenchmark.PURCHASE_DATE);
+                    servers[0].returnItem(customerId, itemId, StoreServerBenchmark.RETURN_DATE);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }, clientThreads);
+        }
+        CompletableFuture.allOf(wave).join();
+    }
+}
@@ -0,0 +1,82 @@
+package com.concordia.dsms.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Many buyers hitting the same item. Compares the previous purchase path, which held
+ * a fair per-item lock across the account call, with the CAS reservation used by
+ * {@link ItemRecord#tryReserve()}. The account call is simulated with
+ * {@link Blackhole#consumeCPU(long)} and the unit is handed back afterwards so stock never runs out.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class ItemRecordContentionBenchmark {
+    @Param({"0", "200"})
+    public long accountWork;
+
+    private final LockedItem locked = new LockedItem(1_000);
+    private final ItemRecord atomic = new ItemRecord("QC000000", "Item 0", 1_000, 0.01);
+
+    @Benchmark
+    public boolean lockedPurchase() {
+        boolean reserved;
+        locked.lock.lock();
+        try {
+            reserved = locked.quantity > 0;
+            if (reserved) {
+                Blackhole.consumeCPU(accountWork);
+                locked.quantity--;
+            }
+        } finally {
+            locked.lock.unlock();
+        }
+        if (reserved) {
+            locked.lock.lock();
+            try {
+                locked.quantity++;
+            } finally {
+                locked.lock.unlock();
+            }
+        }
+        return reserved;
+    }
+
+    @Benchmark
+    public boolean atomicPurchase() {
+        boolean reserved = atomic.tryReserve();
+        if (reserved) {
+            Blackhole.consumeCPU(accountWork);
+            atomic.increaseQuantity(1);
+        }
+        return reserved;
+    }
+
+    // Stock counter as it was before ItemRecord moved to compare-and-set updates
+    private static final class LockedItem {
+        private final ReentrantLock lock = new ReentrantLock(true);
+        private int quantity;
+
+        private LockedItem(int quantity) {
+            this.quantity = quantity;
+        }
+    }
+}
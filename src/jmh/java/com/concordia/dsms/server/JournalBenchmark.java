@@ -0,0 +1,98 @@
+package com.concordia.dsms.server;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Measures journal write throughput with group commit and the time needed to recover
+ * a store from snapshot plus journal tail.
+ * Usage: JournalBenchmark [operations per thread] [threads]
+ */
+public final class JournalBenchmark {
+    private static final LocalDate PURCHASE_DATE = LocalDate.of(2025, 1, 1);
+
+    private JournalBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int operationsPerThread = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        Path dataDir = Files.createTempDirectory("dsms-journal-bench");
+        try {
+            MappedStoreJournal journal = MappedStoreJournal.open("QC", dataDir,
+                    MappedStoreJournal.DEFAULT_SEGMENT_BYTES, Duration.ofHours(1));
+            for (int i = 0; i < 1_000; i++) {
+                journal.itemCreated(itemId(i), "Item " + i, 1_000_000, 10.0);
+            }
+            StoreJournal.commitPending();
+
+            long start = System.nanoTime();
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int worker = t;
+                Thread thread = new Thread(() -> {
+                    for (int i = 0; i < operationsPerThread; i++) {
+                        String itemId = itemId((worker * 31 + i) % 1_000);
+                        String customerId = String.format("QCU%04d", worker);
+                        // A purchase journals a stock change and an account change, then commits
+                        journal.quantityChanged(itemId, -1);
+                        journal.purchaseRecorded(customerId, new PurchaseRecord(itemId, "QC", PURCHASE_DATE, 10.0));
+                        StoreJournal.commitPending();
+                    }
+                });
+                workers.add(thread);
+                thread.start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            long elapsedNanos = System.nanoTime() - start;
+            long operations = (long) operationsPerThread * threads;
+            System.out.printf("Write: %d committed purchases on %d threads in %d ms (%.0f ops/s)%n",
+                    operations, threads, Duration.ofNanos(elapsedNanos).toMillis(), operations / (elapsedNanos / 1e9));
+            journal.close();
+
+            measureRecovery("Recovery from journal only", dataDir);
+
+            MappedStoreJournal compacting = MappedStoreJournal.open("QC", dataDir,
+                    MappedStoreJournal.DEFAULT_SEGMENT_BYTES, Duration.ofHours(1));
+            compacting.takeRecoveredState();
+            compacting.snapshot();
+            compacting.close();
+
+            measureRecovery("Recovery from snapshot", dataDir);
+        } finally {
+            deleteRecursively(dataDir);
+        }
+    }
+
+    private static void measureRecovery(String label, Path dataDir) throws IOException {
+        long start = System.nanoTime();
+        MappedStoreJournal journal = MappedStoreJournal.open("QC", dataDir,
+                MappedStoreJournal.DEFAULT_SEGMENT_BYTES, Duration.ofHours(1));
+        JournalState state = journal.takeRecoveredState();
+        long elapsedMs = Duration.ofNanos(System.nanoTime() - start).toMillis();
+        journal.close();
+        System.out.printf("%s: %d items, %d accounts, %d records replayed in %d ms%n",
+                label, state.items().size(), state.accounts().size(), state.replayedRecords(), elapsedMs);
+    }
+
+    private static String itemId(int index) {
+        return String.format("QC%04d", index);
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.concordia.dsms.server;
+
+import com.concordia.dsms.common.ItemPage;
+import com.concordia.dsms.common.PurchaseResult;
+import com.concordia.dsms.common.StoreServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput/latency of the store operations, called either directly on
+ * {@link StoreServerImpl} or through its RMI stub over loopback.
+ * Thread count is set with JMH's {@code -t} option, for example
+ * {@code -Djmh.args="StoreServerBenchmark -t 8 -p inventorySize=1000 -p contention=hot"}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StoreServerBenchmark {
+    static final double PRICE = 0.01;
+    static final int STOCK = 1_000_000_000;
+    static final String PURCHASE_DATE = "01012025";
+    static final String RETURN_DATE = "05012025";
+
+    @Param({"1000", "100000"})
+    public int inventorySize;
+
+    // uniform: every operation picks a random item, hot: every thread hits the same item
+    @Param({"uniform", "hot"})
+    public String contention;
+
+    @Param({"inprocess", "rmi"})
+    public String transport;
+
+    @Param({"1000"})
+    public int waitlistLength;
+
+    private final AtomicInteger threadIds = new AtomicInteger();
+    private StoreServerImpl[] servers;
+    StoreServer qc;
+
+    @Setup(Level.Trial)
+    public void startStores() throws Exception {
+        servers = new StoreServerImpl[]{new StoreServerImpl("QC"), new StoreServerImpl("ON"), new StoreServerImpl("BC")};
+        for (StoreServerImpl server : servers) {
+            StoreServerRegistry.bind(server.getStoreCode(), server);
+        }
+        // Every store is bound before stock is added, since adding an item notifies the other stores
+        for (StoreServerImpl server : servers) {
+            String storeCode = server.getStoreCode();
+            for (int i = 0; i < inventorySize; i++) {
+                server.addItem(storeCode + "M0000", itemId(storeCode, i), itemName(i), STOCK, PRICE);
+            }
+        }
+        qc = "rmi".equals(transport)
+                ? (StoreServer) LocateRegistry.getRegistry().lookup("QC")
+                : servers[0];
+    }
+
+    @TearDown(Level.Trial)
+    public void stopStores() throws Exception {
+        for (StoreServerImpl server : servers) {
+            server.shutdown();
+            UnicastRemoteObject.unexportObject(server, true);
+        }
+    }
+
+    int nextThreadId() {
+        return threadIds.getAndIncrement();
+    }
+
+    String pickItem(String storeCode) {
+        int index = "hot".equals(contention) ? 0 : ThreadLocalRandom.current().nextInt(inventorySize);
+        return itemId(storeCode, index);
+    }
+
+    String pickName() {
+        return itemName("hot".equals(contention) ? 0 : ThreadLocalRandom.current().nextInt(inventorySize));
+    }
+
+    static String itemId(String storeCode, int index) {
+        return String.format("%s%06d", storeCode, index);
+    }
+
+    static String itemName(int index) {
+        return "Item " + index;
+    }
+
+    // Customer of the QC store, replaced before its budget runs out
+    @State(Scope.Thread)
+    public static class Customer {
+        private static final int PURCHASES_PER_CUSTOMER = 50_000;
+        private int threadId;
+        private int generation;
+        private int purchases;
+        String customerId;
+
+        @Setup(Level.Trial)
+        public void assignThread(StoreServerBenchmark benchmark) {
+            threadId = benchmark.nextThreadId();
+            customerId = "QCU" + threadId + "-0";
+        }
+
+        String nextPurchaser() {
+            if (++purchases > PURCHASES_PER_CUSTOMER) {
+                purchases = 1;
+                customerId = "QCU" + threadId + "-" + (++generation);
+            }
+            return customerId;
+        }
+    }
+
+    // Gives back the remote item so the one-item-per-remote-store policy does not kick in
+    @State(Scope.Thread)
+    public static class RemotePurchase {
+        String customerId;
+        String itemId;
+
+        @Setup(Level.Trial)
+        public void assignCustomer(StoreServerBenchmark benchmark) {
+            customerId = "QCU-R" + benchmark.nextThreadId();
+        }
+
+        @TearDown(Level.Invocation)
+        public void returnItem(StoreServerBenchmark benchmark) throws RemoteException {
+            benchmark.qc.returnItem(customerId, itemId, RETURN_DATE);
+        }
+    }
+
+    // Buys an item before each invocation of the return benchmark
+    @State(Scope.Thread)
+    public static class PriorPurchase {
+        String customerId;
+        String itemId;
+
+        @Setup(Level.Trial)
+        public void assignCustomer(StoreServerBenchmark benchmark) {
+            customerId = "QCU-P" + benchmark.nextThreadId();
+        }
+
+        @Setup(Level.Invocation)
+        public void purchase(StoreServerBenchmark benchmark) throws RemoteException {
+            itemId = benchmark.pickItem("QC");
+            benchmark.qc.purchaseItem(customerId, itemId, PURCHASE_DATE);
+        }
+    }
+
+    // Sold-out item with a queue of waiting customers, rebuilt before each restock
+    @State(Scope.Thread)
+    public static class Waitlist {
+        String itemId;
+        private StoreServerImpl store;
+        private String[] waitingCustomers;
+
+        @Setup(Level.Trial)
+        public void createItem(StoreServerBenchmark benchmark) throws RemoteException {
+            store = benchmark.servers[0];
+            int threadId = benchmark.nextThreadId();
+            itemId = String.format("QC9%05d", threadId);
+            waitingCustomers = new String[benchmark.waitlistLength];
+            for (int i = 0; i < waitingCustomers.length; i++) {
+                waitingCustomers[i] = "QCU-W" + threadId + "-" + i;
+            }
+            store.addItem("QCM0000", itemId, "Waitlisted " + threadId, 1, PRICE);
+            store.purchaseItem(waitingCustomers[0], itemId, PURCHASE_DATE);
+        }
+
+        @Setup(Level.Invocation)
+        public void fillWaitlist() throws RemoteException {
+            for (String customerId : waitingCustomers) {
+                store.purchaseItem(customerId, itemId, PURCHASE_DATE);
+            }
+        }
+    }
+
+    @Benchmark
+    public PurchaseResult purchaseLocal(Customer customer) throws RemoteException {
+        return qc.purchaseItem(customer.nextPurchaser(), pickItem("QC"), PURCHASE_DATE);
+    }
+
+    @Benchmark
+    public PurchaseResult purchaseCrossStore(RemotePurchase remotePurchase) throws RemoteException {
+        remotePurchase.itemId = pickItem("ON");
+        return qc.purchaseItem(remotePurchase.customerId, remotePurchase.itemId, PURCHASE_DATE);
+    }
+
+    @Benchmark
+    public String returnItem(PriorPurchase priorPurchase) throws RemoteException {
+        return qc.returnItem(priorPurchase.customerId, priorPurchase.itemId, RETURN_DATE);
+    }
+
+    @Benchmark
+    public String findItem(Customer customer) throws RemoteException {
+        return qc.findItem(customer.customerId, pickName());
+    }
+
+    @Benchmark
+    public String listItemAvailability() throws RemoteException {
+        return qc.listItemAvailability("QCM0000");
+    }
+
+    @Benchmark
+    public ItemPage listItemPage() throws RemoteException {
+        return qc.listItemAvailability("QCM0000", pickItem("QC"), 50);
+    }
+
+    @Benchmark
+    public String addItemWithWaitlist(Waitlist waitlist) throws RemoteException {
+        return qc.addItem("QCM0000", waitlist.itemId, "Waitlisted", waitlistLength, PRICE);
+    }
+}
@@ -4,6 +4,8 @@ import com.concordia.dsms.common.PurchaseResult;
 import com.concordia.dsms.common.StoreServer;
 import com.concordia.dsms.server.StoreServerRegistry;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 
 public class CustomerClient {
@@ -29,7 +31,8 @@ public class CustomerClient {
                 System.out.println("1. Purchase Item");
                 System.out.println("2. Find Item");
                 System.out.println("3. Return Item");
-                System.out.println("4. Exit");
+                System.out.println("4. Checkout Cart");
+                System.out.println("5. Exit");
                 System.out.print("Select an option: ");
                 String choice = scanner.nextLine().trim();
                 try {
@@ -37,7 +40,8 @@ public class CustomerClient {
                         case "1" -> handlePurchase(scanner, server, customerId, logger);
                         case "2" -> handleFind(scanner, server, customerId, logger);
                         case "3" -> handleReturn(scanner, server, customerId, logger);
-                        case "4" -> running = false;
+                        case "4" -> handleCheckout(scanner, server, customerId, logger);
+                        case "5" -> running = false;
                         default -> System.out.println("Invalid option. Try again.");
                     }
                 } catch (Exception e) {
@@ -54,7 +58,22 @@ public class CustomerClient {
         System.out.print("Date (ddMMyyyy): ");
         String date = scanner.nextLine().trim();
         PurchaseResult result = server.purchaseItem(customerId, itemId, date);
-        logger.info("purchaseItem -> " + result.getMessage());
+        logger.info("purchaseItem -> " + (result.isPending() ? "pending: " : "") + result.getMessage());
+        System.out.println(result.getMessage());
+    }
+
+    private static void handleCheckout(Scanner scanner, StoreServer server, String customerId, ClientLogger logger) throws Exception {
+        System.out.print("Item IDs (comma separated): ");
+        List<String> itemIds = new ArrayList<>();
+        for (String itemId : scanner.nextLine().split(",")) {
+            if (!itemId.isBlank()) {
+                itemIds.add(itemId.trim().toUpperCase());
+            }
+        }
+        System.out.print("Date (ddMMyyyy): ");
+        String date = scanner.nextLine().trim();
+        PurchaseResult result = server.checkoutCart(customerId, itemIds, date);
+        logger.info("checkoutCart -> " + result.getMessage());
         System.out.println(result.getMessage());
     }
 
@@ -0,0 +1,364 @@
+package com.concordia.dsms.client;
+
+import com.concordia.dsms.common.ItemChange;
+import com.concordia.dsms.common.LatencyHistogram;
+import com.concordia.dsms.common.PurchaseResult;
+import com.concordia.dsms.common.StoreServer;
+import com.concordia.dsms.server.StoreServerRegistry;
+
+import java.rmi.RemoteException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Puts load on running store servers (started with {@code StoreServerLauncher}) and prints
+ * throughput, latency percentiles and error rates per operation. Every run creates its own
+ * items in each store and uses fresh customer IDs, so runs do not interfere.
+ *
+ * <p>Options are given as {@code --name=value}:
+ * <ul>
+ *     <li>{@code customers} (32) and {@code managers} (3): simulated users</li>
+ *     <li>{@code mix}: operation weights, default
+ *     {@code purchaseLocal:40,purchaseRemote:10,find:30,return:15,restock:5}</li>
+ *     <li>{@code items} (100): items created per store; {@code hotFraction} (0): share of
+ *     operations aimed at each store's first item</li>
+ *     <li>{@code rate} (0): open loop at this many operations per second across all users;
+ *     0 runs closed loop, where each customer issues its next operation as soon as the
+ *     previous one returns and managers restock every {@code managerThinkMs} (100) ms</li>
+ *     <li>{@code duration} (30) and {@code warmup} (5): seconds measured and seconds ignored first</li>
+ * </ul>
+ * In open loop, latency is measured from the scheduled start of each operation, so time
+ * spent queued behind a saturated system counts.
+ */
+public final class LoadGenerator {
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("ddMMyyyy");
+    private static final String DEFAULT_MIX = "purchaseLocal:40,purchaseRemote:10,find:30,return:15,restock:5";
+    private static final int ITEM_STOCK = 1_000_000;
+    private static final int RESTOCK_QUANTITY = 100;
+    private static final double ITEM_PRICE = 0.01;
+
+    enum Operation {
+        PURCHASE_LOCAL("purchaseLocal"), PURCHASE_REMOTE("purchaseRemote"), FIND("find"), RETURN("return"), RESTOCK("restock");
+
+        private final String optionName;
+
+        Operation(String optionName) {
+            this.optionName = optionName;
+        }
+
+        static Operation fromOption(String name) {
+            for (Operation operation : values()) {
+                if (operation.optionName.equalsIgnoreCase(name)) {
+                    return operation;
+                }
+            }
+            throw new IllegalArgumentException("Unknown operation in mix: " + name);
+        }
+    }
+
+    // Members of the cluster when the run starts
+    private final List<String> storeCodes;
+    private final Map<String, StoreServer> stores = new HashMap<>();
+    private final Map<Operation, Integer> mix;
+    private final Map<Operation, OperationStats> stats = new EnumMap<>(Operation.class);
+    private final List<Customer> customers = new ArrayList<>();
+    private final List<String> managers = new ArrayList<>();
+    private final int itemsPerStore;
+    private final double hotFraction;
+    private final double rate;
+    private final long managerThinkMillis;
+    private final String runId = Long.toString(System.currentTimeMillis() % 1_000_000_000L, 36).toUpperCase(Locale.ROOT);
+    private final String today = LocalDate.now().format(DATE_FORMAT);
+    private volatile long measureFromNanos;
+    private volatile boolean running = true;
+
+    private LoadGenerator(Map<String, String> options) throws RemoteException {
+        this.mix = parseMix(options.getOrDefault("mix", DEFAULT_MIX));
+        this.itemsPerStore = Integer.parseInt(options.getOrDefault("items", "100"));
+        this.hotFraction = Double.parseDouble(options.getOrDefault("hotFraction", "0"));
+        this.rate = Double.parseDouble(options.getOrDefault("rate", "0"));
+        this.managerThinkMillis = Long.parseLong(options.getOrDefault("managerThinkMs", "100"));
+        int customerCount = Integer.parseInt(options.getOrDefault("customers", "32"));
+        int managerCount = Integer.parseInt(options.getOrDefault("managers", "3"));
+        if (itemsPerStore <= 0 || customerCount <= 0 || managerCount < 0 || hotFraction < 0 || hotFraction > 1 || rate < 0) {
+            throw new IllegalArgumentException("items and customers must be positive, hotFraction between 0 and 1, rate at least 0");
+        }
+        this.storeCodes = StoreServerRegistry.getStores();
+        if (storeCodes.size() < 2) {
+            throw new IllegalStateException("Load needs at least two running stores; found " + storeCodes);
+        }
+        for (String storeCode : storeCodes) {
+            stores.put(storeCode, StoreServerRegistry.lookup(storeCode));
+        }
+        for (int i = 0; i < customerCount; i++) {
+            String homeStore = storeCodes.get(i % storeCodes.size());
+            customers.add(new Customer(String.format("%sU%s%04d", homeStore, runId, i), homeStore));
+        }
+        for (int i = 0; i < managerCount; i++) {
+            managers.add(String.format("%sM%04d", storeCodes.get(i % storeCodes.size()), i));
+        }
+        for (Operation operation : Operation.values()) {
+            stats.put(operation, new OperationStats());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                System.err.println("Usage: LoadGenerator [--name=value ...], see the class documentation for options");
+                return;
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        long durationSeconds = Long.parseLong(options.getOrDefault("duration", "30"));
+        long warmupSeconds = Long.parseLong(options.getOrDefault("warmup", "5"));
+        LoadGenerator generator = new LoadGenerator(options);
+        generator.createItems();
+        System.out.printf("Run %s: %s loop, %d customers, %d managers, warmup %d s, measuring %d s%n", generator.runId,
+                generator.rate > 0 ? "open" : "closed", generator.customers.size(), generator.managers.size(),
+                warmupSeconds, durationSeconds);
+        generator.run(warmupSeconds, durationSeconds);
+        generator.printReport(durationSeconds);
+    }
+
+    private static Map<Operation, Integer> parseMix(String spec) {
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String entry : spec.split(",")) {
+            String[] parts = entry.trim().split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Mix entries must look like name:weight, got " + entry);
+            }
+            int weight = Integer.parseInt(parts[1].trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("Mix weights must not be negative.");
+            }
+            weights.put(Operation.fromOption(parts[0].trim()), weight);
+        }
+        if (weights.values().stream().mapToInt(Integer::intValue).sum() == 0) {
+            throw new IllegalArgumentException("At least one operation needs a positive weight.");
+        }
+        return weights;
+    }
+
+    private void createItems() throws RemoteException {
+        for (String storeCode : storeCodes) {
+            List<ItemChange> items = new ArrayList<>(itemsPerStore);
+            for (int i = 0; i < itemsPerStore; i++) {
+                items.add(new ItemChange(itemId(storeCode, i), itemName(i), ITEM_STOCK, ITEM_PRICE));
+            }
+            stores.get(storeCode).addItems(storeCode + "M0000", items);
+        }
+    }
+
+    private String itemId(String storeCode, int index) {
+        return String.format("%sL%s%05d", storeCode, runId, index);
+    }
+
+    private String itemName(int index) {
+        return "Load " + runId + " " + index;
+    }
+
+    private int pickItemIndex() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return random.nextDouble() < hotFraction ? 0 : random.nextInt(itemsPerStore);
+    }
+
+    private void run(long warmupSeconds, long durationSeconds) throws InterruptedException {
+        long startNanos = System.nanoTime();
+        measureFromNanos = startNanos + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long endNanos = measureFromNanos + TimeUnit.SECONDS.toNanos(durationSeconds);
+        int users = customers.size() + managers.size();
+        ExecutorService workers = Executors.newFixedThreadPool(users);
+        if (rate > 0) {
+            runOpenLoop(workers, startNanos, endNanos);
+        } else {
+            customers.forEach(customer -> workers.execute(() -> customerLoop(customer)));
+            managers.forEach(managerId -> workers.execute(() -> managerLoop(managerId)));
+            LockSupport.parkNanos(endNanos - System.nanoTime());
+        }
+        running = false;
+        workers.shutdown();
+        if (!workers.awaitTermination(30, TimeUnit.SECONDS)) {
+            workers.shutdownNow();
+        }
+    }
+
+    // Issues operations on a fixed schedule whether or not earlier ones have completed
+    private void runOpenLoop(ExecutorService workers, long startNanos, long endNanos) {
+        long intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / rate));
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (long scheduled = startNanos; scheduled < endNanos; scheduled += intervalNanos) {
+            LockSupport.parkNanos(scheduled - System.nanoTime());
+            long intendedStart = scheduled;
+            Operation operation = pick(mix, random);
+            if (operation == Operation.RESTOCK && managers.isEmpty()) {
+                continue;
+            }
+            Customer customer = customers.get(random.nextInt(customers.size()));
+            String managerId = managers.isEmpty() ? null : managers.get(random.nextInt(managers.size()));
+            workers.execute(() -> execute(operation, customer, managerId, intendedStart));
+        }
+    }
+
+    private void customerLoop(Customer customer) {
+        Map<Operation, Integer> customerMix = new EnumMap<>(mix);
+        customerMix.remove(Operation.RESTOCK);
+        if (customerMix.values().stream().mapToInt(Integer::intValue).sum() == 0) {
+            return;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (running) {
+            execute(pick(customerMix, random), customer, null, System.nanoTime());
+        }
+    }
+
+    private void managerLoop(String managerId) {
+        while (running) {
+            execute(Operation.RESTOCK, null, managerId, System.nanoTime());
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(managerThinkMillis));
+        }
+    }
+
+    private static Operation pick(Map<Operation, Integer> weights, ThreadLocalRandom random) {
+        int total = weights.values().stream().mapToInt(Integer::intValue).sum();
+        int target = random.nextInt(Math.max(1, total));
+        for (Map.Entry<Operation, Integer> entry : weights.entrySet()) {
+            target -= entry.getValue();
+            if (target < 0) {
+                return entry.getKey();
+            }
+        }
+        return Operation.FIND;
+    }
+
+    private void execute(Operation operation, Customer customer, String managerId, long startNanos) {
+        boolean accepted;
+        try {
+            accepted = switch (operation) {
+                case PURCHASE_LOCAL -> purchase(customer, customer.homeStore);
+                case PURCHASE_REMOTE -> purchase(customer, otherStore(customer.homeStore));
+                case FIND -> !stores.get(customer.homeStore).findItem(customer.customerId, itemName(pickItemIndex()))
+                        .startsWith("No items found");
+                case RETURN -> returnItem(customer);
+                case RESTOCK -> {
+                    String storeCode = managerId.substring(0, 2);
+                    int index = pickItemIndex();
+                    stores.get(storeCode).addItem(managerId, itemId(storeCode, index), itemName(index), RESTOCK_QUANTITY, ITEM_PRICE);
+                    yield true;
+                }
+            };
+        } catch (RemoteException | RuntimeException e) {
+            record(operation, startNanos, Outcome.ERROR);
+            return;
+        }
+        record(operation, startNanos, accepted ? Outcome.OK : Outcome.REFUSED);
+    }
+
+    private boolean purchase(Customer customer, String storeCode) throws RemoteException {
+        String itemId = itemId(storeCode, pickItemIndex());
+        PurchaseResult result = stores.get(customer.homeStore).purchaseItem(customer.customerId, itemId, today);
+        // A pending purchase completes unless the customer's home store turns it down later
+        boolean placed = result.isSuccess() || result.isPending();
+        if (placed) {
+            // Remote items go back first so the one-item-per-remote-store policy does not block every remote purchase
+            if (storeCode.equals(customer.homeStore)) {
+                customer.purchased.addLast(itemId);
+            } else {
+                customer.purchased.addFirst(itemId);
+            }
+        }
+        return placed;
+    }
+
+    private boolean returnItem(Customer customer) throws RemoteException {
+        String itemId = customer.purchased.pollFirst();
+        if (itemId == null) {
+            return false;
+        }
+        String response = stores.get(customer.homeStore).returnItem(customer.customerId, itemId, today);
+        return response.startsWith("Return successful") || response.startsWith("Return processed");
+    }
+
+    private String otherStore(String homeStore) {
+        // Uniform over the other stores: indexes from the home store's onwards shift up by one
+        int index = ThreadLocalRandom.current().nextInt(storeCodes.size() - 1);
+        return storeCodes.get(index >= storeCodes.indexOf(homeStore) ? index + 1 : index);
+    }
+
+    private void record(Operation operation, long startNanos, Outcome outcome) {
+        if (startNanos < measureFromNanos) {
+            return;
+        }
+        stats.get(operation).record(System.nanoTime() - startNanos, outcome);
+    }
+
+    private void printReport(long durationSeconds) {
+        System.out.printf(Locale.CANADA, "%-16s %10s %10s %9s %9s %9s %9s %9s %9s %9s%n", "operation", "count", "ops/s",
+                "refused%", "error%", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        long total = 0;
+        for (Map.Entry<Operation, OperationStats> entry : stats.entrySet()) {
+            OperationStats operation = entry.getValue();
+            long count = operation.latency.getCount();
+            if (count == 0) {
+                continue;
+            }
+            total += count;
+            System.out.printf(Locale.CANADA, "%-16s %10d %10.1f %9.2f %9.2f %9.3f %9.3f %9.3f %9.3f %9.3f%n",
+                    entry.getKey().optionName, count, (double) count / durationSeconds,
+                    100.0 * operation.refused.sum() / count, 100.0 * operation.errors.sum() / count,
+                    millis(operation.latency.getValueAtQuantile(0.50)), millis(operation.latency.getValueAtQuantile(0.90)),
+                    millis(operation.latency.getValueAtQuantile(0.99)), millis(operation.latency.getValueAtQuantile(0.999)),
+                    millis(operation.latency.getMax()));
+        }
+        System.out.printf(Locale.CANADA, "%-16s %10d %10.1f%n", "total", total, (double) total / durationSeconds);
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    private enum Outcome {
+        OK, REFUSED, ERROR
+    }
+
+    private static final class OperationStats {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder refused = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+
+        private void record(long nanos, Outcome outcome) {
+            latency.record(nanos);
+            if (outcome == Outcome.REFUSED) {
+                refused.increment();
+            } else if (outcome == Outcome.ERROR) {
+                errors.increment();
+            }
+        }
+    }
+
+    private static final class Customer {
+        private final String customerId;
+        private final String homeStore;
+        // Items bought and not yet returned; remote ones at the front
+        private final ConcurrentLinkedDeque<String> purchased = new ConcurrentLinkedDeque<>();
+
+        private Customer(String customerId, String homeStore) {
+            this.customerId = customerId;
+            this.homeStore = homeStore;
+        }
+    }
+}
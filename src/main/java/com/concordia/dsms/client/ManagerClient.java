@@ -1,12 +1,22 @@
 package com.concordia.dsms.client;
 
+import com.concordia.dsms.common.InventoryChange;
+import com.concordia.dsms.common.InventoryListener;
+import com.concordia.dsms.common.ItemAvailability;
+import com.concordia.dsms.common.ItemChange;
+import com.concordia.dsms.common.ItemPage;
 import com.concordia.dsms.common.StoreServer;
 import com.concordia.dsms.server.StoreServerRegistry;
 
 import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 
 public final class ManagerClient {
+    private static final int PAGE_SIZE = 20;
+
     private ManagerClient() {
     }
 
@@ -28,15 +38,21 @@ public final class ManagerClient {
                 System.out.println("1. Add Item");
                 System.out.println("2. Remove Item");
                 System.out.println("3. List Item Availability");
-                System.out.println("4. Exit");
+                System.out.println("4. Bulk Add Items");
+                System.out.println("5. Bulk Remove Items");
+                System.out.println("6. Watch Inventory Changes");
+                System.out.println("7. Exit");
                 System.out.print("Select an option: ");
                 String choice = scanner.nextLine().trim();
                 try {
                     switch (choice) {
                         case "1" -> handleAddItem(scanner, server, managerId, logger);
                         case "2" -> handleRemoveItem(scanner, server, managerId, logger);
-                        case "3" -> handleListItems(server, managerId, logger);
-                        case "4" -> running = false;
+                        case "3" -> handleListItems(scanner, server, managerId, logger);
+                        case "4" -> handleBulkAddItems(scanner, server, managerId, logger);
+                        case "5" -> handleBulkRemoveItems(scanner, server, managerId, logger);
+                        case "6" -> handleWatchInventory(scanner, server, managerId, logger);
+                        case "7" -> running = false;
                         default -> System.out.println("Invalid option. Try again.");
                     }
                 } catch (Exception e) {
@@ -71,9 +87,96 @@ public final class ManagerClient {
         System.out.println(response);
     }
 
-    private static void handleListItems(StoreServer server, String managerId, ClientLogger logger) throws RemoteException {
-        String response = server.listItemAvailability(managerId);
-        logger.info("listItemAvailability -> " + response.replace(System.lineSeparator(), " | "));
-        System.out.println(response);
+    private static void handleBulkAddItems(Scanner scanner, StoreServer server, String managerId, ClientLogger logger) throws RemoteException {
+        System.out.println("Enter one item per line as itemId,itemName,quantity,price (blank line to finish):");
+        List<ItemChange> items = new ArrayList<>();
+        String line;
+        while (!(line = scanner.nextLine().trim()).isEmpty()) {
+            String[] fields = line.split(",");
+            if (fields.length != 4) {
+                System.out.println("Skipping malformed line: " + line);
+                continue;
+            }
+            items.add(new ItemChange(fields[0].trim().toUpperCase(), fields[1].trim(),
+                    Integer.parseInt(fields[2].trim()), Double.parseDouble(fields[3].trim())));
+        }
+        printBulkResults("addItems", server.addItems(managerId, items), logger);
+    }
+
+    private static void handleBulkRemoveItems(Scanner scanner, StoreServer server, String managerId, ClientLogger logger) throws RemoteException {
+        System.out.println("Enter one item per line as itemId,quantity (0 for complete removal, blank line to finish):");
+        List<ItemChange> items = new ArrayList<>();
+        String line;
+        while (!(line = scanner.nextLine().trim()).isEmpty()) {
+            String[] fields = line.split(",");
+            if (fields.length != 2) {
+                System.out.println("Skipping malformed line: " + line);
+                continue;
+            }
+            items.add(new ItemChange(fields[0].trim().toUpperCase(), Integer.parseInt(fields[1].trim())));
+        }
+        printBulkResults("removeItems", server.removeItems(managerId, items), logger);
+    }
+
+    private static void printBulkResults(String operation, List<String> results, ClientLogger logger) {
+        logger.info(operation + " -> " + String.join(" | ", results));
+        results.forEach(System.out::println);
+    }
+
+    private static void handleListItems(Scanner scanner, StoreServer server, String managerId, ClientLogger logger) throws RemoteException {
+        String cursor = null;
+        int listed = 0;
+        while (true) {
+            ItemPage page = server.listItemAvailability(managerId, cursor, PAGE_SIZE);
+            page.getItems().forEach(System.out::println);
+            listed += page.getItems().size();
+            if (!page.hasNext()) {
+                break;
+            }
+            System.out.print("Press Enter for the next page, or q to stop: ");
+            if (scanner.nextLine().trim().equalsIgnoreCase("q")) {
+                break;
+            }
+            cursor = page.getNextCursor();
+        }
+        if (listed == 0) {
+            System.out.println("No items available.");
+        }
+        logger.info("listItemAvailability -> " + listed + " item(s) shown");
+    }
+
+    private static void handleWatchInventory(Scanner scanner, StoreServer server, String managerId, ClientLogger logger) throws RemoteException {
+        ConsoleInventoryListener listener = new ConsoleInventoryListener(logger);
+        try {
+            List<ItemAvailability> snapshot = server.subscribeInventory(managerId, listener);
+            snapshot.forEach(System.out::println);
+            logger.info("subscribeInventory -> snapshot of " + snapshot.size() + " item(s)");
+            System.out.println("Watching inventory changes. Press Enter to stop.");
+            scanner.nextLine();
+            server.unsubscribeInventory(managerId, listener);
+        } finally {
+            UnicastRemoteObject.unexportObject(listener, true);
+        }
+    }
+
+    // Prints change events pushed by the store while the manager watches
+    private static final class ConsoleInventoryListener extends UnicastRemoteObject implements InventoryListener {
+        private final transient ClientLogger logger;
+
+        private ConsoleInventoryListener(ClientLogger logger) throws RemoteException {
+            this.logger = logger;
+        }
+
+        @Override
+        public void onChanges(List<InventoryChange> changes) {
+            changes.forEach(System.out::println);
+            logger.info("Received " + changes.size() + " inventory change(s)");
+        }
+
+        @Override
+        public void onSubscriptionClosed(String reason) {
+            System.out.println("Subscription closed by the store: " + reason);
+            logger.info("Inventory subscription closed: " + reason);
+        }
     }
-}
\ No newline at end of file
+}
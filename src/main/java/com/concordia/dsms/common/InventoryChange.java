@@ -0,0 +1,58 @@
+package com.concordia.dsms.common;
+
+import java.io.Serializable;
+
+// Latest state of one item after one or more changes, coalesced since the previous delivery
+public class InventoryChange implements Serializable {
+    public enum Kind {
+        ADDED, QUANTITY_CHANGED, REMOVED
+    }
+
+    private final Kind kind;
+    private final String itemId;
+    private final String itemName;
+    private final int quantity;
+    private final double price;
+    private final int waitlistFulfilments;
+
+    public InventoryChange(Kind kind, String itemId, String itemName, int quantity, double price, int waitlistFulfilments) {
+        this.kind = kind;
+        this.itemId = itemId;
+        this.itemName = itemName;
+        this.quantity = quantity;
+        this.price = price;
+        this.waitlistFulfilments = waitlistFulfilments;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getItemId() {
+        return itemId;
+    }
+
+    public String getItemName() {
+        return itemName;
+    }
+
+    // Stock when the change was delivered, 0 for removed items
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public double getPrice() {
+        return price;
+    }
+
+    // Waitlisted customers served from this item since the previous delivery
+    public int getWaitlistFulfilments() {
+        return waitlistFulfilments;
+    }
+
+    @Override
+    public String toString() {
+        String line = String.format("%s %s (%s) qty=%d price=%.2f", kind, itemId, itemName, quantity, price);
+        return waitlistFulfilments == 0 ? line : line + " waitlist fulfilments=" + waitlistFulfilments;
+    }
+}
@@ -0,0 +1,14 @@
+package com.concordia.dsms.common;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.List;
+
+// Callback exported by a client that subscribed to a store's inventory changes
+public interface InventoryListener extends Remote {
+    // Called with at most one change per item; calls for one subscription never overlap
+    void onChanges(List<InventoryChange> changes) throws RemoteException;
+
+    // The store dropped the subscription, for example because the listener fell too far behind
+    void onSubscriptionClosed(String reason) throws RemoteException;
+}
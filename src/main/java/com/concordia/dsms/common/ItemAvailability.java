@@ -0,0 +1,39 @@
+package com.concordia.dsms.common;
+
+import java.io.Serializable;
+
+// One inventory line as returned by the paged listItemAvailability
+public class ItemAvailability implements Serializable {
+    private final String itemId;
+    private final String itemName;
+    private final int quantity;
+    private final double price;
+
+    public ItemAvailability(String itemId, String itemName, int quantity, double price) {
+        this.itemId = itemId;
+        this.itemName = itemName;
+        this.quantity = quantity;
+        this.price = price;
+    }
+
+    public String getItemId() {
+        return itemId;
+    }
+
+    public String getItemName() {
+        return itemName;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public double getPrice() {
+        return price;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Item ID: %s, Item Name: %s, Item Quantity: %d, Item Price: %.2f", itemId, itemName, quantity, price);
+    }
+}
@@ -0,0 +1,49 @@
+package com.concordia.dsms.common;
+
+import java.io.Serializable;
+
+// One entry of a bulk addItems/removeItems call
+public class ItemChange implements Serializable {
+    private final String itemId;
+    private final String itemName;
+    private final int quantity;
+    private final double price;
+
+    public ItemChange(String itemId, String itemName, int quantity, double price) {
+        this.itemId = itemId;
+        this.itemName = itemName;
+        this.quantity = quantity;
+        this.price = price;
+    }
+
+    // Removal entry; a quantity of zero or less removes the item entirely
+    public ItemChange(String itemId, int quantity) {
+        this(itemId, null, quantity, 0);
+    }
+
+    public String getItemId() {
+        return itemId;
+    }
+
+    public String getItemName() {
+        return itemName;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public double getPrice() {
+        return price;
+    }
+
+    @Override
+    public String toString() {
+        return "ItemChange{" +
+                "itemId='" + itemId + '\'' +
+                ", itemName='" + itemName + '\'' +
+                ", quantity=" + quantity +
+                ", price=" + price +
+                '}';
+    }
+}
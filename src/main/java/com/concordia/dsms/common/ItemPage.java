@@ -0,0 +1,28 @@
+package com.concordia.dsms.common;
+
+import java.io.Serializable;
+import java.util.List;
+
+// A page of inventory sorted by item ID, with the cursor to pass for the next page
+public class ItemPage implements Serializable {
+    private final List<ItemAvailability> items;
+    private final String nextCursor;
+
+    public ItemPage(List<ItemAvailability> items, String nextCursor) {
+        this.items = List.copyOf(items);
+        this.nextCursor = nextCursor;
+    }
+
+    public List<ItemAvailability> getItems() {
+        return items;
+    }
+
+    // Null once the last page has been returned
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+}
@@ -4,11 +4,22 @@ import java.io.Serializable;
 
 public class PurchaseResult implements Serializable{
     private final boolean success;
+    // The item is set aside but the customer's home store has not confirmed the charge yet;
+    // the purchase completes or is cancelled once it answers
+    private final boolean pending;
     private final String message;
     private final double priceCharged;
 
     public PurchaseResult(boolean success, String message, double priceCharged) {
+        this(success, false, message, priceCharged);
+    }
+
+    public PurchaseResult(boolean success, boolean pending, String message, double priceCharged) {
+        if (success && pending) {
+            throw new IllegalArgumentException("A purchase cannot be both successful and pending.");
+        }
         this.success = success;
+        this.pending = pending;
         this.message = message;
         this.priceCharged = priceCharged;
     }
@@ -17,10 +28,15 @@ public class PurchaseResult implements Serializable{
         return success;
     }
 
+    public boolean isPending() {
+        return pending;
+    }
+
     public String getMessage() {
         return message;
     }
 
+    // For a pending purchase, the price the customer is charged if the home store confirms it
     public double getPriceCharged() {
         return priceCharged;
     }
@@ -29,6 +45,7 @@ public class PurchaseResult implements Serializable{
     public String toString() {
         return "PurchaseResult{" +
                 "success=" + success +
+                ", pending=" + pending +
                 ", message='" + message + '\'' +
                 ", priceCharged=" + priceCharged +
                 '}';
@@ -1,17 +1,36 @@
 package com.concordia.dsms.common;
 
+import java.net.InetSocketAddress;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 
 public interface StoreServer extends Remote {
     String addItem(String managerId, String itemId, String itemName, int quantity, double price) throws RemoteException;
 
     String removeItem(String managerId, String itemId, int quantity) throws RemoteException;
 
+    // Applies every change in one call and returns one result message per entry, in order
+    List<String> addItems(String managerId, List<ItemChange> items) throws RemoteException;
+
+    List<String> removeItems(String managerId, List<ItemChange> items) throws RemoteException;
+
     String listItemAvailability(String managerId) throws RemoteException;
 
+    // Returns up to pageSize items with IDs after the cursor (null for the first page), sorted by item ID
+    ItemPage listItemAvailability(String managerId, String cursor, int pageSize) throws RemoteException;
+
+    // Registers a listener for coalesced change events and returns the inventory as of the subscription, sorted by item ID
+    List<ItemAvailability> subscribeInventory(String managerId, InventoryListener listener) throws RemoteException;
+
+    void unsubscribeInventory(String managerId, InventoryListener listener) throws RemoteException;
+
+    // Pending when another store sold the item but the customer's home store has not confirmed the charge in time
     PurchaseResult purchaseItem(String customerId, String itemId, String dateOfPurchase) throws RemoteException;
 
+    // Buys every item in the cart or none of them, with one reservation round per store involved; never pending
+    PurchaseResult checkoutCart(String customerId, List<String> itemIds, String dateOfPurchase) throws RemoteException;
+
     String findItem(String customerId, String itemName) throws RemoteException;
 
     String returnItem(String customerId, String itemId, String dateOfReturn) throws RemoteException;
@@ -21,4 +40,18 @@ public interface StoreServer extends Remote {
     String requestRemoteItemLookup(String itemName) throws RemoteException;
 
     boolean requestRemoteReturn(String customerId, String itemId, String dateOfReturn) throws RemoteException;
+
+    // Takes over an item with its stock and waitlist from another shard of the same store while shards rebalance.
+    // A hand-over repeated with the same move ID, because its answer was lost, is accepted without applying it again.
+    void acceptShardItem(String moveId, ItemAvailability item, List<String> waitlist) throws RemoteException;
+
+    // Applies journal records shipped by the primary a standby follows; returns the record number expected
+    // next, or -1 if the standby needs a snapshot first. An empty batch is the primary's heartbeat.
+    long applyReplicatedRecords(long epoch, long firstSequence, byte[] frames) throws RemoteException;
+
+    // Replaces a standby's state with a snapshot of its primary covering the records up to sequence
+    void installReplicaSnapshot(long epoch, long sequence, byte[] snapshot) throws RemoteException;
+
+    // UDP endpoint other stores use for inter-server purchase, lookup and return requests
+    InetSocketAddress getInterServerAddress() throws RemoteException;
 }
@@ -0,0 +1,35 @@
+package com.concordia.dsms.server;
+
+// Reply of a store asked to reserve its share of a cart: the unit prices, or why it refused
+final class CartQuote {
+    private final boolean reserved;
+    private final String message;
+    private final double[] prices;
+
+    private CartQuote(boolean reserved, String message, double[] prices) {
+        this.reserved = reserved;
+        this.message = message;
+        this.prices = prices;
+    }
+
+    static CartQuote reserved(double[] prices) {
+        return new CartQuote(true, "Reserved " + prices.length + " item(s)", prices);
+    }
+
+    static CartQuote rejected(String message) {
+        return new CartQuote(false, message, new double[0]);
+    }
+
+    boolean isReserved() {
+        return reserved;
+    }
+
+    String getMessage() {
+        return message;
+    }
+
+    // Unit prices in the order the item IDs were sent
+    double[] getPrices() {
+        return prices;
+    }
+}
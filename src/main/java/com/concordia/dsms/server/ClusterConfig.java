@@ -0,0 +1,155 @@
+package com.concordia.dsms.server;
+
+import com.concordia.dsms.common.ItemChange;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.rmi.registry.Registry;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Stores of the cluster, the inventory each one starts with the first time it runs, and
+ * where the RMI registries are. Read from a properties file:
+ * <pre>
+ * stores=QC,ON,BC
+ * store.QC.items=QC1001:Laptop:5:900,QC1002:Headphones:10:150
+ * store.QC.shards=3
+ * registry.port=1099
+ * registry.peers=host-b:1099,host-c:1099
+ * </pre>
+ * A store with more than one shard runs as the nodes QC, QC1, QC2 and so on; it has one shard
+ * by default. Registry settings missing from the file come from {@code -Ddsms.registry.port}
+ * and {@code -Ddsms.registry.peers}.
+ */
+final class ClusterConfig {
+    private final List<String> storeCodes;
+    // Initial inventory by store code
+    private final Map<String, List<ItemChange>> initialItems;
+    // Registry names of every shard of every store, primaries first within each store
+    private final List<String> nodeNames;
+    private final int registryPort;
+    private final List<InetSocketAddress> registryPeers;
+
+    private ClusterConfig(List<String> storeCodes, Map<String, List<ItemChange>> initialItems, List<String> nodeNames,
+                          int registryPort, List<InetSocketAddress> registryPeers) {
+        this.storeCodes = storeCodes;
+        this.initialItems = initialItems;
+        this.nodeNames = nodeNames;
+        this.registryPort = registryPort;
+        this.registryPeers = registryPeers;
+    }
+
+    static ClusterConfig load(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file)) {
+            properties.load(reader);
+        }
+        return from(properties);
+    }
+
+    // The three provinces with their sample inventory, used when no configuration file is given
+    static ClusterConfig defaults() {
+        Properties properties = new Properties();
+        properties.setProperty("stores", "QC,ON,BC");
+        properties.setProperty("store.QC.items", "QC1001:Laptop:5:900,QC1002:Headphones:10:150");
+        properties.setProperty("store.ON.items", "ON2001:Camera:4:550,ON2002:Coffee Maker:6:120");
+        properties.setProperty("store.BC.items", "BC3001:Bicycle:3:400,BC3002:Backpack:8:80");
+        return from(properties);
+    }
+
+    static ClusterConfig from(Properties properties) {
+        List<String> storeCodes = new ArrayList<>();
+        Map<String, List<ItemChange>> initialItems = new LinkedHashMap<>();
+        List<String> nodeNames = new ArrayList<>();
+        for (String entry : properties.getProperty("stores", "").split(",")) {
+            String storeCode = entry.trim();
+            if (storeCode.isEmpty()) {
+                continue;
+            }
+            if (!StoreServerRegistry.STORE_CODE.matcher(storeCode).matches()) {
+                throw new IllegalArgumentException("Store code '" + storeCode + "' must be two upper-case letters.");
+            }
+            if (initialItems.containsKey(storeCode)) {
+                throw new IllegalArgumentException("Store " + storeCode + " is listed twice.");
+            }
+            storeCodes.add(storeCode);
+            initialItems.put(storeCode, parseItems(storeCode, properties.getProperty("store." + storeCode + ".items", "")));
+            int shards = parseShards(storeCode, properties.getProperty("store." + storeCode + ".shards", "1"));
+            for (int shard = 0; shard < shards; shard++) {
+                nodeNames.add(StoreServerRegistry.shardName(storeCode, shard));
+            }
+        }
+        if (storeCodes.isEmpty()) {
+            throw new IllegalArgumentException("The cluster configuration lists no stores.");
+        }
+        int registryPort;
+        try {
+            registryPort = Integer.parseInt(properties.getProperty("registry.port",
+                    System.getProperty("dsms.registry.port", String.valueOf(Registry.REGISTRY_PORT))).trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("registry.port must be a number.", e);
+        }
+        return new ClusterConfig(List.copyOf(storeCodes), initialItems, List.copyOf(nodeNames), registryPort,
+                StoreServerRegistry.parseRegistries(properties.getProperty("registry.peers",
+                        System.getProperty("dsms.registry.peers", ""))));
+    }
+
+    private static int parseShards(String storeCode, String value) {
+        try {
+            int shards = Integer.parseInt(value.trim());
+            if (shards >= 1) {
+                return shards;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("store." + storeCode + ".shards must be a number of at least 1.");
+    }
+
+    private static List<ItemChange> parseItems(String storeCode, String value) {
+        List<ItemChange> items = new ArrayList<>();
+        for (String entry : value.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            String[] fields = entry.trim().split(":");
+            if (fields.length != 4 || !fields[0].startsWith(storeCode)) {
+                throw new IllegalArgumentException("Item '" + entry.trim() + "' of store " + storeCode
+                        + " must be <itemId>:<name>:<quantity>:<price> with an item ID starting with " + storeCode + ".");
+            }
+            try {
+                items.add(new ItemChange(fields[0], fields[1], Integer.parseInt(fields[2]), Double.parseDouble(fields[3])));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Item '" + entry.trim() + "' has an invalid quantity or price.", e);
+            }
+        }
+        return List.copyOf(items);
+    }
+
+    List<String> getStoreCodes() {
+        return storeCodes;
+    }
+
+    List<ItemChange> getInitialItems(String storeCode) {
+        return initialItems.getOrDefault(storeCode, List.of());
+    }
+
+    List<String> getNodeNames() {
+        return nodeNames;
+    }
+
+    int getRegistryPort() {
+        return registryPort;
+    }
+
+    List<InetSocketAddress> getRegistryPeers() {
+        return registryPeers;
+    }
+}
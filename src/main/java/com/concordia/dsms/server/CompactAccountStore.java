@@ -0,0 +1,673 @@
+package com.concordia.dsms.server;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Budgets, per-store purchase counts and purchase histories of a store's customers, kept in
+ * primitive arrays rather than one object graph per customer. Store codes and item IDs are
+ * dictionary-encoded to small integers. A customer's purchases are a packed ledger of two
+ * longs per record, holding the item, store, epoch day and price in cents, sorted by item and
+ * then by date, so the oldest returnable purchase of an item is found by binary search.
+ * Records older than the expiry cutoff can no longer be returned and are dropped; budgets and
+ * per-store counts are kept. Customers are spread over segments by the hash of their ID, and
+ * each segment has one lock guarding its arrays. Callers that must journal a change
+ * atomically with it hold the customer's lock across both.
+ */
+final class CompactAccountStore {
+    static final long DEFAULT_BUDGET_CENTS = 100_000;
+    // A purchase can be returned up to this many days after it was made
+    static final int RETURN_WINDOW_DAYS = 30;
+    private static final int SEGMENTS = 256;
+    private static final int INITIAL_SEGMENT_CAPACITY = 16;
+    // Store codes are two letters, so 10 bits hold them; the remaining 22 bits of a count entry hold the count
+    private static final int STORE_BITS = 10;
+    private static final int COUNT_BITS = 32 - STORE_BITS;
+    private static final int COUNT_MASK = (1 << COUNT_BITS) - 1;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final Dictionary stores = new Dictionary(1 << STORE_BITS);
+    private final Dictionary items = new Dictionary(Integer.MAX_VALUE);
+    // Epoch day before which records are dropped; only moves forward
+    private volatile long expiredBefore = Long.MIN_VALUE;
+
+    CompactAccountStore() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    // Held by CustomerAccountManager across an account change and its journal record
+    void lock(String customerId) {
+        segment(customerId).lock.lock();
+    }
+
+    void unlock(String customerId) {
+        segment(customerId).lock.unlock();
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                size += segment.size;
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    double getRemainingBudget(String customerId) {
+        Segment segment = segment(customerId);
+        segment.lock.lock();
+        try {
+            int slot = segment.find(customerId);
+            return toAmount(slot < 0 ? DEFAULT_BUDGET_CENTS : segment.budgets[slot]);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    boolean attemptPurchase(String customerId, String storeCode, String itemId, double price, LocalDate date) {
+        Segment segment = segment(customerId);
+        segment.lock.lock();
+        try {
+            if (!hold(customerId, storeCode, price)) {
+                return false;
+            }
+            confirmHold(customerId, new PurchaseRecord(itemId, storeCode, date, price));
+            return true;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    // Takes the budget and the remote-store slot for a purchase that is not confirmed yet
+    boolean hold(String customerId, String storeCode, double price) {
+        Segment segment = segment(customerId);
+        segment.lock.lock();
+        try {
+            int slot = segment.findOrAdd(customerId);
+            int store = stores.encode(storeCode);
+            long cents = toCents(price);
+            if (!storeCode.equals(homeStore(customerId)) && segment.storeCount(slot, store) >= 1) {
+                return false;
+            }
+            if (segment.budgets[slot] < cents) {
+                return false;
+            }
+            segment.addStoreCount(slot, store, 1);
+            segment.budgets[slot] -= cents;
+            return true;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    // Records the purchase whose budget was taken by hold
+    void confirmHold(String customerId, PurchaseRecord record) {
+        Segment segment = segment(customerId);
+        segment.lock.lock();
+        try {
+            insert(segment, segment.findOrAdd(customerId), record, false);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    void releaseHold(String customerId, String storeCode, double price) {
+        Segment segment = segment(customerId);
+        segment.lock.lock();
+        try {
+            int slot = segment.findOrAdd(customerId);
+            segment.addStoreCount(slot, stores.encode(storeCode), -1);
+            segment.budgets[slot] += toCents(price);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    // Accepts every purchase of a cart or none of them; the remote-store limit counts the cart's own items too
+    boolean attemptCart(String customerId, List<PurchaseRecord> records) {
+        Segment segment = segment(customerId);
+        segment.lock.lock();
+        try {
+            int slot = segment.findOrAdd(customerId);
+            Map<String, Integer> cartPerStore = new HashMap<>();
+            long total = 0;
+            for (PurchaseRecord record : records) {
+                String storeCode = record.storeCode();
+                int count = cartPerStore.merge(storeCode, 1, Integer::sum);
+                if (!storeCode.equals(homeStore(customerId))
+                        && segment.storeCount(slot, stores.encode(storeCode)) + count > 1) {
+                    return false;
+                }
+                total += toCents(record.price());
+            }
+            if (segment.budgets[slot] < total) {
+                return false;
+            }
+            records.forEach(record -> recordPurchase(customerId, record));
+            return true;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    // Applies a purchase without policy checks, used once a purchase has been accepted or when replaying the journal
+    void recordPurchase(String customerId, PurchaseRecord record) {
+        Segment segment = segment(customerId);
+        segment.lock.lock();
+        try {
+            int slot = segment.findOrAdd(customerId);
+            segment.addStoreCount(slot, stores.encode(record.storeCode()), 1);
+            segment.budgets[slot] -= toCents(record.price());
+            insert(segment, slot, record, false);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    boolean hasPurchaseRecord(String customerId, String itemId) {
+        Segment segment = segment(customerId);
+        segment.lock.lock();
+        try {
+            int slot = segment.find(customerId);
+            int item = items.find(itemId);
+            return slot >= 0 && item >= 0 && segment.firstOf(slot, item, Long.MIN_VALUE) >= 0;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    // Removes the customer's oldest purchase of the item that can still be returned on the date and gives back its budget; null if there is none
+    PurchaseRecord consumeReturnable(String customerId, String itemId, LocalDate returnDate) {
+        return consume(customerId, itemId, returnDate.toEpochDay() - RETURN_WINDOW_DAYS);
+    }
+
+    // Removes the customer's oldest purchase of the item regardless of its date; replays journals written before records carried their date
+    PurchaseRecord consumePurchaseRecord(String customerId, String itemId) {
+        return consume(customerId, itemId, Long.MIN_VALUE);
+    }
+
+    private PurchaseRecord consume(String customerId, String itemId, long fromDay) {
+        Segment segment = segment(customerId);
+        segment.lock.lock();
+        try {
+            int slot = segment.find(customerId);
+            int item = items.find(itemId);
+            int index = slot < 0 || item < 0 ? -1 : segment.firstOf(slot, item, Math.max(fromDay, expiredBefore));
+            if (index < 0) {
+                return null;
+            }
+            long[] log = segment.histories[slot];
+            PurchaseRecord record = decode(log[index], log[index + 1]);
+            segment.remove(slot, index);
+            segment.addStoreCount(slot, stores.encode(record.storeCode()), -1);
+            segment.budgets[slot] += toCents(record.price());
+            return record;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    // Replays a consumed record; the money comes back even if the record already expired, as it did when it was consumed
+    void applyConsumed(String customerId, PurchaseRecord record) {
+        Segment segment = segment(customerId);
+        segment.lock.lock();
+        try {
+            int slot = segment.findOrAdd(customerId);
+            long[] encoded = encode(record);
+            int index = segment.firstOf(slot, itemOf(encoded[0]), dayOf(encoded[0]));
+            long[] log = segment.histories[slot];
+            for (; index >= 0 && index < segment.historyLengths[slot] && log[index] == encoded[0]; index += 2) {
+                if (log[index + 1] == encoded[1]) {
+                    segment.remove(slot, index);
+                    break;
+                }
+            }
+            segment.addStoreCount(slot, stores.encode(record.storeCode()), -1);
+            segment.budgets[slot] += toCents(record.price());
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    // Re-applies a purchase record ahead of the customer's other purchases of the item on that date, and deducts the money again
+    void restorePurchaseRecord(String customerId, PurchaseRecord record) {
+        Segment segment = segment(customerId);
+        segment.lock.lock();
+        try {
+            int slot = segment.findOrAdd(customerId);
+            segment.addStoreCount(slot, stores.encode(record.storeCode()), 1);
+            insert(segment, slot, record, true);
+            segment.budgets[slot] -= toCents(record.price());
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    long getExpiredBefore() {
+        return expiredBefore;
+    }
+
+    // Moves the expiry cutoff forward to the epoch day; false if it already was there or later
+    synchronized boolean expireBefore(long day) {
+        if (day <= expiredBefore) {
+            return false;
+        }
+        expiredBefore = day;
+        return true;
+    }
+
+    // Drops the records dated before the expiry cutoff; returns how many were dropped
+    int sweepExpired() {
+        int dropped = 0;
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                dropped += segment.dropBefore(expiredBefore);
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return dropped;
+    }
+
+    void refund(String customerId, double price) {
+        Segment segment = segment(customerId);
+        segment.lock.lock();
+        try {
+            segment.budgets[segment.findOrAdd(customerId)] += toCents(price);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    // How many purchases a customer has from a store
+    int getPurchaseCount(String customerId, String storeCode) {
+        Segment segment = segment(customerId);
+        segment.lock.lock();
+        try {
+            int slot = segment.find(customerId);
+            int store = stores.find(storeCode);
+            return slot < 0 || store < 0 ? 0 : segment.storeCount(slot, store);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    // Same layout as the per-account snapshot records written before this store existed
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(size());
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                for (int slot = 0; slot < segment.size; slot++) {
+                    writeAccount(out, segment, slot);
+                }
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+    }
+
+    private void writeAccount(DataOutput out, Segment segment, int slot) throws IOException {
+        out.writeUTF(segment.customerIds[slot]);
+        out.writeDouble(toAmount(segment.budgets[slot]));
+        int[] counts = segment.storeCounts[slot];
+        int storeCount = counts == null ? 0 : counts.length;
+        out.writeInt(storeCount);
+        for (int i = 0; i < storeCount; i++) {
+            out.writeUTF(stores.decode(counts[i] >>> COUNT_BITS));
+            out.writeInt(counts[i] & COUNT_MASK);
+        }
+        // Records grouped by item, oldest first within each item
+        long[] log = segment.histories[slot];
+        int length = segment.historyLengths[slot];
+        Map<Integer, Integer> perItem = new HashMap<>();
+        for (int i = 0; i < length; i += 2) {
+            perItem.merge(itemOf(log[i]), 1, Integer::sum);
+        }
+        out.writeInt(perItem.size());
+        for (Map.Entry<Integer, Integer> entry : perItem.entrySet()) {
+            out.writeUTF(items.decode(entry.getKey()));
+            out.writeInt(entry.getValue());
+            for (int i = 0; i < length; i += 2) {
+                if (itemOf(log[i]) == entry.getKey()) {
+                    PurchaseRecord record = decode(log[i], log[i + 1]);
+                    out.writeUTF(record.storeCode());
+                    out.writeLong(record.purchaseDate().toEpochDay());
+                    out.writeDouble(record.price());
+                }
+            }
+        }
+    }
+
+    static CompactAccountStore readFrom(DataInput in) throws IOException {
+        CompactAccountStore store = new CompactAccountStore();
+        int accountCount = in.readInt();
+        for (int i = 0; i < accountCount; i++) {
+            String customerId = in.readUTF();
+            Segment segment = store.segment(customerId);
+            int slot = segment.findOrAdd(customerId);
+            segment.budgets[slot] = toCents(in.readDouble());
+            int storeCount = in.readInt();
+            for (int j = 0; j < storeCount; j++) {
+                segment.addStoreCount(slot, store.stores.encode(in.readUTF()), in.readInt());
+            }
+            int itemCount = in.readInt();
+            for (int j = 0; j < itemCount; j++) {
+                String itemId = in.readUTF();
+                int recordCount = in.readInt();
+                for (int k = 0; k < recordCount; k++) {
+                    String storeCode = in.readUTF();
+                    LocalDate purchaseDate = LocalDate.ofEpochDay(in.readLong());
+                    store.insert(segment, slot, new PurchaseRecord(itemId, storeCode, purchaseDate, in.readDouble()), false);
+                }
+            }
+        }
+        return store;
+    }
+
+    private Segment segment(String customerId) {
+        return segments[spread(customerId.hashCode()) >>> 24];
+    }
+
+    // Records dated before the expiry cutoff are only counted in the budget and store counts
+    private void insert(Segment segment, int slot, PurchaseRecord record, boolean beforeSameDay) {
+        if (record.purchaseDate().toEpochDay() >= expiredBefore) {
+            segment.insert(slot, encode(record), beforeSameDay);
+        }
+    }
+
+    // Word 0: item code and epoch day, ordered by item and then by day; word 1: store code and price in cents
+    private long[] encode(PurchaseRecord record) {
+        long storeAndPrice = ((long) stores.encode(record.storeCode()) << 48) | (toCents(record.price()) & 0xFFFFFFFFFFFFL);
+        return new long[]{key(items.encode(record.itemId()), record.purchaseDate().toEpochDay()), storeAndPrice};
+    }
+
+    private PurchaseRecord decode(long itemAndDay, long storeAndPrice) {
+        return new PurchaseRecord(items.decode(itemOf(itemAndDay)), stores.decode((int) (storeAndPrice >>> 48)),
+                LocalDate.ofEpochDay(dayOf(itemAndDay)), toAmount(storeAndPrice & 0xFFFFFFFFFFFFL));
+    }
+
+    // Flipping the sign bit of the day makes the unsigned low word sort like the signed day
+    private static long key(int item, long day) {
+        return ((long) item << 32) | ((Math.toIntExact(day) ^ Integer.MIN_VALUE) & 0xFFFFFFFFL);
+    }
+
+    private static int itemOf(long itemAndDay) {
+        return (int) (itemAndDay >>> 32);
+    }
+
+    private static int dayOf(long itemAndDay) {
+        return (int) itemAndDay ^ Integer.MIN_VALUE;
+    }
+
+    private static String homeStore(String customerId) {
+        return customerId.substring(0, 2);
+    }
+
+    private static long toCents(double amount) {
+        return Math.round(amount * 100);
+    }
+
+    private static double toAmount(long cents) {
+        return cents / 100.0;
+    }
+
+    private static int spread(int hash) {
+        return hash * 0x9E3779B9;
+    }
+
+    /**
+     * Customers of one segment. Dense arrays indexed by slot hold each customer's fields, and
+     * an open-addressing table maps customer IDs to slots.
+     */
+    private static final class Segment {
+        private final ReentrantLock lock = new ReentrantLock();
+        private String[] customerIds = new String[INITIAL_SEGMENT_CAPACITY];
+        private long[] budgets = new long[INITIAL_SEGMENT_CAPACITY];
+        // Per customer, entries of (store code << COUNT_BITS | count); null until the first purchase
+        private int[][] storeCounts = new int[INITIAL_SEGMENT_CAPACITY][];
+        // Per customer, two longs per purchase, sorted by item and then by day
+        private long[][] histories = new long[INITIAL_SEGMENT_CAPACITY][];
+        private int[] historyLengths = new int[INITIAL_SEGMENT_CAPACITY];
+        // Slot + 1 of the customer at each position, 0 for an empty position; kept at most half full
+        private int[] table = new int[INITIAL_SEGMENT_CAPACITY * 2];
+        private int size;
+
+        private int find(String customerId) {
+            int mask = table.length - 1;
+            for (int position = spread(customerId.hashCode()) & mask; ; position = (position + 1) & mask) {
+                int entry = table[position];
+                if (entry == 0) {
+                    return -1;
+                }
+                if (customerIds[entry - 1].equals(customerId)) {
+                    return entry - 1;
+                }
+            }
+        }
+
+        private int findOrAdd(String customerId) {
+            int slot = find(customerId);
+            if (slot >= 0) {
+                return slot;
+            }
+            if (size == customerIds.length) {
+                grow();
+            }
+            slot = size++;
+            customerIds[slot] = customerId;
+            budgets[slot] = DEFAULT_BUDGET_CENTS;
+            insert(table, customerId, slot);
+            return slot;
+        }
+
+        private void grow() {
+            int capacity = customerIds.length * 2;
+            customerIds = Arrays.copyOf(customerIds, capacity);
+            budgets = Arrays.copyOf(budgets, capacity);
+            storeCounts = Arrays.copyOf(storeCounts, capacity);
+            histories = Arrays.copyOf(histories, capacity);
+            historyLengths = Arrays.copyOf(historyLengths, capacity);
+            int[] grown = new int[capacity * 2];
+            for (int slot = 0; slot < size; slot++) {
+                insert(grown, customerIds[slot], slot);
+            }
+            table = grown;
+        }
+
+        private static void insert(int[] table, String customerId, int slot) {
+            int mask = table.length - 1;
+            int position = spread(customerId.hashCode()) & mask;
+            while (table[position] != 0) {
+                position = (position + 1) & mask;
+            }
+            table[position] = slot + 1;
+        }
+
+        private int storeCount(int slot, int store) {
+            int[] counts = storeCounts[slot];
+            if (counts != null) {
+                for (int entry : counts) {
+                    if (entry >>> COUNT_BITS == store) {
+                        return entry & COUNT_MASK;
+                    }
+                }
+            }
+            return 0;
+        }
+
+        // Entries whose count drops to zero are removed
+        private void addStoreCount(int slot, int store, int delta) {
+            int[] counts = storeCounts[slot];
+            int length = counts == null ? 0 : counts.length;
+            for (int i = 0; i < length; i++) {
+                if (counts[i] >>> COUNT_BITS == store) {
+                    int count = (counts[i] & COUNT_MASK) + delta;
+                    if (count > 0) {
+                        counts[i] = store << COUNT_BITS | Math.min(count, COUNT_MASK);
+                    } else if (length == 1) {
+                        storeCounts[slot] = null;
+                    } else {
+                        counts[i] = counts[length - 1];
+                        storeCounts[slot] = Arrays.copyOf(counts, length - 1);
+                    }
+                    return;
+                }
+            }
+            if (delta > 0) {
+                int[] grown = counts == null ? new int[1] : Arrays.copyOf(counts, length + 1);
+                grown[length] = store << COUNT_BITS | Math.min(delta, COUNT_MASK);
+                storeCounts[slot] = grown;
+            }
+        }
+
+        // Index of the first word of the customer's oldest record of the item dated on or after the day, or -1
+        private int firstOf(int slot, int item, long fromDay) {
+            long[] log = histories[slot];
+            int length = historyLengths[slot];
+            int index = search(log, length, fromDay <= Integer.MIN_VALUE ? (long) item << 32 : key(item, fromDay), false);
+            return index < length && itemOf(log[index]) == item ? index : -1;
+        }
+
+        // Same-day records of an item keep their recording order; a restored record goes before them
+        private void insert(int slot, long[] record, boolean beforeSameDay) {
+            long[] log = ensureRoom(slot);
+            int length = historyLengths[slot];
+            int index = search(log, length, record[0], !beforeSameDay);
+            System.arraycopy(log, index, log, index + 2, length - index);
+            log[index] = record[0];
+            log[index + 1] = record[1];
+            historyLengths[slot] = length + 2;
+        }
+
+        private void remove(int slot, int index) {
+            long[] log = histories[slot];
+            int length = historyLengths[slot];
+            System.arraycopy(log, index + 2, log, index, length - index - 2);
+            historyLengths[slot] = length - 2;
+            shrink(slot);
+        }
+
+        private int dropBefore(long day) {
+            int dropped = 0;
+            for (int slot = 0; slot < size; slot++) {
+                long[] log = histories[slot];
+                int length = historyLengths[slot];
+                int kept = 0;
+                for (int i = 0; i < length; i += 2) {
+                    if (dayOf(log[i]) >= day) {
+                        log[kept] = log[i];
+                        log[kept + 1] = log[i + 1];
+                        kept += 2;
+                    }
+                }
+                if (kept < length) {
+                    dropped += (length - kept) / 2;
+                    historyLengths[slot] = kept;
+                    shrink(slot);
+                }
+            }
+            return dropped;
+        }
+
+        // Gives memory back once a ledger is down to a quarter of its capacity
+        private void shrink(int slot) {
+            long[] log = histories[slot];
+            int length = historyLengths[slot];
+            if (length == 0) {
+                histories[slot] = null;
+            } else if (length * 4 <= log.length && log.length > 4) {
+                histories[slot] = Arrays.copyOf(log, log.length / 2);
+            }
+        }
+
+        // First record index whose key is at least the key, or after it when past is set
+        private static int search(long[] log, int length, long key, boolean past) {
+            int low = 0;
+            int high = length / 2;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                long probe = log[middle * 2];
+                if (probe < key || (past && probe == key)) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low * 2;
+        }
+
+        private long[] ensureRoom(int slot) {
+            long[] log = histories[slot];
+            int length = historyLengths[slot];
+            if (log == null) {
+                log = new long[2];
+                histories[slot] = log;
+            } else if (length + 2 > log.length) {
+                log = Arrays.copyOf(log, log.length * 2);
+                histories[slot] = log;
+            }
+            return log;
+        }
+    }
+
+    // Assigns each distinct string a small integer code, shared by all segments
+    private static final class Dictionary {
+        private final int limit;
+        private final Map<String, Integer> codes = new ConcurrentHashMap<>();
+        private volatile String[] values = new String[16];
+        private int size;
+
+        private Dictionary(int limit) {
+            this.limit = limit;
+        }
+
+        private int find(String value) {
+            Integer code = codes.get(value);
+            return code == null ? -1 : code;
+        }
+
+        private int encode(String value) {
+            Integer code = codes.get(value);
+            return code != null ? code : add(value);
+        }
+
+        private synchronized int add(String value) {
+            Integer existing = codes.get(value);
+            if (existing != null) {
+                return existing;
+            }
+            if (size == limit) {
+                throw new IllegalStateException("More than " + limit + " distinct values to encode");
+            }
+            String[] current = values;
+            if (size == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            current[size] = value;
+            // Publish the array before the code, so a thread that sees the code can decode it
+            values = current;
+            codes.put(value, size);
+            return size++;
+        }
+
+        private String decode(int code) {
+            return values[code];
+        }
+    }
+}
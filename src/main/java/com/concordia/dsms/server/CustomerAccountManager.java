@@ -1,43 +1,243 @@
 package com.concordia.dsms.server;
 
+import java.time.Duration;
 import java.time.LocalDate;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Accounts of the customers whose home store is this store. Other stores never read or
+ * change these accounts directly: a store selling to a remote customer first places a
+ * budget hold here, then confirms or releases it. Holds that are neither confirmed nor
+ * released within the hold timeout are released automatically. A confirmed hold is remembered
+ * for a while, so a store that did not hear the answer can ask again and is told the hold was
+ * confirmed rather than gone. The accounts themselves are kept in a {@link CompactAccountStore}.
+ */
 class CustomerAccountManager {
-    // In-memory database of all customers in the system
-    private static final Map<String, CustomerAccount> ACCOUNTS = new ConcurrentHashMap<>();
+    static final Duration DEFAULT_HOLD_TIMEOUT = Duration.ofSeconds(30);
+    // How long a confirmed hold is remembered, in hold timeouts
+    private static final int CONFIRMED_HOLD_RETENTION = 10;
 
-    private CustomerAccountManager() {
+    private final String storeCode;
+    private final StoreJournal journal;
+    private final Duration holdTimeout;
+    // Replaced once by restore, before the store is bound
+    private volatile CompactAccountStore accounts = new CompactAccountStore();
+    // Budget reserved for purchases at other stores, by hold ID, and holds confirmed recently
+    private final Map<String, BudgetHold> holds = new ConcurrentHashMap<>();
+
+    CustomerAccountManager(String storeCode, StoreJournal journal) {
+        this(storeCode, journal, DEFAULT_HOLD_TIMEOUT);
+    }
+
+    CustomerAccountManager(String storeCode, StoreJournal journal, Duration holdTimeout) {
+        this.storeCode = Objects.requireNonNull(storeCode, "storeCode");
+        this.journal = Objects.requireNonNull(journal, "journal");
+        this.holdTimeout = Objects.requireNonNull(holdTimeout, "holdTimeout");
+    }
+
+    // Installs accounts recovered from the store journal
+    void restore(CompactAccountStore recovered) {
+        accounts = Objects.requireNonNull(recovered, "recovered");
+    }
+
+    int getAccountCount() {
+        return accounts.size();
+    }
+
+    double getRemainingBudget(String customerId) {
+        return accounts.getRemainingBudget(requireCustomer(customerId));
+    }
+
+    boolean attemptPurchase(String customerId, String itemStore, String itemId, double price, LocalDate date) {
+        CompactAccountStore store = accounts;
+        store.lock(requireCustomer(customerId));
+        try {
+            if (!store.attemptPurchase(customerId, itemStore, itemId, price, date)) {
+                return false;
+            }
+            journal.purchaseRecorded(customerId, new PurchaseRecord(itemId, itemStore, date, price));
+            return true;
+        } finally {
+            store.unlock(customerId);
+        }
+    }
+
+    boolean attemptCart(String customerId, List<PurchaseRecord> records) {
+        CompactAccountStore store = accounts;
+        store.lock(requireCustomer(customerId));
+        try {
+            if (!store.attemptCart(customerId, records)) {
+                return false;
+            }
+            for (PurchaseRecord record : records) {
+                journal.purchaseRecorded(customerId, record);
+            }
+            return true;
+        } finally {
+            store.unlock(customerId);
+        }
     }
 
-    static CustomerAccount getAccount(String customerId) {
-        return ACCOUNTS.computeIfAbsent(customerId, CustomerAccount::new);
+    // Takes back purchases of a cart that a store could no longer deliver, and refunds them
+    void cancelPurchases(String customerId, List<PurchaseRecord> records) {
+        CompactAccountStore store = accounts;
+        store.lock(requireCustomer(customerId));
+        try {
+            for (PurchaseRecord record : records) {
+                store.applyConsumed(customerId, record);
+                journal.purchaseConsumed(customerId, record);
+            }
+        } finally {
+            store.unlock(customerId);
+        }
+    }
+
+    // Reserves budget for a purchase at another store; returns the hold ID, or null if budget or policy refuse it
+    String placeHold(String customerId, String itemStore, String itemId, double price, LocalDate date) {
+        if (!accounts.hold(requireCustomer(customerId), itemStore, price)) {
+            return null;
+        }
+        String holdId = storeCode + "-" + UUID.randomUUID();
+        holds.put(holdId, new BudgetHold(customerId, new PurchaseRecord(itemId, itemStore, date, price), false));
+        CompletableFuture.delayedExecutor(holdTimeout.toMillis(), TimeUnit.MILLISECONDS).execute(() -> releaseHold(holdId));
+        return holdId;
+    }
+
+    /**
+     * Turns a hold into a purchase; false if it was released or expired. Confirming a hold that
+     * is already confirmed returns true again without charging twice.
+     */
+    boolean confirmHold(String holdId) {
+        BudgetHold hold = holds.get(holdId);
+        if (hold == null) {
+            return false;
+        }
+        if (hold.confirmed) {
+            return true;
+        }
+        BudgetHold confirmed = new BudgetHold(hold.customerId, hold.purchase, true);
+        if (!holds.replace(holdId, hold, confirmed)) {
+            // Released, or confirmed by a concurrent retry
+            BudgetHold current = holds.get(holdId);
+            return current != null && current.confirmed;
+        }
+        CompactAccountStore store = accounts;
+        store.lock(hold.customerId);
+        try {
+            store.confirmHold(hold.customerId, hold.purchase);
+            journal.purchaseRecorded(hold.customerId, hold.purchase);
+        } finally {
+            store.unlock(hold.customerId);
+        }
+        CompletableFuture.delayedExecutor(holdTimeout.toMillis() * CONFIRMED_HOLD_RETENTION, TimeUnit.MILLISECONDS)
+                .execute(() -> holds.remove(holdId, confirmed));
+        return true;
     }
 
-    static double getRemainingBudget(String customerId) {
-        return getAccount(customerId).getRemainingBudget();
+    // Gives the held budget back; false if the hold was confirmed, released or expired
+    boolean releaseHold(String holdId) {
+        BudgetHold hold = holds.get(holdId);
+        if (hold == null || hold.confirmed || !holds.remove(holdId, hold)) {
+            return false;
+        }
+        accounts.releaseHold(hold.customerId, hold.purchase.storeCode(), hold.purchase.price());
+        return true;
     }
 
-    static boolean attemptPurchase(String customerId, String storeCode, String itemId, double price, LocalDate date) {
-        return getAccount(customerId).attemptPurchase(storeCode, itemId, price, date);
+    // Holds neither confirmed nor released yet
+    int getPendingHoldCount() {
+        int pending = 0;
+        for (BudgetHold hold : holds.values()) {
+            if (!hold.confirmed) {
+                pending++;
+            }
+        }
+        return pending;
     }
 
-    // Removes a specific purchase record from a cusomter's account
-    static Optional<PurchaseRecord> consumePurchaseRecord(String customerId, String itemId) {
-        CustomerAccount account = ACCOUNTS.get(customerId);
-        if (account == null) {
+    // Removes the customer's oldest purchase of the item that can still be returned on the date
+    Optional<PurchaseRecord> consumeReturnable(String customerId, String itemId, LocalDate returnDate) {
+        if (customerId == null) {
             return Optional.empty();
         }
-        return Optional.ofNullable(account.consumePurchaseRecord(itemId));
+        CompactAccountStore store = accounts;
+        store.lock(customerId);
+        try {
+            PurchaseRecord record = store.consumeReturnable(customerId, itemId, returnDate);
+            if (record != null) {
+                journal.purchaseConsumed(customerId, record);
+            }
+            return Optional.ofNullable(record);
+        } finally {
+            store.unlock(customerId);
+        }
+    }
+
+    boolean hasPurchaseRecord(String customerId, String itemId) {
+        return accounts.hasPurchaseRecord(requireCustomer(customerId), itemId);
+    }
+
+    // Drops the purchase records past the return window; returns the new cutoff, or null if it did not move
+    LocalDate expirePurchases(LocalDate today) {
+        // Only the server's date moves the cutoff, never a date a customer typed
+        long cutoff = today.toEpochDay() - CompactAccountStore.RETURN_WINDOW_DAYS;
+        if (!accounts.expireBefore(cutoff)) {
+            return null;
+        }
+        journal.purchasesExpired(LocalDate.ofEpochDay(cutoff));
+        return LocalDate.ofEpochDay(cutoff);
     }
 
-    static void restorePurchaseRecord(String customerId, PurchaseRecord record) {
-        getAccount(customerId).restorePurchaseRecord(record);
+    // Removes the records dated before the cutoff set by expirePurchases; returns how many were removed
+    int sweepExpired() {
+        return accounts.sweepExpired();
     }
 
-    static void refund(String customerId, double price) {
-        getAccount(customerId).refund(price);
+    void restorePurchaseRecord(String customerId, PurchaseRecord record) {
+        CompactAccountStore store = accounts;
+        store.lock(requireCustomer(customerId));
+        try {
+            store.restorePurchaseRecord(customerId, record);
+            journal.purchaseRestored(customerId, record);
+        } finally {
+            store.unlock(customerId);
+        }
+    }
+
+    void refund(String customerId, double price) {
+        CompactAccountStore store = accounts;
+        store.lock(requireCustomer(customerId));
+        try {
+            store.refund(customerId, price);
+            journal.refunded(customerId, price);
+        } finally {
+            store.unlock(customerId);
+        }
+    }
+
+    private String requireCustomer(String customerId) {
+        if (customerId == null || !customerId.startsWith(storeCode)) {
+            throw new IllegalArgumentException("Customer " + customerId + " does not belong to store " + storeCode);
+        }
+        return customerId;
+    }
+
+    private static final class BudgetHold {
+        private final String customerId;
+        private final PurchaseRecord purchase;
+        private final boolean confirmed;
+
+        private BudgetHold(String customerId, PurchaseRecord purchase, boolean confirmed) {
+            this.customerId = customerId;
+            this.purchase = purchase;
+            this.confirmed = confirmed;
+        }
     }
 }
@@ -0,0 +1,78 @@
+package com.concordia.dsms.server;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Locale;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Kind of thread a store runs its peer request handlers and background workers on.
+ * Virtual threads are looked up at run time, since the code is compiled for Java 17;
+ * on a runtime without them {@link #VIRTUAL} falls back to platform threads.
+ */
+enum ExecutionMode {
+    PLATFORM,
+    VIRTUAL;
+
+    // Thread.ofVirtual(), Thread.Builder.name(String, long) and Thread.Builder.factory(), null before Java 21
+    private static final MethodHandle[] VIRTUAL_BUILDER = findVirtualBuilder();
+
+    // Reads -Ddsms.threads=platform|virtual, platform by default
+    static ExecutionMode fromProperty() {
+        return parse(System.getProperty("dsms.threads", "platform"));
+    }
+
+    static ExecutionMode parse(String value) {
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown thread mode '" + value + "'; expected platform or virtual.");
+        }
+    }
+
+    static boolean isVirtualSupported() {
+        return VIRTUAL_BUILDER != null;
+    }
+
+    // The mode threads are actually created in
+    ExecutionMode effective() {
+        return this == VIRTUAL && !isVirtualSupported() ? PLATFORM : this;
+    }
+
+    // Daemon threads named <name>-1, <name>-2 and so on
+    ThreadFactory threadFactory(String name) {
+        if (effective() == VIRTUAL) {
+            try {
+                return (ThreadFactory) VIRTUAL_BUILDER[2].invoke(VIRTUAL_BUILDER[1].invoke(VIRTUAL_BUILDER[0].invoke(), name + "-", 1L));
+            } catch (Throwable e) {
+                throw new IllegalStateException("Unable to create virtual threads", e);
+            }
+        }
+        AtomicInteger threadIds = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + threadIds.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static MethodHandle[] findVirtualBuilder() {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            Class<?> ofVirtual = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            MethodHandle[] handles = {
+                    lookup.findStatic(Thread.class, "ofVirtual", MethodType.methodType(ofVirtual)),
+                    lookup.findVirtual(builder, "name", MethodType.methodType(builder, String.class, long.class)),
+                    lookup.findVirtual(builder, "factory", MethodType.methodType(ThreadFactory.class))
+            };
+            // Java 19 and 20 have the methods but refuse them unless preview features are enabled
+            handles[0].invoke();
+            return handles;
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.concordia.dsms.server;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary wire format for UDP messages exchanged between store servers.
+ * Every datagram starts with a fixed header (magic, version, type, request ID, trace ID
+ * and span ID of the sender, both zero when untraced) followed by a type specific
+ * payload of length-prefixed UTF-8 strings and primitives.
+ */
+final class InterServerMessage {
+    static final short MAGIC = (short) 0xD5A5;
+    static final byte VERSION = 4;
+    static final int MAX_DATAGRAM_SIZE = 65_507;
+    private static final int TRACE_OFFSET = 12;
+    private static final int HEADER_SIZE = TRACE_OFFSET + 2 * Long.BYTES;
+
+    static final byte LOOKUP_REQUEST = 1;
+    static final byte LOOKUP_REPLY = 2;
+    static final byte PURCHASE_REQUEST = 3;
+    static final byte PURCHASE_REPLY = 4;
+    static final byte RETURN_REQUEST = 5;
+    static final byte RETURN_REPLY = 6;
+    static final byte ERROR_REPLY = 7;
+    static final byte CART_RESERVE_REQUEST = 8;
+    static final byte CART_RESERVE_REPLY = 9;
+    static final byte CART_SETTLE_REQUEST = 10;
+    static final byte CART_SETTLE_REPLY = 11;
+    static final byte HOLD_REQUEST = 12;
+    static final byte HOLD_REPLY = 13;
+    static final byte HOLD_SETTLE_REQUEST = 14;
+    static final byte HOLD_SETTLE_REPLY = 15;
+    // One way: not acknowledged, retransmitted or deduplicated
+    static final byte LOOKUP_INVALIDATION = 16;
+    static final byte NODE_TAKEOVER = 17;
+
+    private final byte type;
+    private final long requestId;
+    private final long traceId;
+    private final long spanId;
+    private final ByteBuffer payload;
+
+    private InterServerMessage(byte type, long requestId, long traceId, long spanId, ByteBuffer payload) {
+        this.type = type;
+        this.requestId = requestId;
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.payload = payload;
+    }
+
+    byte type() {
+        return type;
+    }
+
+    long requestId() {
+        return requestId;
+    }
+
+    long traceId() {
+        return traceId;
+    }
+
+    long spanId() {
+        return spanId;
+    }
+
+    boolean isReply() {
+        return type == LOOKUP_REPLY || type == PURCHASE_REPLY || type == RETURN_REPLY || type == ERROR_REPLY
+                || type == CART_RESERVE_REPLY || type == CART_SETTLE_REPLY || type == HOLD_REPLY || type == HOLD_SETTLE_REPLY;
+    }
+
+    String readString() {
+        int length = payload.getShort() & 0xFFFF;
+        if (length == 0xFFFF) {
+            length = payload.getInt();
+        }
+        byte[] bytes = new byte[length];
+        payload.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    int readInt() {
+        return payload.getInt();
+    }
+
+    double readDouble() {
+        return payload.getDouble();
+    }
+
+    boolean readBoolean() {
+        return payload.get() != 0;
+    }
+
+    static InterServerMessage decode(ByteBuffer datagram) {
+        try {
+            if (datagram.getShort() != MAGIC || datagram.get() != VERSION) {
+                return null;
+            }
+            byte type = datagram.get();
+            long requestId = datagram.getLong();
+            long traceId = datagram.getLong();
+            long spanId = datagram.getLong();
+            return new InterServerMessage(type, requestId, traceId, spanId, datagram.slice());
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    // Whether a payload of the string and the given bytes of primitives fits in one datagram
+    static boolean fits(String value, int primitiveBytes) {
+        int room = MAX_DATAGRAM_SIZE - HEADER_SIZE - primitiveBytes - 6;
+        // At most 3 UTF-8 bytes per char, so only long strings are encoded to measure them
+        return value.length() * 3 <= room || value.getBytes(StandardCharsets.UTF_8).length <= room;
+    }
+
+    static Writer writer(byte type, long requestId) {
+        return new Writer(type, requestId);
+    }
+
+    // Writes the trace context of the sending span into an encoded message
+    static void stampTrace(byte[] datagram, long traceId, long spanId) {
+        ByteBuffer.wrap(datagram).putLong(TRACE_OFFSET, traceId).putLong(TRACE_OFFSET + Long.BYTES, spanId);
+    }
+
+    static final class Writer {
+        private ByteBuffer buffer = ByteBuffer.allocate(128);
+
+        private Writer(byte type, long requestId) {
+            buffer.putShort(MAGIC).put(VERSION).put(type).putLong(requestId).putLong(0).putLong(0);
+        }
+
+        private void ensureCapacity(int extra) {
+            int required = buffer.position() + extra;
+            if (required <= buffer.capacity()) {
+                return;
+            }
+            if (required > MAX_DATAGRAM_SIZE) {
+                throw new IllegalStateException("Message exceeds maximum datagram size of " + MAX_DATAGRAM_SIZE + " bytes");
+            }
+            ByteBuffer grown = ByteBuffer.allocate(Math.min(MAX_DATAGRAM_SIZE, Math.max(required, buffer.capacity() * 2)));
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+
+        Writer putString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            ensureCapacity(bytes.length + 6);
+            // Short strings (the common case) carry a 2-byte length, longer ones escape to 4 bytes
+            if (bytes.length < 0xFFFF) {
+                buffer.putShort((short) bytes.length);
+            } else {
+                buffer.putShort((short) 0xFFFF).putInt(bytes.length);
+            }
+            buffer.put(bytes);
+            return this;
+        }
+
+        Writer putInt(int value) {
+            ensureCapacity(Integer.BYTES);
+            buffer.putInt(value);
+            return this;
+        }
+
+        Writer putDouble(double value) {
+            ensureCapacity(Double.BYTES);
+            buffer.putDouble(value);
+            return this;
+        }
+
+        Writer putBoolean(boolean value) {
+            ensureCapacity(1);
+            buffer.put((byte) (value ? 1 : 0));
+            return this;
+        }
+
+        byte[] toBytes() {
+            byte[] bytes = new byte[buffer.position()];
+            buffer.flip();
+            buffer.get(bytes);
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,527 @@
+package com.concordia.dsms.server;
+
+import com.concordia.dsms.common.PurchaseResult;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.DatagramChannel;
+import java.rmi.RemoteException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * UDP transport used for purchase, lookup, return, cart and budget hold calls between store servers,
+ * and for the invalidations that keep the peers' lookup caches fresh. Lookups of a store that
+ * has a standby replica are spread over the primary and the standby.
+ * One listener thread per store receives both requests and replies on a single
+ * {@link DatagramChannel}. Outgoing requests are retransmitted until a reply arrives
+ * or their deadline passes, and incoming requests are deduplicated by sender and
+ * request ID so a retransmitted purchase or return is never applied twice.
+ * The trace context of the calling thread travels in the message header, so the
+ * spans recorded by the receiving store join the caller's trace.
+ */
+class InterServerTransport implements AutoCloseable {
+    static final Duration DEFAULT_RETRANSMIT_INTERVAL = Duration.ofMillis(100);
+    private static final Duration REPLY_RETENTION = Duration.ofSeconds(30);
+
+    // Handles requests received from other stores
+    interface Handler {
+        PurchaseResult onPurchase(String customerId, String itemId, LocalDate purchaseDate, double budgetRemaining);
+
+        String onItemLookup(String itemName);
+
+        boolean onReturn(String customerId, String itemId, LocalDate returnDate);
+
+        CartQuote onCartReserve(String cartId, String customerId, List<String> itemIds);
+
+        boolean onCartSettle(String cartId, boolean commit);
+
+        // Returns the hold ID, or null if the customer's budget or the store policy refuses the purchase
+        String onBudgetHold(String customerId, String itemStore, String itemId, double price, LocalDate purchaseDate);
+
+        boolean onHoldSettle(String holdId, boolean confirm);
+
+        void onLookupInvalidated(String storeCode, String normalizedName, boolean catalogChange);
+
+        // A standby took over the registry name of its failed primary
+        void onTakeover(String nodeName);
+    }
+
+    private final String storeCode;
+    private final Handler handler;
+    private final ServerEventLog eventLog;
+    private final StoreMetrics metrics;
+    private final Tracer tracer;
+    private final Duration retransmitInterval;
+    private final DatagramChannel channel;
+    private final InetSocketAddress advertisedAddress;
+    private final Thread listener;
+    private final ExecutorService requestExecutor;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicLong nextRequestId = new AtomicLong(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE);
+    private final Map<Long, CompletableFuture<InterServerMessage>> pending = new ConcurrentHashMap<>();
+    private final Map<ReplyKey, CachedReply> replies = new ConcurrentHashMap<>();
+    // Invalidations not sent yet by normalized name, true if the set of matching items changed
+    private final Map<String, Boolean> pendingInvalidations = new ConcurrentHashMap<>();
+    private volatile boolean running = true;
+
+    InterServerTransport(String storeCode, Handler handler, ServerEventLog eventLog, StoreMetrics metrics,
+                         Tracer tracer, ExecutionMode executionMode) throws IOException {
+        this(storeCode, handler, eventLog, metrics, tracer, executionMode, 0, DEFAULT_RETRANSMIT_INTERVAL);
+    }
+
+    InterServerTransport(String storeCode, Handler handler, ServerEventLog eventLog, StoreMetrics metrics,
+                         Tracer tracer, ExecutionMode executionMode, int port, Duration retransmitInterval) throws IOException {
+        this.storeCode = Objects.requireNonNull(storeCode, "storeCode");
+        this.handler = Objects.requireNonNull(handler, "handler");
+        this.eventLog = Objects.requireNonNull(eventLog, "eventLog");
+        this.metrics = Objects.requireNonNull(metrics, "metrics");
+        this.tracer = Objects.requireNonNull(tracer, "tracer");
+        this.retransmitInterval = Objects.requireNonNull(retransmitInterval, "retransmitInterval");
+        this.channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress(port));
+        this.advertisedAddress = new InetSocketAddress(advertisedHost(), ((InetSocketAddress) channel.getLocalAddress()).getPort());
+        // Peer requests are handled off the listener thread, on threads of the store's execution mode
+        this.requestExecutor = Executors.newCachedThreadPool(executionMode.threadFactory("DSMS-" + storeCode + "-udp-worker"));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(daemonThreads("DSMS-" + storeCode + "-udp-timer"));
+        scheduler.scheduleWithFixedDelay(this::expireReplies, REPLY_RETENTION.toMillis(), REPLY_RETENTION.toMillis(), TimeUnit.MILLISECONDS);
+        this.listener = new Thread(this::listen, "DSMS-" + storeCode + "-udp-listener");
+        listener.setDaemon(true);
+        listener.start();
+    }
+
+    InetSocketAddress getAddress() {
+        return advertisedAddress;
+    }
+
+    boolean isOpen() {
+        return running;
+    }
+
+    CompletableFuture<String> requestItemLookup(String targetStore, String itemName, Duration deadline) {
+        long requestId = nextRequestId.incrementAndGet();
+        byte[] request = InterServerMessage.writer(InterServerMessage.LOOKUP_REQUEST, requestId)
+                .putString(itemName)
+                .toBytes();
+        return send(StoreMetrics.PeerCall.LOOKUP, targetStore, requestId, request, deadline).thenCompose(reply -> reply.readBoolean()
+                ? CompletableFuture.completedFuture(reply.readString())
+                : lookupOverRmi(targetStore, itemName, deadline));
+    }
+
+    // Results too large for one datagram are fetched from the store's primary over RMI instead
+    private CompletableFuture<String> lookupOverRmi(String targetStore, String itemName, Duration deadline) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return StoreServerRegistry.lookup(targetStore).requestRemoteItemLookup(itemName);
+            } catch (RemoteException e) {
+                throw new CompletionException(e);
+            }
+        }, requestExecutor).orTimeout(deadline.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    CompletableFuture<PurchaseResult> requestPurchase(String targetStore, String customerId, String itemId,
+                                                      LocalDate purchaseDate, double budgetRemaining, Duration deadline) {
+        long requestId = nextRequestId.incrementAndGet();
+        byte[] request = InterServerMessage.writer(InterServerMessage.PURCHASE_REQUEST, requestId)
+                .putString(customerId)
+                .putString(itemId)
+                .putInt((int) purchaseDate.toEpochDay())
+                .putDouble(budgetRemaining)
+                .toBytes();
+        return send(StoreMetrics.PeerCall.PURCHASE, targetStore, requestId, request, deadline)
+                .thenApply(reply -> new PurchaseResult(reply.readBoolean(), reply.readBoolean(), reply.readString(), reply.readDouble()));
+    }
+
+    CompletableFuture<Boolean> requestReturn(String targetStore, String customerId, String itemId, LocalDate returnDate, Duration deadline) {
+        long requestId = nextRequestId.incrementAndGet();
+        byte[] request = InterServerMessage.writer(InterServerMessage.RETURN_REQUEST, requestId)
+                .putString(customerId)
+                .putString(itemId)
+                .putInt((int) returnDate.toEpochDay())
+                .toBytes();
+        return send(StoreMetrics.PeerCall.RETURN, targetStore, requestId, request, deadline).thenApply(InterServerMessage::readBoolean);
+    }
+
+    CompletableFuture<CartQuote> requestCartReserve(String targetStore, String cartId, String customerId,
+                                                    List<String> itemIds, Duration deadline) {
+        long requestId = nextRequestId.incrementAndGet();
+        InterServerMessage.Writer writer = InterServerMessage.writer(InterServerMessage.CART_RESERVE_REQUEST, requestId)
+                .putString(cartId)
+                .putString(customerId)
+                .putInt(itemIds.size());
+        for (String itemId : itemIds) {
+            writer.putString(itemId);
+        }
+        return send(StoreMetrics.PeerCall.CART_RESERVE, targetStore, requestId, writer.toBytes(), deadline).thenApply(reply -> {
+            if (!reply.readBoolean()) {
+                return CartQuote.rejected(reply.readString());
+            }
+            double[] prices = new double[reply.readInt()];
+            for (int i = 0; i < prices.length; i++) {
+                prices[i] = reply.readDouble();
+            }
+            return CartQuote.reserved(prices);
+        });
+    }
+
+    CompletableFuture<Boolean> requestCartSettle(String targetStore, String cartId, boolean commit, Duration deadline) {
+        long requestId = nextRequestId.incrementAndGet();
+        byte[] request = InterServerMessage.writer(InterServerMessage.CART_SETTLE_REQUEST, requestId)
+                .putString(cartId)
+                .putBoolean(commit)
+                .toBytes();
+        return send(StoreMetrics.PeerCall.CART_SETTLE, targetStore, requestId, request, deadline).thenApply(InterServerMessage::readBoolean);
+    }
+
+    // Completes with the hold ID, or null if the customer's home store refused the hold
+    CompletableFuture<String> requestBudgetHold(String homeStore, String customerId, String itemId, double price,
+                                                LocalDate purchaseDate, Duration deadline) {
+        long requestId = nextRequestId.incrementAndGet();
+        byte[] request = InterServerMessage.writer(InterServerMessage.HOLD_REQUEST, requestId)
+                .putString(customerId)
+                .putString(storeCode)
+                .putString(itemId)
+                .putDouble(price)
+                .putInt((int) purchaseDate.toEpochDay())
+                .toBytes();
+        return send(StoreMetrics.PeerCall.BUDGET_HOLD, homeStore, requestId, request, deadline)
+                .thenApply(reply -> reply.readBoolean() ? reply.readString() : null);
+    }
+
+    CompletableFuture<Boolean> requestHoldSettle(String homeStore, String holdId, boolean confirm, Duration deadline) {
+        long requestId = nextRequestId.incrementAndGet();
+        byte[] request = InterServerMessage.writer(InterServerMessage.HOLD_SETTLE_REQUEST, requestId)
+                .putString(holdId)
+                .putBoolean(confirm)
+                .toBytes();
+        return send(StoreMetrics.PeerCall.HOLD_SETTLE, homeStore, requestId, request, deadline).thenApply(InterServerMessage::readBoolean);
+    }
+
+    // Tells every other store that items with this name changed; repeated changes before the send go out once
+    void publishInvalidation(String normalizedName, boolean catalogChange) {
+        boolean[] first = new boolean[1];
+        pendingInvalidations.compute(normalizedName, (key, pending) -> {
+            first[0] = pending == null;
+            return first[0] ? catalogChange : pending || catalogChange;
+        });
+        if (first[0]) {
+            try {
+                requestExecutor.execute(() -> sendInvalidation(normalizedName));
+            } catch (RejectedExecutionException e) {
+                // Transport closed: peers drop this store's entries once they reach their maximum age
+            }
+        }
+    }
+
+    private void sendInvalidation(String normalizedName) {
+        Boolean catalogChange = pendingInvalidations.remove(normalizedName);
+        if (catalogChange == null) {
+            return;
+        }
+        byte[] datagram = InterServerMessage.writer(InterServerMessage.LOOKUP_INVALIDATION, nextRequestId.incrementAndGet())
+                .putString(storeCode)
+                .putString(normalizedName)
+                .putBoolean(catalogChange)
+                .toBytes();
+        for (String otherStore : StoreServerRegistry.getOtherStores(storeCode)) {
+            try {
+                transmit(StoreServerRegistry.lookupInterServerAddress(otherStore), datagram);
+            } catch (RemoteException e) {
+                eventLog.log(ServerEvent.UDP_SEND_FAILED, otherStore, e);
+            }
+        }
+    }
+
+    // Tells every other node that a standby took over this name, so they stop using the failed primary's address
+    void announceTakeover(String nodeName) {
+        byte[] datagram = InterServerMessage.writer(InterServerMessage.NODE_TAKEOVER, nextRequestId.incrementAndGet())
+                .putString(nodeName)
+                .toBytes();
+        for (String store : StoreServerRegistry.getStores()) {
+            for (String node : StoreServerRegistry.getShards(store)) {
+                if (node.equals(nodeName)) {
+                    continue;
+                }
+                try {
+                    transmit(StoreServerRegistry.lookupInterServerAddress(node), datagram);
+                } catch (RemoteException e) {
+                    eventLog.log(ServerEvent.UDP_SEND_FAILED, node, e);
+                }
+            }
+        }
+    }
+
+    private CompletableFuture<InterServerMessage> send(StoreMetrics.PeerCall call, String targetStore, long requestId,
+                                                       byte[] request, Duration deadline) {
+        long start = System.nanoTime();
+        CompletableFuture<InterServerMessage> reply = new CompletableFuture<>();
+        InetSocketAddress target;
+        try {
+            target = call == StoreMetrics.PeerCall.LOOKUP
+                    ? StoreServerRegistry.lookupReadAddress(targetStore)
+                    : StoreServerRegistry.lookupInterServerAddress(targetStore);
+        } catch (RemoteException e) {
+            metrics.record(call, start, false);
+            reply.completeExceptionally(e);
+            return reply;
+        }
+        // The hop span covers the call as seen by this store: network, retransmissions and the peer's work
+        TraceContext caller = Tracer.current();
+        TraceContext hop = caller == null ? null : caller.child();
+        if (hop != null) {
+            InterServerMessage.stampTrace(request, hop.traceId(), hop.spanId());
+        }
+        pending.put(requestId, reply);
+        ScheduledFuture<?> retransmission = scheduler.scheduleWithFixedDelay(
+                () -> transmit(target, request), 0, retransmitInterval.toMillis(), TimeUnit.MILLISECONDS);
+        reply.orTimeout(deadline.toMillis(), TimeUnit.MILLISECONDS).whenComplete((message, error) -> {
+            retransmission.cancel(false);
+            pending.remove(requestId);
+            metrics.record(call, start, error == null && message.type() != InterServerMessage.ERROR_REPLY);
+            if (hop != null) {
+                tracer.record(hop, "CALL_" + call + "@" + targetStore, start);
+            }
+        });
+        return reply.thenApply(message -> {
+            if (message.type() == InterServerMessage.ERROR_REPLY) {
+                throw new CompletionException(new RemoteException("Store " + targetStore + " failed request: " + message.readString()));
+            }
+            return message;
+        });
+    }
+
+    private void transmit(SocketAddress target, byte[] datagram) {
+        try {
+            channel.send(ByteBuffer.wrap(datagram), target);
+        } catch (IOException e) {
+            eventLog.log(ServerEvent.UDP_SEND_FAILED, target, e);
+        }
+    }
+
+    private void listen() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(InterServerMessage.MAX_DATAGRAM_SIZE);
+        while (running) {
+            try {
+                buffer.clear();
+                SocketAddress sender = channel.receive(buffer);
+                buffer.flip();
+                ByteBuffer datagram = ByteBuffer.allocate(buffer.remaining());
+                datagram.put(buffer).flip();
+                InterServerMessage message = InterServerMessage.decode(datagram);
+                if (message == null) {
+                    continue;
+                }
+                if (message.isReply()) {
+                    CompletableFuture<InterServerMessage> reply = pending.get(message.requestId());
+                    if (reply != null) {
+                        reply.complete(message);
+                    }
+                } else if (message.type() == InterServerMessage.LOOKUP_INVALIDATION) {
+                    // Idempotent and cheap, so applied right here without deduplication
+                    handler.onLookupInvalidated(message.readString(), message.readString(), message.readBoolean());
+                } else if (message.type() == InterServerMessage.NODE_TAKEOVER) {
+                    handler.onTakeover(message.readString());
+                } else {
+                    dispatch(sender, message);
+                }
+            } catch (AsynchronousCloseException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                // A malformed datagram, a failing handler or a stopped executor only costs that datagram
+                if (running) {
+                    eventLog.log(ServerEvent.UDP_LISTENER_FAILED, storeCode, e);
+                }
+            }
+        }
+    }
+
+    private void dispatch(SocketAddress sender, InterServerMessage message) {
+        ReplyKey key = new ReplyKey(sender, message.requestId());
+        CachedReply fresh = new CachedReply();
+        CachedReply existing = replies.putIfAbsent(key, fresh);
+        if (existing != null) {
+            // Retransmission: resend the reply if ready, otherwise the original is still being handled
+            byte[] reply = existing.reply;
+            if (reply != null) {
+                transmit(sender, reply);
+            }
+            return;
+        }
+        try {
+            requestExecutor.execute(() -> {
+                Tracer.attach(TraceContext.remote(message.traceId(), message.spanId()));
+                byte[] reply;
+                try {
+                    reply = handle(message);
+                } finally {
+                    Tracer.detach();
+                }
+                fresh.reply = reply;
+                transmit(sender, reply);
+            });
+        } catch (RuntimeException e) {
+            // Not handled, so a retransmission is handled as a new request
+            replies.remove(key, fresh);
+            throw e;
+        }
+    }
+
+    private byte[] handle(InterServerMessage message) {
+        long requestId = message.requestId();
+        try {
+            switch (message.type()) {
+                case InterServerMessage.LOOKUP_REQUEST -> {
+                    String response = handler.onItemLookup(message.readString());
+                    InterServerMessage.Writer reply = InterServerMessage.writer(InterServerMessage.LOOKUP_REPLY, requestId);
+                    // Without the results, the caller fetches them over RMI
+                    return InterServerMessage.fits(response, 1)
+                            ? reply.putBoolean(true).putString(response).toBytes()
+                            : reply.putBoolean(false).toBytes();
+                }
+                case InterServerMessage.PURCHASE_REQUEST -> {
+                    String customerId = message.readString();
+                    String itemId = message.readString();
+                    LocalDate purchaseDate = LocalDate.ofEpochDay(message.readInt());
+                    PurchaseResult result = handler.onPurchase(customerId, itemId, purchaseDate, message.readDouble());
+                    return InterServerMessage.writer(InterServerMessage.PURCHASE_REPLY, requestId)
+                            .putBoolean(result.isSuccess())
+                            .putBoolean(result.isPending())
+                            .putString(result.getMessage())
+                            .putDouble(result.getPriceCharged())
+                            .toBytes();
+                }
+                case InterServerMessage.RETURN_REQUEST -> {
+                    String customerId = message.readString();
+                    String itemId = message.readString();
+                    boolean accepted = handler.onReturn(customerId, itemId, LocalDate.ofEpochDay(message.readInt()));
+                    return InterServerMessage.writer(InterServerMessage.RETURN_REPLY, requestId).putBoolean(accepted).toBytes();
+                }
+                case InterServerMessage.CART_RESERVE_REQUEST -> {
+                    String cartId = message.readString();
+                    String customerId = message.readString();
+                    List<String> itemIds = new ArrayList<>();
+                    for (int count = message.readInt(); count > 0; count--) {
+                        itemIds.add(message.readString());
+                    }
+                    CartQuote quote = handler.onCartReserve(cartId, customerId, itemIds);
+                    InterServerMessage.Writer reply = InterServerMessage.writer(InterServerMessage.CART_RESERVE_REPLY, requestId)
+                            .putBoolean(quote.isReserved());
+                    if (!quote.isReserved()) {
+                        return reply.putString(quote.getMessage()).toBytes();
+                    }
+                    reply.putInt(quote.getPrices().length);
+                    for (double price : quote.getPrices()) {
+                        reply.putDouble(price);
+                    }
+                    return reply.toBytes();
+                }
+                case InterServerMessage.CART_SETTLE_REQUEST -> {
+                    boolean settled = handler.onCartSettle(message.readString(), message.readBoolean());
+                    return InterServerMessage.writer(InterServerMessage.CART_SETTLE_REPLY, requestId).putBoolean(settled).toBytes();
+                }
+                case InterServerMessage.HOLD_REQUEST -> {
+                    String customerId = message.readString();
+                    String itemStore = message.readString();
+                    String itemId = message.readString();
+                    double price = message.readDouble();
+                    String holdId = handler.onBudgetHold(customerId, itemStore, itemId, price, LocalDate.ofEpochDay(message.readInt()));
+                    InterServerMessage.Writer reply = InterServerMessage.writer(InterServerMessage.HOLD_REPLY, requestId)
+                            .putBoolean(holdId != null);
+                    return holdId == null ? reply.toBytes() : reply.putString(holdId).toBytes();
+                }
+                case InterServerMessage.HOLD_SETTLE_REQUEST -> {
+                    boolean settled = handler.onHoldSettle(message.readString(), message.readBoolean());
+                    return InterServerMessage.writer(InterServerMessage.HOLD_SETTLE_REPLY, requestId).putBoolean(settled).toBytes();
+                }
+                default -> {
+                    return InterServerMessage.writer(InterServerMessage.ERROR_REPLY, requestId)
+                            .putString("Unknown message type " + message.type())
+                            .toBytes();
+                }
+            }
+        } catch (RuntimeException e) {
+            eventLog.log(ServerEvent.PEER_REQUEST_FAILED, requestId, e);
+            return InterServerMessage.writer(InterServerMessage.ERROR_REPLY, requestId)
+                    .putString(String.valueOf(e.getMessage()))
+                    .toBytes();
+        }
+    }
+
+    private void expireReplies() {
+        long cutoff = System.nanoTime() - REPLY_RETENTION.toNanos();
+        replies.values().removeIf(reply -> reply.reply != null && reply.createdNanos < cutoff);
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            eventLog.log(ServerEvent.UDP_CLOSE_FAILED, storeCode, e);
+        }
+        scheduler.shutdownNow();
+        requestExecutor.shutdown();
+    }
+
+    private static InetAddress advertisedHost() throws IOException {
+        String host = System.getProperty("java.rmi.server.hostname");
+        return host == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(host);
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static final class ReplyKey {
+        private final SocketAddress sender;
+        private final long requestId;
+
+        private ReplyKey(SocketAddress sender, long requestId) {
+            this.sender = sender;
+            this.requestId = requestId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ReplyKey)) return false;
+            ReplyKey that = (ReplyKey) o;
+            return requestId == that.requestId && sender.equals(that.sender);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * sender.hashCode() + Long.hashCode(requestId);
+        }
+    }
+
+    private static final class CachedReply {
+        private final long createdNanos = System.nanoTime();
+        private volatile byte[] reply;
+    }
+}
@@ -0,0 +1,154 @@
+package com.concordia.dsms.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Epochs that let inventory scans read a point-in-time view of a store without locking items.
+ * Every change to an {@link ItemRecord} is tagged with the epoch it ran in. Opening a snapshot
+ * closes the current epoch: it waits for the changes still running in that epoch, each a single
+ * compare-and-set, and then reads every item as of the end of the epoch. Writers never wait for
+ * a snapshot. They keep the item versions and the removed records that the oldest open snapshot
+ * may still need, and drop older ones, so overlapping snapshots do not let them pile up.
+ */
+class InventoryEpochs {
+    // Writers of different epochs are counted apart, so a snapshot does not wait for writers that came after it
+    private static final int GROUPS = 4;
+    private static final int STRIPES = 16;
+    // Counters are spread a cache line apart
+    private static final int PADDING = 8;
+
+    private final AtomicLong epoch = new AtomicLong(1);
+    private final AtomicLongArray writers = new AtomicLongArray(GROUPS * STRIPES * PADDING);
+    // Number of open snapshots by the epoch they end with
+    private final ConcurrentSkipListMap<Long, Integer> openSnapshots = new ConcurrentSkipListMap<>();
+    private final ConcurrentLinkedQueue<Retired> retired = new ConcurrentLinkedQueue<>();
+
+    // Registers a change about to run on this thread; returns its epoch, which is passed back to exit
+    long enter() {
+        int stripe = stripe();
+        while (true) {
+            long current = epoch.get();
+            int counter = counter(current, stripe);
+            writers.getAndIncrement(counter);
+            // A snapshot that closed the epoch meanwhile may already have stopped waiting for it
+            if (epoch.get() == current) {
+                return current;
+            }
+            writers.getAndDecrement(counter);
+        }
+    }
+
+    void exit(long epoch) {
+        writers.getAndDecrement(counter(epoch, stripe()));
+    }
+
+    // Whether a snapshot is open, so versions and records older than the current epoch may still be read
+    boolean retaining() {
+        return !openSnapshots.isEmpty();
+    }
+
+    // Epoch of the oldest open snapshot, or Long.MAX_VALUE if none is open; nothing older is read any more
+    long oldestSnapshot() {
+        Map.Entry<Long, Integer> oldest = openSnapshots.firstEntry();
+        return oldest == null ? Long.MAX_VALUE : oldest.getKey();
+    }
+
+    // Keeps a record just marked removed for the snapshots that still see it
+    void retire(ItemRecord record) {
+        if (retaining()) {
+            // At least the epoch of the removal, which is what pruning needs
+            retired.add(new Retired(record, epoch.get()));
+        }
+    }
+
+    // Records removed from the store while a snapshot was open
+    List<ItemRecord> retired() {
+        List<ItemRecord> records = new ArrayList<>();
+        for (Retired entry : retired) {
+            records.add(entry.record);
+        }
+        return records;
+    }
+
+    // Opens a snapshot of everything changed before this call; close it once the scan is done
+    Snapshot open() {
+        long closed;
+        while (true) {
+            closed = epoch.get();
+            // Registered before the epoch ends, so writers of the next epoch keep what this snapshot reads
+            openSnapshots.merge(closed, 1, Integer::sum);
+            if (epoch.compareAndSet(closed, closed + 1)) {
+                break;
+            }
+            release(closed);
+        }
+        int spins = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            int counter = counter(closed, stripe);
+            while (writers.get(counter) != 0) {
+                if (++spins < 100) {
+                    Thread.onSpinWait();
+                } else {
+                    Thread.yield();
+                }
+            }
+        }
+        return new Snapshot(closed);
+    }
+
+    private void release(long snapshotEpoch) {
+        openSnapshots.computeIfPresent(snapshotEpoch, (key, count) -> count == 1 ? null : count - 1);
+    }
+
+    private static int counter(long epoch, int stripe) {
+        return ((int) (epoch & (GROUPS - 1)) * STRIPES + stripe) * PADDING;
+    }
+
+    // A change registers and deregisters on the same thread
+    private static int stripe() {
+        return (int) Thread.currentThread().getId() & (STRIPES - 1);
+    }
+
+    final class Snapshot implements AutoCloseable {
+        private final long epoch;
+        private boolean closed;
+
+        private Snapshot(long epoch) {
+            this.epoch = epoch;
+        }
+
+        // The last epoch the snapshot sees changes from
+        long getEpoch() {
+            return epoch;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            // A snapshot opened from now on sees no record removed up to now
+            long current = InventoryEpochs.this.epoch.get();
+            release(epoch);
+            long oldest = Math.min(oldestSnapshot(), current);
+            retired.removeIf(entry -> entry.removedEpoch <= oldest);
+        }
+    }
+
+    private static final class Retired {
+        private final ItemRecord record;
+        private final long removedEpoch;
+
+        private Retired(ItemRecord record, long removedEpoch) {
+            this.record = record;
+            this.removedEpoch = removedEpoch;
+        }
+    }
+}
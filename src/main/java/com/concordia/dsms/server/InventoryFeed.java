@@ -0,0 +1,259 @@
+package com.concordia.dsms.server;
+
+import com.concordia.dsms.common.InventoryChange;
+import com.concordia.dsms.common.InventoryListener;
+
+import java.rmi.RemoteException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pushes inventory changes to subscribed listeners. Each subscription keeps at most one
+ * pending change per item, so a burst of purchases on an item is delivered as one event
+ * carrying the item's state at delivery time. At most one delivery per subscription is in
+ * flight; a subscriber whose pending changes exceed the bound is dropped and told so, and
+ * is expected to subscribe again for a fresh snapshot. Callbacks go to the client's own
+ * exported object, so the feed cannot bound the call itself: a subscriber whose callback has
+ * not returned within the callback timeout is dropped at the next change instead.
+ */
+class InventoryFeed implements AutoCloseable {
+    static final int DEFAULT_MAX_PENDING = 10_000;
+    static final Duration DEFAULT_CALLBACK_TIMEOUT = Duration.ofSeconds(10);
+    private static final int MAX_BATCH = 512;
+
+    private final ServerEventLog eventLog;
+    private final int maxPending;
+    private final long callbackTimeoutNanos;
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final ExecutorService deliveries;
+
+    InventoryFeed(String storeCode, ServerEventLog eventLog, int maxPending) {
+        this(storeCode, eventLog, maxPending, DEFAULT_CALLBACK_TIMEOUT, ExecutionMode.PLATFORM);
+    }
+
+    InventoryFeed(String storeCode, ServerEventLog eventLog, int maxPending, Duration callbackTimeout,
+                  ExecutionMode executionMode) {
+        if (maxPending <= 0) {
+            throw new IllegalArgumentException("Pending change bound must be greater than zero.");
+        }
+        if (callbackTimeout.isNegative() || callbackTimeout.isZero()) {
+            throw new IllegalArgumentException("Callback timeout must be greater than zero.");
+        }
+        this.eventLog = Objects.requireNonNull(eventLog, "eventLog");
+        this.maxPending = maxPending;
+        this.callbackTimeoutNanos = callbackTimeout.toNanos();
+        this.deliveries = Executors.newCachedThreadPool(executionMode.threadFactory("DSMS-" + storeCode + "-feed"));
+    }
+
+    // Bounds each subscriber's pending changes with -Ddsms.feed.maxPending and its callbacks with -Ddsms.feed.callbackTimeoutMs
+    static InventoryFeed open(String storeCode, ServerEventLog eventLog, ExecutionMode executionMode) {
+        return new InventoryFeed(storeCode, eventLog, Integer.getInteger("dsms.feed.maxPending", DEFAULT_MAX_PENDING),
+                Duration.ofMillis(Long.getLong("dsms.feed.callbackTimeoutMs", DEFAULT_CALLBACK_TIMEOUT.toMillis())),
+                executionMode);
+    }
+
+    // Subscribing a listener again replaces its earlier subscription
+    void subscribe(String managerId, InventoryListener listener) {
+        Objects.requireNonNull(listener, "listener");
+        unsubscribe(listener);
+        subscriptions.add(new Subscription(managerId, listener));
+        eventLog.log(ServerEvent.SUBSCRIBER_ADDED, managerId);
+    }
+
+    boolean unsubscribe(InventoryListener listener) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.listener.equals(listener)) {
+                return drop(subscription);
+            }
+        }
+        return false;
+    }
+
+    // Drops every subscription and tells each listener why, so it can subscribe again for a new snapshot
+    void closeAll(String reason) {
+        for (Subscription subscription : subscriptions) {
+            if (drop(subscription)) {
+                subscription.pending.clear();
+                subscription.notifyClosed(reason);
+            }
+        }
+    }
+
+    int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    void publish(ItemRecord record, InventoryChange.Kind kind, boolean waitlistFulfilment) {
+        for (Subscription subscription : subscriptions) {
+            subscription.offer(record, kind, waitlistFulfilment);
+        }
+    }
+
+    // Returns false if the subscription had already been dropped
+    private boolean drop(Subscription subscription) {
+        subscription.closed = true;
+        if (!subscriptions.remove(subscription)) {
+            return false;
+        }
+        eventLog.log(ServerEvent.SUBSCRIBER_REMOVED, subscription.managerId);
+        return true;
+    }
+
+    @Override
+    public void close() {
+        subscriptions.forEach(subscription -> subscription.closed = true);
+        subscriptions.clear();
+        deliveries.shutdown();
+        try {
+            deliveries.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Kind and waitlist fulfilments accumulated for an item since its last delivery
+    private static final class PendingChange {
+        private final ItemRecord record;
+        private final InventoryChange.Kind kind;
+        private final int waitlistFulfilments;
+
+        private PendingChange(ItemRecord record, InventoryChange.Kind kind, int waitlistFulfilments) {
+            this.record = record;
+            this.kind = kind;
+            this.waitlistFulfilments = waitlistFulfilments;
+        }
+
+        private PendingChange merge(ItemRecord latest, InventoryChange.Kind next, boolean waitlistFulfilment) {
+            // An item added since the last delivery is still new to the subscriber whatever happened to its stock
+            InventoryChange.Kind merged = next == InventoryChange.Kind.QUANTITY_CHANGED && kind == InventoryChange.Kind.ADDED
+                    ? InventoryChange.Kind.ADDED : next;
+            return new PendingChange(latest, merged, waitlistFulfilments + (waitlistFulfilment ? 1 : 0));
+        }
+
+        private InventoryChange toChange(String itemId) {
+            int quantity = kind == InventoryChange.Kind.REMOVED ? 0 : record.getQuantity();
+            return new InventoryChange(kind, itemId, record.getItemName(), quantity, record.getPrice(), waitlistFulfilments);
+        }
+    }
+
+    private final class Subscription {
+        private final String managerId;
+        private final InventoryListener listener;
+        private final Map<String, PendingChange> pending = new ConcurrentHashMap<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile boolean closed;
+        // Whether a callback is in flight, and when it started
+        private volatile boolean calling;
+        private volatile long callStartedNanos;
+
+        private Subscription(String managerId, InventoryListener listener) {
+            this.managerId = managerId;
+            this.listener = listener;
+        }
+
+        private void offer(ItemRecord record, InventoryChange.Kind kind, boolean waitlistFulfilment) {
+            if (closed) {
+                return;
+            }
+            if (calling && System.nanoTime() - callStartedNanos > callbackTimeoutNanos) {
+                timeOut();
+                return;
+            }
+            String itemId = record.getItemId();
+            if (pending.size() >= maxPending && !pending.containsKey(itemId)) {
+                overflow();
+                return;
+            }
+            pending.compute(itemId, (key, previous) -> previous == null
+                    ? new PendingChange(record, kind, waitlistFulfilment ? 1 : 0)
+                    : previous.merge(record, kind, waitlistFulfilment));
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    deliveries.execute(this::deliver);
+                } catch (RejectedExecutionException e) {
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        private void deliver() {
+            while (!closed) {
+                List<InventoryChange> batch = new ArrayList<>();
+                Iterator<Map.Entry<String, PendingChange>> entries = pending.entrySet().iterator();
+                while (entries.hasNext() && batch.size() < MAX_BATCH) {
+                    Map.Entry<String, PendingChange> entry = entries.next();
+                    // Removing by value keeps a change that arrived after this entry was read
+                    if (pending.remove(entry.getKey(), entry.getValue())) {
+                        batch.add(entry.getValue().toChange(entry.getKey()));
+                    }
+                }
+                if (batch.isEmpty()) {
+                    scheduled.set(false);
+                    // A change may have been offered after the map looked empty but before the flag was cleared
+                    if (pending.isEmpty() || !scheduled.compareAndSet(false, true)) {
+                        return;
+                    }
+                    continue;
+                }
+                callStartedNanos = System.nanoTime();
+                calling = true;
+                try {
+                    listener.onChanges(batch);
+                } catch (RemoteException | RuntimeException e) {
+                    eventLog.log(ServerEvent.SUBSCRIBER_FAILED, managerId, e);
+                    drop(this);
+                    return;
+                } finally {
+                    calling = false;
+                }
+            }
+        }
+
+        private void overflow() {
+            if (!drop(this)) {
+                return;
+            }
+            pending.clear();
+            eventLog.log(ServerEvent.SUBSCRIBER_OVERFLOWED, managerId, maxPending);
+            notifyClosed("More than " + maxPending + " undelivered changes; subscribe again for a new snapshot.");
+        }
+
+        // Not told why, since its last callback is still hanging
+        private void timeOut() {
+            if (!drop(this)) {
+                return;
+            }
+            pending.clear();
+            eventLog.log(ServerEvent.SUBSCRIBER_TIMED_OUT, managerId, TimeUnit.NANOSECONDS.toMillis(callbackTimeoutNanos));
+        }
+
+        private void notifyClosed(String reason) {
+            try {
+                deliveries.execute(() -> {
+                    try {
+                        listener.onSubscriptionClosed(reason);
+                    } catch (RemoteException | RuntimeException e) {
+                        // The listener is gone or too slow; it was dropped either way
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Feed closed
+            }
+        }
+    }
+}
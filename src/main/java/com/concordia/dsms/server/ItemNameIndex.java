@@ -0,0 +1,40 @@
+package com.concordia.dsms.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+// Inverted index from normalized item name to the sorted IDs of the items carrying it
+class ItemNameIndex {
+    private final Map<String, NavigableSet<String>> idsByName = new ConcurrentHashMap<>();
+
+    void add(String itemId, String itemName) {
+        idsByName.compute(normalize(itemName), (key, ids) -> {
+            NavigableSet<String> updated = ids == null ? new ConcurrentSkipListSet<>() : ids;
+            updated.add(itemId);
+            return updated;
+        });
+    }
+
+    void remove(String itemId, String itemName) {
+        idsByName.computeIfPresent(normalize(itemName), (key, ids) -> {
+            ids.remove(itemId);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    // Items whose whole name matches, ignoring case and surrounding whitespace
+    List<String> exact(String itemName) {
+        NavigableSet<String> ids = idsByName.get(normalize(itemName));
+        return ids == null ? Collections.emptyList() : new ArrayList<>(ids);
+    }
+
+    static String normalize(String itemName) {
+        return itemName == null ? "" : itemName.trim().toLowerCase(Locale.ROOT);
+    }
+}
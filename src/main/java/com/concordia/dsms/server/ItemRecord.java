@@ -1,19 +1,25 @@
 package com.concordia.dsms.server;
 
 import java.io.Serializable;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicReference;
 
 class ItemRecord implements Serializable {
+    // Quantity a snapshot reads for an item that was not in the store at the time
+    static final int ABSENT = -1;
+
     private final String itemId;
     private final String itemName;
     private final double price;
-    private int quantity;
-    private final ReentrantLock lock = new ReentrantLock(true);
+    // Stock is only changed by compare-and-set on immutable versions, so concurrent buyers never oversell
+    // and snapshots read older versions without locking
+    private final AtomicReference<Version> stock;
+    // Set once the record joins a store, before any other thread can see it
+    private transient InventoryEpochs epochs;
 
     ItemRecord(String itemId, String itemName, int quantity, double price) {
         this.itemId = itemId;
         this.itemName = itemName;
-        this.quantity = quantity;
+        this.stock = new AtomicReference<>(new Version(quantity, Presence.PRESENT, 0, null));
         this.price = price;
     }
 
@@ -30,18 +36,183 @@ class ItemRecord implements Serializable {
     }
 
     int getQuantity() {
-        return quantity;
+        return stock.get().quantity;
+    }
+
+    // Quantity as of a snapshot of the store, or ABSENT if the item was not in it then
+    int getQuantityAt(InventoryEpochs.Snapshot snapshot) {
+        long epoch = snapshot.getEpoch();
+        for (Version version = stock.get(); version != null; version = version.previous) {
+            if (version.epoch <= epoch) {
+                return version.presence == Presence.PRESENT ? version.quantity : ABSENT;
+            }
+        }
+        return ABSENT;
+    }
+
+    /**
+     * Versions the record's stock with the store's epochs. Snapshots see the item from the next
+     * {@link #markPresent()} on, which the store calls once the item is indexed.
+     */
+    void attach(InventoryEpochs epochs) {
+        if (this.epochs == null) {
+            this.epochs = epochs;
+            stock.set(new Version(getQuantity(), Presence.NEW, 0, null));
+        }
+    }
+
+    // Snapshots from now on see a newly attached item; one removed meanwhile stays removed
+    void markPresent() {
+        if (stock.get().presence == Presence.NEW) {
+            update(Change.PUBLISH, 0);
+        }
+    }
+
+    // Snapshots from now on no longer see the item
+    void markRemoved() {
+        update(Change.REMOVE, 0);
+    }
+
+    // Snapshots from now on see a removed item again, once it is back in the store
+    void markRestored() {
+        update(Change.RESTORE, 0);
+    }
+
+    // Returns the quantity after the increase
+    int increaseQuantity(int delta) {
+        return update(Change.ADD, delta).quantity + delta;
     }
 
-    void increaseQuantity(int delta) {
-        quantity += delta;
+    // Takes one unit of stock if any is left
+    boolean tryReserve() {
+        return update(Change.TAKE_ONE, 0) != null;
     }
 
-    void decreaseQuantity(int delta) {
-        quantity -= delta;
+    // Takes the whole stock, for handing the item to another shard
+    int takeAll() {
+        Version replaced = update(Change.TAKE_ALL, 0);
+        return replaced == null ? 0 : replaced.quantity;
     }
 
-    ReentrantLock getLock() {
-        return lock;
+    // Removes delta units only if more than delta remain; returns the new quantity, or -1 if not enough stock
+    int tryDecrease(int delta) {
+        Version replaced = update(Change.TAKE_FEWER, delta);
+        return replaced == null ? -1 : replaced.quantity - delta;
+    }
+
+    // Whether the item is in the store, as snapshots see it
+    private enum Presence {
+        NEW, PRESENT, REMOVED
+    }
+
+    private enum Change {
+        ADD, TAKE_ONE, TAKE_ALL, TAKE_FEWER, PUBLISH, REMOVE, RESTORE
+    }
+
+    /**
+     * Applies the change to the current version, retrying on contention, and returns the version
+     * it replaced, or null if the stock or presence did not allow the change.
+     */
+    private Version update(Change change, int delta) {
+        InventoryEpochs versions = epochs;
+        while (true) {
+            long epoch = versions == null ? 0 : versions.enter();
+            try {
+                Version current = stock.get();
+                // Changed in a later epoch already; a version tagged with this one would hide it from snapshots
+                if (current.epoch > epoch) {
+                    continue;
+                }
+                int quantity = current.quantity;
+                Presence presence = current.presence;
+                switch (change) {
+                    case ADD:
+                        quantity += delta;
+                        break;
+                    case TAKE_ONE:
+                        if (quantity <= 0) {
+                            return null;
+                        }
+                        quantity--;
+                        break;
+                    case TAKE_ALL:
+                        if (quantity <= 0) {
+                            return null;
+                        }
+                        quantity = 0;
+                        break;
+                    case TAKE_FEWER:
+                        if (quantity <= delta) {
+                            return null;
+                        }
+                        quantity -= delta;
+                        break;
+                    case PUBLISH:
+                        if (presence != Presence.NEW) {
+                            return null;
+                        }
+                        presence = Presence.PRESENT;
+                        break;
+                    case REMOVE:
+                        presence = Presence.REMOVED;
+                        break;
+                    default:
+                        presence = Presence.PRESENT;
+                        break;
+                }
+                long oldest = versions == null ? Long.MAX_VALUE : versions.oldestSnapshot();
+                Version previous;
+                if (epoch <= oldest) {
+                    // Every open snapshot reads this version or a later one
+                    previous = null;
+                } else {
+                    // No open snapshot ends in this epoch, so a version of it is replaced
+                    previous = current.epoch == epoch ? current.previous : current;
+                    prune(previous, oldest);
+                }
+                if (stock.compareAndSet(current, new Version(quantity, presence, epoch, previous))) {
+                    return current;
+                }
+            } finally {
+                if (versions != null) {
+                    versions.exit(epoch);
+                }
+            }
+        }
+    }
+
+    // Cuts the versions below the one the oldest open snapshot reads; snapshots opened later read newer ones
+    private static void prune(Version version, long oldest) {
+        while (version != null && version.epoch > oldest) {
+            version = version.previous;
+        }
+        if (version != null) {
+            version.previous = null;
+        }
+    }
+
+    // Number of versions kept for snapshots, the current one included
+    int getVersionCount() {
+        int count = 0;
+        for (Version version = stock.get(); version != null; version = version.previous) {
+            count++;
+        }
+        return count;
+    }
+
+    // Stock of the record as of one epoch, linked to the last version of earlier epochs while a snapshot may read them
+    private static final class Version implements Serializable {
+        private final int quantity;
+        private final Presence presence;
+        private final long epoch;
+        // Only ever cleared, once no open snapshot reads past this version
+        private volatile Version previous;
+
+        private Version(int quantity, Presence presence, long epoch, Version previous) {
+            this.quantity = quantity;
+            this.presence = presence;
+            this.epoch = epoch;
+            this.previous = previous;
+        }
     }
 }
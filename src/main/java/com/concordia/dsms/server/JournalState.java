@@ -0,0 +1,228 @@
+package com.concordia.dsms.server;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Store state rebuilt from a snapshot and the journal records written after it.
+ * Used both to recover a store on startup and to compact sealed journal segments
+ * into a new snapshot in the background.
+ */
+final class JournalState {
+    private static final int SNAPSHOT_MAGIC = 0x44534D53;
+    // Version 2 adds the purchase expiry cutoff after the accounts, version 3 the shard moves after that
+    private static final int SNAPSHOT_VERSION = 3;
+
+    private final Map<String, ItemRecord> items = new HashMap<>();
+    private final Map<String, Deque<String>> waitLists = new HashMap<>();
+    // Items handed to another shard without the removal that completes the move, by item ID
+    private final Map<String, ShardMove> movingItems = new HashMap<>();
+    // Items taken over from other shards, item ID by move ID, until they leave this shard
+    private final Map<String, String> acceptedMoves = new HashMap<>();
+    private CompactAccountStore accounts = new CompactAccountStore();
+    private long lastSegment = -1;
+    private long replayedRecords;
+
+    Map<String, ItemRecord> items() {
+        return items;
+    }
+
+    Map<String, Deque<String>> waitLists() {
+        return waitLists;
+    }
+
+    CompactAccountStore accounts() {
+        return accounts;
+    }
+
+    Map<String, ShardMove> movingItems() {
+        return movingItems;
+    }
+
+    Map<String, String> acceptedMoves() {
+        return acceptedMoves;
+    }
+
+    // Highest journal segment whose records are already reflected in this state
+    long lastSegment() {
+        return lastSegment;
+    }
+
+    void setLastSegment(long lastSegment) {
+        this.lastSegment = lastSegment;
+    }
+
+    long replayedRecords() {
+        return replayedRecords;
+    }
+
+    boolean isEmpty() {
+        return items.isEmpty() && waitLists.isEmpty() && accounts.size() == 0;
+    }
+
+    // Returns the ID of the item the record created, changed or removed, null for other records
+    String apply(byte type, MappedStoreJournal.RecordReader reader) {
+        replayedRecords++;
+        switch (type) {
+            case MappedStoreJournal.ITEM_CREATED -> {
+                String itemId = reader.readString();
+                items.put(itemId, new ItemRecord(itemId, reader.readString(), reader.readInt(), reader.readDouble()));
+                return itemId;
+            }
+            case MappedStoreJournal.QUANTITY_CHANGED -> {
+                String itemId = reader.readString();
+                ItemRecord record = items.get(itemId);
+                int delta = reader.readInt();
+                if (record != null) {
+                    record.increaseQuantity(delta);
+                }
+                return itemId;
+            }
+            case MappedStoreJournal.ITEM_REMOVED -> {
+                String itemId = reader.readString();
+                items.remove(itemId);
+                waitLists.remove(itemId);
+                movingItems.remove(itemId);
+                acceptedMoves.values().removeIf(itemId::equals);
+                return itemId;
+            }
+            case MappedStoreJournal.ITEM_MOVING -> {
+                String itemId = reader.readString();
+                movingItems.put(itemId, new ShardMove(reader.readString(), reader.readString()));
+            }
+            case MappedStoreJournal.ITEM_MOVE_CANCELLED -> movingItems.remove(reader.readString());
+            case MappedStoreJournal.SHARD_MOVE_ACCEPTED -> acceptedMoves.put(reader.readString(), reader.readString());
+            case MappedStoreJournal.WAITLIST_ADDED -> {
+                String itemId = reader.readString();
+                waitLists.computeIfAbsent(itemId, key -> new ArrayDeque<>()).add(reader.readString());
+            }
+            case MappedStoreJournal.WAITLIST_REMOVED -> {
+                String itemId = reader.readString();
+                Deque<String> queue = waitLists.get(itemId);
+                String customerId = reader.readString();
+                if (queue != null) {
+                    queue.remove(customerId);
+                    if (queue.isEmpty()) {
+                        waitLists.remove(itemId);
+                    }
+                }
+            }
+            case MappedStoreJournal.PURCHASE_RECORDED -> accounts.recordPurchase(reader.readString(), readPurchase(reader));
+            case MappedStoreJournal.PURCHASE_CONSUMED -> accounts.consumePurchaseRecord(reader.readString(), reader.readString());
+            case MappedStoreJournal.PURCHASE_RESTORED -> accounts.restorePurchaseRecord(reader.readString(), readPurchase(reader));
+            case MappedStoreJournal.REFUNDED -> accounts.refund(reader.readString(), reader.readDouble());
+            case MappedStoreJournal.PURCHASE_RECORD_CONSUMED -> accounts.applyConsumed(reader.readString(), readPurchase(reader));
+            case MappedStoreJournal.PURCHASES_EXPIRED -> {
+                accounts.expireBefore(reader.readLong());
+                accounts.sweepExpired();
+            }
+            default -> throw new IllegalStateException("Unknown journal record type " + type);
+        }
+        return null;
+    }
+
+    private static PurchaseRecord readPurchase(MappedStoreJournal.RecordReader reader) {
+        String storeCode = reader.readString();
+        String itemId = reader.readString();
+        double price = reader.readDouble();
+        return new PurchaseRecord(itemId, storeCode, LocalDate.ofEpochDay(reader.readInt()), price);
+    }
+
+    void writeSnapshot(DataOutput out) throws IOException {
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeInt(SNAPSHOT_VERSION);
+        out.writeLong(lastSegment);
+        out.writeInt(items.size());
+        for (ItemRecord record : items.values()) {
+            out.writeUTF(record.getItemId());
+            out.writeUTF(record.getItemName());
+            out.writeInt(record.getQuantity());
+            out.writeDouble(record.getPrice());
+        }
+        out.writeInt(waitLists.size());
+        for (Map.Entry<String, Deque<String>> entry : waitLists.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue().size());
+            for (String customerId : entry.getValue()) {
+                out.writeUTF(customerId);
+            }
+        }
+        accounts.writeTo(out);
+        out.writeLong(accounts.getExpiredBefore());
+        out.writeInt(movingItems.size());
+        for (Map.Entry<String, ShardMove> entry : movingItems.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeUTF(entry.getValue().moveId());
+            out.writeUTF(entry.getValue().owner());
+        }
+        out.writeInt(acceptedMoves.size());
+        for (Map.Entry<String, String> entry : acceptedMoves.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeUTF(entry.getValue());
+        }
+    }
+
+    static JournalState readSnapshot(DataInput in) throws IOException {
+        int version = in.readInt() == SNAPSHOT_MAGIC ? in.readInt() : -1;
+        if (version < 1 || version > SNAPSHOT_VERSION) {
+            throw new IOException("Unrecognized snapshot format");
+        }
+        JournalState state = new JournalState();
+        state.lastSegment = in.readLong();
+        int itemCount = in.readInt();
+        for (int i = 0; i < itemCount; i++) {
+            String itemId = in.readUTF();
+            state.items.put(itemId, new ItemRecord(itemId, in.readUTF(), in.readInt(), in.readDouble()));
+        }
+        int waitListCount = in.readInt();
+        for (int i = 0; i < waitListCount; i++) {
+            String itemId = in.readUTF();
+            int size = in.readInt();
+            Deque<String> queue = new ArrayDeque<>(size);
+            for (int j = 0; j < size; j++) {
+                queue.add(in.readUTF());
+            }
+            state.waitLists.put(itemId, queue);
+        }
+        state.accounts = CompactAccountStore.readFrom(in);
+        if (version >= 2) {
+            state.accounts.expireBefore(in.readLong());
+        }
+        if (version >= 3) {
+            int movingCount = in.readInt();
+            for (int i = 0; i < movingCount; i++) {
+                state.movingItems.put(in.readUTF(), new ShardMove(in.readUTF(), in.readUTF()));
+            }
+            int acceptedCount = in.readInt();
+            for (int i = 0; i < acceptedCount; i++) {
+                state.acceptedMoves.put(in.readUTF(), in.readUTF());
+            }
+        }
+        return state;
+    }
+
+    // Hand-over of an item to the shard owning it, journaled before the owner is called
+    static final class ShardMove {
+        private final String moveId;
+        private final String owner;
+
+        ShardMove(String moveId, String owner) {
+            this.moveId = moveId;
+            this.owner = owner;
+        }
+
+        String moveId() {
+            return moveId;
+        }
+
+        String owner() {
+            return owner;
+        }
+    }
+}
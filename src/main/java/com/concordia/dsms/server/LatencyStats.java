@@ -0,0 +1,74 @@
+package com.concordia.dsms.server;
+
+import com.concordia.dsms.common.LatencyHistogram;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Point-in-time view of one operation's latency and outcome counters, published as
+ * composite data by {@link StoreMetricsMXBean}. Latencies are in microseconds.
+ */
+public final class LatencyStats {
+    private final long count;
+    private final long successes;
+    private final long failures;
+    private final double meanMicros;
+    private final double p50Micros;
+    private final double p99Micros;
+    private final double p999Micros;
+    private final double maxMicros;
+
+    @ConstructorProperties({"count", "successes", "failures", "meanMicros", "p50Micros", "p99Micros", "p999Micros", "maxMicros"})
+    public LatencyStats(long count, long successes, long failures, double meanMicros,
+                        double p50Micros, double p99Micros, double p999Micros, double maxMicros) {
+        this.count = count;
+        this.successes = successes;
+        this.failures = failures;
+        this.meanMicros = meanMicros;
+        this.p50Micros = p50Micros;
+        this.p99Micros = p99Micros;
+        this.p999Micros = p999Micros;
+        this.maxMicros = maxMicros;
+    }
+
+    static LatencyStats of(LatencyHistogram histogram, long successes, long failures) {
+        return new LatencyStats(histogram.getCount(), successes, failures,
+                histogram.getMean() / 1_000.0,
+                histogram.getValueAtQuantile(0.5) / 1_000.0,
+                histogram.getValueAtQuantile(0.99) / 1_000.0,
+                histogram.getValueAtQuantile(0.999) / 1_000.0,
+                histogram.getMax() / 1_000.0);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSuccesses() {
+        return successes;
+    }
+
+    public long getFailures() {
+        return failures;
+    }
+
+    public double getMeanMicros() {
+        return meanMicros;
+    }
+
+    public double getP50Micros() {
+        return p50Micros;
+    }
+
+    public double getP99Micros() {
+        return p99Micros;
+    }
+
+    public double getP999Micros() {
+        return p999Micros;
+    }
+
+    public double getMaxMicros() {
+        return maxMicros;
+    }
+}
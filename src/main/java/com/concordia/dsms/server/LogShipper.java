@@ -0,0 +1,287 @@
+package com.concordia.dsms.server;
+
+import com.concordia.dsms.common.StoreServer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.rmi.RemoteException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Streams the journal records of a store to its standby replica, which applies them
+ * asynchronously. Records are queued as they are appended and sent in batches by one sender
+ * thread. A standby that is new, restarted or lagging by more than the queue holds first gets a
+ * snapshot of the store and then the records after it. An idle store still sends an empty batch
+ * every heartbeat, which is how the standby knows its primary is alive.
+ */
+class LogShipper implements AutoCloseable {
+    static final int DEFAULT_MAX_LAG_RECORDS = 100_000;
+    static final Duration DEFAULT_HEARTBEAT = Duration.ofMillis(250);
+    private static final int MAX_BATCH_BYTES = 1024 * 1024;
+
+    private final String shardName;
+    private final MappedStoreJournal journal;
+    private final ServerEventLog eventLog;
+    private final int maxLagRecords;
+    private final long heartbeatNanos;
+    private final Thread sender;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition queued = lock.newCondition();
+    // Guarded by lock
+    private final ArrayDeque<Shipment> queue = new ArrayDeque<>();
+    private boolean resync = true;
+    private boolean overflowed;
+    // Last record appended, last record the standby applied, and since when it has been behind
+    private volatile long appended;
+    private volatile long acknowledged = -1;
+    private volatile long behindSinceNanos;
+    private volatile boolean running = true;
+
+    LogShipper(String shardName, MappedStoreJournal journal, ServerEventLog eventLog, int maxLagRecords, Duration heartbeat) {
+        this.shardName = Objects.requireNonNull(shardName, "shardName");
+        this.journal = Objects.requireNonNull(journal, "journal");
+        this.eventLog = Objects.requireNonNull(eventLog, "eventLog");
+        if (maxLagRecords <= 0) {
+            throw new IllegalArgumentException("Standby lag bound must be greater than zero.");
+        }
+        if (heartbeat.isNegative() || heartbeat.isZero()) {
+            throw new IllegalArgumentException("Heartbeat interval must be greater than zero.");
+        }
+        this.maxLagRecords = maxLagRecords;
+        this.heartbeatNanos = heartbeat.toNanos();
+        this.sender = new Thread(this::run, "DSMS-" + shardName + "-shipper");
+        sender.setDaemon(true);
+        journal.shipTo(this);
+        sender.start();
+    }
+
+    // Queues at most -Ddsms.standby.maxLagRecords and heartbeats every -Ddsms.standby.heartbeatMs
+    static LogShipper open(String shardName, MappedStoreJournal journal, ServerEventLog eventLog) {
+        return new LogShipper(shardName, journal, eventLog,
+                Integer.getInteger("dsms.standby.maxLagRecords", DEFAULT_MAX_LAG_RECORDS),
+                Duration.ofMillis(Long.getLong("dsms.standby.heartbeatMs", DEFAULT_HEARTBEAT.toMillis())));
+    }
+
+    // Called by the journal with its append lock held, so records arrive in order
+    void offer(long sequence, byte[] frame) {
+        appended = sequence;
+        lock.lock();
+        try {
+            if (resync) {
+                // Covered by the snapshot the standby gets next
+                return;
+            }
+            if (queue.size() >= maxLagRecords) {
+                queue.clear();
+                resync = true;
+                overflowed = true;
+                return;
+            }
+            Shipment shipment = new Shipment(sequence, frame);
+            if (behindSinceNanos == 0) {
+                behindSinceNanos = shipment.queuedNanos;
+            }
+            queue.add(shipment);
+            queued.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Records appended but not applied by the standby yet; -1 while no standby is in sync
+    long getLagRecords() {
+        long applied = acknowledged;
+        return applied < 0 ? -1 : Math.max(0, appended - applied);
+    }
+
+    // Age of the oldest record the standby has not applied yet
+    long getLagMillis() {
+        long since = behindSinceNanos;
+        return since == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - since);
+    }
+
+    private void run() {
+        boolean failing = false;
+        while (running) {
+            StoreServer standby = null;
+            try {
+                standby = StoreServerRegistry.lookupStandby(shardName);
+                if (standby == null) {
+                    detach();
+                    awaitHeartbeat();
+                    continue;
+                }
+                if (takeResync()) {
+                    install(standby);
+                } else {
+                    ship(standby);
+                }
+                failing = false;
+            } catch (IOException | RuntimeException e) {
+                if (!failing && running) {
+                    eventLog.log(ServerEvent.SHIPPING_FAILED, shardName, e);
+                }
+                failing = true;
+                detach();
+                if (standby != null) {
+                    // A restarted standby is bound with a new stub
+                    StoreServerRegistry.invalidate(StoreServerRegistry.standbyName(shardName));
+                }
+                awaitHeartbeat();
+            }
+        }
+    }
+
+    private void install(StoreServer standby) throws IOException {
+        MappedStoreJournal.CapturedSnapshot snapshot = journal.captureSnapshot();
+        lock.lock();
+        try {
+            while (!queue.isEmpty() && queue.peek().sequence <= snapshot.sequence()) {
+                queue.poll();
+            }
+        } finally {
+            lock.unlock();
+        }
+        standby.installReplicaSnapshot(journal.getEpoch(), snapshot.sequence(), snapshot.bytes());
+        acknowledged = snapshot.sequence();
+        caughtUp();
+        eventLog.log(ServerEvent.STANDBY_SYNCED, shardName, snapshot.sequence());
+    }
+
+    private void ship(StoreServer standby) throws RemoteException {
+        ArrayDeque<Shipment> batch = nextBatch();
+        long first = batch.isEmpty() ? acknowledged + 1 : batch.peek().sequence;
+        int bytes = 0;
+        for (Shipment shipment : batch) {
+            bytes += shipment.frame.length;
+        }
+        ByteBuffer frames = ByteBuffer.allocate(bytes);
+        for (Shipment shipment : batch) {
+            frames.put(shipment.frame);
+        }
+        long expected = standby.applyReplicatedRecords(journal.getEpoch(), first, frames.array());
+        if (expected != first + batch.size()) {
+            // The standby restarted or missed records; the records taken are covered by the snapshot
+            requestResync();
+            return;
+        }
+        acknowledged = expected - 1;
+        caughtUp();
+    }
+
+    // Waits up to a heartbeat for records and takes up to a batch of them
+    private ArrayDeque<Shipment> nextBatch() {
+        ArrayDeque<Shipment> batch = new ArrayDeque<>();
+        lock.lock();
+        try {
+            long remaining = heartbeatNanos;
+            while (queue.isEmpty() && running && remaining > 0) {
+                remaining = queued.awaitNanos(remaining);
+            }
+            int bytes = 0;
+            while (!queue.isEmpty() && (batch.isEmpty() || bytes + queue.peek().frame.length <= MAX_BATCH_BYTES)) {
+                Shipment shipment = queue.poll();
+                bytes += shipment.frame.length;
+                batch.add(shipment);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        } finally {
+            lock.unlock();
+        }
+        return batch;
+    }
+
+    private boolean takeResync() {
+        boolean lagged;
+        lock.lock();
+        try {
+            if (!resync) {
+                return false;
+            }
+            resync = false;
+            lagged = overflowed;
+            overflowed = false;
+        } finally {
+            lock.unlock();
+        }
+        if (lagged) {
+            eventLog.log(ServerEvent.STANDBY_LAGGED, shardName, maxLagRecords);
+        }
+        return true;
+    }
+
+    private void requestResync() {
+        lock.lock();
+        try {
+            queue.clear();
+            resync = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // No standby to ship to: a later one starts from a snapshot
+    private void detach() {
+        requestResync();
+        acknowledged = -1;
+        behindSinceNanos = 0;
+    }
+
+    private void caughtUp() {
+        lock.lock();
+        try {
+            behindSinceNanos = queue.isEmpty() ? 0 : queue.peek().queuedNanos;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void awaitHeartbeat() {
+        lock.lock();
+        try {
+            if (running) {
+                queued.awaitNanos(heartbeatNanos);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        journal.shipTo(null);
+        lock.lock();
+        try {
+            running = false;
+            queued.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            sender.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Shipment {
+        private final long sequence;
+        private final byte[] frame;
+        private final long queuedNanos = System.nanoTime();
+
+        private Shipment(long sequence, byte[] frame) {
+            this.sequence = sequence;
+            this.frame = frame;
+        }
+    }
+}
@@ -0,0 +1,655 @@
+package com.concordia.dsms.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * {@link StoreJournal} backed by memory-mapped, append-only segment files under
+ * {@code <dataDir>/journal-<n>.log}. Each record is framed as length, CRC32C and type
+ * followed by its payload; a zero length marks the end of a segment. Concurrent commits
+ * are batched so a single {@code force()} covers every record appended before it
+ * (group commit). A background task periodically seals the active segment and folds
+ * sealed segments into {@code snapshot.bin}, after which they are deleted.
+ * Records are numbered from 1 each time the journal is opened; the random epoch of the open
+ * tells a standby following this journal whether its numbering still applies.
+ */
+final class MappedStoreJournal implements StoreJournal {
+    static final byte ITEM_CREATED = 1;
+    static final byte QUANTITY_CHANGED = 2;
+    static final byte ITEM_REMOVED = 3;
+    static final byte WAITLIST_ADDED = 4;
+    static final byte WAITLIST_REMOVED = 5;
+    static final byte PURCHASE_RECORDED = 6;
+    // Only replayed; written by journals from before consumed records carried their date
+    static final byte PURCHASE_CONSUMED = 7;
+    static final byte PURCHASE_RESTORED = 8;
+    static final byte REFUNDED = 9;
+    static final byte PURCHASE_RECORD_CONSUMED = 10;
+    static final byte PURCHASES_EXPIRED = 11;
+    static final byte ITEM_MOVING = 12;
+    static final byte SHARD_MOVE_ACCEPTED = 13;
+    static final byte ITEM_MOVE_CANCELLED = 14;
+
+    static final int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+    static final Duration DEFAULT_SNAPSHOT_INTERVAL = Duration.ofMinutes(1);
+    private static final int HEADER_BYTES = 2 * Integer.BYTES + 1;
+    private static final String SNAPSHOT_FILE = "snapshot.bin";
+
+    // Journals the current thread appended to since its last commit
+    private static final ThreadLocal<List<MappedStoreJournal>> PENDING = ThreadLocal.withInitial(() -> new ArrayList<>(2));
+    private static final ThreadLocal<ByteBuffer> SCRATCH = ThreadLocal.withInitial(() -> ByteBuffer.allocate(64 * 1024));
+    private static final int MAX_FIELD_BYTES = 16 * 1024;
+
+    private final String storeCode;
+    private final Path directory;
+    private final long epoch = ThreadLocalRandom.current().nextLong();
+    private final int segmentBytes;
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final Condition syncDone = syncLock.newCondition();
+    private final ReentrantLock compactionLock = new ReentrantLock();
+    private final ScheduledExecutorService compactor;
+    private JournalState recoveredState;
+    // Last segment folded into snapshot.bin, only touched by the compactor
+    private long snapshotSegment;
+    // Set once the store owning the journal is up; snapshot failures before that go to stderr
+    private volatile ServerEventLog eventLog;
+    // Guarded by appendLock
+    private FileChannel segmentChannel;
+    private MappedByteBuffer segment;
+    private long segmentNumber;
+    private long appendedRecords;
+    private LogShipper shipper;
+    // Guarded by syncLock
+    private long durableRecords;
+    private boolean syncInProgress;
+    private volatile boolean closed;
+
+    private MappedStoreJournal(String storeCode, Path directory, int segmentBytes, Duration snapshotInterval,
+                               JournalState recoveredState, long snapshotSegment, long firstSegment) throws IOException {
+        this.storeCode = storeCode;
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.recoveredState = recoveredState;
+        this.snapshotSegment = snapshotSegment;
+        openSegment(firstSegment);
+        this.compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "DSMS-" + storeCode + "-journal-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(this::snapshotQuietly, snapshotInterval.toMillis(), snapshotInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Replays the snapshot and journal tail found in {@code directory}, then opens a fresh
+     * segment for new records. Segment size and snapshot interval come from the
+     * dsms.journal.segmentBytes and dsms.journal.snapshotMillis system properties.
+     */
+    static MappedStoreJournal open(String storeCode, Path directory) throws IOException {
+        int segmentBytes = Integer.getInteger("dsms.journal.segmentBytes", DEFAULT_SEGMENT_BYTES);
+        Duration snapshotInterval = Duration.ofMillis(Long.getLong("dsms.journal.snapshotMillis", DEFAULT_SNAPSHOT_INTERVAL.toMillis()));
+        return open(storeCode, directory, segmentBytes, snapshotInterval);
+    }
+
+    static MappedStoreJournal open(String storeCode, Path directory, int segmentBytes, Duration snapshotInterval) throws IOException {
+        Objects.requireNonNull(storeCode, "storeCode");
+        Files.createDirectories(directory);
+        JournalState state = loadSnapshot(directory);
+        long snapshotSegment = state.lastSegment();
+        TreeMap<Long, Path> segments = listSegments(directory);
+        for (var entry : segments.entrySet()) {
+            if (entry.getKey() > state.lastSegment()) {
+                replaySegment(entry.getValue(), state);
+                state.setLastSegment(entry.getKey());
+            }
+        }
+        long nextSegment = Math.max(state.lastSegment(), segments.isEmpty() ? -1 : segments.lastKey()) + 1;
+        return new MappedStoreJournal(storeCode, directory, segmentBytes, snapshotInterval, state, snapshotSegment, nextSegment);
+    }
+
+    // State rebuilt when the journal was opened; handed out once so it can be garbage collected
+    JournalState takeRecoveredState() {
+        JournalState state = recoveredState;
+        recoveredState = null;
+        return state;
+    }
+
+    long getEpoch() {
+        return epoch;
+    }
+
+    @Override
+    public void reportTo(ServerEventLog eventLog) {
+        this.eventLog = eventLog;
+    }
+
+    // Hands every record appended from now on to the shipper, numbered as they were appended
+    void shipTo(LogShipper shipper) {
+        appendLock.lock();
+        try {
+            this.shipper = shipper;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    public void itemCreated(String itemId, String itemName, int quantity, double price) {
+        ByteBuffer payload = scratch();
+        putString(payload, itemId);
+        putString(payload, itemName);
+        payload.putInt(quantity).putDouble(price);
+        append(ITEM_CREATED, payload);
+    }
+
+    @Override
+    public void quantityChanged(String itemId, int delta) {
+        ByteBuffer payload = scratch();
+        putString(payload, itemId);
+        payload.putInt(delta);
+        append(QUANTITY_CHANGED, payload);
+    }
+
+    @Override
+    public void itemRemoved(String itemId) {
+        ByteBuffer payload = scratch();
+        putString(payload, itemId);
+        append(ITEM_REMOVED, payload);
+    }
+
+    @Override
+    public void itemMoving(String itemId, String moveId, String owner) {
+        ByteBuffer payload = scratch();
+        putString(payload, itemId);
+        putString(payload, moveId);
+        putString(payload, owner);
+        append(ITEM_MOVING, payload);
+    }
+
+    @Override
+    public void itemMoveCancelled(String itemId) {
+        ByteBuffer payload = scratch();
+        putString(payload, itemId);
+        append(ITEM_MOVE_CANCELLED, payload);
+    }
+
+    @Override
+    public void shardMoveAccepted(String moveId, String itemId) {
+        ByteBuffer payload = scratch();
+        putString(payload, moveId);
+        putString(payload, itemId);
+        append(SHARD_MOVE_ACCEPTED, payload);
+    }
+
+    @Override
+    public void waitlistAdded(String itemId, String customerId) {
+        ByteBuffer payload = scratch();
+        putString(payload, itemId);
+        putString(payload, customerId);
+        append(WAITLIST_ADDED, payload);
+    }
+
+    @Override
+    public void waitlistRemoved(String itemId, String customerId) {
+        ByteBuffer payload = scratch();
+        putString(payload, itemId);
+        putString(payload, customerId);
+        append(WAITLIST_REMOVED, payload);
+    }
+
+    @Override
+    public void purchaseRecorded(String customerId, PurchaseRecord record) {
+        append(PURCHASE_RECORDED, purchasePayload(customerId, record));
+    }
+
+    @Override
+    public void purchaseConsumed(String customerId, PurchaseRecord record) {
+        append(PURCHASE_RECORD_CONSUMED, purchasePayload(customerId, record));
+    }
+
+    @Override
+    public void purchaseRestored(String customerId, PurchaseRecord record) {
+        append(PURCHASE_RESTORED, purchasePayload(customerId, record));
+    }
+
+    @Override
+    public void refunded(String customerId, double amount) {
+        ByteBuffer payload = scratch();
+        putString(payload, customerId);
+        payload.putDouble(amount);
+        append(REFUNDED, payload);
+    }
+
+    @Override
+    public void purchasesExpired(LocalDate before) {
+        ByteBuffer payload = scratch();
+        payload.putLong(before.toEpochDay());
+        append(PURCHASES_EXPIRED, payload);
+    }
+
+    private static ByteBuffer purchasePayload(String customerId, PurchaseRecord record) {
+        ByteBuffer payload = scratch();
+        putString(payload, customerId);
+        putString(payload, record.storeCode());
+        putString(payload, record.itemId());
+        payload.putDouble(record.price()).putInt((int) record.purchaseDate().toEpochDay());
+        return payload;
+    }
+
+    private void append(byte type, ByteBuffer payload) {
+        payload.flip();
+        CRC32C crc = new CRC32C();
+        crc.update(type);
+        crc.update(payload.duplicate());
+        int length = payload.remaining() + 1;
+        appendLock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Journal for store " + storeCode + " is closed");
+            }
+            if (segment.remaining() < HEADER_BYTES + payload.remaining() + Integer.BYTES) {
+                rotate();
+            }
+            if (shipper != null) {
+                byte[] frame = new byte[HEADER_BYTES + payload.remaining()];
+                ByteBuffer.wrap(frame).putInt(length).putInt((int) crc.getValue()).put(type).put(payload.duplicate());
+                shipper.offer(appendedRecords + 1, frame);
+            }
+            segment.putInt(length).putInt((int) crc.getValue()).put(type).put(payload);
+            appendedRecords++;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to append to journal of store " + storeCode, e);
+        } finally {
+            appendLock.unlock();
+        }
+        List<MappedStoreJournal> pending = PENDING.get();
+        if (!pending.contains(this)) {
+            pending.add(this);
+        }
+    }
+
+    // Appends a record shipped from the primary this journal's store is a standby of
+    void appendReplicated(byte type, ByteBuffer payload) {
+        ByteBuffer copy = scratch();
+        copy.put(payload);
+        append(type, copy);
+    }
+
+    static void commitPending() {
+        List<MappedStoreJournal> pending = PENDING.get();
+        for (int i = 0; i < pending.size(); i++) {
+            pending.get(i).commit();
+        }
+        pending.clear();
+    }
+
+    // Group commit: the first waiting thread forces the segment for everyone appended so far
+    void commit() {
+        long target;
+        appendLock.lock();
+        try {
+            target = appendedRecords;
+        } finally {
+            appendLock.unlock();
+        }
+        syncLock.lock();
+        try {
+            while (durableRecords < target) {
+                if (syncInProgress) {
+                    syncDone.awaitUninterruptibly();
+                    continue;
+                }
+                syncInProgress = true;
+                syncLock.unlock();
+                long synced;
+                try {
+                    synced = force();
+                } finally {
+                    syncLock.lock();
+                    syncInProgress = false;
+                    syncDone.signalAll();
+                }
+                durableRecords = Math.max(durableRecords, synced);
+            }
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    private long force() {
+        MappedByteBuffer active;
+        long covered;
+        appendLock.lock();
+        try {
+            active = segment;
+            covered = appendedRecords;
+        } finally {
+            appendLock.unlock();
+        }
+        // Records in earlier segments were forced when those segments were sealed
+        active.force();
+        return covered;
+    }
+
+    // Seals a full segment and asks the compactor to fold it; caller holds appendLock
+    private void rotate() throws IOException {
+        sealActiveSegment();
+        try {
+            compactor.execute(this::snapshotQuietly);
+        } catch (RejectedExecutionException e) {
+            // Journal is closing, the sealed segment is replayed on the next start instead
+        }
+    }
+
+    // Forces and closes the active segment, then opens the next one; caller holds appendLock
+    private void sealActiveSegment() throws IOException {
+        segment.force();
+        segmentChannel.close();
+        openSegment(segmentNumber + 1);
+    }
+
+    private void openSegment(long number) throws IOException {
+        segmentNumber = number;
+        segmentChannel = FileChannel.open(segmentPath(directory, number),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+    }
+
+    /**
+     * Folds every sealed segment into a new snapshot. Sealing the active segment first
+     * (when it holds records) bounds how much journal a restart has to replay.
+     */
+    void snapshot() throws IOException {
+        compactionLock.lock();
+        try {
+            compact();
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    /**
+     * Takes a snapshot as {@link #snapshot()} does and returns it with the number of the last
+     * record it covers, for a standby to install before applying the records after it.
+     */
+    CapturedSnapshot captureSnapshot() throws IOException {
+        compactionLock.lock();
+        try {
+            long covered = compact();
+            if (covered < 0) {
+                throw new IllegalStateException("Journal for store " + storeCode + " is closed");
+            }
+            Path file = directory.resolve(SNAPSHOT_FILE);
+            if (Files.exists(file)) {
+                return new CapturedSnapshot(covered, Files.readAllBytes(file));
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            new JournalState().writeSnapshot(new DataOutputStream(bytes));
+            return new CapturedSnapshot(covered, bytes.toByteArray());
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    /**
+     * Replaces everything this journal holds with the given state, as a standby does when it
+     * installs a snapshot of its primary. Records appended afterwards apply on top of it.
+     */
+    void installSnapshot(JournalState state) throws IOException {
+        compactionLock.lock();
+        try {
+            long lastSealed;
+            appendLock.lock();
+            try {
+                if (closed) {
+                    throw new IllegalStateException("Journal for store " + storeCode + " is closed");
+                }
+                sealActiveSegment();
+                lastSealed = segmentNumber - 1;
+            } finally {
+                appendLock.unlock();
+            }
+            state.setLastSegment(lastSealed);
+            writeSnapshot(directory, state);
+            snapshotSegment = lastSealed;
+            for (Path file : listSegments(directory).headMap(lastSealed, true).values()) {
+                Files.deleteIfExists(file);
+            }
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    // Folds the sealed segments into snapshot.bin; returns the number of records it covers, or -1 once closed
+    private long compact() throws IOException {
+        long lastSealed;
+        long covered;
+        appendLock.lock();
+        try {
+            if (closed) {
+                return -1;
+            }
+            if (segment.position() > 0) {
+                sealActiveSegment();
+            }
+            lastSealed = segmentNumber - 1;
+            covered = appendedRecords;
+        } finally {
+            appendLock.unlock();
+        }
+        if (lastSealed > snapshotSegment) {
+            JournalState state = loadSnapshot(directory);
+            TreeMap<Long, Path> segments = listSegments(directory);
+            for (var entry : segments.headMap(lastSealed, true).entrySet()) {
+                if (entry.getKey() > state.lastSegment()) {
+                    replaySegment(entry.getValue(), state);
+                }
+            }
+            state.setLastSegment(lastSealed);
+            writeSnapshot(directory, state);
+            snapshotSegment = lastSealed;
+            for (Path file : segments.headMap(lastSealed, true).values()) {
+                Files.deleteIfExists(file);
+            }
+        }
+        return covered;
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            ServerEventLog log = eventLog;
+            if (log != null) {
+                log.log(ServerEvent.SNAPSHOT_FAILED, storeCode, e);
+            } else {
+                System.err.println("Snapshot of store " + storeCode + " failed: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        appendLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            segment.force();
+            segmentChannel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to close journal of store " + storeCode, e);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private static JournalState loadSnapshot(Path directory) throws IOException {
+        Path file = directory.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(file)) {
+            return new JournalState();
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            return JournalState.readSnapshot(in);
+        }
+    }
+
+    private static void writeSnapshot(Path directory, JournalState state) throws IOException {
+        Path temp = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+            state.writeSnapshot(out);
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp, directory.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void replaySegment(Path file, JournalState state) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            readRecords(buffer, (type, payload) -> state.apply(type, new RecordReader(payload)));
+        }
+    }
+
+    // Visits framed records until the end marker or the first torn/corrupt record; returns how many were visited
+    static long readRecords(ByteBuffer buffer, RecordVisitor visitor) {
+        long visited = 0;
+        while (buffer.remaining() >= HEADER_BYTES) {
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                break;
+            }
+            ByteBuffer record = buffer.slice(buffer.position(), length);
+            CRC32C crc = new CRC32C();
+            crc.update(record.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            byte type = record.get();
+            visitor.visit(type, record);
+            visited++;
+            buffer.position(buffer.position() + length);
+        }
+        return visited;
+    }
+
+    private static TreeMap<Long, Path> listSegments(Path directory) throws IOException {
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        try (var files = Files.list(directory)) {
+            files.forEach(file -> {
+                String name = file.getFileName().toString();
+                if (name.startsWith("journal-") && name.endsWith(".log")) {
+                    segments.put(Long.parseLong(name.substring("journal-".length(), name.length() - ".log".length())), file);
+                }
+            });
+        }
+        return segments;
+    }
+
+    private static Path segmentPath(Path directory, long number) {
+        return directory.resolve(String.format("journal-%08d.log", number));
+    }
+
+    private static ByteBuffer scratch() {
+        ByteBuffer buffer = SCRATCH.get();
+        buffer.clear();
+        return buffer;
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_FIELD_BYTES) {
+            throw new IllegalArgumentException("Journal field too long: " + bytes.length + " bytes");
+        }
+        buffer.putShort((short) bytes.length).put(bytes);
+    }
+
+    interface RecordVisitor {
+        // The payload starts after the record type and is only valid during the call
+        void visit(byte type, ByteBuffer payload);
+    }
+
+    // A snapshot together with the number of the last record it covers
+    static final class CapturedSnapshot {
+        private final long sequence;
+        private final byte[] bytes;
+
+        private CapturedSnapshot(long sequence, byte[] bytes) {
+            this.sequence = sequence;
+            this.bytes = bytes;
+        }
+
+        long sequence() {
+            return sequence;
+        }
+
+        byte[] bytes() {
+            return bytes;
+        }
+    }
+
+    // Sequential reader over the payload of a single journal record
+    static final class RecordReader {
+        private final ByteBuffer payload;
+
+        RecordReader(ByteBuffer payload) {
+            this.payload = payload;
+        }
+
+        String readString() {
+            byte[] bytes = new byte[payload.getShort()];
+            payload.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        int readInt() {
+            return payload.getInt();
+        }
+
+        long readLong() {
+            return payload.getLong();
+        }
+
+        double readDouble() {
+            return payload.getDouble();
+        }
+    }
+}
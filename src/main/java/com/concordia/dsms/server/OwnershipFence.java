@@ -0,0 +1,98 @@
+package com.concordia.dsms.server;
+
+import com.concordia.dsms.common.StoreServer;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Steps a primary down once another node took over its name. The registry binding of the name
+ * is the ownership token: a standby that takes over rebinds the name to itself before it accepts
+ * writes. The primary looks its name up in every registry that answers, and once one of them
+ * binds it to another node the primary stops accepting writes for good. Checks start once the
+ * name was bound to the primary, so a binding a crashed earlier run left behind does not fence a
+ * store that is still recovering. Until its next check, or for as long as it cannot reach the
+ * registry holding the new binding, the old primary still accepts writes its successor never sees.
+ */
+class OwnershipFence implements AutoCloseable {
+    static final Duration DEFAULT_INTERVAL = Duration.ofSeconds(1);
+
+    // Called once, on the fence thread, when the name is bound to another node
+    interface Handler {
+        void superseded();
+    }
+
+    private final String shardName;
+    private final StoreServer owner;
+    private final Handler handler;
+    private final ServerEventLog eventLog;
+    private final ScheduledExecutorService scheduler;
+    private boolean claimed;
+    private volatile boolean superseded;
+
+    OwnershipFence(String shardName, StoreServer owner, Handler handler, ServerEventLog eventLog, Duration interval) {
+        this.shardName = Objects.requireNonNull(shardName, "shardName");
+        this.owner = Objects.requireNonNull(owner, "owner");
+        this.handler = Objects.requireNonNull(handler, "handler");
+        this.eventLog = Objects.requireNonNull(eventLog, "eventLog");
+        if (interval.isNegative() || interval.isZero()) {
+            throw new IllegalArgumentException("Ownership check interval must be greater than zero.");
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "DSMS-" + shardName + "-fence");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::checkQuietly, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    // Checks every -Ddsms.standby.fenceCheckMs
+    static OwnershipFence open(String shardName, StoreServer owner, Handler handler, ServerEventLog eventLog) {
+        return new OwnershipFence(shardName, owner, handler, eventLog,
+                Duration.ofMillis(Long.getLong("dsms.standby.fenceCheckMs", DEFAULT_INTERVAL.toMillis())));
+    }
+
+    // Looks the name up once; true once another node holds it. Runs on the fence thread only.
+    boolean check() {
+        if (superseded) {
+            return true;
+        }
+        if (!claimed) {
+            claimed = StoreServerRegistry.isBound(shardName, owner);
+            return false;
+        }
+        if (!StoreServerRegistry.isBoundElsewhere(shardName, owner)) {
+            return false;
+        }
+        superseded = true;
+        eventLog.log(ServerEvent.PRIMARY_SUPERSEDED, shardName);
+        handler.superseded();
+        scheduler.shutdown();
+        return true;
+    }
+
+    boolean isSuperseded() {
+        return superseded;
+    }
+
+    private void checkQuietly() {
+        try {
+            check();
+        } catch (RuntimeException e) {
+            eventLog.log(ServerEvent.OWNERSHIP_CHECK_FAILED, shardName, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
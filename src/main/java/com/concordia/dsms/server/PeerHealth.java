@@ -0,0 +1,126 @@
+package com.concordia.dsms.server;
+
+import com.concordia.dsms.common.LatencyHistogram;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Health of one node as seen by the RMI calls this process makes to it: a latency histogram,
+ * outcome counters and a circuit breaker. After a number of consecutive failed calls the breaker
+ * opens and calls fail at once instead of waiting on a node that is down. Once the open
+ * interval has passed, one trial call is let through; it closes the breaker if it succeeds and
+ * opens it again if it fails. A successful background probe also closes it.
+ */
+class PeerHealth {
+    static final int DEFAULT_FAILURE_THRESHOLD = 3;
+    static final Duration DEFAULT_OPEN_INTERVAL = Duration.ofSeconds(2);
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder successes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    // Guarded by this
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAtNanos;
+    private boolean trialInFlight;
+
+    PeerHealth(int failureThreshold, Duration openInterval) {
+        if (failureThreshold <= 0) {
+            throw new IllegalArgumentException("Breaker failure threshold must be greater than zero.");
+        }
+        if (openInterval.isNegative() || openInterval.isZero()) {
+            throw new IllegalArgumentException("Breaker open interval must be greater than zero.");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openInterval.toNanos();
+    }
+
+    // Opens after -Ddsms.breaker.failures consecutive failures and stays open for -Ddsms.breaker.openMs
+    static PeerHealth open() {
+        return new PeerHealth(Integer.getInteger("dsms.breaker.failures", DEFAULT_FAILURE_THRESHOLD),
+                Duration.ofMillis(Long.getLong("dsms.breaker.openMs", DEFAULT_OPEN_INTERVAL.toMillis())));
+    }
+
+    /**
+     * Whether a call may go to the node now. An open breaker lets the first call after its open
+     * interval through as the trial; every call let through must report its outcome.
+     */
+    synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.nanoTime() - openedAtNanos < openNanos) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                trialInFlight = true;
+                return true;
+            default:
+                if (trialInFlight) {
+                    return false;
+                }
+                trialInFlight = true;
+                return true;
+        }
+    }
+
+    // The node answered, even if with an application error
+    void recordSuccess(long startNanos) {
+        latency.record(System.nanoTime() - startNanos);
+        successes.increment();
+        close();
+    }
+
+    // The call never got an answer: the node is unreachable, timed out or its stub is stale
+    void recordFailure(long startNanos) {
+        latency.record(System.nanoTime() - startNanos);
+        failures.increment();
+        synchronized (this) {
+            consecutiveFailures++;
+            if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+                trip();
+            }
+        }
+    }
+
+    // A background probe reached the node, or failed to while the breaker was not closed
+    void recordProbe(boolean reachable) {
+        if (reachable) {
+            close();
+            return;
+        }
+        synchronized (this) {
+            if (state != State.CLOSED && !trialInFlight) {
+                trip();
+            }
+        }
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    LatencyStats getLatency() {
+        return LatencyStats.of(latency, successes.sum(), failures.sum());
+    }
+
+    private synchronized void close() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        trialInFlight = false;
+    }
+
+    private void trip() {
+        state = State.OPEN;
+        openedAtNanos = System.nanoTime();
+        trialInFlight = false;
+    }
+}
@@ -0,0 +1,188 @@
+package com.concordia.dsms.server;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Item lookup results received from other stores, keyed by store and normalized item name,
+ * evicting the least recently used entry beyond its capacity. Owning stores push an
+ * invalidation whenever a matching item changes. Catalog changes (an item added or removed)
+ * drop the entry at once; quantity changes only mark it stale, and a stale entry is still
+ * served until the staleness bound passes. Entries older than the maximum age are dropped
+ * regardless, which covers invalidations lost on the way.
+ */
+class RemoteLookupCache {
+    static final int DEFAULT_CAPACITY = 10_000;
+    static final Duration DEFAULT_MAX_AGE = Duration.ofSeconds(30);
+
+    private final int capacity;
+    private final long stalenessNanos;
+    private final long maxAgeNanos;
+    // Access ordered, guarded by its own monitor
+    private final LinkedHashMap<Key, Entry> entries;
+    // Invalidations received from each store, used to spot lookups that raced with a change
+    private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    RemoteLookupCache(int capacity, Duration staleness, Duration maxAge) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Lookup cache capacity must not be negative.");
+        }
+        this.capacity = capacity;
+        this.stalenessNanos = Objects.requireNonNull(staleness, "staleness").toNanos();
+        this.maxAgeNanos = Objects.requireNonNull(maxAge, "maxAge").toNanos();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > RemoteLookupCache.this.capacity;
+            }
+        };
+    }
+
+    // Reads -Ddsms.lookupCache.size (0 disables caching), -Ddsms.lookupCache.stalenessMs and -Ddsms.lookupCache.maxAgeMs
+    static RemoteLookupCache open() {
+        return new RemoteLookupCache(
+                Integer.getInteger("dsms.lookupCache.size", DEFAULT_CAPACITY),
+                Duration.ofMillis(Long.getLong("dsms.lookupCache.stalenessMs", 0)),
+                Duration.ofMillis(Long.getLong("dsms.lookupCache.maxAgeMs", DEFAULT_MAX_AGE.toMillis())));
+    }
+
+    // Cached response of a store for the name, or null on a miss
+    String get(String storeCode, String itemName) {
+        if (capacity == 0) {
+            return null;
+        }
+        Key key = new Key(storeCode, ItemNameIndex.normalize(itemName));
+        long now = System.nanoTime();
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.isUsable(now)) {
+                hits.increment();
+                return entry.response;
+            }
+            if (entry != null) {
+                entries.remove(key);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    // Taken before sending a lookup and handed back to put with the response
+    long generation(String storeCode) {
+        return generations.computeIfAbsent(storeCode, code -> new AtomicLong()).get();
+    }
+
+    void put(String storeCode, String itemName, String response, long generation, long requestStartNanos) {
+        if (capacity == 0) {
+            return;
+        }
+        Entry entry = new Entry(response, requestStartNanos);
+        // The store changed something while the lookup was in flight, so the response may already be stale
+        if (generation(storeCode) != generation) {
+            entry.staleSinceNanos = requestStartNanos;
+        }
+        synchronized (entries) {
+            entries.put(new Key(storeCode, ItemNameIndex.normalize(itemName)), entry);
+        }
+    }
+
+    void invalidate(String storeCode, String normalizedName, boolean catalogChange) {
+        invalidations.increment();
+        generations.computeIfAbsent(storeCode, code -> new AtomicLong()).incrementAndGet();
+        Key key = new Key(storeCode, normalizedName);
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return;
+            }
+            if (catalogChange || stalenessNanos == 0) {
+                entries.remove(key);
+            } else if (entry.staleSinceNanos == 0) {
+                entry.staleSinceNanos = System.nanoTime();
+            }
+        }
+    }
+
+    long getHitCount() {
+        return hits.sum();
+    }
+
+    long getMissCount() {
+        return misses.sum();
+    }
+
+    double getHitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    long getInvalidationCount() {
+        return invalidations.sum();
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    void resetCounters() {
+        hits.reset();
+        misses.reset();
+        invalidations.reset();
+    }
+
+    private final class Entry {
+        private final String response;
+        private final long cachedAtNanos;
+        // When the first invalidation arrived, 0 while the entry is fresh; guarded by the entries monitor
+        private long staleSinceNanos;
+
+        private Entry(String response, long cachedAtNanos) {
+            this.response = response;
+            this.cachedAtNanos = cachedAtNanos;
+        }
+
+        private boolean isUsable(long now) {
+            if (now - cachedAtNanos > maxAgeNanos) {
+                return false;
+            }
+            return staleSinceNanos == 0 || now - staleSinceNanos <= stalenessNanos;
+        }
+    }
+
+    private static final class Key {
+        private final String storeCode;
+        private final String name;
+
+        private Key(String storeCode, String name) {
+            this.storeCode = storeCode;
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof Key key)) {
+                return false;
+            }
+            return storeCode.equals(key.storeCode) && name.equals(key.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * storeCode.hashCode() + name.hashCode();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.concordia.dsms.server;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drops the purchase records of a store's customers once they are past the return window.
+ * The cutoff is 30 days before the clock's date; dates customers send never move it, so one
+ * customer's mistyped date cannot expire the records of the others. The cutoff only moves
+ * once a day, so most passes find nothing to do.
+ */
+class ReturnWindowSweeper implements AutoCloseable {
+    static final Duration DEFAULT_INTERVAL = Duration.ofMinutes(1);
+
+    private final String storeCode;
+    private final CustomerAccountManager accounts;
+    private final ServerEventLog eventLog;
+    private final Clock clock;
+    private final ScheduledExecutorService scheduler;
+
+    ReturnWindowSweeper(String storeCode, CustomerAccountManager accounts, ServerEventLog eventLog, Clock clock,
+                        Duration interval) {
+        this.storeCode = Objects.requireNonNull(storeCode, "storeCode");
+        this.accounts = Objects.requireNonNull(accounts, "accounts");
+        this.eventLog = Objects.requireNonNull(eventLog, "eventLog");
+        this.clock = Objects.requireNonNull(clock, "clock");
+        if (interval.isNegative() || interval.isZero()) {
+            throw new IllegalArgumentException("Sweep interval must be greater than zero.");
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "DSMS-" + storeCode + "-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::sweepQuietly, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    // Sweeps every -Ddsms.accounts.sweepMs
+    static ReturnWindowSweeper open(String storeCode, CustomerAccountManager accounts, ServerEventLog eventLog) {
+        return new ReturnWindowSweeper(storeCode, accounts, eventLog, Clock.systemDefaultZone(),
+                Duration.ofMillis(Long.getLong("dsms.accounts.sweepMs", DEFAULT_INTERVAL.toMillis())));
+    }
+
+    // Moves the cutoff up to 30 days before the clock's date and drops the records before it; returns how many were dropped
+    int sweep() {
+        LocalDate cutoff = accounts.expirePurchases(LocalDate.now(clock));
+        if (cutoff == null) {
+            return 0;
+        }
+        StoreJournal.commitPending();
+        int dropped = accounts.sweepExpired();
+        if (dropped > 0) {
+            eventLog.log(ServerEvent.PURCHASES_EXPIRED, cutoff, dropped);
+        }
+        return dropped;
+    }
+
+    private void sweepQuietly() {
+        try {
+            sweep();
+        } catch (RuntimeException e) {
+            eventLog.log(ServerEvent.SWEEP_FAILED, storeCode, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
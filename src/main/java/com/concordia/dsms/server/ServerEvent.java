@@ -0,0 +1,115 @@
+package com.concordia.dsms.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Structured server log events. Each template is compiled once; the placeholders
+ * {0}, {1} and {2} refer to the text arguments of an event, {n} and {m} to its
+ * numeric arguments and {d} to its amount, which is rendered with two decimals.
+ */
+enum ServerEvent {
+    ITEM_ADDED(Severity.INFO, "Added new item {0} ({1}) qty={n} price={d}"),
+    ITEM_RESTOCKED(Severity.INFO, "Increased quantity for item {0} by {n}. New quantity={m}"),
+    ITEM_REMOVED(Severity.INFO, "Removed item {0} from inventory."),
+    ITEM_DECREASED(Severity.INFO, "Decreased quantity for {0} by {n}. New quantity={m}"),
+    ITEMS_LISTED(Severity.INFO, "Listed {n} items for manager {0}"),
+    PURCHASE_COMPLETED(Severity.INFO, "Customer {0} purchased item {1} for {d}"),
+    PURCHASE_FORWARDED(Severity.INFO, "Forwarded purchase request for customer {0} to store {1}: {2}"),
+    REMOTE_PURCHASE_FAILED(Severity.INFO, "Remote purchase failed for customer {0} item {1}: {2}"),
+    CART_CHECKED_OUT(Severity.INFO, "Customer {0} checked out {n} item(s) from store(s) {1} for {d}"),
+    CART_REJECTED(Severity.INFO, "Cart {1} of customer {0} rejected: {2}"),
+    CART_PARTIALLY_SETTLED(Severity.WARNING, "Refunded {d} to customer {0} for {n} item(s) of cart {1} whose reservation expired before the commit"),
+    CART_SETTLE_FAILED(Severity.WARNING, "Unable to settle cart {1} with store {0}"),
+    CART_RESERVATION_EXPIRED(Severity.WARNING, "Released stock held for cart {0} of customer {1}, it was never settled"),
+    BUDGET_HOLD_FAILED(Severity.WARNING, "Budget hold for customer {1} with home store {0} failed"),
+    HOLD_CONFIRM_PENDING(Severity.WARNING, "Home store {0} did not answer the confirmation of hold {2} for customer {1}, retrying"),
+    HOLD_NOT_CONFIRMED(Severity.INFO, "Hold {2} of customer {0} was not confirmed, restocked item {1}"),
+    SUBSCRIBER_ADDED(Severity.INFO, "Manager {0} subscribed to inventory changes"),
+    SUBSCRIBER_REMOVED(Severity.INFO, "Inventory subscription of manager {0} ended"),
+    SUBSCRIBER_OVERFLOWED(Severity.WARNING, "Dropped inventory subscription of manager {0}: more than {n} changes pending"),
+    SUBSCRIBER_FAILED(Severity.WARNING, "Unable to deliver inventory changes to manager {0}"),
+    SUBSCRIBER_TIMED_OUT(Severity.WARNING, "Dropped inventory subscription of manager {0}: a callback did not return within {n} ms"),
+    FIND_COMPLETED(Severity.INFO, "FindItem for {0} item={1} completed, {n} store(s) did not respond"),
+    LOOKUP_DEADLINE_MISSED(Severity.WARNING, "Store {0} missed the {n} ms lookup deadline for item {1}"),
+    LOOKUP_FAILED(Severity.WARNING, "Lookup for item {1} on store {0} failed"),
+    RETURN_COMPLETED(Severity.INFO, "Customer {0} returned item {1}"),
+    RETURN_FORWARDED(Severity.INFO, "Return request for {0} forwarded to {1}: {2}"),
+    PURCHASES_EXPIRED(Severity.INFO, "Dropped {n} purchase record(s) dated before {0}, past the return window"),
+    SWEEP_FAILED(Severity.WARNING, "Unable to drop expired purchase records of store {0}"),
+    WAITLIST_JOINED(Severity.INFO, "Customer {0} added to waitlist for item {1}"),
+    WAITLIST_FULFILLED(Severity.INFO, "Waitlisted customer {0} automatically purchased {1}"),
+    WAITLIST_FAILED(Severity.INFO, "Waitlisted purchase for {0} on item {1} failed: {2}"),
+    WAITLIST_PENDING(Severity.INFO, "Waitlisted purchase for {0} on item {1} awaits confirmation from the home store"),
+    WAITLIST_DRAINED(Severity.INFO, "Processed {n} waitlisted customer(s) for item {0}, {m} still waiting"),
+    WAITLIST_DRAIN_FAILED(Severity.WARNING, "Unable to serve waitlisted customer {1} for item {0}, who keeps their place"),
+    SHARD_ITEMS_MOVED(Severity.INFO, "Moved {n} item(s) to other shards of store {0}"),
+    SHARD_ITEM_RECEIVED(Severity.INFO, "Took over item {0} with quantity {n} and {m} waiting customer(s)"),
+    SHARD_MOVE_FAILED(Severity.WARNING, "Unable to move item {0} to shard {1}"),
+    SHARD_MOVE_PENDING(Severity.WARNING, "Shard {1} did not answer the hand-over of item {0}, repeating it until it does"),
+    REBALANCE_FAILED(Severity.WARNING, "Unable to move items between the shards of store {0}"),
+    STANDBY_SYNCED(Severity.INFO, "Sent the standby of {0} a snapshot covering records up to {n}"),
+    STANDBY_LAGGED(Severity.WARNING, "Standby of {0} fell more than {n} records behind and is resynchronized"),
+    SNAPSHOT_FAILED(Severity.WARNING, "Unable to fold the journal of {0} into a snapshot, retrying on the next one"),
+    SHIPPING_FAILED(Severity.WARNING, "Unable to ship journal records of {0} to its standby"),
+    REPLICA_INSTALLED(Severity.INFO, "Installed a snapshot of {0} covering records up to {n} with {m} items"),
+    STANDBY_PROMOTED(Severity.WARNING, "Took over as {0} after {n} ms without records from its primary"),
+    FAILOVER_CHECK_FAILED(Severity.WARNING, "Unable to check on primary {0} or take over from it"),
+    PRIMARY_SUPERSEDED(Severity.WARNING, "Another node took over {0}; this node no longer accepts writes for it"),
+    OWNERSHIP_CHECK_FAILED(Severity.WARNING, "Unable to check which node holds {0}"),
+    MEMBERSHIP_REFRESH_FAILED(Severity.WARNING, "Unable to re-read the store names bound in {n} registries"),
+    STUB_CHECK_FAILED(Severity.WARNING, "Unable to re-resolve {n} cached store stub(s)"),
+    UDP_SEND_FAILED(Severity.WARNING, "Unable to send datagram to {0}"),
+    UDP_LISTENER_FAILED(Severity.WARNING, "UDP listener error on store {0}"),
+    UDP_CLOSE_FAILED(Severity.WARNING, "Unable to close UDP channel for store {0}"),
+    PEER_REQUEST_FAILED(Severity.WARNING, "Failed to handle inter-server request {n}"),
+    TRACE_SPAN(Severity.INFO, "{0} trace={1} nanos={n}"),
+    EVENTS_DROPPED(Severity.WARNING, "Dropped {n} log events because the log buffer was full"),
+    LOG_WRITER_FAILED(Severity.WARNING, "Log writer of store {0} stopped; later events are dropped");
+
+    enum Severity {
+        INFO, WARNING
+    }
+
+    private final Severity severity;
+    private final String[] literals;
+    private final char[] placeholders;
+
+    ServerEvent(Severity severity, String template) {
+        this.severity = severity;
+        List<String> parts = new ArrayList<>();
+        StringBuilder fields = new StringBuilder();
+        int start = 0;
+        int open = template.indexOf('{');
+        while (open >= 0) {
+            parts.add(template.substring(start, open));
+            fields.append(template.charAt(open + 1));
+            start = open + 3;
+            open = template.indexOf('{', start);
+        }
+        parts.add(template.substring(start));
+        this.literals = parts.toArray(new String[0]);
+        this.placeholders = fields.toString().toCharArray();
+    }
+
+    Severity severity() {
+        return severity;
+    }
+
+    // Called on the writer thread only
+    void render(StringBuilder out, Object[] text, long number, long secondNumber, double amount) {
+        for (int i = 0; i < placeholders.length; i++) {
+            out.append(literals[i]);
+            switch (placeholders[i]) {
+                case '0' -> out.append(text[0]);
+                case '1' -> out.append(text[1]);
+                case '2' -> out.append(text[2]);
+                case 'n' -> out.append(number);
+                case 'm' -> out.append(secondNumber);
+                case 'd' -> out.append(String.format("%.2f", amount));
+                default -> throw new IllegalStateException("Unknown placeholder " + placeholders[i]);
+            }
+        }
+        out.append(literals[literals.length - 1]);
+    }
+}
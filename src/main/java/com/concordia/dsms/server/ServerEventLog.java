@@ -0,0 +1,330 @@
+package com.concordia.dsms.server;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Asynchronous server log. Request threads copy event arguments into a preallocated
+ * slot of a bounded ring buffer; a single writer thread renders the events and writes
+ * them to disk in batches. When the buffer is full, events are either dropped or the
+ * publishing thread blocks, depending on the configured {@link Backpressure} policy.
+ * A writer that cannot write stops; from then on every event is dropped and counted,
+ * so no publisher blocks on a buffer nobody drains.
+ */
+class ServerEventLog implements AutoCloseable {
+    static final int DEFAULT_CAPACITY = 8192;
+    private static final int MAX_BATCH = 512;
+    private static final DateTimeFormatter TIMESTAMP_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS", Locale.CANADA).withZone(ZoneId.systemDefault());
+
+    enum Backpressure {
+        DROP, BLOCK
+    }
+
+    private final String storeCode;
+    private final Path file;
+    private final Backpressure backpressure;
+    private final Slot[] slots;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writer;
+    private final Thread shutdownHook;
+    // Next slot to publish into and next slot to drain, guarded by lock
+    private long head;
+    private long tail;
+    private boolean closed;
+    private volatile boolean failed;
+
+    ServerEventLog(String storeCode, Path file, int capacity, Backpressure backpressure) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Log buffer capacity must be greater than zero.");
+        }
+        this.storeCode = Objects.requireNonNull(storeCode, "storeCode");
+        this.file = Objects.requireNonNull(file, "file");
+        this.backpressure = Objects.requireNonNull(backpressure, "backpressure");
+        this.slots = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Slot();
+        }
+        this.writer = new Thread(this::drain, "DSMS-" + storeCode + "-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        this.shutdownHook = new Thread(this::close, "DSMS-" + storeCode + "-log-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    // Opens the log for a store using the dsms.log.capacity and dsms.log.backpressure system properties
+    static ServerEventLog open(String storeCode) {
+        int capacity = Integer.getInteger("dsms.log.capacity", DEFAULT_CAPACITY);
+        Backpressure backpressure = Backpressure.valueOf(
+                System.getProperty("dsms.log.backpressure", Backpressure.BLOCK.name()).toUpperCase(Locale.ROOT));
+        return new ServerEventLog(storeCode, Path.of("logs", storeCode + "_server.log"), capacity, backpressure);
+    }
+
+    void log(ServerEvent event, Object text) {
+        publish(event, text, null, null, 0, 0, 0, null);
+    }
+
+    void log(ServerEvent event, Object text, Object secondText) {
+        publish(event, text, secondText, null, 0, 0, 0, null);
+    }
+
+    void log(ServerEvent event, Object text, Object secondText, Object thirdText) {
+        publish(event, text, secondText, thirdText, 0, 0, 0, null);
+    }
+
+    void log(ServerEvent event, Object text, Object secondText, Object thirdText, long number) {
+        publish(event, text, secondText, thirdText, number, 0, 0, null);
+    }
+
+    void log(ServerEvent event, Object text, long number) {
+        publish(event, text, null, null, number, 0, 0, null);
+    }
+
+    void log(ServerEvent event, Object text, long number, long secondNumber) {
+        publish(event, text, null, null, number, secondNumber, 0, null);
+    }
+
+    void log(ServerEvent event, Object text, Object secondText, long number) {
+        publish(event, text, secondText, null, number, 0, 0, null);
+    }
+
+    void log(ServerEvent event, Object text, Object secondText, double amount) {
+        publish(event, text, secondText, null, 0, 0, amount, null);
+    }
+
+    void log(ServerEvent event, Object text, Object secondText, long number, double amount) {
+        publish(event, text, secondText, null, number, 0, amount, null);
+    }
+
+    void log(ServerEvent event, Object text, Throwable error) {
+        publish(event, text, null, null, 0, 0, 0, error);
+    }
+
+    void log(ServerEvent event, Object text, Object secondText, Throwable error) {
+        publish(event, text, secondText, null, 0, 0, 0, error);
+    }
+
+    void log(ServerEvent event, Object text, Object secondText, Object thirdText, Throwable error) {
+        publish(event, text, secondText, thirdText, 0, 0, 0, error);
+    }
+
+    void log(ServerEvent event, long number, Throwable error) {
+        publish(event, null, null, null, number, 0, 0, error);
+    }
+
+    long getDroppedCount() {
+        return dropped.get();
+    }
+
+    // Whether the writer stopped because the file could not be written
+    boolean isFailed() {
+        return failed;
+    }
+
+    private void publish(ServerEvent event, Object text, Object secondText, Object thirdText,
+                         long number, long secondNumber, double amount, Throwable error) {
+        long timestamp = System.currentTimeMillis();
+        lock.lock();
+        try {
+            while (head - tail == slots.length && !closed && !failed) {
+                if (backpressure == Backpressure.DROP) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+                notFull.awaitUninterruptibly();
+            }
+            if (closed || failed) {
+                dropped.incrementAndGet();
+                return;
+            }
+            Slot slot = slots[(int) (head % slots.length)];
+            slot.event = event;
+            slot.timestamp = timestamp;
+            slot.text[0] = text;
+            slot.text[1] = secondText;
+            slot.text[2] = thirdText;
+            slot.number = number;
+            slot.secondNumber = secondNumber;
+            slot.amount = amount;
+            slot.error = error;
+            head++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void drain() {
+        try (BufferedWriter out = openWriter()) {
+            try {
+                writeBatches(out);
+            } catch (IOException | RuntimeException e) {
+                fail();
+                // The failure is the last event the file gets, if it still takes one
+                StringBuilder last = new StringBuilder();
+                render(last, notice(ServerEvent.LOG_WRITER_FAILED, 0, e));
+                out.append(last);
+                out.flush();
+            }
+        } catch (IOException | RuntimeException e) {
+            // Opening the file, the last event or closing it failed as well
+            fail();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeBatches(BufferedWriter out) throws IOException, InterruptedException {
+        StringBuilder batch = new StringBuilder(16 * 1024);
+        long reportedDrops = 0;
+        while (true) {
+            boolean finished;
+            long end;
+            lock.lock();
+            try {
+                while (head == tail && !closed) {
+                    notEmpty.await(1, TimeUnit.SECONDS);
+                }
+                finished = closed && head == tail;
+                end = Math.min(head, tail + MAX_BATCH);
+            } finally {
+                lock.unlock();
+            }
+            // Slots between tail and end belong to this thread until tail moves past them
+            for (long next = tail; next < end; next++) {
+                Slot slot = slots[(int) (next % slots.length)];
+                render(batch, slot);
+                slot.clear();
+            }
+            lock.lock();
+            try {
+                tail = end;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            long drops = dropped.get();
+            if (drops > reportedDrops) {
+                render(batch, notice(ServerEvent.EVENTS_DROPPED, drops - reportedDrops, null));
+                reportedDrops = drops;
+            }
+            if (batch.length() > 0) {
+                out.append(batch);
+                out.flush();
+                batch.setLength(0);
+            }
+            if (finished) {
+                return;
+            }
+        }
+    }
+
+    // Stops taking events and drops, and counts, those still buffered
+    private void fail() {
+        lock.lock();
+        try {
+            failed = true;
+            for (long next = tail; next < head; next++) {
+                slots[(int) (next % slots.length)].clear();
+                dropped.incrementAndGet();
+            }
+            tail = head;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Slot notice(ServerEvent event, long number, Throwable error) {
+        Slot notice = new Slot();
+        notice.event = event;
+        notice.timestamp = System.currentTimeMillis();
+        notice.text[0] = storeCode;
+        notice.number = number;
+        notice.error = error;
+        return notice;
+    }
+
+    private BufferedWriter openWriter() throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        return Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private void render(StringBuilder out, Slot slot) {
+        TIMESTAMP_FORMAT.formatTo(Instant.ofEpochMilli(slot.timestamp), out);
+        out.append(' ').append(slot.event.severity()).append(" [").append(storeCode).append("] ");
+        slot.event.render(out, slot.text, slot.number, slot.secondNumber, slot.amount);
+        out.append(System.lineSeparator());
+        if (slot.error != null) {
+            StringWriter trace = new StringWriter();
+            slot.error.printStackTrace(new PrintWriter(trace));
+            out.append(trace);
+        }
+    }
+
+    // Stops accepting events, then waits until everything buffered has been written and flushed
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (Thread.currentThread() != shutdownHook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // JVM already shutting down, the hook is running or about to run
+            }
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Slot {
+        private ServerEvent event;
+        private long timestamp;
+        private final Object[] text = new Object[3];
+        private long number;
+        private long secondNumber;
+        private double amount;
+        private Throwable error;
+
+        private void clear() {
+            text[0] = null;
+            text[1] = null;
+            text[2] = null;
+            error = null;
+        }
+    }
+}
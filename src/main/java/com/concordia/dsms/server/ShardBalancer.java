@@ -0,0 +1,146 @@
+package com.concordia.dsms.server;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Moves the items a shard no longer owns to the shard that does. Each pass compares the
+ * store's ring with the one the shard last balanced against and only scans the inventory
+ * when it changed, so a stable store costs one membership read per pass. Items that could
+ * not be moved are retried on the next pass.
+ */
+class ShardBalancer implements AutoCloseable {
+    static final Duration DEFAULT_INTERVAL = Duration.ofSeconds(1);
+
+    // Shard-side operations used while rebalancing
+    interface Handler {
+        Collection<String> itemIds();
+
+        // Hands the item over to the shard now owning it; false if it has to be retried
+        boolean moveItem(String itemId, String owner);
+
+        // Repeats hand-overs whose answer was lost, and forwards stock that reached items after they were handed over
+        void forwardStragglers();
+
+        void itemsMoved(int count);
+    }
+
+    private final String storeCode;
+    private final String shardName;
+    private final Handler handler;
+    private final ServerEventLog eventLog;
+    private final ScheduledExecutorService scheduler;
+    // Held for a whole pass, so a hand-off never overlaps a scheduled pass
+    private final ReentrantLock lock = new ReentrantLock();
+    private ShardRing balancedRing;
+    private boolean retry;
+
+    ShardBalancer(String storeCode, String shardName, Handler handler, ServerEventLog eventLog, Duration interval) {
+        this.storeCode = Objects.requireNonNull(storeCode, "storeCode");
+        this.shardName = Objects.requireNonNull(shardName, "shardName");
+        this.handler = Objects.requireNonNull(handler, "handler");
+        this.eventLog = Objects.requireNonNull(eventLog, "eventLog");
+        if (interval.isNegative() || interval.isZero()) {
+            throw new IllegalArgumentException("Rebalance interval must be greater than zero.");
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "DSMS-" + shardName + "-balancer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::rebalanceQuietly, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    // Checks the ring every -Ddsms.shards.rebalanceMs
+    static ShardBalancer open(String storeCode, String shardName, Handler handler, ServerEventLog eventLog) {
+        return new ShardBalancer(storeCode, shardName, handler, eventLog,
+                Duration.ofMillis(Long.getLong("dsms.shards.rebalanceMs", DEFAULT_INTERVAL.toMillis())));
+    }
+
+    // Moves the items other shards own under the store's current ring; returns how many moved
+    int rebalance() {
+        lock.lock();
+        try {
+            handler.forwardStragglers();
+            ShardRing ring = ShardRing.of(storeCode);
+            if (ring == balancedRing && !retry) {
+                return 0;
+            }
+            return moveItems(ring);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Moves every item to the remaining shards of the store; for a shard leaving after it was unbound
+    int handOff() {
+        lock.lock();
+        try {
+            List<String> remaining = new ArrayList<>(ShardRing.of(storeCode).getShards());
+            remaining.remove(shardName);
+            if (remaining.isEmpty()) {
+                return 0;
+            }
+            int moved = moveItems(new ShardRing(remaining));
+            handler.forwardStragglers();
+            return moved;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int moveItems(ShardRing ring) {
+        int moved = 0;
+        boolean failed = false;
+        for (String itemId : handler.itemIds()) {
+            String owner = ring.owner(itemId);
+            if (owner.equals(shardName)) {
+                continue;
+            }
+            if (handler.moveItem(itemId, owner)) {
+                moved++;
+            } else {
+                failed = true;
+            }
+        }
+        balancedRing = ring;
+        retry = failed;
+        if (moved > 0) {
+            eventLog.log(ServerEvent.SHARD_ITEMS_MOVED, storeCode, moved);
+            handler.itemsMoved(moved);
+        }
+        return moved;
+    }
+
+    private void rebalanceQuietly() {
+        try {
+            rebalance();
+        } catch (RuntimeException e) {
+            eventLog.log(ServerEvent.REBALANCE_FAILED, storeCode, e);
+            // The next pass scans every item again
+            lock.lock();
+            try {
+                balancedRing = null;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.concordia.dsms.server;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Consistent-hash ring assigning the items of one store to its shards. Every shard is placed
+ * at many points on the ring and an item belongs to the first point at or after the hash of
+ * its ID, so a shard joining or leaving only moves the items between its points and their
+ * neighbours, about 1/N of the catalog.
+ */
+final class ShardRing {
+    static final int POINTS_PER_SHARD = 128;
+
+    // Rings by store code, rebuilt when the store's shards change
+    private static final Map<String, ShardRing> RINGS = new ConcurrentHashMap<>();
+
+    private final List<String> shards;
+    // Ring positions in ascending order and the shard at each
+    private final long[] points;
+    private final String[] owners;
+
+    ShardRing(List<String> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("A shard ring needs at least one shard.");
+        }
+        this.shards = List.copyOf(shards);
+        long[][] placed = new long[shards.size() * POINTS_PER_SHARD][];
+        for (int shard = 0; shard < shards.size(); shard++) {
+            for (int point = 0; point < POINTS_PER_SHARD; point++) {
+                placed[shard * POINTS_PER_SHARD + point] = new long[]{hash(shards.get(shard) + "#" + point), shard};
+            }
+        }
+        Arrays.sort(placed, (a, b) -> Long.compare(a[0], b[0]));
+        this.points = new long[placed.length];
+        this.owners = new String[placed.length];
+        for (int i = 0; i < placed.length; i++) {
+            points[i] = placed[i][0];
+            owners[i] = shards.get((int) placed[i][1]);
+        }
+    }
+
+    // Ring over the shards of a store currently registered; a store without registered shards maps to its code
+    static ShardRing of(String storeCode) {
+        List<String> shards = StoreServerRegistry.getShards(storeCode);
+        List<String> members = shards.isEmpty() ? List.of(storeCode) : shards;
+        ShardRing ring = RINGS.get(storeCode);
+        if (ring == null || !ring.shards.equals(members)) {
+            ring = new ShardRing(members);
+            RINGS.put(storeCode, ring);
+        }
+        return ring;
+    }
+
+    // Registry name of the shard owning an item
+    static String ownerOf(String itemId) {
+        return of(itemId.substring(0, 2)).owner(itemId);
+    }
+
+    String owner(String itemId) {
+        int index = Arrays.binarySearch(points, hash(itemId));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    List<String> getShards() {
+        return shards;
+    }
+
+    // FNV-1a over the characters, then a 64-bit finalizer so similar IDs land far apart
+    static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb93fe1a85ec5L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,191 @@
+package com.concordia.dsms.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.rmi.RemoteException;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Standby side of log shipping. Keeps a copy of a store's state current with the journal records
+ * its primary ships, writing them to the standby's own journal as they are applied. Once the
+ * primary has sent nothing, not even a heartbeat, for the failover timeout and does not answer
+ * a probe either, the replica has its store take over the primary's name.
+ */
+class StandbyReplica implements AutoCloseable {
+    static final Duration DEFAULT_FAILOVER_TIMEOUT = Duration.ofSeconds(3);
+
+    // Store-side operations driven by replication
+    interface Handler {
+        // Replaces everything the store holds with a snapshot just received from the primary
+        void install(JournalState state);
+
+        // A replicated record created, changed or removed the item
+        void itemApplied(JournalState state, String itemId);
+
+        // Takes over from the primary with the state replicated so far; retried until it succeeds
+        void promote(JournalState state) throws RemoteException;
+    }
+
+    private final String primaryName;
+    private final MappedStoreJournal journal;
+    private final Handler handler;
+    private final ServerEventLog eventLog;
+    private final long failoverNanos;
+    private final ScheduledExecutorService detector;
+    // Held while records are applied, so installs, batches and the promotion never overlap
+    private final ReentrantLock lock = new ReentrantLock();
+    private JournalState state;
+    private long epoch;
+    private long nextSequence;
+    private volatile long lastContactNanos = System.nanoTime();
+    private volatile boolean promoted;
+
+    StandbyReplica(String primaryName, MappedStoreJournal journal, Handler handler, ServerEventLog eventLog,
+                   Duration failoverTimeout) {
+        this.primaryName = Objects.requireNonNull(primaryName, "primaryName");
+        this.journal = Objects.requireNonNull(journal, "journal");
+        this.handler = Objects.requireNonNull(handler, "handler");
+        this.eventLog = Objects.requireNonNull(eventLog, "eventLog");
+        if (failoverTimeout.isNegative() || failoverTimeout.isZero()) {
+            throw new IllegalArgumentException("Failover timeout must be greater than zero.");
+        }
+        this.failoverNanos = failoverTimeout.toNanos();
+        this.detector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "DSMS-" + primaryName + "-failover");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(10, failoverTimeout.toMillis() / 4);
+        detector.scheduleWithFixedDelay(this::checkPrimaryQuietly, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    // Takes over after -Ddsms.standby.failoverMs without contact from the primary
+    static StandbyReplica open(String primaryName, MappedStoreJournal journal, Handler handler, ServerEventLog eventLog) {
+        return new StandbyReplica(primaryName, journal, handler, eventLog,
+                Duration.ofMillis(Long.getLong("dsms.standby.failoverMs", DEFAULT_FAILOVER_TIMEOUT.toMillis())));
+    }
+
+    /**
+     * Applies a batch of framed records numbered from {@code firstSequence}; an empty batch is
+     * a heartbeat. Returns the number of the record expected next, or -1 when the batch does
+     * not follow what this replica holds and a snapshot has to be installed first.
+     */
+    long apply(long epoch, long firstSequence, byte[] frames) {
+        lock.lock();
+        try {
+            requireStandby();
+            lastContactNanos = System.nanoTime();
+            if (state == null || epoch != this.epoch || firstSequence != nextSequence) {
+                return -1;
+            }
+            MappedStoreJournal.readRecords(ByteBuffer.wrap(frames), (type, payload) -> {
+                journal.appendReplicated(type, payload.duplicate());
+                String itemId = state.apply(type, new MappedStoreJournal.RecordReader(payload));
+                if (itemId != null) {
+                    handler.itemApplied(state, itemId);
+                }
+                nextSequence++;
+            });
+            StoreJournal.commitPending();
+            return nextSequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Replaces the replica's state with a snapshot of the primary covering records up to sequence
+    void install(long epoch, long sequence, byte[] snapshot) throws IOException {
+        JournalState installed = JournalState.readSnapshot(new DataInputStream(new ByteArrayInputStream(snapshot)));
+        lock.lock();
+        try {
+            requireStandby();
+            lastContactNanos = System.nanoTime();
+            journal.installSnapshot(installed);
+            handler.install(installed);
+            this.state = installed;
+            this.epoch = epoch;
+            this.nextSequence = sequence + 1;
+        } finally {
+            lock.unlock();
+        }
+        eventLog.log(ServerEvent.REPLICA_INSTALLED, primaryName, sequence, installed.items().size());
+    }
+
+    boolean isSynced() {
+        lock.lock();
+        try {
+            return state != null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isPromoted() {
+        return promoted;
+    }
+
+    // Takes over from the primary if it has been silent for the failover timeout and fails a probe
+    boolean checkPrimary() throws RemoteException {
+        if (promoted || !isSynced() || System.nanoTime() - lastContactNanos < failoverNanos) {
+            return false;
+        }
+        if (StoreServerRegistry.probe(primaryName)) {
+            // Still up but not shipping, for instance while it replaces a failed standby stub
+            return false;
+        }
+        promote();
+        return true;
+    }
+
+    // Stops following the primary and takes over its name; an operator can call this for a planned switch
+    void promote() throws RemoteException {
+        long silentMillis;
+        lock.lock();
+        try {
+            if (promoted) {
+                return;
+            }
+            if (state == null) {
+                throw new IllegalStateException("Standby of " + primaryName + " has no snapshot to take over with");
+            }
+            silentMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastContactNanos);
+            handler.promote(state);
+            promoted = true;
+        } finally {
+            lock.unlock();
+        }
+        detector.shutdown();
+        eventLog.log(ServerEvent.STANDBY_PROMOTED, primaryName, silentMillis);
+    }
+
+    private void checkPrimaryQuietly() {
+        try {
+            checkPrimary();
+        } catch (RemoteException | RuntimeException e) {
+            eventLog.log(ServerEvent.FAILOVER_CHECK_FAILED, primaryName, e);
+        }
+    }
+
+    private void requireStandby() {
+        if (promoted) {
+            throw new IllegalStateException("Standby of " + primaryName + " has already taken over");
+        }
+    }
+
+    @Override
+    public void close() {
+        detector.shutdown();
+        try {
+            detector.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
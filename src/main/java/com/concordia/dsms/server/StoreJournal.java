@@ -0,0 +1,71 @@
+package com.concordia.dsms.server;
+
+import java.time.LocalDate;
+
+/**
+ * Write-ahead journal of store state changes. Inventory changes are journaled by the
+ * store that owns the item, and customer account changes by the customer's home store.
+ * Appends only buffer the change; {@link #commitPending()} makes everything the calling
+ * thread appended durable before a reply is sent.
+ */
+interface StoreJournal extends AutoCloseable {
+    // Journal used when persistence is not configured, every method is a no-op
+    StoreJournal DISABLED = new StoreJournal() {
+    };
+
+    default void itemCreated(String itemId, String itemName, int quantity, double price) {
+    }
+
+    default void quantityChanged(String itemId, int delta) {
+    }
+
+    default void itemRemoved(String itemId) {
+    }
+
+    // The item is being handed to another shard; the itemRemoved that follows completes the move
+    default void itemMoving(String itemId, String moveId, String owner) {
+    }
+
+    // The shard the item was handed to refused it, so it stays here
+    default void itemMoveCancelled(String itemId) {
+    }
+
+    // An item handed over by another shard was merged here under the move ID
+    default void shardMoveAccepted(String moveId, String itemId) {
+    }
+
+    default void waitlistAdded(String itemId, String customerId) {
+    }
+
+    default void waitlistRemoved(String itemId, String customerId) {
+    }
+
+    default void purchaseRecorded(String customerId, PurchaseRecord record) {
+    }
+
+    default void purchaseConsumed(String customerId, PurchaseRecord record) {
+    }
+
+    default void purchaseRestored(String customerId, PurchaseRecord record) {
+    }
+
+    default void refunded(String customerId, double amount) {
+    }
+
+    // Purchase records dated before the day can no longer be returned
+    default void purchasesExpired(LocalDate before) {
+    }
+
+    // Failures of work the journal does in the background are logged here from now on
+    default void reportTo(ServerEventLog eventLog) {
+    }
+
+    @Override
+    default void close() {
+    }
+
+    // Waits until every record appended by the current thread is on disk
+    static void commitPending() {
+        MappedStoreJournal.commitPending();
+    }
+}
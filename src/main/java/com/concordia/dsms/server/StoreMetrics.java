@@ -0,0 +1,243 @@
+package com.concordia.dsms.server;
+
+import com.concordia.dsms.common.LatencyHistogram;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histograms and outcome counters for one store. Recording only touches
+ * preallocated histograms and adders, so it is safe to call on every request.
+ */
+class StoreMetrics implements StoreMetricsMXBean {
+
+    enum Operation {
+        ADD_ITEM, REMOVE_ITEM, ADD_ITEMS, REMOVE_ITEMS, LIST_ITEMS, LIST_ITEM_PAGE, PURCHASE_ITEM, CHECKOUT_CART,
+        FIND_ITEM, RETURN_ITEM, REMOTE_PURCHASE, REMOTE_LOOKUP, REMOTE_RETURN, CART_RESERVE, CART_SETTLE,
+        BUDGET_HOLD, HOLD_SETTLE, SUBSCRIBE_INVENTORY, UNSUBSCRIBE_INVENTORY
+    }
+
+    enum PeerCall {
+        LOOKUP, PURCHASE, RETURN, CART_RESERVE, CART_SETTLE, BUDGET_HOLD, HOLD_SETTLE
+    }
+
+    private final Timer[] operations = timers(Operation.values().length);
+    private final Timer[] peerCalls = timers(PeerCall.values().length);
+    private final LatencyHistogram stockUpdates = new LatencyHistogram();
+    private final ObjectName objectName;
+    private volatile WaitlistDispatcher waitlists;
+    private volatile RemoteLookupCache lookupCache;
+    private volatile LogShipper shipper;
+    private volatile ServerEventLog eventLog;
+
+    StoreMetrics(String storeCode) {
+        try {
+            this.objectName = new ObjectName("com.concordia.dsms:type=StoreServer,store=" + storeCode);
+        } catch (JMException e) {
+            throw new IllegalArgumentException("Invalid store code " + storeCode, e);
+        }
+    }
+
+    void record(Operation operation, long startNanos, boolean success) {
+        operations[operation.ordinal()].record(startNanos, success);
+    }
+
+    void record(PeerCall call, long startNanos, boolean success) {
+        peerCalls[call.ordinal()].record(startNanos, success);
+    }
+
+    void recordStockUpdate(long startNanos) {
+        stockUpdates.record(System.nanoTime() - startNanos);
+    }
+
+    // Publishes this store's metrics, replacing a registration left by an earlier instance of the same store
+    void register(WaitlistDispatcher waitlists, RemoteLookupCache lookupCache, ServerEventLog eventLog) {
+        this.waitlists = waitlists;
+        this.lookupCache = lookupCache;
+        this.eventLog = eventLog;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            try {
+                server.registerMBean(this, objectName);
+            } catch (InstanceAlreadyExistsException e) {
+                server.unregisterMBean(objectName);
+                server.registerMBean(this, objectName);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Unable to register metrics MBean " + objectName, e);
+        }
+    }
+
+    // Reports the standby lag of the shipper the store started
+    void registerShipper(LogShipper shipper) {
+        this.shipper = shipper;
+    }
+
+    void unregister() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (InstanceNotFoundException e) {
+            // Already replaced by a newer instance of the store
+        } catch (JMException e) {
+            throw new IllegalStateException("Unable to unregister metrics MBean " + objectName, e);
+        }
+    }
+
+    @Override
+    public Map<String, LatencyStats> getOperations() {
+        Map<String, LatencyStats> stats = new LinkedHashMap<>();
+        for (Operation operation : Operation.values()) {
+            stats.put(operation.name(), operations[operation.ordinal()].snapshot());
+        }
+        return stats;
+    }
+
+    @Override
+    public Map<String, LatencyStats> getInterServerCalls() {
+        Map<String, LatencyStats> stats = new LinkedHashMap<>();
+        for (PeerCall call : PeerCall.values()) {
+            stats.put(call.name(), peerCalls[call.ordinal()].snapshot());
+        }
+        return stats;
+    }
+
+    @Override
+    public LatencyStats getStockUpdates() {
+        return LatencyStats.of(stockUpdates, stockUpdates.getCount(), 0);
+    }
+
+    @Override
+    public long getWaitlistEnqueued() {
+        WaitlistDispatcher current = waitlists;
+        return current == null ? 0 : current.getEnqueuedCount();
+    }
+
+    @Override
+    public long getWaitlistFulfilled() {
+        WaitlistDispatcher current = waitlists;
+        return current == null ? 0 : current.getFulfilledCount();
+    }
+
+    @Override
+    public long getWaitlistFailed() {
+        WaitlistDispatcher current = waitlists;
+        return current == null ? 0 : current.getFailedCount();
+    }
+
+    @Override
+    public long getWaitlistDepth() {
+        WaitlistDispatcher current = waitlists;
+        return current == null ? 0 : current.getQueueDepth();
+    }
+
+    @Override
+    public double getWaitlistDrainRate() {
+        WaitlistDispatcher current = waitlists;
+        return current == null ? 0 : current.getDrainRate();
+    }
+
+    @Override
+    public long getLookupCacheHits() {
+        RemoteLookupCache current = lookupCache;
+        return current == null ? 0 : current.getHitCount();
+    }
+
+    @Override
+    public long getLookupCacheMisses() {
+        RemoteLookupCache current = lookupCache;
+        return current == null ? 0 : current.getMissCount();
+    }
+
+    @Override
+    public double getLookupCacheHitRate() {
+        RemoteLookupCache current = lookupCache;
+        return current == null ? 0 : current.getHitRate();
+    }
+
+    @Override
+    public long getLookupCacheInvalidations() {
+        RemoteLookupCache current = lookupCache;
+        return current == null ? 0 : current.getInvalidationCount();
+    }
+
+    @Override
+    public int getLookupCacheSize() {
+        RemoteLookupCache current = lookupCache;
+        return current == null ? 0 : current.size();
+    }
+
+    @Override
+    public long getStandbyLagRecords() {
+        LogShipper current = shipper;
+        return current == null ? -1 : current.getLagRecords();
+    }
+
+    @Override
+    public long getStandbyLagMillis() {
+        LogShipper current = shipper;
+        return current == null ? 0 : current.getLagMillis();
+    }
+
+    @Override
+    public long getLogEventsDropped() {
+        ServerEventLog current = eventLog;
+        return current == null ? 0 : current.getDroppedCount();
+    }
+
+    @Override
+    public boolean isLogWriterFailed() {
+        ServerEventLog current = eventLog;
+        return current != null && current.isFailed();
+    }
+
+    @Override
+    public void reset() {
+        for (Timer timer : operations) {
+            timer.reset();
+        }
+        for (Timer timer : peerCalls) {
+            timer.reset();
+        }
+        stockUpdates.reset();
+        RemoteLookupCache current = lookupCache;
+        if (current != null) {
+            current.resetCounters();
+        }
+    }
+
+    private static Timer[] timers(int count) {
+        Timer[] timers = new Timer[count];
+        for (int i = 0; i < count; i++) {
+            timers[i] = new Timer();
+        }
+        return timers;
+    }
+
+    private static final class Timer {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder successes = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+
+        private void record(long startNanos, boolean success) {
+            latency.record(System.nanoTime() - startNanos);
+            (success ? successes : failures).increment();
+        }
+
+        private LatencyStats snapshot() {
+            return LatencyStats.of(latency, successes.sum(), failures.sum());
+        }
+
+        private void reset() {
+            latency.reset();
+            successes.reset();
+            failures.reset();
+        }
+    }
+}
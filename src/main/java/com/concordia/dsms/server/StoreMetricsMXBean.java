@@ -0,0 +1,52 @@
+package com.concordia.dsms.server;
+
+import java.util.Map;
+
+/**
+ * Per-store metrics registered as {@code com.concordia.dsms:type=StoreServer,store=<CODE>}.
+ * Operation and inter-server call maps are keyed by name.
+ */
+public interface StoreMetricsMXBean {
+    // Requests served by this store, including those arriving from other stores
+    Map<String, LatencyStats> getOperations();
+
+    // Calls this store made to other stores, measured until reply, error or deadline
+    Map<String, LatencyStats> getInterServerCalls();
+
+    // Time spent updating item stock counters, including CAS retries under contention
+    LatencyStats getStockUpdates();
+
+    long getWaitlistEnqueued();
+
+    long getWaitlistFulfilled();
+
+    long getWaitlistFailed();
+
+    long getWaitlistDepth();
+
+    double getWaitlistDrainRate();
+
+    // Remote findItem lookups answered from the cache, and those that went to the other store
+    long getLookupCacheHits();
+
+    long getLookupCacheMisses();
+
+    double getLookupCacheHitRate();
+
+    // Invalidations received from other stores
+    long getLookupCacheInvalidations();
+
+    int getLookupCacheSize();
+
+    // Journal records the standby has not applied yet, -1 without a standby in sync, and the age of the oldest
+    long getStandbyLagRecords();
+
+    long getStandbyLagMillis();
+
+    // Server log events dropped, and whether the log stopped writing, after which every event is dropped
+    long getLogEventsDropped();
+
+    boolean isLogWriterFailed();
+
+    void reset();
+}
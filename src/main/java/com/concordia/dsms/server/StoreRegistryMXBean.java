@@ -0,0 +1,16 @@
+package com.concordia.dsms.server;
+
+import java.util.Map;
+
+/**
+ * Health of the stores this process calls over RMI, registered as
+ * {@code com.concordia.dsms:type=StoreRegistry}. Maps are keyed by registry name, such as
+ * QC, QC1 or QC-standby; stores of this process are called directly and not listed.
+ */
+public interface StoreRegistryMXBean {
+    // Circuit breaker of each store: CLOSED, OPEN while calls fail fast, or HALF_OPEN during a trial call
+    Map<String, String> getBreakerStates();
+
+    // RMI calls to each store; failures are calls it never answered, and calls failed fast are not counted
+    Map<String, LatencyStats> getPeerCalls();
+}
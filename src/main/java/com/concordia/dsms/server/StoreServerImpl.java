@@ -1,91 +1,473 @@
 package com.concordia.dsms.server;
 
+import com.concordia.dsms.common.InventoryChange;
+import com.concordia.dsms.common.InventoryListener;
+import com.concordia.dsms.common.ItemAvailability;
+import com.concordia.dsms.common.ItemChange;
+import com.concordia.dsms.common.ItemPage;
 import com.concordia.dsms.common.PurchaseResult;
 import com.concordia.dsms.common.StoreServer;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
-import java.util.Deque;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.logging.FileHandler;
-import java.util.logging.Logger;
-import java.util.logging.SimpleFormatter;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 public class StoreServerImpl extends UnicastRemoteObject implements StoreServer {
     private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("ddMMyyyy", Locale.CANADA);
+    static final Duration DEFAULT_REMOTE_LOOKUP_TIMEOUT = Duration.ofMillis(500);
+    static final Duration DEFAULT_REMOTE_CALL_TIMEOUT = Duration.ofSeconds(5);
+    // A forwarded purchase may place and confirm a budget hold, each within DEFAULT_REMOTE_CALL_TIMEOUT,
+    // and must still answer before the customer's RMI call times out
+    static final Duration FORWARDED_PURCHASE_TIMEOUT = Duration.ofSeconds(12);
+    // How long a store holds stock for a cart whose coordinating store has not confirmed or released it
+    static final Duration CART_RESERVATION_TIMEOUT = Duration.ofSeconds(30);
 
     private final String storeCode;
+    // Registry name of this shard of the store: the store code for the primary, QC1, QC2 and so on for the others
+    private final String shardName;
+    // Deadline applied to each remote store during findItem
+    private final Duration remoteLookupTimeout;
+    private final InterServerTransport transport;
+    static final int MAX_PAGE_SIZE = 1000;
+    private static final String NO_ITEMS_AVAILABLE = "No items available.";
+
     private final Map<String, ItemRecord> inventory = new ConcurrentHashMap<>();
-    // Wating list for each item
-    private final Map<String, Deque<String>> waitLists = new ConcurrentHashMap<>();
-    private final Logger logger;
+    // Item IDs kept in sorted order so listings never sort per request
+    private final NavigableSet<String> sortedItemIds = new ConcurrentSkipListSet<>();
+    // Lets listings and searches read every item as of one point in time while purchases go on
+    private final InventoryEpochs epochs = new InventoryEpochs();
+    private final WaitlistDispatcher waitlists;
+    private final ItemNameIndex nameIndex = new ItemNameIndex();
+    // Stock held for carts that are still being checked out, by cart ID
+    private final Map<String, CartReservation> cartReservations = new ConcurrentHashMap<>();
+    private final ServerEventLog eventLog;
+    private final StoreMetrics metrics;
+    private final Tracer tracer;
+    // Responses of the other stores to findItem lookups, kept fresh by their invalidations
+    private final RemoteLookupCache lookupCache = RemoteLookupCache.open();
+    private final InventoryFeed inventoryFeed;
+    private final StoreJournal journal;
+    // Accounts of the customers registered with this store
+    private final CustomerAccountManager accounts;
+    // Started once the store is primary for its name, so not on a standby
+    private volatile ReturnWindowSweeper sweeper;
+    private final ShardBalancer balancer;
+    // A standby only serves lookups, from state its replica applies, until it takes over
+    private volatile boolean standby;
+    private volatile StandbyReplica replica;
+    private volatile LogShipper shipper;
+    // Started with log shipping; set once another node took over the shard's name
+    private volatile OwnershipFence fence;
+    private volatile boolean superseded;
+    // Records of items handed to another shard, kept until stock racing with the move has been forwarded
+    private final Map<String, MovedItem> movedItems = new ConcurrentHashMap<>();
+    // Items handed to another shard that did not answer, sent again under the same move ID until it does
+    private final Map<String, PendingMove> pendingMoves = new ConcurrentHashMap<>();
+    // Item IDs by the move ID they were handed over under, so a repeated hand-over is merged once.
+    // Kept while the item stays here; the sender stops repeating long before the item can leave again.
+    private final Map<String, String> acceptedMoves = new ConcurrentHashMap<>();
 
     public StoreServerImpl(String storeCode) throws RemoteException {
-        super();
-        this.storeCode = Objects.requireNonNull(storeCode, "storeCode");
-        this.logger = createLogger(storeCode);
+        this(storeCode, DEFAULT_REMOTE_LOOKUP_TIMEOUT);
+    }
+
+    public StoreServerImpl(String storeCode, Duration remoteLookupTimeout) throws RemoteException {
+        this(storeCode, remoteLookupTimeout, StoreJournal.DISABLED);
+    }
+
+    StoreServerImpl(String storeCode, Duration remoteLookupTimeout, StoreJournal journal) throws RemoteException {
+        this(storeCode, remoteLookupTimeout, journal, ExecutionMode.PLATFORM);
+    }
+
+    StoreServerImpl(String storeCode, Duration remoteLookupTimeout, StoreJournal journal, ExecutionMode executionMode)
+            throws RemoteException {
+        this(storeCode, 0, remoteLookupTimeout, journal, executionMode);
+    }
+
+    // Shard 0 is the store's primary, which customers and managers talk to; the other shards only own items
+    StoreServerImpl(String storeCode, int shard, Duration remoteLookupTimeout, StoreJournal journal, ExecutionMode executionMode)
+            throws RemoteException {
+        this(storeCode, shard, remoteLookupTimeout, journal, executionMode, false);
     }
 
-    private Logger createLogger(String storeCode) {
-        Logger log = Logger.getLogger("DSMS-" + storeCode);
-        log.setUseParentHandlers(false);
+    private StoreServerImpl(String storeCode, int shard, Duration remoteLookupTimeout, StoreJournal journal,
+                            ExecutionMode executionMode, boolean standby) throws RemoteException {
+        // Callers get stubs whose calls time out instead of hanging on a store that stopped answering
+        super(0, StoreServerRegistry.getSocketFactory(), null);
+        this.storeCode = Objects.requireNonNull(storeCode, "storeCode");
+        this.shardName = StoreServerRegistry.shardName(storeCode, shard);
+        this.remoteLookupTimeout = Objects.requireNonNull(remoteLookupTimeout, "remoteLookupTimeout");
+        this.journal = Objects.requireNonNull(journal, "journal");
+        this.standby = standby;
+        // A standby logs and reports under its own name, so it can run next to its primary
+        String nodeName = standby ? StoreServerRegistry.standbyName(shardName) : shardName;
+        this.accounts = new CustomerAccountManager(storeCode, journal);
+        this.eventLog = ServerEventLog.open(nodeName);
+        journal.reportTo(eventLog);
+        this.metrics = new StoreMetrics(nodeName);
+        this.tracer = Tracer.open(nodeName);
+        this.inventoryFeed = InventoryFeed.open(nodeName, eventLog, executionMode);
+        this.waitlists = new WaitlistDispatcher(nodeName, new WaitlistHandler(), eventLog, executionMode);
         try {
-            FileHandler handler = new FileHandler("logs/" + storeCode + "_server.log", true);
-            handler.setFormatter(new SimpleFormatter());
-            log.addHandler(handler);
-        } catch (Exception e) {
-            throw new RuntimeException("Unable to initialize logger for store " + storeCode, e);
+            this.transport = new InterServerTransport(storeCode, new PeerRequestHandler(), eventLog, metrics, tracer,
+                    executionMode);
+        } catch (IOException e) {
+            throw new RemoteException("Unable to open inter-server channel for store " + storeCode, e);
+        }
+        metrics.register(waitlists, lookupCache, eventLog);
+        this.sweeper = standby ? null : ReturnWindowSweeper.open(shardName, accounts, eventLog);
+        this.balancer = ShardBalancer.open(storeCode, shardName, new ShardHandler(), eventLog);
+    }
+
+    // A standby of the store's shard, bound under its standby name and following what the shard's primary ships
+    static StoreServerImpl standby(String storeCode, int shard, MappedStoreJournal journal, ExecutionMode executionMode)
+            throws RemoteException {
+        StoreServerImpl server = new StoreServerImpl(storeCode, shard, DEFAULT_REMOTE_LOOKUP_TIMEOUT, journal, executionMode, true);
+        server.replica = StandbyReplica.open(server.shardName, journal, server.new StandbyHandler(journal), server.eventLog);
+        return server;
+    }
+
+    // Ships every journal record to the shard's standby once one is bound
+    void startLogShipping(MappedStoreJournal shippedJournal) {
+        if (shipper != null) {
+            return;
+        }
+        shipper = LogShipper.open(shardName, shippedJournal, eventLog);
+        metrics.registerShipper(shipper);
+        fence = OwnershipFence.open(shardName, this, new FenceHandler(), eventLog);
+    }
+
+    String getStoreCode() {
+        return storeCode;
+    }
+
+    String getShardName() {
+        return shardName;
+    }
+
+    boolean isPrimary() {
+        return shardName.equals(storeCode);
+    }
+
+    boolean isStandby() {
+        return standby;
+    }
+
+    boolean isSuperseded() {
+        return superseded;
+    }
+
+    // Name the server is bound under: the shard name, or its standby name until a standby takes over
+    String getRegistryName() {
+        return standby ? StoreServerRegistry.standbyName(shardName) : shardName;
+    }
+
+    // Installs inventory, waitlists and customer accounts recovered from the journal, before the server is bound
+    void restore(JournalState state) {
+        accounts.restore(state.accounts());
+        for (ItemRecord record : state.items().values()) {
+            record.attach(epochs);
+            inventory.put(record.getItemId(), record);
+            sortedItemIds.add(record.getItemId());
+            nameIndex.add(record.getItemId(), record.getItemName());
+            record.markPresent();
+        }
+        state.waitLists().forEach(waitlists::restore);
+        resumeMoves(state);
+        waitlists.signalAll();
+    }
+
+    // Items whose hand-over was journaled without its outcome stay in flight under the same move ID
+    private void resumeMoves(JournalState state) {
+        acceptedMoves.putAll(state.acceptedMoves());
+        state.movingItems().forEach((itemId, move) -> {
+            ItemRecord record = inventory.get(itemId);
+            if (record == null) {
+                return;
+            }
+            // No drain runs before the waitlists are signalled, so the waitlist is always taken
+            List<String> waiting = waitlists.take(itemId);
+            retireItem(record);
+            inventory.remove(itemId, record);
+            nameIndex.remove(itemId, record.getItemName());
+            sortedItemIds.remove(itemId);
+            pendingMoves.put(itemId, new PendingMove(move.moveId(), move.owner(), record, record.takeAll(), waiting));
+        });
+    }
+
+    CustomerAccountManager getAccounts() {
+        return accounts;
+    }
+
+    StoreMetrics getMetrics() {
+        return metrics;
+    }
+
+    InventoryFeed getInventoryFeed() {
+        return inventoryFeed;
+    }
+
+    RemoteLookupCache getLookupCache() {
+        return lookupCache;
+    }
+
+    WaitlistDispatcher getWaitlists() {
+        return waitlists;
+    }
+
+    ShardBalancer getBalancer() {
+        return balancer;
+    }
+
+    ReturnWindowSweeper getSweeper() {
+        return sweeper;
+    }
+
+    StandbyReplica getReplica() {
+        return replica;
+    }
+
+    LogShipper getShipper() {
+        return shipper;
+    }
+
+    // Stops inter-server traffic and waitlist workers, then flushes the journal, trace spans and buffered log events
+    public void shutdown() {
+        if (replica != null) {
+            replica.close();
+        }
+        if (fence != null) {
+            fence.close();
+        }
+        if (shipper != null) {
+            shipper.close();
         }
-        return log;
+        balancer.close();
+        if (sweeper != null) {
+            sweeper.close();
+        }
+        metrics.unregister();
+        transport.close();
+        waitlists.close();
+        inventoryFeed.close();
+        journal.close();
+        tracer.close();
+        eventLog.close();
     }
 
     @Override
     public String addItem(String managerId, String itemId, String itemName, int quantity, double price) throws RemoteException {
-        validateManager(managerId);
-        Objects.requireNonNull(itemId, "itemId");
-        Objects.requireNonNull(itemName, "itemName");
+        long start = System.nanoTime();
+        TraceContext trace = tracer.enter();
+        boolean success = false;
+        try {
+            validateManager(managerId);
+            String owner = remoteOwner(itemId);
+            if (owner != null) {
+                String forwarded = StoreServerRegistry.lookup(owner).addItem(managerId, itemId, itemName, quantity, price);
+                success = true;
+                return forwarded;
+            }
+            String message = applyAddition(managerId, new ItemChange(itemId, itemName, quantity, price));
+            StoreJournal.commitPending();
+            waitlists.signal(itemId);
+            success = true;
+            return message;
+        } finally {
+            finish(StoreMetrics.Operation.ADD_ITEM, start, trace, success);
+        }
+    }
+
+    @Override
+    public String removeItem(String managerId, String itemId, int quantity) throws RemoteException {
+        long start = System.nanoTime();
+        TraceContext trace = tracer.enter();
+        boolean success = false;
+        try {
+            validateManager(managerId);
+            String owner = remoteOwner(itemId);
+            if (owner != null) {
+                String forwarded = StoreServerRegistry.lookup(owner).removeItem(managerId, itemId, quantity);
+                success = true;
+                return forwarded;
+            }
+            String message = applyRemoval(managerId, new ItemChange(itemId, quantity));
+            StoreJournal.commitPending();
+            success = true;
+            return message;
+        } finally {
+            finish(StoreMetrics.Operation.REMOVE_ITEM, start, trace, success);
+        }
+    }
+
+    @Override
+    public List<String> addItems(String managerId, List<ItemChange> items) throws RemoteException {
+        long start = System.nanoTime();
+        TraceContext trace = tracer.enter();
+        boolean success = false;
+        try {
+            validateManager(managerId);
+            Objects.requireNonNull(items, "items");
+            Set<String> restocked = new LinkedHashSet<>();
+            List<String> results = applyByShard(items, item -> {
+                try {
+                    String result = applyAddition(managerId, item);
+                    restocked.add(item.getItemId());
+                    return result;
+                } catch (RemoteException | RuntimeException e) {
+                    return "Item " + describe(item) + " not added: " + e.getMessage();
+                }
+            }, (shard, shardItems) -> shard.addItems(managerId, shardItems), "not added");
+            // One journal flush for the whole batch, then one waitlist pass per touched item
+            StoreJournal.commitPending();
+            restocked.forEach(waitlists::signal);
+            success = true;
+            return results;
+        } finally {
+            finish(StoreMetrics.Operation.ADD_ITEMS, start, trace, success);
+        }
+    }
+
+    @Override
+    public List<String> removeItems(String managerId, List<ItemChange> items) throws RemoteException {
+        long start = System.nanoTime();
+        TraceContext trace = tracer.enter();
+        boolean success = false;
+        try {
+            validateManager(managerId);
+            Objects.requireNonNull(items, "items");
+            List<String> results = applyByShard(items, item -> {
+                try {
+                    return applyRemoval(managerId, item);
+                } catch (RemoteException | RuntimeException e) {
+                    return "Item " + describe(item) + " not removed: " + e.getMessage();
+                }
+            }, (shard, shardItems) -> shard.removeItems(managerId, shardItems), "not removed");
+            StoreJournal.commitPending();
+            success = true;
+            return results;
+        } finally {
+            finish(StoreMetrics.Operation.REMOVE_ITEMS, start, trace, success);
+        }
+    }
+
+    // Applies the changes to items owned here and sends the rest to their shards, one batch per shard
+    private List<String> applyByShard(List<ItemChange> items, Function<ItemChange, String> local, ShardBatch forward,
+                                      String failure) {
+        String[] results = new String[items.size()];
+        Map<String, List<Integer>> byShard = new LinkedHashMap<>();
+        for (int i = 0; i < items.size(); i++) {
+            ItemChange item = items.get(i);
+            String owner = item == null ? null : remoteOwner(item.getItemId());
+            if (owner == null) {
+                results[i] = local.apply(item);
+            } else {
+                byShard.computeIfAbsent(owner, key -> new ArrayList<>()).add(i);
+            }
+        }
+        byShard.forEach((owner, indexes) -> {
+            List<ItemChange> shardItems = new ArrayList<>(indexes.size());
+            indexes.forEach(index -> shardItems.add(items.get(index)));
+            try {
+                List<String> shardResults = forward.apply(StoreServerRegistry.lookup(owner), shardItems);
+                for (int i = 0; i < indexes.size(); i++) {
+                    results[indexes.get(i)] = shardResults.get(i);
+                }
+            } catch (RemoteException e) {
+                for (int index : indexes) {
+                    results[index] = "Item " + describe(items.get(index)) + " " + failure + ": " + e.getMessage();
+                }
+            }
+        });
+        return Arrays.asList(results);
+    }
+
+    // Shard of this store owning an item when it is not this one. Only the primary forwards, so
+    // shards briefly disagreeing about the ring cannot pass a request back and forth.
+    private String remoteOwner(String itemId) {
+        if (!isPrimary() || itemId == null || !itemId.startsWith(storeCode)) {
+            return null;
+        }
+        String owner = ShardRing.of(storeCode).owner(itemId);
+        return owner.equals(shardName) ? null : owner;
+    }
+
+    // Other shards of this store when this is its primary; shards only answer for their own items
+    private List<String> otherShards() {
+        if (!isPrimary()) {
+            return List.of();
+        }
+        List<String> shards = ShardRing.of(storeCode).getShards();
+        return shards.size() == 1 ? List.of() : shards.stream().filter(shard -> !shard.equals(shardName)).toList();
+    }
+
+    private String applyAddition(String managerId, ItemChange item) throws RemoteException {
+        String itemId = Objects.requireNonNull(item.getItemId(), "itemId");
+        String itemName = Objects.requireNonNull(item.getItemName(), "itemName");
+        int quantity = item.getQuantity();
+        double price = item.getPrice();
         if (!itemId.startsWith(storeCode)) {
             throw new RemoteException("Manager " + managerId + " cannot add items for store " + itemId.substring(0, 2));
         }
         if (quantity <= 0 || price <= 0) {
             throw new RemoteException("Quantity and price must be greater than zero.");
         }
-        inventory.compute(itemId, (key, existing) -> {
+        ItemRecord record = inventory.compute(itemId, (key, existing) -> {
             if (existing == null) {
                 ItemRecord newRecord = new ItemRecord(itemId, itemName, quantity, price);
-                logger.info(() -> String.format("Added new item %s (%s) qty=%d price=%.2f", itemId, itemName, quantity, price));
+                newRecord.attach(epochs);
+                nameIndex.add(itemId, itemName);
+                sortedItemIds.add(itemId);
+                journal.itemCreated(itemId, itemName, quantity, price);
+                itemChanged(newRecord, InventoryChange.Kind.ADDED);
+                eventLog.log(ServerEvent.ITEM_ADDED, itemId, itemName, quantity, price);
                 return newRecord;
             }
-            existing.getLock().lock();
-            try {
-                existing.increaseQuantity(quantity);
-                int updatedQuantity = existing.getQuantity();
-                logger.info(() -> String.format("Increased quantity for item %s by %d. New quantity=%d", itemId, quantity, updatedQuantity));
-            } finally {
-                existing.getLock().unlock();
-            }
+            int updatedQuantity = existing.increaseQuantity(quantity);
+            journal.quantityChanged(itemId, quantity);
+            itemChanged(existing, InventoryChange.Kind.QUANTITY_CHANGED);
+            eventLog.log(ServerEvent.ITEM_RESTOCKED, itemId, quantity, updatedQuantity);
             return existing;
         });
-        processWaitList(itemId);
+        // Once the record is mapped, so a snapshot that sees a new item also finds it
+        record.markPresent();
         return "Item " + itemId + " successfully added/updated.";
     }
 
-    @Override
-    public String removeItem(String managerId, String itemId, int quantity) throws RemoteException {
-        validateManager(managerId);
-        Objects.requireNonNull(itemId, "itemId");
+    private String applyRemoval(String managerId, ItemChange item) throws RemoteException {
+        String itemId = Objects.requireNonNull(item.getItemId(), "itemId");
+        int quantity = item.getQuantity();
         if (!itemId.startsWith(storeCode)) {
             throw new RemoteException("Manager " + managerId + " cannot remove items for store " + itemId.substring(0, 2));
         }
@@ -93,213 +475,1305 @@ public class StoreServerImpl extends UnicastRemoteObject implements StoreServer
         if (record == null) {
             return "Item " + itemId + " does not exist.";
         }
-        record.getLock().lock();
+        int remaining = quantity <= 0 ? -1 : decreaseStock(record, quantity);
+        if (remaining < 0) {
+            // Removing at least the whole stock drops the item entirely
+            retireItem(record);
+            if (!inventory.remove(itemId, record)) {
+                return "Item " + itemId + " does not exist.";
+            }
+            nameIndex.remove(itemId, record.getItemName());
+            sortedItemIds.remove(itemId);
+            waitlists.discard(itemId);
+            journal.itemRemoved(itemId);
+            acceptedMoves.values().removeIf(itemId::equals);
+            itemChanged(record, InventoryChange.Kind.REMOVED);
+            eventLog.log(ServerEvent.ITEM_REMOVED, itemId);
+            return "Item " + itemId + " removed from inventory.";
+        }
+        journal.quantityChanged(itemId, -quantity);
+        eventLog.log(ServerEvent.ITEM_DECREASED, itemId, quantity, remaining);
+        return "Item " + itemId + " quantity decreased by " + quantity + ".";
+    }
+
+    private static String describe(ItemChange item) {
+        return item == null ? "null" : String.valueOf(item.getItemId());
+    }
+
+    @Override
+    public String listItemAvailability(String managerId) throws RemoteException {
+        long start = System.nanoTime();
+        TraceContext trace = tracer.enter();
+        boolean success = false;
         try {
-            if (quantity <= 0 || quantity >= record.getQuantity()) {
-                inventory.remove(itemId);
-                waitLists.remove(itemId);
-                logger.info(() -> String.format("Removed item %s from inventory.", itemId));
-                return "Item " + itemId + " removed from inventory.";
+            validateManager(managerId);
+            List<String> lines = new ArrayList<>();
+            try (InventoryEpochs.Snapshot snapshot = epochs.open()) {
+                for (ItemAvailability item : itemsAt(snapshot, sortedItemIds, record -> true, Integer.MAX_VALUE)) {
+                    lines.add(String.format("Item ID: %s, Item Name: %s, Item Quantity: %d, Item Price: %.2f",
+                        item.getItemId(), item.getItemName(), item.getQuantity(), item.getPrice()));
+                }
+            }
+            List<String> shards = otherShards();
+            for (String shard : shards) {
+                String listing = StoreServerRegistry.lookup(shard).listItemAvailability(managerId);
+                if (!NO_ITEMS_AVAILABLE.equals(listing)) {
+                    lines.addAll(listing.lines().toList());
+                }
             }
-            record.decreaseQuantity(quantity);
-            logger.info(() -> String.format("Decreased quantity for %s by %d. New quantity=%d", itemId, quantity, record.getQuantity()));
-            return "Item " + itemId + " quantity decreased by " + quantity + ".";
+            if (!shards.isEmpty()) {
+                // Every line starts with "Item ID: ", so this orders the merged listing by item ID
+                lines.sort(null);
+            }
+            String result = lines.isEmpty() ? NO_ITEMS_AVAILABLE : String.join(System.lineSeparator(), lines);
+            eventLog.log(ServerEvent.ITEMS_LISTED, managerId, lines.size());
+            success = true;
+            return result;
         } finally {
-            record.getLock().unlock();
+            finish(StoreMetrics.Operation.LIST_ITEMS, start, trace, success);
         }
     }
 
     @Override
-    public String listItemAvailability(String managerId) {
-        validateManager(managerId);
-        List<ItemRecord> records = new ArrayList<>(inventory.values());
-        records.sort(Comparator.comparing(ItemRecord::getItemId));
-        StringJoiner joiner = new StringJoiner(System.lineSeparator());
-        for (ItemRecord record : records) {
-            joiner.add(String.format("Item ID: %s, Item Name: %s, Item Quantity: %d, Item Price: %.2f",
-                record.getItemId(), record.getItemName(), record.getQuantity(), record.getPrice()));
+    public ItemPage listItemAvailability(String managerId, String cursor, int pageSize) throws RemoteException {
+        long start = System.nanoTime();
+        TraceContext trace = tracer.enter();
+        boolean success = false;
+        try {
+            validateManager(managerId);
+            if (pageSize <= 0 || pageSize > MAX_PAGE_SIZE) {
+                throw new IllegalArgumentException("Page size must be between 1 and " + MAX_PAGE_SIZE);
+            }
+            ItemPage page = localItemPage(cursor, pageSize);
+            List<String> shards = otherShards();
+            if (!shards.isEmpty()) {
+                page = mergeShardPages(page, shards, managerId, cursor, pageSize);
+            }
+            eventLog.log(ServerEvent.ITEMS_LISTED, managerId, page.getItems().size());
+            success = true;
+            return page;
+        } finally {
+            finish(StoreMetrics.Operation.LIST_ITEM_PAGE, start, trace, success);
+        }
+    }
+
+    private ItemPage localItemPage(String cursor, int pageSize) {
+        NavigableSet<String> remaining = cursor == null ? sortedItemIds : sortedItemIds.tailSet(cursor, false);
+        List<ItemAvailability> items;
+        // One item past the page tells whether there is a next one
+        try (InventoryEpochs.Snapshot snapshot = epochs.open()) {
+            items = itemsAt(snapshot, remaining, record -> cursor == null || record.getItemId().compareTo(cursor) > 0, pageSize + 1);
+        }
+        if (items.size() <= pageSize) {
+            return new ItemPage(items, null);
+        }
+        items = new ArrayList<>(items.subList(0, pageSize));
+        return new ItemPage(items, items.get(pageSize - 1).getItemId());
+    }
+
+    /**
+     * Items of this shard as of the snapshot, in item order and at most limit of them: those the
+     * IDs lead to, sorted, and those removed since the snapshot was opened that the filter keeps.
+     */
+    private List<ItemAvailability> itemsAt(InventoryEpochs.Snapshot snapshot, Iterable<String> itemIds,
+                                           Predicate<ItemRecord> removedFilter, int limit) {
+        List<ItemAvailability> items = new ArrayList<>();
+        for (String itemId : itemIds) {
+            if (items.size() == limit) {
+                break;
+            }
+            ItemRecord record = inventory.get(itemId);
+            int quantity = record == null ? ItemRecord.ABSENT : record.getQuantityAt(snapshot);
+            if (quantity != ItemRecord.ABSENT) {
+                items.add(new ItemAvailability(itemId, record.getItemName(), quantity, record.getPrice()));
+            }
+        }
+        // Removed items have left the indexes, but the snapshot may still see them
+        TreeMap<String, ItemAvailability> merged = new TreeMap<>();
+        for (ItemRecord record : epochs.retired()) {
+            int quantity = record.getQuantityAt(snapshot);
+            if (quantity != ItemRecord.ABSENT && removedFilter.test(record)) {
+                merged.put(record.getItemId(), new ItemAvailability(record.getItemId(), record.getItemName(), quantity, record.getPrice()));
+            }
+        }
+        if (merged.isEmpty()) {
+            return items;
+        }
+        for (ItemAvailability item : items) {
+            merged.put(item.getItemId(), item);
+        }
+        List<ItemAvailability> all = new ArrayList<>(merged.values());
+        return all.size() > limit ? new ArrayList<>(all.subList(0, limit)) : all;
+    }
+
+    // Each shard's page holds its first items after the cursor, so together they hold the store's first page
+    private ItemPage mergeShardPages(ItemPage localPage, List<String> shards, String managerId, String cursor, int pageSize)
+            throws RemoteException {
+        List<ItemAvailability> items = new ArrayList<>(localPage.getItems());
+        boolean more = localPage.hasNext();
+        for (String shard : shards) {
+            ItemPage shardPage = StoreServerRegistry.lookup(shard).listItemAvailability(managerId, cursor, pageSize);
+            items.addAll(shardPage.getItems());
+            more |= shardPage.hasNext();
+        }
+        items.sort(Comparator.comparing(ItemAvailability::getItemId));
+        if (items.size() > pageSize) {
+            items = new ArrayList<>(items.subList(0, pageSize));
+            more = true;
+        }
+        return new ItemPage(items, more && !items.isEmpty() ? items.get(items.size() - 1).getItemId() : null);
+    }
+
+    @Override
+    public List<ItemAvailability> subscribeInventory(String managerId, InventoryListener listener) throws RemoteException {
+        long start = System.nanoTime();
+        TraceContext trace = tracer.enter();
+        boolean success = false;
+        try {
+            validateManager(managerId);
+            if (listener == null) {
+                throw new IllegalArgumentException("Listener must not be null.");
+            }
+            // Subscribe before the snapshot: a change racing with it is delivered afterwards with the item's latest state
+            inventoryFeed.subscribe(managerId, listener);
+            List<ItemAvailability> snapshot;
+            try (InventoryEpochs.Snapshot items = epochs.open()) {
+                snapshot = itemsAt(items, sortedItemIds, record -> true, Integer.MAX_VALUE);
+            }
+            // The listener hears from every shard directly; the snapshots are merged here
+            List<String> shards = otherShards();
+            for (String shard : shards) {
+                snapshot.addAll(StoreServerRegistry.lookup(shard).subscribeInventory(managerId, listener));
+            }
+            if (!shards.isEmpty()) {
+                snapshot.sort(Comparator.comparing(ItemAvailability::getItemId));
+            }
+            success = true;
+            return snapshot;
+        } finally {
+            finish(StoreMetrics.Operation.SUBSCRIBE_INVENTORY, start, trace, success);
+        }
+    }
+
+    @Override
+    public void unsubscribeInventory(String managerId, InventoryListener listener) throws RemoteException {
+        long start = System.nanoTime();
+        TraceContext trace = tracer.enter();
+        boolean success = false;
+        try {
+            validateManager(managerId);
+            inventoryFeed.unsubscribe(listener);
+            for (String shard : otherShards()) {
+                StoreServerRegistry.lookup(shard).unsubscribeInventory(managerId, listener);
+            }
+            success = true;
+        } finally {
+            finish(StoreMetrics.Operation.UNSUBSCRIBE_INVENTORY, start, trace, success);
         }
-        String result = joiner.length() == 0 ? "No items available." : joiner.toString();
-        logger.info(() -> "Listing items for manager " + managerId + System.lineSeparator() + result);
-        return result;
     }
 
     @Override
     public PurchaseResult purchaseItem(String customerId, String itemId, String dateOfPurchase) throws RemoteException {
-        validateCustomer(customerId);
-        LocalDate purchaseDate = parseDate(dateOfPurchase);
-        String itemStore = itemId.substring(0, 2);
-        if (itemStore.equals(storeCode)) {
-            return performLocalPurchase(customerId, itemId, purchaseDate, false);
+        long start = System.nanoTime();
+        TraceContext trace = tracer.enter();
+        boolean success = false;
+        try {
+            validateCustomer(customerId);
+            LocalDate purchaseDate = parseDate(dateOfPurchase);
+            String owner = ShardRing.ownerOf(itemId);
+            if (owner.equals(shardName)) {
+                PurchaseResult result = performLocalPurchase(customerId, itemId, purchaseDate);
+                StoreJournal.commitPending();
+                success = result.isSuccess();
+                return result;
+            }
+            double budget = accounts.getRemainingBudget(customerId);
+            PurchaseResult result = awaitRemote(owner,
+                    transport.requestPurchase(owner, customerId, itemId, purchaseDate, budget, FORWARDED_PURCHASE_TIMEOUT));
+            eventLog.log(ServerEvent.PURCHASE_FORWARDED, customerId, owner, result.getMessage());
+            success = result.isSuccess();
+            return result;
+        } finally {
+            finish(StoreMetrics.Operation.PURCHASE_ITEM, start, trace, success);
+        }
+    }
+
+    @Override
+    public PurchaseResult checkoutCart(String customerId, List<String> itemIds, String dateOfPurchase) throws RemoteException {
+        long start = System.nanoTime();
+        TraceContext trace = tracer.enter();
+        boolean success = false;
+        try {
+            validateCustomer(customerId);
+            LocalDate purchaseDate = parseDate(dateOfPurchase);
+            if (itemIds == null || itemIds.isEmpty()) {
+                throw new IllegalArgumentException("Cart must contain at least one item.");
+            }
+            // Keyed by the shard owning the items, which is the store itself unless the store is sharded
+            Map<String, List<String>> itemsByStore = new LinkedHashMap<>();
+            for (String itemId : itemIds) {
+                Objects.requireNonNull(itemId, "itemId");
+                itemsByStore.computeIfAbsent(ShardRing.ownerOf(itemId), key -> new ArrayList<>()).add(itemId);
+            }
+            String cartId = storeCode + "-" + UUID.randomUUID();
+            // Phase one: every store involved reserves its share of the cart, remote stores in parallel
+            Map<String, CompletableFuture<CartQuote>> quotes = new LinkedHashMap<>();
+            itemsByStore.forEach((store, storeItems) -> {
+                if (!store.equals(shardName)) {
+                    quotes.put(store, transport.requestCartReserve(store, cartId, customerId, storeItems, DEFAULT_REMOTE_CALL_TIMEOUT));
+                }
+            });
+            if (itemsByStore.containsKey(shardName)) {
+                quotes.put(shardName, CompletableFuture.completedFuture(reserveCart(cartId, customerId, itemsByStore.get(shardName))));
+            }
+            List<PurchaseRecord> records = new ArrayList<>(itemIds.size());
+            Map<String, List<PurchaseRecord>> recordsByStore = new LinkedHashMap<>();
+            List<String> heldStores = new ArrayList<>();
+            String failure = null;
+            for (Map.Entry<String, CompletableFuture<CartQuote>> entry : quotes.entrySet()) {
+                String store = entry.getKey();
+                CartQuote quote;
+                try {
+                    quote = awaitRemote(store, entry.getValue());
+                } catch (RemoteException e) {
+                    // The store may still hold a reservation if only its reply was lost
+                    heldStores.add(store);
+                    failure = failure == null ? e.getMessage() : failure;
+                    continue;
+                }
+                if (!quote.isReserved()) {
+                    failure = failure == null ? quote.getMessage() : failure;
+                    continue;
+                }
+                heldStores.add(store);
+                List<String> storeItems = itemsByStore.get(store);
+                double[] prices = quote.getPrices();
+                List<PurchaseRecord> storeRecords = new ArrayList<>(prices.length);
+                for (int i = 0; i < prices.length; i++) {
+                    storeRecords.add(new PurchaseRecord(storeItems.get(i), store.substring(0, 2), purchaseDate, prices[i]));
+                }
+                records.addAll(storeRecords);
+                recordsByStore.put(store, storeRecords);
+            }
+            if (failure == null && !accounts.attemptCart(customerId, records)) {
+                failure = "Purchase denied due to budget or policy limits.";
+            }
+            // Phase two: confirm or release every reservation
+            boolean commit = failure == null;
+            List<String> expiredStores = settleCarts(cartId, heldStores, commit);
+            if (!commit) {
+                StoreJournal.commitPending();
+                eventLog.log(ServerEvent.CART_REJECTED, customerId, cartId, failure);
+                return new PurchaseResult(false, "Cart checkout failed: " + failure, 0);
+            }
+            // Stores whose reservation expired before the commit arrived sold nothing, so their share is refunded
+            List<PurchaseRecord> cancelled = new ArrayList<>();
+            for (String store : expiredStores) {
+                cancelled.addAll(recordsByStore.get(store));
+            }
+            double refunded = 0;
+            if (!cancelled.isEmpty()) {
+                accounts.cancelPurchases(customerId, cancelled);
+                for (PurchaseRecord record : cancelled) {
+                    refunded += record.price();
+                }
+                eventLog.log(ServerEvent.CART_PARTIALLY_SETTLED, customerId, cartId, cancelled.size(), refunded);
+            }
+            StoreJournal.commitPending();
+            double total = -refunded;
+            for (PurchaseRecord record : records) {
+                total += record.price();
+            }
+            int bought = records.size() - cancelled.size();
+            if (bought == 0) {
+                return new PurchaseResult(false, "Cart checkout failed: the reservations expired before they were confirmed", 0);
+            }
+            String stores = recordsByStore.keySet().stream().filter(store -> !expiredStores.contains(store))
+                    .map(store -> store.substring(0, 2)).distinct().collect(Collectors.joining(", "));
+            eventLog.log(ServerEvent.CART_CHECKED_OUT, customerId, stores, bought, total);
+            if (!cancelled.isEmpty()) {
+                String missing = cancelled.stream().map(PurchaseRecord::itemId).collect(Collectors.joining(", "));
+                return new PurchaseResult(false, "Cart checkout incomplete: bought " + bought + " item(s) from store(s) " + stores
+                        + ", item(s) " + missing + " were not bought and refunded", total);
+            }
+            success = true;
+            return new PurchaseResult(true, "Cart checkout successful: " + bought + " item(s) from store(s) " + stores, total);
+        } finally {
+            finish(StoreMetrics.Operation.CHECKOUT_CART, start, trace, success);
         }
-        StoreServer remote = StoreServerRegistry.lookup(itemStore);
-        double budget = CustomerAccountManager.getRemainingBudget(customerId);
-        PurchaseResult result = remote.requestRemotePurchase(customerId, itemId, dateOfPurchase, budget);
-        logger.info(() -> String.format("Forwarded purchase request for customer %s to store %s: %s", customerId, itemStore, result.getMessage()));
-        return result;
     }
 
     @Override
     public String findItem(String customerId, String itemName) throws RemoteException {
-        validateCustomer(customerId);
-        StringBuilder builder = new StringBuilder();
-        builder.append(searchLocalItems(itemName));
-        for (String otherStore : StoreServerRegistry.getOtherStores(storeCode)) {
-            StoreServer remote = StoreServerRegistry.lookup(otherStore);
-            String remoteResponse = remote.requestRemoteItemLookup(itemName);
-            if (!remoteResponse.isBlank()) {
-                if (builder.length() > 0) {
-                    builder.append(System.lineSeparator());
+        long start = System.nanoTime();
+        TraceContext trace = tracer.enter();
+        boolean success = false;
+        try {
+            validateCustomer(customerId);
+            List<String> otherStores = StoreServerRegistry.getOtherStores(storeCode);
+            // Send every lookup the cache cannot answer at once, each bounded by its own deadline
+            String[] remoteResponses = new String[otherStores.size()];
+            CompletableFuture<?>[] lookups = new CompletableFuture<?>[otherStores.size()];
+            for (int i = 0; i < otherStores.size(); i++) {
+                int slot = i;
+                String otherStore = otherStores.get(i);
+                String cached = lookupCache.get(otherStore, itemName);
+                if (cached != null) {
+                    remoteResponses[slot] = cached;
+                    lookups[i] = CompletableFuture.completedFuture(cached);
+                    continue;
                 }
-                builder.append(remoteResponse);
+                long generation = lookupCache.generation(otherStore);
+                long requestStart = System.nanoTime();
+                lookups[i] = transport.requestItemLookup(otherStore, itemName, remoteLookupTimeout)
+                        .whenComplete((response, error) -> {
+                            if (error == null) {
+                                remoteResponses[slot] = response;
+                                lookupCache.put(otherStore, itemName, response, generation, requestStart);
+                            }
+                        });
             }
+            StringBuilder builder = new StringBuilder();
+            List<String> missingStores = new ArrayList<>();
+            builder.append(searchStoreItems(itemName, missingStores));
+            for (int i = 0; i < lookups.length; i++) {
+                String otherStore = otherStores.get(i);
+                try {
+                    lookups[i].join();
+                } catch (CompletionException ex) {
+                    missingStores.add(otherStore);
+                    if (ex.getCause() instanceof TimeoutException) {
+                        eventLog.log(ServerEvent.LOOKUP_DEADLINE_MISSED, otherStore, itemName, remoteLookupTimeout.toMillis());
+                    } else {
+                        eventLog.log(ServerEvent.LOOKUP_FAILED, otherStore, itemName, ex.getCause());
+                    }
+                    continue;
+                }
+                String remoteResponse = remoteResponses[i];
+                if (remoteResponse != null && !remoteResponse.isBlank()) {
+                    if (builder.length() > 0) {
+                        builder.append(System.lineSeparator());
+                    }
+                    builder.append(remoteResponse);
+                }
+            }
+            String result = builder.length() == 0 ? "No items found." : builder.toString();
+            if (!missingStores.isEmpty()) {
+                result = result + System.lineSeparator() + "Partial results: no response from store(s) " + String.join(", ", missingStores);
+            }
+            eventLog.log(ServerEvent.FIND_COMPLETED, customerId, itemName, missingStores.size());
+            success = true;
+            return result;
+        } finally {
+            finish(StoreMetrics.Operation.FIND_ITEM, start, trace, success);
         }
-        String result = builder.length() == 0 ? "No items found." : builder.toString();
-        logger.info(() -> "FindItem result for " + customerId + " item=" + itemName + System.lineSeparator() + result);
-        return result;
     }
 
     @Override
     public String returnItem(String customerId, String itemId, String dateOfReturn) throws RemoteException {
-        validateCustomer(customerId);
-        LocalDate returnDate = parseDate(dateOfReturn);
-        String itemStore = itemId.substring(0, 2);
-        if (itemStore.equals(storeCode)) {
-            return processReturn(customerId, itemId, returnDate);
+        long start = System.nanoTime();
+        TraceContext trace = tracer.enter();
+        boolean success = false;
+        try {
+            validateCustomer(customerId);
+            LocalDate returnDate = parseDate(dateOfReturn);
+            String owner = ShardRing.ownerOf(itemId);
+            String result = processReturn(customerId, itemId, owner, returnDate);
+            StoreJournal.commitPending();
+            if (!owner.equals(shardName)) {
+                eventLog.log(ServerEvent.RETURN_FORWARDED, customerId, owner, result);
+            }
+            success = true;
+            return result;
+        } finally {
+            finish(StoreMetrics.Operation.RETURN_ITEM, start, trace, success);
         }
-        StoreServer remote = StoreServerRegistry.lookup(itemStore);
-        boolean accepted = remote.requestRemoteReturn(customerId, itemId, dateOfReturn);
-        String message = accepted ? "Return processed by store " + itemStore : "Unable to return item " + itemId;
-        logger.info(() -> String.format("Return request for %s forwarded to %s: %s", customerId, itemStore, message));
-        return message;
     }
 
     @Override
     public PurchaseResult requestRemotePurchase(String customerId, String itemId, String dateOfPurchase, double budgetRemaining) throws RemoteException {
-        LocalDate purchaseDate = parseDate(dateOfPurchase);
-        PurchaseResult result = performLocalPurchase(customerId, itemId, purchaseDate, true);
-        if (!result.isSuccess()) {
-            logger.info(() -> String.format("Remote purchase failed for customer %s item %s: %s", customerId, itemId, result.getMessage()));
-        }
-        return result;
+        return handleRemotePurchase(customerId, itemId, parseDate(dateOfPurchase), budgetRemaining);
     }
 
     @Override
     public String requestRemoteItemLookup(String itemName) {
-        return searchLocalItems(itemName);
+        long start = System.nanoTime();
+        TraceContext trace = tracer.enter();
+        boolean success = false;
+        try {
+            String result = searchStoreItems(itemName, null);
+            success = true;
+            return result;
+        } finally {
+            finish(StoreMetrics.Operation.REMOTE_LOOKUP, start, trace, success);
+        }
     }
 
+    // Puts a returned item back on the shelf; the customer's home store has already checked the purchase record
     @Override
     public boolean requestRemoteReturn(String customerId, String itemId, String dateOfReturn) throws RemoteException {
-        LocalDate returnDate = parseDate(dateOfReturn);
-        String response = processReturn(customerId, itemId, returnDate);
-        return response.toLowerCase(Locale.CANADA).contains("success");
+        parseDate(dateOfReturn);
+        return handleRemoteReturn(customerId, itemId);
+    }
+
+    @Override
+    public InetSocketAddress getInterServerAddress() throws RemoteException {
+        // Also how a standby's probe tells a shut down store from a live one
+        if (!transport.isOpen()) {
+            throw new RemoteException("Store " + shardName + " is shut down");
+        }
+        return transport.getAddress();
+    }
+
+    @Override
+    public long applyReplicatedRecords(long epoch, long firstSequence, byte[] frames) {
+        return requireReplica().apply(epoch, firstSequence, frames);
+    }
+
+    @Override
+    public void installReplicaSnapshot(long epoch, long sequence, byte[] snapshot) throws RemoteException {
+        try {
+            requireReplica().install(epoch, sequence, snapshot);
+        } catch (IOException e) {
+            throw new RemoteException("Unable to install snapshot on the standby of " + shardName, e);
+        }
+    }
+
+    // Merges an item handed over by another shard; quantity may be zero when only its waitlist moves
+    @Override
+    public void acceptShardItem(String moveId, ItemAvailability item, List<String> waitlist) {
+        requireActive();
+        Objects.requireNonNull(moveId, "moveId");
+        String itemId = Objects.requireNonNull(item, "item").getItemId();
+        if (itemId == null || !itemId.startsWith(storeCode)) {
+            throw new IllegalArgumentException("Item " + itemId + " does not belong to store " + storeCode);
+        }
+        if (acceptedMoves.putIfAbsent(moveId, itemId) != null) {
+            // Sent again because our answer was lost; the first hand-over is already merged
+            return;
+        }
+        journal.shardMoveAccepted(moveId, itemId);
+        int quantity = item.getQuantity();
+        ItemRecord accepted = inventory.compute(itemId, (key, existing) -> {
+            if (existing == null) {
+                ItemRecord record = new ItemRecord(itemId, item.getItemName(), quantity, item.getPrice());
+                record.attach(epochs);
+                nameIndex.add(itemId, item.getItemName());
+                sortedItemIds.add(itemId);
+                journal.itemCreated(itemId, item.getItemName(), quantity, item.getPrice());
+                itemChanged(record, InventoryChange.Kind.ADDED);
+                return record;
+            }
+            if (quantity > 0) {
+                existing.increaseQuantity(quantity);
+                journal.quantityChanged(itemId, quantity);
+                itemChanged(existing, InventoryChange.Kind.QUANTITY_CHANGED);
+            }
+            return existing;
+        });
+        accepted.markPresent();
+        for (String customerId : waitlist) {
+            if (waitlists.enqueue(itemId, customerId)) {
+                journal.waitlistAdded(itemId, customerId);
+            }
+        }
+        StoreJournal.commitPending();
+        eventLog.log(ServerEvent.SHARD_ITEM_RECEIVED, itemId, quantity, waitlist.size());
+        waitlists.signal(itemId);
+    }
+
+    private PurchaseResult handleRemotePurchase(String customerId, String itemId, LocalDate purchaseDate, double budgetRemaining) {
+        requireActive();
+        long start = System.nanoTime();
+        TraceContext trace = tracer.enter();
+        boolean success = false;
+        try {
+            PurchaseResult result = chargeRemotePurchase(customerId, itemId, purchaseDate, budgetRemaining);
+            success = result.isSuccess();
+            return result;
+        } finally {
+            finish(StoreMetrics.Operation.REMOTE_PURCHASE, start, trace, success);
+        }
     }
 
-    private PurchaseResult performLocalPurchase(String customerId, String itemId, LocalDate purchaseDate, boolean fromRemote) {
+    private PurchaseResult chargeRemotePurchase(String customerId, String itemId, LocalDate purchaseDate, double budgetRemaining) {
+        ItemRecord record = inventory.get(itemId);
+        // The budget sent by the home store lets an unaffordable purchase fail without a hold round trip
+        PurchaseResult result = record != null && record.getPrice() > budgetRemaining
+                ? new PurchaseResult(false, "Purchase denied due to budget or policy limits.", 0)
+                : performLocalPurchase(customerId, itemId, purchaseDate);
+        StoreJournal.commitPending();
+        if (!result.isSuccess() && !result.isPending()) {
+            eventLog.log(ServerEvent.REMOTE_PURCHASE_FAILED, customerId, itemId, result.getMessage());
+        }
+        return result;
+    }
+
+    private boolean handleRemoteReturn(String customerId, String itemId) {
+        requireActive();
+        long start = System.nanoTime();
+        TraceContext trace = tracer.enter();
+        boolean success = false;
+        try {
+            boolean restocked = restockReturnedItem(customerId, itemId);
+            StoreJournal.commitPending();
+            success = restocked;
+            return restocked;
+        } finally {
+            finish(StoreMetrics.Operation.REMOTE_RETURN, start, trace, success);
+        }
+    }
+
+    // Waits for a forwarded request and surfaces transport failures as RemoteException
+    private <T> T awaitRemote(String targetStore, CompletableFuture<T> call) throws RemoteException {
+        try {
+            return call.join();
+        } catch (CompletionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RemoteException remoteException) {
+                throw remoteException;
+            }
+            if (cause instanceof TimeoutException) {
+                throw new RemoteException("Store " + targetStore + " did not respond in time");
+            }
+            throw new RemoteException("Request to store " + targetStore + " failed", cause);
+        }
+    }
+
+    private PurchaseResult performLocalPurchase(String customerId, String itemId, LocalDate purchaseDate) {
         ItemRecord record = inventory.get(itemId);
         if (record == null) {
-            waitLists.computeIfAbsent(itemId, key -> new LinkedList<>());
             return new PurchaseResult(false, "Item " + itemId + " is not available.", 0);
         }
-        record.getLock().lock();
+        if (!reserveUnit(record)) {
+            if (waitlists.enqueue(itemId, customerId)) {
+                journal.waitlistAdded(itemId, customerId);
+                eventLog.log(ServerEvent.WAITLIST_JOINED, customerId, itemId);
+            }
+            // Stock may have come back while this customer joined the waitlist
+            if (record.getQuantity() > 0) {
+                waitlists.signal(itemId);
+            }
+            return new PurchaseResult(false, "Item unavailable. Added to waitlist.", 0);
+        }
+        return chargeReserved(customerId, record, purchaseDate);
+    }
+
+    // Charges the customer for a unit already reserved with a CAS, so no lock is held across the account call
+    private PurchaseResult chargeReserved(String customerId, ItemRecord record, LocalDate purchaseDate) {
+        String homeStore = customerId.substring(0, 2);
+        // Accounts live on the home store's primary, so every other shard charges through a hold
+        if (!homeStore.equals(shardName)) {
+            return chargeRemoteCustomer(homeStore, customerId, record, purchaseDate);
+        }
+        String itemId = record.getItemId();
+        double price = record.getPrice();
+        if (!accounts.attemptPurchase(customerId, storeCode, itemId, price, purchaseDate)) {
+            restoreUnit(record);
+            return new PurchaseResult(false, "Purchase denied due to budget or policy limits.", 0);
+        }
+        journal.quantityChanged(itemId, -1);
+        eventLog.log(ServerEvent.PURCHASE_COMPLETED, customerId, itemId, price);
+        return new PurchaseResult(true, "Purchase successful for item " + itemId, price);
+    }
+
+    // The budget lives with the customer's home store: hold it there, take the stock, then confirm the hold
+    private PurchaseResult chargeRemoteCustomer(String homeStore, String customerId, ItemRecord record, LocalDate purchaseDate) {
+        String itemId = record.getItemId();
+        double price = record.getPrice();
+        String holdId;
         try {
-            if (record.getQuantity() <= 0) {
-                waitLists.computeIfAbsent(itemId, key -> new LinkedList<>()).add(customerId);
-                logger.info(() -> String.format("Customer %s added to waitlist for item %s", customerId, itemId));
-                return new PurchaseResult(false, "Item unavailable. Added to waitlist.", 0);
-            }
-            double price = record.getPrice();
-            boolean purchaseRecorded = CustomerAccountManager.attemptPurchase(customerId, storeCode, itemId, price, purchaseDate);
-            if (!purchaseRecorded) {
-                return new PurchaseResult(false, "Purchase denied due to budget or policy limits.", 0);
-            }
-            record.decreaseQuantity(1);
-            logger.info(() -> String.format("Customer %s purchased item %s for %.2f", customerId, itemId, price));
+            holdId = awaitRemote(homeStore,
+                    transport.requestBudgetHold(homeStore, customerId, itemId, price, purchaseDate, DEFAULT_REMOTE_CALL_TIMEOUT));
+        } catch (RemoteException e) {
+            // A hold placed without us hearing about it expires on the home store
+            restoreUnit(record);
+            eventLog.log(ServerEvent.BUDGET_HOLD_FAILED, homeStore, customerId, e);
+            return new PurchaseResult(false, "Unable to reach home store " + homeStore + " of customer " + customerId, 0);
+        }
+        if (holdId == null) {
+            restoreUnit(record);
+            return new PurchaseResult(false, "Purchase denied due to budget or policy limits.", 0);
+        }
+        journal.quantityChanged(itemId, -1);
+        StoreJournal.commitPending();
+        boolean confirmed;
+        try {
+            confirmed = awaitRemote(homeStore, transport.requestHoldSettle(homeStore, holdId, true, DEFAULT_REMOTE_CALL_TIMEOUT));
+        } catch (RemoteException e) {
+            // The confirmation may have gone through, so the unit stays sold until the home store answers
+            eventLog.log(ServerEvent.HOLD_CONFIRM_PENDING, homeStore, customerId, holdId, e);
+            retryHoldConfirm(homeStore, customerId, holdId, record);
+            return new PurchaseResult(false, true, "Purchase of item " + itemId + " awaits confirmation from home store "
+                    + homeStore + "; it completes or is cancelled once " + homeStore + " answers", price);
+        }
+        if (confirmed) {
+            eventLog.log(ServerEvent.PURCHASE_COMPLETED, customerId, itemId, price);
             return new PurchaseResult(true, "Purchase successful for item " + itemId, price);
-        } finally {
-            record.getLock().unlock();
         }
+        cancelUnconfirmed(customerId, holdId, record);
+        return new PurchaseResult(false, "Purchase could not be confirmed with home store " + homeStore, 0);
+    }
+
+    // Asks the home store again until it answers; confirming a hold twice charges the customer once
+    private void retryHoldConfirm(String homeStore, String customerId, String holdId, ItemRecord record) {
+        CompletableFuture.delayedExecutor(DEFAULT_REMOTE_CALL_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS).execute(() -> {
+            if (!transport.isOpen()) {
+                return;
+            }
+            transport.requestHoldSettle(homeStore, holdId, true, DEFAULT_REMOTE_CALL_TIMEOUT).whenComplete((confirmed, error) -> {
+                if (error != null) {
+                    retryHoldConfirm(homeStore, customerId, holdId, record);
+                } else if (confirmed) {
+                    eventLog.log(ServerEvent.PURCHASE_COMPLETED, customerId, record.getItemId(), record.getPrice());
+                } else {
+                    cancelUnconfirmed(customerId, holdId, record);
+                    StoreJournal.commitPending();
+                }
+            });
+        });
+    }
+
+    // The home store answered that the hold expired or was released, so the customer was not charged
+    private void cancelUnconfirmed(String customerId, String holdId, ItemRecord record) {
+        String itemId = record.getItemId();
+        restoreUnit(record);
+        journal.quantityChanged(itemId, 1);
+        waitlists.signal(itemId);
+        eventLog.log(ServerEvent.HOLD_NOT_CONFIRMED, customerId, itemId, holdId);
+    }
+
+    // Takes one unit of every item or none of them, and holds them until the cart is settled
+    private CartQuote reserveCart(String cartId, String customerId, List<String> itemIds) {
+        List<ItemRecord> reserved = new ArrayList<>(itemIds.size());
+        double[] prices = new double[itemIds.size()];
+        for (int i = 0; i < itemIds.size(); i++) {
+            String itemId = itemIds.get(i);
+            ItemRecord record = inventory.get(itemId);
+            if (record == null || !reserveUnit(record)) {
+                releaseReserved(reserved);
+                return CartQuote.rejected("Item " + itemId + " is not available.");
+            }
+            reserved.add(record);
+            prices[i] = record.getPrice();
+        }
+        cartReservations.put(cartId, new CartReservation(customerId, reserved));
+        CompletableFuture.delayedExecutor(CART_RESERVATION_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)
+                .execute(() -> expireCart(cartId));
+        return CartQuote.reserved(prices);
+    }
+
+    private boolean settleCart(String cartId, boolean commit) {
+        CartReservation reservation = cartReservations.remove(cartId);
+        if (reservation == null) {
+            return false;
+        }
+        if (!commit) {
+            releaseReserved(reservation.items);
+            return true;
+        }
+        for (ItemRecord record : reservation.items) {
+            journal.quantityChanged(record.getItemId(), -1);
+            eventLog.log(ServerEvent.PURCHASE_COMPLETED, reservation.customerId, record.getItemId(), record.getPrice());
+        }
+        StoreJournal.commitPending();
+        return true;
+    }
+
+    // Settles the cart on every store; returns those that no longer held a reservation for it
+    private List<String> settleCarts(String cartId, List<String> stores, boolean commit) {
+        Map<String, CompletableFuture<Boolean>> settlements = new LinkedHashMap<>();
+        for (String store : stores) {
+            if (!store.equals(shardName)) {
+                settlements.put(store, transport.requestCartSettle(store, cartId, commit, DEFAULT_REMOTE_CALL_TIMEOUT));
+            }
+        }
+        List<String> expired = new ArrayList<>();
+        if (stores.contains(shardName) && !settleCart(cartId, commit)) {
+            expired.add(shardName);
+        }
+        settlements.forEach((store, settlement) -> {
+            try {
+                if (!settlement.join()) {
+                    expired.add(store);
+                }
+            } catch (CompletionException ex) {
+                // Unconfirmed stock is released when the reservation expires
+                eventLog.log(ServerEvent.CART_SETTLE_FAILED, store, cartId, ex.getCause());
+            }
+        });
+        return expired;
+    }
+
+    // Releases stock held for a cart whose coordinating store never settled it
+    private void expireCart(String cartId) {
+        CartReservation reservation = cartReservations.remove(cartId);
+        if (reservation != null) {
+            releaseReserved(reservation.items);
+            eventLog.log(ServerEvent.CART_RESERVATION_EXPIRED, cartId, reservation.customerId);
+        }
+    }
+
+    private boolean reserveUnit(ItemRecord record) {
+        long start = System.nanoTime();
+        boolean reserved = record.tryReserve();
+        metrics.recordStockUpdate(start);
+        if (reserved) {
+            itemChanged(record, InventoryChange.Kind.QUANTITY_CHANGED);
+        }
+        return reserved;
+    }
+
+    private int decreaseStock(ItemRecord record, int quantity) {
+        long start = System.nanoTime();
+        int remaining = record.tryDecrease(quantity);
+        metrics.recordStockUpdate(start);
+        if (remaining >= 0) {
+            itemChanged(record, InventoryChange.Kind.QUANTITY_CHANGED);
+        }
+        return remaining;
+    }
+
+    // Gives back a unit taken by reserveUnit or sold earlier
+    private void restoreUnit(ItemRecord record) {
+        record.increaseQuantity(1);
+        itemChanged(record, InventoryChange.Kind.QUANTITY_CHANGED);
+    }
+
+    // Lets the other stores drop or age their cached lookups for the item's name, and tells inventory subscribers
+    private void itemChanged(ItemRecord record, InventoryChange.Kind kind) {
+        transport.publishInvalidation(ItemNameIndex.normalize(record.getItemName()), kind != InventoryChange.Kind.QUANTITY_CHANGED);
+        inventoryFeed.publish(record, kind, false);
+    }
+
+    // Snapshots opened from now on no longer see the record; those already open find it among the retired ones
+    private void retireItem(ItemRecord record) {
+        record.markRemoved();
+        epochs.retire(record);
+    }
+
+    private void releaseReserved(List<ItemRecord> records) {
+        for (ItemRecord record : records) {
+            restoreUnit(record);
+            waitlists.signal(record.getItemId());
+        }
+    }
+
+    // Matching items of the whole store: this shard's and, on the primary, those of the other shards,
+    // asked in parallel and never cached. A shard that does not answer makes the store count as missing.
+    private String searchStoreItems(String itemName, List<String> missingStores) {
+        List<String> shards = otherShards();
+        if (shards.isEmpty()) {
+            return searchLocalItems(itemName);
+        }
+        List<CompletableFuture<String>> lookups = new ArrayList<>(shards.size());
+        for (String shard : shards) {
+            lookups.add(transport.requestItemLookup(shard, itemName, remoteLookupTimeout));
+        }
+        // Lines start with the item ID, so the set keeps the merged result in item order
+        TreeSet<String> lines = new TreeSet<>(searchLocalItems(itemName).lines().toList());
+        boolean complete = true;
+        for (int i = 0; i < lookups.size(); i++) {
+            try {
+                lines.addAll(lookups.get(i).join().lines().toList());
+            } catch (CompletionException ex) {
+                complete = false;
+                eventLog.log(ServerEvent.LOOKUP_FAILED, shards.get(i), itemName, ex.getCause());
+            }
+        }
+        if (!complete && missingStores != null) {
+            missingStores.add(storeCode);
+        }
+        return String.join(System.lineSeparator(), lines);
     }
 
     private String searchLocalItems(String itemName) {
         StringJoiner joiner = new StringJoiner(System.lineSeparator());
-        inventory.values().stream()
-                .filter(record -> record.getItemName().equalsIgnoreCase(itemName))
-                .sorted(Comparator.comparing(ItemRecord::getItemId))
-                .forEach(record -> joiner.add(String.format("%s %d %.2f", record.getItemId(), record.getQuantity(), record.getPrice())));
+        String normalized = ItemNameIndex.normalize(itemName);
+        // The index yields matching IDs already sorted, so only matching records are visited
+        try (InventoryEpochs.Snapshot snapshot = epochs.open()) {
+            for (ItemAvailability item : itemsAt(snapshot, nameIndex.exact(itemName),
+                    record -> ItemNameIndex.normalize(record.getItemName()).equals(normalized), Integer.MAX_VALUE)) {
+                joiner.add(String.format("%s %d %.2f", item.getItemId(), item.getQuantity(), item.getPrice()));
+            }
+        }
         return joiner.toString();
     }
 
-    private String processReturn(String customerId, String itemId, LocalDate returnDate) {
-        ItemRecord record = inventory.get(itemId);
-        if (record == null) {
+    // Checks and consumes the purchase record here, then restocks the item at the store that sold it
+    private String processReturn(String customerId, String itemId, String owner, LocalDate returnDate) throws RemoteException {
+        String itemStore = itemId.substring(0, 2);
+        boolean local = owner.equals(shardName);
+        if (local && !inventory.containsKey(itemId)) {
             return "Item " + itemId + " does not belong to store " + storeCode;
         }
-        Optional<PurchaseRecord> purchaseRecordOpt = CustomerAccountManager.consumePurchaseRecord(customerId, itemId);
+        Optional<PurchaseRecord> purchaseRecordOpt = accounts.consumeReturnable(customerId, itemId, returnDate);
         if (purchaseRecordOpt.isEmpty()) {
-            return "No purchase record found for item " + itemId;
+            // Records past the return window stay until the sweeper drops them
+            return accounts.hasPurchaseRecord(customerId, itemId)
+                    ? "Return period expired for item " + itemId
+                    : "No purchase record found for item " + itemId;
         }
         PurchaseRecord purchaseRecord = purchaseRecordOpt.get();
-        if (purchaseRecord.purchaseDate().plusDays(30).isBefore(returnDate)) {
-            CustomerAccountManager.restorePurchaseRecord(customerId, purchaseRecord);
-            return "Return period expired for item " + itemId;
-        }
-        record.getLock().lock();
+        boolean restocked;
         try {
-            record.increaseQuantity(1);
-            CustomerAccountManager.refund(customerId, purchaseRecord.price());
-            logger.info(() -> String.format("Customer %s returned item %s", customerId, itemId));
-        } finally {
-            record.getLock().unlock();
+            restocked = local
+                    ? restockReturnedItem(customerId, itemId)
+                    : awaitRemote(owner, transport.requestReturn(owner, customerId, itemId, returnDate, DEFAULT_REMOTE_CALL_TIMEOUT));
+        } catch (RemoteException e) {
+            accounts.restorePurchaseRecord(customerId, purchaseRecord);
+            StoreJournal.commitPending();
+            throw e;
+        }
+        if (!restocked) {
+            accounts.restorePurchaseRecord(customerId, purchaseRecord);
+            return "Unable to return item " + itemId;
         }
-        processWaitList(itemId);
-        return "Return successful for item " + itemId;
+        accounts.refund(customerId, purchaseRecord.price());
+        return itemStore.equals(storeCode) ? "Return successful for item " + itemId : "Return processed by store " + itemStore;
     }
 
-    private void processWaitList(String itemId) {
-        Deque<String> queue = waitLists.get(itemId);
-        if (queue == null || queue.isEmpty()) {
-            return;
-        }
+    private boolean restockReturnedItem(String customerId, String itemId) {
         ItemRecord record = inventory.get(itemId);
         if (record == null) {
-            waitLists.remove(itemId);
-            return;
-        }
-        while (record.getQuantity() > 0 && !queue.isEmpty()) {
-            String customerId = queue.poll();
-            if (customerId == null) {
-                continue;
-            }
-            PurchaseResult result = performLocalPurchase(customerId, itemId, LocalDate.now(), true);
-            if (result.isSuccess()) {
-                logger.info(() -> String.format("Waitlisted customer %s automatically purchased %s", customerId, itemId));
+            // A return routed here just after the item moved restocks the old record, which the balancer forwards
+            MovedItem moved = movedItems.get(itemId);
+            PendingMove pending = pendingMoves.get(itemId);
+            if (moved != null) {
+                record = moved.record;
+            } else if (pending != null) {
+                record = pending.record;
             } else {
-                logger.info(() -> String.format("Waitlisted purchase for %s failed: %s", customerId, result.getMessage()));
+                return false;
             }
         }
+        restoreUnit(record);
+        journal.quantityChanged(itemId, 1);
+        eventLog.log(ServerEvent.RETURN_COMPLETED, customerId, itemId);
+        waitlists.signal(itemId);
+        return true;
     }
 
+    // A date past the server's is taken as the server's, so it cannot stretch the return window
     private LocalDate parseDate(String date) {
+        LocalDate parsed;
         try {
-            return LocalDate.parse(date, DATE_FORMAT);
+            parsed = LocalDate.parse(date, DATE_FORMAT);
         } catch (DateTimeParseException ex) {
             throw new IllegalArgumentException("Invalid date format, expected ddMMyyyy", ex);
         }
+        LocalDate today = LocalDate.now();
+        return parsed.isAfter(today) ? today : parsed;
+    }
+
+    /**
+     * Ends an operation's trace span and records its latency. Operations call it from a finally
+     * block, so one that throws counts as failed, as does one refused by its result, like a
+     * refused purchase. Nothing is allocated here; only a sampled span allocates its context.
+     */
+    private void finish(StoreMetrics.Operation operation, long start, TraceContext trace, boolean success) {
+        metrics.record(operation, start, success);
+        tracer.exit(trace, operation, start);
     }
 
     private void validateManager(String managerId) {
+        requireActive();
         if (managerId == null || managerId.length() < 3 || !managerId.startsWith(storeCode + "M")) {
             throw new IllegalArgumentException("Manager " + managerId + " is not authorized for store " + storeCode);
         }
     }
 
     private void validateCustomer(String customerId) {
+        requireActive();
         if (customerId == null || customerId.length() < 3 || !customerId.startsWith(storeCode + "U")) {
             throw new IllegalArgumentException("Customer " + customerId + " must interact with home store " + storeCode);
         }
     }
 
-}
+    private void requireActive() {
+        if (standby) {
+            throw new IllegalStateException("Store " + shardName + " is a standby replica and only serves lookups");
+        }
+        if (superseded) {
+            throw new IllegalStateException("Store " + shardName + " was taken over by another node and no longer accepts writes");
+        }
+    }
+
+    private StandbyReplica requireReplica() {
+        StandbyReplica current = replica;
+        if (current == null) {
+            throw new IllegalStateException("Store " + shardName + " is not a standby replica");
+        }
+        return current;
+    }
+
+    // Entry point for requests arriving from other stores over UDP
+    private final class PeerRequestHandler implements InterServerTransport.Handler {
+        @Override
+        public PurchaseResult onPurchase(String customerId, String itemId, LocalDate purchaseDate, double budgetRemaining) {
+            return handleRemotePurchase(customerId, itemId, purchaseDate, budgetRemaining);
+        }
+
+        @Override
+        public String onItemLookup(String itemName) {
+            return requestRemoteItemLookup(itemName);
+        }
+
+        @Override
+        public void onLookupInvalidated(String storeCode, String normalizedName, boolean catalogChange) {
+            lookupCache.invalidate(storeCode, normalizedName, catalogChange);
+        }
+
+        @Override
+        public void onTakeover(String nodeName) {
+            StoreServerRegistry.invalidate(nodeName);
+        }
+
+        @Override
+        public boolean onReturn(String customerId, String itemId, LocalDate returnDate) {
+            return handleRemoteReturn(customerId, itemId);
+        }
+
+        @Override
+        public CartQuote onCartReserve(String cartId, String customerId, List<String> itemIds) {
+            requireActive();
+            long start = System.nanoTime();
+            TraceContext trace = tracer.enter();
+            boolean success = false;
+            try {
+                CartQuote quote = reserveCart(cartId, customerId, itemIds);
+                success = quote.isReserved();
+                return quote;
+            } finally {
+                finish(StoreMetrics.Operation.CART_RESERVE, start, trace, success);
+            }
+        }
+
+        @Override
+        public boolean onCartSettle(String cartId, boolean commit) {
+            requireActive();
+            long start = System.nanoTime();
+            TraceContext trace = tracer.enter();
+            boolean success = false;
+            try {
+                success = settleCart(cartId, commit);
+                return success;
+            } finally {
+                finish(StoreMetrics.Operation.CART_SETTLE, start, trace, success);
+            }
+        }
+
+        @Override
+        public String onBudgetHold(String customerId, String itemStore, String itemId, double price, LocalDate purchaseDate) {
+            requireActive();
+            long start = System.nanoTime();
+            TraceContext trace = tracer.enter();
+            boolean success = false;
+            try {
+                String holdId = accounts.placeHold(customerId, itemStore, itemId, price, purchaseDate);
+                success = holdId != null;
+                return holdId;
+            } finally {
+                finish(StoreMetrics.Operation.BUDGET_HOLD, start, trace, success);
+            }
+        }
+
+        @Override
+        public boolean onHoldSettle(String holdId, boolean confirm) {
+            requireActive();
+            long start = System.nanoTime();
+            TraceContext trace = tracer.enter();
+            boolean success = false;
+            try {
+                boolean settled = confirm ? accounts.confirmHold(holdId) : accounts.releaseHold(holdId);
+                StoreJournal.commitPending();
+                success = settled;
+                return settled;
+            } finally {
+                finish(StoreMetrics.Operation.HOLD_SETTLE, start, trace, success);
+            }
+        }
+    }
+
+    // Runs on the balancer thread, which moves items this shard no longer owns
+    private final class ShardHandler implements ShardBalancer.Handler {
+        @Override
+        public Collection<String> itemIds() {
+            // A standby's items move with its primary's records, and a superseded node's stay with its successor
+            return standby || superseded ? List.of() : new ArrayList<>(sortedItemIds);
+        }
+
+        // Takes the waitlist first so no drain runs while the item is in flight, then the record and its stock
+        @Override
+        public boolean moveItem(String itemId, String owner) {
+            List<String> waiting = waitlists.take(itemId);
+            if (waiting == null) {
+                // A drain is running; the item moves on a later pass
+                return false;
+            }
+            ItemRecord record = inventory.get(itemId);
+            if (record == null) {
+                waitlists.restore(itemId, waiting);
+                return true;
+            }
+            retireItem(record);
+            if (!inventory.remove(itemId, record)) {
+                // Removed by a manager meanwhile
+                waitlists.restore(itemId, waiting);
+                return true;
+            }
+            nameIndex.remove(itemId, record.getItemName());
+            sortedItemIds.remove(itemId);
+            PendingMove move = new PendingMove(shardName + "-" + UUID.randomUUID(), owner, record, record.takeAll(), waiting);
+            // Journaled first, so a restart during the call repeats the hand-over instead of keeping the stock as well
+            journal.itemMoving(itemId, move.moveId, owner);
+            StoreJournal.commitPending();
+            return handOver(move);
+        }
+
+        // Sends the item to its new owner; false while the owner has not answered or after it refused the item
+        private boolean handOver(PendingMove move) {
+            String itemId = move.record.getItemId();
+            try {
+                StoreServerRegistry.lookup(move.owner).acceptShardItem(move.moveId, new ItemAvailability(itemId,
+                        move.record.getItemName(), move.quantity, move.record.getPrice()), move.waiting);
+            } catch (RemoteException e) {
+                // The owner may have merged the item without us hearing back, so the stock stays in flight
+                if (pendingMoves.put(itemId, move) == null) {
+                    eventLog.log(ServerEvent.SHARD_MOVE_PENDING, itemId, move.owner, e);
+                }
+                return false;
+            } catch (RuntimeException e) {
+                // Refused before anything was merged, so the item comes back
+                pendingMoves.remove(itemId, move);
+                journal.itemMoveCancelled(itemId);
+                StoreJournal.commitPending();
+                move.record.increaseQuantity(move.quantity);
+                inventory.put(itemId, move.record);
+                sortedItemIds.add(itemId);
+                nameIndex.add(itemId, move.record.getItemName());
+                move.record.markRestored();
+                waitlists.restore(itemId, move.waiting);
+                waitlists.signal(itemId);
+                eventLog.log(ServerEvent.SHARD_MOVE_FAILED, itemId, move.owner, e);
+                return false;
+            }
+            pendingMoves.remove(itemId, move);
+            // Replaying the removal also drops the waitlist the new owner now journals
+            journal.itemRemoved(itemId);
+            StoreJournal.commitPending();
+            acceptedMoves.values().removeIf(itemId::equals);
+            movedItems.put(itemId, new MovedItem(move.record));
+            return true;
+        }
+
+        // Stock released by carts or purchases that held the old record during the move
+        @Override
+        public void forwardStragglers() {
+            pendingMoves.values().forEach(this::handOver);
+            movedItems.forEach((itemId, moved) -> {
+                if (moved.unanswered == null) {
+                    int quantity = moved.record.takeAll();
+                    if (quantity == 0) {
+                        // Two quiet passes in a row: nothing still holds the old record
+                        if (++moved.quietPasses > 1) {
+                            movedItems.remove(itemId, moved);
+                        }
+                        return;
+                    }
+                    moved.quietPasses = 0;
+                    moved.unanswered = new PendingMove(shardName + "-" + UUID.randomUUID(), ShardRing.ownerOf(itemId),
+                            moved.record, quantity, List.of());
+                }
+                PendingMove move = moved.unanswered;
+                try {
+                    StoreServerRegistry.lookup(move.owner).acceptShardItem(move.moveId, new ItemAvailability(itemId,
+                            moved.record.getItemName(), move.quantity, moved.record.getPrice()), List.of());
+                    moved.unanswered = null;
+                } catch (RemoteException e) {
+                    // Sent again under the same move ID on the next pass
+                    eventLog.log(ServerEvent.SHARD_MOVE_PENDING, itemId, move.owner, e);
+                } catch (RuntimeException e) {
+                    moved.record.increaseQuantity(move.quantity);
+                    moved.unanswered = null;
+                    eventLog.log(ServerEvent.SHARD_MOVE_FAILED, itemId, move.owner, e);
+                }
+            });
+        }
+
+        // Subscribers of this shard would not hear about the moved items again
+        @Override
+        public void itemsMoved(int count) {
+            inventoryFeed.closeAll("Items of store " + storeCode + " moved between its shards; subscribe again for a new snapshot.");
+        }
+    }
+
+    private static final class PendingMove {
+        private final String moveId;
+        private final String owner;
+        private final ItemRecord record;
+        private final int quantity;
+        private final List<String> waiting;
+
+        private PendingMove(String moveId, String owner, ItemRecord record, int quantity, List<String> waiting) {
+            this.moveId = moveId;
+            this.owner = owner;
+            this.record = record;
+            this.quantity = quantity;
+            this.waiting = waiting;
+        }
+    }
+
+    private static final class MovedItem {
+        private final ItemRecord record;
+        // Balancer passes in a row that found no stock on the old record
+        private int quietPasses;
+        // Stock forwarded to an owner that has not answered yet
+        private PendingMove unanswered;
+
+        private MovedItem(ItemRecord record) {
+            this.record = record;
+        }
+    }
 
+    // Sends a batch of item changes to the shard owning them
+    private interface ShardBatch {
+        List<String> apply(StoreServer shard, List<ItemChange> items) throws RemoteException;
+    }
+
+    private static final class CartReservation {
+        private final String customerId;
+        private final List<ItemRecord> items;
+
+        private CartReservation(String customerId, List<ItemRecord> items) {
+            this.customerId = customerId;
+            this.items = items;
+        }
+    }
+
+    // Runs on the thread applying what the primary ships, and on the failover detector when taking over
+    private final class StandbyHandler implements StandbyReplica.Handler {
+        private final MappedStoreJournal standbyJournal;
+
+        private StandbyHandler(MappedStoreJournal standbyJournal) {
+            this.standbyJournal = standbyJournal;
+        }
+
+        @Override
+        public void install(JournalState state) {
+            accounts.restore(state.accounts());
+            for (String itemId : new ArrayList<>(inventory.keySet())) {
+                itemApplied(state, itemId);
+            }
+            for (String itemId : state.items().keySet()) {
+                itemApplied(state, itemId);
+            }
+        }
+
+        // Quantity changes reach the shared record directly; only created and removed items touch the indexes
+        @Override
+        public void itemApplied(JournalState state, String itemId) {
+            ItemRecord record = state.items().get(itemId);
+            ItemRecord current = inventory.get(itemId);
+            if (record == current) {
+                return;
+            }
+            if (current != null) {
+                retireItem(current);
+                inventory.remove(itemId);
+                sortedItemIds.remove(itemId);
+                nameIndex.remove(itemId, current.getItemName());
+            }
+            if (record != null) {
+                record.attach(epochs);
+                inventory.put(itemId, record);
+                sortedItemIds.add(itemId);
+                nameIndex.add(itemId, record.getItemName());
+                record.markPresent();
+            }
+        }
+
+        // Becomes the primary of the shard, then points the rest of the cluster at this node
+        @Override
+        public void promote(JournalState state) throws RemoteException {
+            if (standby) {
+                state.waitLists().forEach(waitlists::restore);
+                resumeMoves(state);
+                sweeper = ReturnWindowSweeper.open(shardName, accounts, eventLog);
+                standby = false;
+                waitlists.signalAll();
+            }
+            StoreServerRegistry.bind(shardName, StoreServerImpl.this);
+            StoreServerRegistry.unbind(StoreServerRegistry.standbyName(shardName));
+            transport.announceTakeover(shardName);
+            startLogShipping(standbyJournal);
+        }
+    }
+
+    // Runs on the fence thread once another node holds the shard's name
+    private final class FenceHandler implements OwnershipFence.Handler {
+        // Refuses writes first, then stops what would write or ship on its own and leaves the name to its new owner
+        @Override
+        public void superseded() {
+            superseded = true;
+            LogShipper current = shipper;
+            if (current != null) {
+                current.close();
+            }
+            ReturnWindowSweeper currentSweeper = sweeper;
+            if (currentSweeper != null) {
+                currentSweeper.close();
+                sweeper = null;
+            }
+            StoreServerRegistry.release(shardName, StoreServerImpl.this);
+            inventoryFeed.closeAll("Store " + shardName + " was taken over by another node; subscribe again.");
+        }
+    }
+
+    // Runs on the waitlist workers once stock for an item increases
+    private final class WaitlistHandler implements WaitlistDispatcher.Handler {
+        @Override
+        public int available(String itemId) {
+            if (superseded) {
+                return 0;
+            }
+            ItemRecord record = inventory.get(itemId);
+            return record == null ? 0 : record.getQuantity();
+        }
+
+        @Override
+        public WaitlistDispatcher.Outcome fulfil(String itemId, String customerId) {
+            ItemRecord record = inventory.get(itemId);
+            if (record == null || !reserveUnit(record)) {
+                return WaitlistDispatcher.Outcome.OUT_OF_STOCK;
+            }
+            try {
+                journal.waitlistRemoved(itemId, customerId);
+            } catch (RuntimeException e) {
+                restoreUnit(record);
+                throw e;
+            }
+            PurchaseResult result;
+            try {
+                result = chargeReserved(customerId, record, LocalDate.now());
+            } catch (RuntimeException e) {
+                // The charge may have gone through before the journal failed, so the customer is not served again
+                eventLog.log(ServerEvent.WAITLIST_FAILED, customerId, itemId, e.getMessage());
+                return WaitlistDispatcher.Outcome.FAILED;
+            }
+            if (result.isPending()) {
+                // The unit stays sold until the home store answers, and goes back to the next customer if it refuses
+                eventLog.log(ServerEvent.WAITLIST_PENDING, customerId, itemId);
+                inventoryFeed.publish(record, InventoryChange.Kind.QUANTITY_CHANGED, true);
+                return WaitlistDispatcher.Outcome.FULFILLED;
+            }
+            if (!result.isSuccess()) {
+                eventLog.log(ServerEvent.WAITLIST_FAILED, customerId, itemId, result.getMessage());
+                return WaitlistDispatcher.Outcome.FAILED;
+            }
+            eventLog.log(ServerEvent.WAITLIST_FULFILLED, customerId, itemId);
+            inventoryFeed.publish(record, InventoryChange.Kind.QUANTITY_CHANGED, true);
+            return WaitlistDispatcher.Outcome.FULFILLED;
+        }
+    }
+}
@@ -1,63 +1,150 @@
 package com.concordia.dsms.server;
 
-import com.concordia.dsms.common.StoreServer;
+import com.concordia.dsms.common.ItemChange;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.rmi.RemoteException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
+/**
+ * Starts some or all of the stores of a cluster in this process.
+ * Usage: {@code StoreServerLauncher [--config=cluster.properties] [--stores=QC,ON,QC1] [--standbys=QC,ON]
+ * [--threads=platform|virtual]}.
+ * Without a configuration file the cluster is QC, ON and BC with their sample inventory;
+ * without {@code --stores} every store of the configuration is started, with all its shards,
+ * unless the process only runs standbys. {@code --stores} takes store codes for primaries and
+ * names such as QC1 for extra shards; {@code --standbys} takes the same names and starts a
+ * standby replica of each, which takes over if its primary fails. Run standbys in another
+ * process, preferably on another machine, than their primaries.
+ */
 public final class StoreServerLauncher {
+
     private StoreServerLauncher() {
     }
 
     public static void main(String[] args) {
         try {
+            Map<String, String> options = new HashMap<>();
+            for (String arg : args) {
+                int equals = arg.indexOf('=');
+                if (!arg.startsWith("--") || equals < 0) {
+                    throw new IllegalArgumentException("Unrecognized argument " + arg + "; expected --name=value");
+                }
+                options.put(arg.substring(2, equals), arg.substring(equals + 1));
+            }
+            ClusterConfig config = options.containsKey("config")
+                    ? ClusterConfig.load(Path.of(options.get("config")))
+                    : ClusterConfig.defaults();
+            List<String> standbyNames = names(options.get("standbys"));
+            List<String> nodeNames = options.containsKey("stores") ? names(options.get("stores"))
+                    : standbyNames.isEmpty() ? config.getNodeNames() : List.of();
+            for (String nodeName : concat(nodeNames, standbyNames)) {
+                if (!config.getNodeNames().contains(nodeName)) {
+                    throw new IllegalArgumentException("Store " + nodeName + " is not part of the cluster configuration.");
+                }
+            }
+            ExecutionMode executionMode = options.containsKey("threads")
+                    ? ExecutionMode.parse(options.get("threads"))
+                    : ExecutionMode.fromProperty();
+            if (executionMode.effective() != executionMode) {
+                System.out.printf("Virtual threads need Java 21 or later (running %s); using platform threads.%n",
+                        Runtime.version());
+            }
+            StoreServerRegistry.configure(config.getRegistryPort(), config.getRegistryPeers());
+
             Files.createDirectories(Path.of("logs"));
-            StoreServer qcServer = new StoreServerImpl("QC");
-            StoreServer onServer = new StoreServerImpl("ON");
-            StoreServer bcServer = new StoreServerImpl("BC");
+            Path dataDir = Path.of(System.getProperty("dsms.data.dir", "data"));
+            List<StoreServerImpl> servers = new ArrayList<>();
+            List<StoreServerImpl> fresh = new ArrayList<>();
+            for (String nodeName : nodeNames) {
+                long start = System.nanoTime();
+                String storeCode = nodeName.substring(0, 2);
+                int shard = nodeName.length() == 2 ? 0 : Integer.parseInt(nodeName.substring(2));
+                MappedStoreJournal journal = MappedStoreJournal.open(nodeName, dataDir.resolve(nodeName));
+                JournalState state = journal.takeRecoveredState();
+                StoreServerImpl server = new StoreServerImpl(storeCode, shard, StoreServerImpl.DEFAULT_REMOTE_LOOKUP_TIMEOUT,
+                        journal, executionMode);
+                server.restore(state);
+                server.startLogShipping(journal);
+                servers.add(server);
+                // Shards start empty and receive their items from the balancer of the other shards
+                if (state.isEmpty() && server.isPrimary()) {
+                    fresh.add(server);
+                }
+                System.out.printf("Recovered store %s: %d items, %d journal records replayed in %d ms%n",
+                        nodeName, state.items().size(), state.replayedRecords(), Duration.ofNanos(System.nanoTime() - start).toMillis());
+            }
+            for (String nodeName : standbyNames) {
+                String storeCode = nodeName.substring(0, 2);
+                int shard = nodeName.length() == 2 ? 0 : Integer.parseInt(nodeName.substring(2));
+                MappedStoreJournal journal = MappedStoreJournal.open(nodeName, dataDir.resolve(StoreServerRegistry.standbyName(nodeName)));
+                // The primary sends a fresh snapshot, which replaces whatever an earlier run left
+                journal.takeRecoveredState();
+                servers.add(StoreServerImpl.standby(storeCode, shard, journal, executionMode));
+                System.out.printf("Started standby of store %s%n", nodeName);
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> stop(servers), "DSMS-shutdown"));
 
-            StoreServerRegistry.bind("QC", qcServer);
-            StoreServerRegistry.bind("ON", onServer);
-            StoreServerRegistry.bind("BC", bcServer);
+            for (StoreServerImpl server : servers) {
+                StoreServerRegistry.bind(server.getRegistryName(), server);
+            }
 
-            loadInitialData();
-            System.out.println("DSMS servers started successfully. Press Ctrl+C to exit.");
+            // Stores starting without a journal get the configured inventory
+            for (StoreServerImpl server : fresh) {
+                loadInitialData(server, config.getInitialItems(server.getStoreCode()));
+            }
+            System.out.printf("DSMS stores %s started on %s threads; cluster members: %s. Press Ctrl+C to exit.%n",
+                    String.join(", ", servers.stream().map(StoreServerImpl::getRegistryName).toList()), executionMode.effective().name().toLowerCase(Locale.ROOT),
+                    String.join(", ", StoreServerRegistry.getStores()));
         } catch (Exception e) {
             throw new RuntimeException("Unable to start DSMS servers", e);
         }
     }
 
-    private static void loadInitialData() throws RemoteException {
-        Map.of(
-                "QC", new String[][]{
-                        {"QC1001", "Laptop", "5", "900"},
-                        {"QC1002", "Headphones", "10", "150"}
-                },
-                "ON", new String[][]{
-                        {"ON2001", "Camera", "4", "550"},
-                        {"ON2002", "Coffee Maker", "6", "120"}
-                },
-                "BC", new String[][]{
-                        {"BC3001", "Bicycle", "3", "400"},
-                        {"BC3002", "Backpack", "8", "80"}
-                }
-        ).forEach((storeCode, items) -> {
-            for (String[] item : items) {
+    private static List<String> names(String option) {
+        return option == null ? List.of() : Arrays.stream(option.split(",")).map(String::trim).filter(name -> !name.isEmpty()).toList();
+    }
+
+    private static List<String> concat(List<String> first, List<String> second) {
+        List<String> all = new ArrayList<>(first);
+        all.addAll(second);
+        return all;
+    }
+
+    private static void loadInitialData(StoreServerImpl server, List<ItemChange> items) throws RemoteException {
+        if (!items.isEmpty()) {
+            server.addItems(server.getStoreCode() + "M0000", items);
+        }
+    }
+
+    // Leaves the cluster first, so other stores stop routing here before the store closes. A shard
+    // leaving a store that stays up hands its items to the remaining shards.
+    private static void stop(List<StoreServerImpl> servers) {
+        for (StoreServerImpl server : servers) {
+            try {
+                StoreServerRegistry.unbind(server.getRegistryName());
+            } catch (RemoteException | RuntimeException e) {
+                // The registry went away with another process; nothing left to unbind
+            }
+        }
+        List<String> stoppedPrimaries = servers.stream().filter(server -> server.isPrimary() && !server.isStandby())
+                .map(StoreServerImpl::getStoreCode).toList();
+        for (StoreServerImpl server : servers) {
+            if (!server.isPrimary() && !server.isStandby() && !stoppedPrimaries.contains(server.getStoreCode())) {
                 try {
-                    String managerId = storeCode + "M0000";
-                    StoreServerRegistry.lookup(storeCode).addItem(
-                            managerId,
-                            item[0],
-                            item[1],
-                            Integer.parseInt(item[2]),
-                            Double.parseDouble(item[3])
-                    );
-                } catch (Exception e) {
-                    throw new RuntimeException("Unable to load initial data for store " + storeCode, e);
+                    server.getBalancer().handOff();
+                } catch (RuntimeException e) {
+                    // Items not handed off stay in the shard's journal for its next start
                 }
             }
-        });
+        }
+        servers.forEach(StoreServerImpl::shutdown);
     }
-}
\ No newline at end of file
+}
@@ -2,56 +2,652 @@ package com.concordia.dsms.server;
 
 import com.concordia.dsms.common.StoreServer;
 
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
 import java.rmi.NotBoundException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.rmi.ServerException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.rmi.server.RemoteObject;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
 
+/**
+ * Binds the stores of this process in the local RMI registry and finds the other stores of
+ * the cluster. Membership is whatever store codes are bound in the local registry and in the
+ * peer registries listed by {@code -Ddsms.registry.peers} (host:port, comma separated, one per
+ * machine running stores). Once it is older than {@code -Ddsms.registry.refreshMs} (1000 by
+ * default) it is re-read on a background thread while callers keep the last view, so stores
+ * joining or leaving are picked up without a restart and no request waits on a slow registry.
+ * A registry that does not answer keeps the stores it listed last.
+ * A store's primary is bound under its code; extra shards of the store are bound under the
+ * code followed by their index, for example QC1 and QC2. A standby replica of a store or shard is
+ * bound under its name followed by {@code -standby} until it is promoted and takes the name over.
+ * <p>
+ * Stores of other processes are handed out behind a guard that tracks their health: calls time
+ * out, a store that keeps failing has its circuit breaker opened so calls fail fast, and a stub
+ * that failed is dropped and resolved again. Every {@code -Ddsms.registry.healthMs} (1000 by
+ * default) the cached stubs are re-resolved, replacing those of stores that were rebound and
+ * probing those whose breaker is open. Breaker states and call latencies are published as
+ * {@code com.concordia.dsms:type=StoreRegistry}.
+ */
 public class StoreServerRegistry {
-    private static final Map<String, StoreServer> CACHE = new ConcurrentHashMap<>();
+    static final Pattern STORE_CODE = Pattern.compile("[A-Z]{2}");
+    private static final Pattern NODE_NAME = Pattern.compile("[A-Z]{2}([1-9][0-9]*)?");
+    private static final String STANDBY_SUFFIX = "-standby";
+
+    // Stores bound by this process, called directly
+    private static final Map<String, StoreServer> LOCAL = new ConcurrentHashMap<>();
+    // Stubs of the other stores as last resolved, and the guards handed out for them
+    private static final Map<String, StoreServer> STUBS = new ConcurrentHashMap<>();
+    private static final Map<String, StoreServer> GUARDED = new ConcurrentHashMap<>();
+    private static final Map<String, PeerHealth> HEALTH = new ConcurrentHashMap<>();
+    private static final Map<String, InetSocketAddress> INTER_SERVER_ADDRESSES = new ConcurrentHashMap<>();
+    private static final long REFRESH_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("dsms.registry.refreshMs", 1000));
+    private static final long HEALTH_CHECK_MILLIS = Long.getLong("dsms.registry.healthMs", 1000);
+    // Guards publishing a membership, so a refresh that read the registries before a local bind does not undo it
+    private static final ReentrantLock MEMBERSHIP_LOCK = new ReentrantLock();
+    // Counts local binds and unbinds
+    private static final AtomicLong BINDINGS = new AtomicLong();
+    private static final AtomicBoolean REFRESHING = new AtomicBoolean();
+    private static final TimeoutSocketFactory SOCKETS = TimeoutSocketFactory.open();
+    // Alternates lookups between a primary and its standby
+    private static final AtomicLong READS = new AtomicLong();
+    private static int registryPort = Integer.getInteger("dsms.registry.port", Registry.REGISTRY_PORT);
+    private static List<InetSocketAddress> peerAddresses = parseRegistries(System.getProperty("dsms.registry.peers", ""));
     private static Registry registry;
-    private static final List<String> STORE_CODES = List.of("QC", "ON", "BC");
+    private static List<Registry> peerRegistries = List.of();
+    private static ScheduledExecutorService healthChecker;
+    private static ScheduledExecutorService refresher;
+    // Opened with the health checks, whose failures it records
+    private static ServerEventLog eventLog;
+    private static volatile Membership membership;
 
     private StoreServerRegistry() {
     }
 
+    // Overrides the registry settings read from system properties; only takes effect before the registry is first used
+    static synchronized void configure(int port, List<InetSocketAddress> peers) {
+        if (registry == null) {
+            registryPort = port;
+            peerAddresses = List.copyOf(peers);
+        }
+    }
+
     public static void bind(String storeCode, StoreServer server) throws RemoteException {
         ensureRegistry();
-        registry.rebind(storeCode, server);
-        CACHE.put(storeCode, server);
+        try {
+            registry.rebind(storeCode, server);
+        } catch (RemoteException e) {
+            // The process hosting the registry is gone, as when a standby takes over from it
+            resetRegistry();
+            ensureRegistry();
+            registry.rebind(storeCode, server);
+        }
+        LOCAL.put(storeCode, server);
+        INTER_SERVER_ADDRESSES.remove(storeCode);
+        updateLocal(storeCode, true);
     }
 
+    // Takes a store of this process out of the cluster
+    public static void unbind(String storeCode) throws RemoteException {
+        ensureRegistry();
+        try {
+            registry.unbind(storeCode);
+        } catch (NotBoundException e) {
+            // Already gone
+        }
+        LOCAL.remove(storeCode);
+        GUARDED.remove(storeCode);
+        HEALTH.remove(storeCode);
+        forget(storeCode);
+        updateLocal(storeCode, false);
+    }
+
+    // A store of this process itself, or a guarded stub of a store in another one
     public static StoreServer lookup(String storeCode) throws RemoteException {
+        StoreServer server = LOCAL.get(storeCode);
+        if (server == null) {
+            server = GUARDED.get(storeCode);
+        }
+        if (server != null) {
+            return server;
+        }
+        resolve(storeCode);
+        return GUARDED.computeIfAbsent(storeCode, StoreServerRegistry::guard);
+    }
+
+    // Resolves the UDP endpoint of a store once through its RMI stub
+    public static InetSocketAddress lookupInterServerAddress(String storeCode) throws RemoteException {
+        InetSocketAddress address = INTER_SERVER_ADDRESSES.get(storeCode);
+        if (address == null) {
+            address = lookup(storeCode).getInterServerAddress();
+            INTER_SERVER_ADDRESSES.put(storeCode, address);
+        }
+        return address;
+    }
+
+    /**
+     * Resolves the UDP endpoint a lookup for the store is sent to. Stores with a standby have
+     * their lookups spread over the primary and the standby, so the standby serves reads
+     * that may lag the primary by the replication delay.
+     */
+    static InetSocketAddress lookupReadAddress(String storeCode) throws RemoteException {
+        String standby = standbyName(storeCode);
+        if (membership().standbys.contains(standby) && (READS.incrementAndGet() & 1) == 0) {
+            try {
+                return lookupInterServerAddress(standby);
+            } catch (RemoteException | RuntimeException e) {
+                forget(standby);
+            }
+        }
+        return lookupInterServerAddress(storeCode);
+    }
+
+    // Stub of the standby following a store or shard, or null if none is bound
+    static StoreServer lookupStandby(String name) throws RemoteException {
+        String standby = standbyName(name);
+        return membership().standbys.contains(standby) ? lookup(standby) : null;
+    }
+
+    static String standbyName(String name) {
+        return name + STANDBY_SUFFIX;
+    }
+
+    /**
+     * Checks that a store answers under its name, bypassing the cached stub and address.
+     * A standby asks this before taking over from a primary that stopped shipping records.
+     */
+    static boolean probe(String name) {
+        forget(name);
+        try {
+            lookup(name).getInterServerAddress();
+            return true;
+        } catch (RemoteException | RuntimeException e) {
+            forget(name);
+            return false;
+        }
+    }
+
+    /**
+     * Whether a registry that answers binds the name to another node than the server, as once a
+     * standby took over from it. Registries that do not answer or hold no binding are no sign of
+     * another owner.
+     */
+    static boolean isBoundElsewhere(String name, StoreServer server) {
         ensureRegistry();
-        return CACHE.computeIfAbsent(storeCode, code -> {
+        for (Registry candidate : registries()) {
             try {
-                return (StoreServer) registry.lookup(code);
-            } catch (RemoteException | NotBoundException e) {
-                throw new RuntimeException("Unable to lookup store " + code, e);
+                if (!isBoundTo(candidate.lookup(name), server)) {
+                    return true;
+                }
+            } catch (NotBoundException | RemoteException e) {
+                // Nothing to compare against in this registry
             }
-        });
+        }
+        return false;
+    }
+
+    // Whether this process's registry binds the name to the server
+    static boolean isBound(String name, StoreServer server) {
+        ensureRegistry();
+        try {
+            return isBoundTo(registry.lookup(name), server);
+        } catch (NotBoundException | RemoteException e) {
+            return false;
+        }
+    }
+
+    // Lets go of a name another node took over, leaving that node's binding in place
+    static void release(String name, StoreServer server) {
+        ensureRegistry();
+        try {
+            if (isBoundTo(registry.lookup(name), server)) {
+                registry.unbind(name);
+            }
+        } catch (NotBoundException | RemoteException e) {
+            // Bound to the other node, or the registry is gone with whatever it bound
+        }
+        if (LOCAL.remove(name, server)) {
+            updateLocal(name, false);
+        }
+        invalidate(name);
+    }
+
+    // A registry in this process hands out the server itself, one in another process its stub
+    private static boolean isBoundTo(Remote bound, StoreServer server) {
+        if (bound == server) {
+            return true;
+        }
+        try {
+            return RemoteObject.toStub(server).equals(bound);
+        } catch (NoSuchObjectException e) {
+            // Not exported, so bound nowhere
+            return false;
+        }
+    }
+
+    // Drops the cached stub and address of a node so the next call resolves it again, as after a failover
+    static void invalidate(String name) {
+        forget(name);
+        requestRefresh();
+    }
+
+    // Breaker state of a node this process calls through a guarded stub; CLOSED for any other node
+    static PeerHealth.State getBreakerState(String name) {
+        PeerHealth health = HEALTH.get(name);
+        return health == null ? PeerHealth.State.CLOSED : health.getState();
+    }
+
+    // Store codes of the cluster, sorted
+    public static List<String> getStores() {
+        return membership().storeCodes;
+    }
+
+    // Registry names of the store's primary and extra shards, in shard order
+    static List<String> getShards(String storeCode) {
+        return membership().shards.getOrDefault(storeCode, List.of());
+    }
+
+    // Registry name of a store's shard; shard 0 is the primary and uses the store code itself
+    static String shardName(String storeCode, int shard) {
+        if (shard < 0) {
+            throw new IllegalArgumentException("Shard index must not be negative.");
+        }
+        return shard == 0 ? storeCode : storeCode + shard;
     }
 
     public static List<String> getOtherStores(String currentStore) {
-        return STORE_CODES.stream().filter(code -> !code.equals(currentStore)).toList();
+        return getStores().stream().filter(code -> !code.equals(currentStore)).toList();
     }
 
-    private static void ensureRegistry() {
+    static List<InetSocketAddress> parseRegistries(String value) {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String entry : value.split(",")) {
+            String trimmed = entry.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            int colon = trimmed.lastIndexOf(':');
+            try {
+                addresses.add(colon < 0
+                        ? InetSocketAddress.createUnresolved(trimmed, Registry.REGISTRY_PORT)
+                        : InetSocketAddress.createUnresolved(trimmed.substring(0, colon), Integer.parseInt(trimmed.substring(colon + 1))));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid registry address '" + trimmed + "'; expected host or host:port.", e);
+            }
+        }
+        return addresses;
+    }
+
+    // The last membership read; only the first call of the process waits for the registries
+    private static Membership membership() {
+        Membership current = membership;
+        if (current == null) {
+            return refreshMembership();
+        }
+        if (System.nanoTime() - current.readAtNanos >= REFRESH_NANOS) {
+            requestRefresh();
+        }
+        return current;
+    }
+
+    // Re-reads the registries on the refresher thread unless a read is already under way
+    private static void requestRefresh() {
+        if (REFRESHING.compareAndSet(false, true)) {
+            refresher().execute(() -> {
+                try {
+                    refreshMembership();
+                } catch (RuntimeException e) {
+                    eventLog().log(ServerEvent.MEMBERSHIP_REFRESH_FAILED, registries().size(), e);
+                } finally {
+                    REFRESHING.set(false);
+                }
+            });
+        }
+    }
+
+    private static Membership refreshMembership() {
+        ensureRegistry();
+        long bindings = BINDINGS.get();
+        Membership previous = membership;
+        List<Registry> candidates = registries();
+        List<List<String>> listed = new ArrayList<>(candidates.size());
+        for (int i = 0; i < candidates.size(); i++) {
+            try {
+                listed.add(List.of(candidates.get(i).list()));
+            } catch (RemoteException e) {
+                // A registry that does not answer may only be slow or cut off for a moment, so its stores stay
+                listed.add(previous != null && i < previous.listed.size() ? previous.listed.get(i) : List.of());
+            }
+        }
+        Membership refreshed = new Membership(listed, System.nanoTime());
+        MEMBERSHIP_LOCK.lock();
+        try {
+            if (BINDINGS.get() != bindings && membership != null) {
+                // A store of this process was bound or unbound meanwhile; its view stays until the next read
+                return membership;
+            }
+            membership = refreshed;
+        } finally {
+            MEMBERSHIP_LOCK.unlock();
+        }
+        // Stubs and addresses of stores that left would point at a process that is gone or restarted
+        for (Map<String, ?> cache : List.of(STUBS, GUARDED, HEALTH, INTER_SERVER_ADDRESSES)) {
+            cache.keySet().removeIf(name -> !refreshed.contains(name));
+        }
+        return refreshed;
+    }
+
+    // Applies a bind or unbind in this process to the current view at once, without waiting for a read
+    private static void updateLocal(String name, boolean bound) {
+        MEMBERSHIP_LOCK.lock();
+        try {
+            BINDINGS.incrementAndGet();
+            Membership current = membership;
+            if (current == null) {
+                return;
+            }
+            List<List<String>> listed = new ArrayList<>(current.listed);
+            List<String> local = new ArrayList<>(listed.get(0));
+            local.remove(name);
+            if (bound) {
+                local.add(name);
+            }
+            listed.set(0, List.copyOf(local));
+            membership = new Membership(listed, current.readAtNanos);
+        } finally {
+            MEMBERSHIP_LOCK.unlock();
+        }
+    }
+
+    private static void forget(String storeCode) {
+        STUBS.remove(storeCode);
+        INTER_SERVER_ADDRESSES.remove(storeCode);
+    }
+
+    // The cached stub of a store of another process, looked up in the registries if there is none
+    private static StoreServer resolve(String storeCode) throws RemoteException {
+        StoreServer stub = STUBS.get(storeCode);
+        if (stub == null) {
+            stub = locate(storeCode);
+            STUBS.put(storeCode, stub);
+        }
+        return stub;
+    }
+
+    private static StoreServer locate(String storeCode) throws RemoteException {
+        ensureRegistry();
+        RemoteException unreachable = null;
+        for (Registry candidate : registries()) {
+            try {
+                return (StoreServer) candidate.lookup(storeCode);
+            } catch (NotBoundException e) {
+                // Bound in another registry, if anywhere
+            } catch (RemoteException e) {
+                unreachable = e;
+            }
+        }
+        throw new RemoteException("Store " + storeCode + " is not registered", unreachable);
+    }
+
+    private static StoreServer guard(String name) {
+        startHealthChecks();
+        HEALTH.computeIfAbsent(name, key -> PeerHealth.open());
+        return (StoreServer) Proxy.newProxyInstance(StoreServer.class.getClassLoader(), new Class<?>[]{StoreServer.class},
+                (proxy, method, args) -> method.getDeclaringClass() == Object.class
+                        ? invokeObjectMethod(name, proxy, method, args)
+                        : invokeGuarded(name, method, args));
+    }
+
+    private static Object invokeGuarded(String name, Method method, Object[] args) throws Throwable {
+        PeerHealth health = HEALTH.computeIfAbsent(name, key -> PeerHealth.open());
+        if (!health.tryAcquire()) {
+            throw new RemoteException("Store " + name + " is not answering; calls fail fast until it recovers");
+        }
+        long start = System.nanoTime();
+        StoreServer stub;
+        try {
+            stub = resolve(name);
+        } catch (RemoteException | RuntimeException e) {
+            health.recordFailure(start);
+            throw e;
+        }
+        try {
+            Object result = method.invoke(stub, args);
+            health.recordSuccess(start);
+            return result;
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            // A ServerException is the store's own answer; any other RemoteException means no answer came
+            if (cause instanceof RemoteException && !(cause instanceof ServerException)) {
+                health.recordFailure(start);
+                // The stub may point at a process that is gone or restarted
+                STUBS.remove(name, stub);
+                INTER_SERVER_ADDRESSES.remove(name);
+            } else {
+                health.recordSuccess(start);
+            }
+            throw cause;
+        }
+    }
+
+    private static Object invokeObjectMethod(String name, Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            default:
+                return "StoreServer[" + name + "]";
+        }
+    }
+
+    /**
+     * Re-resolves the stub of every store handed out through a guard. A store that is no longer
+     * bound has its stub dropped, one that was rebound has it replaced, and one whose breaker is
+     * open is probed so that it closes as soon as the store answers again.
+     */
+    private static void checkStubs() {
+        for (String name : GUARDED.keySet()) {
+            StoreServer fresh;
+            try {
+                fresh = locate(name);
+            } catch (RemoteException | RuntimeException e) {
+                forget(name);
+                continue;
+            }
+            StoreServer cached = STUBS.get(name);
+            if (cached != null && !cached.equals(fresh) && STUBS.replace(name, cached, fresh)) {
+                INTER_SERVER_ADDRESSES.remove(name);
+            }
+            PeerHealth health = HEALTH.get(name);
+            if (health != null && health.getState() == PeerHealth.State.OPEN) {
+                boolean reachable;
+                try {
+                    fresh.getInterServerAddress();
+                    reachable = true;
+                } catch (RemoteException | RuntimeException e) {
+                    reachable = false;
+                }
+                if (reachable) {
+                    STUBS.put(name, fresh);
+                }
+                health.recordProbe(reachable);
+            }
+        }
+    }
+
+    private static void checkStubsQuietly() {
+        try {
+            checkStubs();
+        } catch (RuntimeException e) {
+            eventLog.log(ServerEvent.STUB_CHECK_FAILED, GUARDED.size(), e);
+        }
+    }
+
+    private static synchronized ServerEventLog eventLog() {
+        if (eventLog == null) {
+            eventLog = ServerEventLog.open("registry");
+        }
+        return eventLog;
+    }
+
+    private static synchronized ScheduledExecutorService refresher() {
+        if (refresher == null) {
+            refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "DSMS-registry-membership");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return refresher;
+    }
+
+    private static synchronized void startHealthChecks() {
+        if (healthChecker != null) {
+            return;
+        }
+        eventLog();
+        healthChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "DSMS-registry-health");
+            thread.setDaemon(true);
+            return thread;
+        });
+        healthChecker.scheduleWithFixedDelay(StoreServerRegistry::checkStubsQuietly,
+                HEALTH_CHECK_MILLIS, HEALTH_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName objectName = new ObjectName("com.concordia.dsms:type=StoreRegistry");
+            try {
+                server.registerMBean(new Peers(), objectName);
+            } catch (InstanceAlreadyExistsException e) {
+                server.unregisterMBean(objectName);
+                server.registerMBean(new Peers(), objectName);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Unable to register registry MBean", e);
+        }
+    }
+
+    // Stores bound in this process export with the same call timeout as the registry stubs
+    static TimeoutSocketFactory getSocketFactory() {
+        return SOCKETS;
+    }
+
+    private static synchronized List<Registry> registries() {
+        List<Registry> all = new ArrayList<>(1 + peerRegistries.size());
+        all.add(registry);
+        all.addAll(peerRegistries);
+        return all;
+    }
+
+    private static synchronized void resetRegistry() {
+        registry = null;
+    }
+
+    private static synchronized void ensureRegistry() {
         if (registry != null) {
             return;
         }
         try {
-            registry = LocateRegistry.getRegistry();
+            registry = LocateRegistry.getRegistry(null, registryPort, SOCKETS);
             registry.list();
         } catch (RemoteException e) {
             try {
-                registry = LocateRegistry.createRegistry(Registry.REGISTRY_PORT);
+                registry = LocateRegistry.createRegistry(registryPort);
             } catch (RemoteException ex) {
                 throw new RuntimeException("Unable to create RMI registry", ex);
             }
         }
+        List<Registry> peers = new ArrayList<>(peerAddresses.size());
+        for (InetSocketAddress address : peerAddresses) {
+            try {
+                peers.add(LocateRegistry.getRegistry(address.getHostString(), address.getPort(), SOCKETS));
+            } catch (RemoteException e) {
+                throw new RuntimeException("Unable to locate RMI registry " + address, e);
+            }
+        }
+        peerRegistries = List.copyOf(peers);
+    }
+
+    private static final class Peers implements StoreRegistryMXBean {
+        @Override
+        public Map<String, String> getBreakerStates() {
+            Map<String, String> states = new TreeMap<>();
+            HEALTH.forEach((name, health) -> states.put(name, health.getState().name()));
+            return states;
+        }
+
+        @Override
+        public Map<String, LatencyStats> getPeerCalls() {
+            Map<String, LatencyStats> calls = new TreeMap<>();
+            HEALTH.forEach((name, health) -> calls.put(name, health.getLatency()));
+            return calls;
+        }
+    }
+
+    private static final class Membership {
+        // Names each registry listed, the local one first
+        private final List<List<String>> listed;
+        private final List<String> storeCodes;
+        private final Map<String, List<String>> shards;
+        private final Set<String> standbys;
+        private final long readAtNanos;
+
+        private Membership(List<List<String>> listed, long readAtNanos) {
+            TreeSet<String> names = new TreeSet<>();
+            TreeSet<String> standbys = new TreeSet<>();
+            for (List<String> registryNames : listed) {
+                for (String name : registryNames) {
+                    if (NODE_NAME.matcher(name).matches()) {
+                        names.add(name);
+                    } else if (name.endsWith(STANDBY_SUFFIX)
+                            && NODE_NAME.matcher(name.substring(0, name.length() - STANDBY_SUFFIX.length())).matches()) {
+                        standbys.add(name);
+                    }
+                }
+            }
+            Map<String, List<String>> byStore = new TreeMap<>();
+            for (String name : names) {
+                byStore.computeIfAbsent(name.substring(0, 2), code -> new ArrayList<>()).add(name);
+            }
+            // Primary first, then the extra shards by index
+            byStore.replaceAll((code, list) -> list.stream()
+                    .sorted(Comparator.comparingInt(String::length).thenComparing(Comparator.naturalOrder()))
+                    .toList());
+            this.listed = listed;
+            this.storeCodes = names.stream().filter(name -> STORE_CODE.matcher(name).matches()).toList();
+            this.shards = byStore;
+            this.standbys = standbys;
+            this.readAtNanos = readAtNanos;
+        }
+
+        private boolean contains(String name) {
+            return standbys.contains(name) || shards.getOrDefault(name.substring(0, 2), List.of()).contains(name);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,56 @@
+package com.concordia.dsms.server;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.rmi.server.RMIClientSocketFactory;
+import java.time.Duration;
+
+/**
+ * Client sockets with a connect and read timeout. A store is exported with this factory, so its
+ * stubs carry the timeout to every caller, and an RMI call to a store that hangs fails with a
+ * {@code RemoteException} instead of holding the calling thread indefinitely.
+ */
+final class TimeoutSocketFactory implements RMIClientSocketFactory, Serializable {
+    static final Duration DEFAULT_CALL_TIMEOUT = Duration.ofSeconds(15);
+    private static final long serialVersionUID = 1L;
+
+    private final int timeoutMillis;
+
+    TimeoutSocketFactory(Duration timeout) {
+        if (timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("RMI call timeout must be greater than zero.");
+        }
+        this.timeoutMillis = (int) Math.min(Integer.MAX_VALUE, timeout.toMillis());
+    }
+
+    // Times calls out after -Ddsms.rmi.callTimeoutMs
+    static TimeoutSocketFactory open() {
+        return new TimeoutSocketFactory(Duration.ofMillis(Long.getLong("dsms.rmi.callTimeoutMs", DEFAULT_CALL_TIMEOUT.toMillis())));
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+            socket.setSoTimeout(timeoutMillis);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+
+    // RMI shares connections between stubs whose factories are equal
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof TimeoutSocketFactory && ((TimeoutSocketFactory) other).timeoutMillis == timeoutMillis;
+    }
+
+    @Override
+    public int hashCode() {
+        return Integer.hashCode(timeoutMillis);
+    }
+}
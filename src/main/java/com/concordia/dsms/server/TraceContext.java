@@ -0,0 +1,58 @@
+package com.concordia.dsms.server;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+// Identifies one span of a trace; the span is logged as itself and rendered on the log's writer thread
+final class TraceContext {
+    private final long traceId;
+    private final long spanId;
+    private final long parentSpanId;
+    // Context active before this span started, restored when it ends
+    private final TraceContext enclosing;
+
+    private TraceContext(long traceId, long spanId, long parentSpanId, TraceContext enclosing) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.parentSpanId = parentSpanId;
+        this.enclosing = enclosing;
+    }
+
+    static TraceContext root() {
+        return new TraceContext(nextId(), nextId(), 0, null);
+    }
+
+    // Context of a span running on another store, or null if the request was not traced
+    static TraceContext remote(long traceId, long spanId) {
+        return traceId == 0 ? null : new TraceContext(traceId, spanId, 0, null);
+    }
+
+    TraceContext child() {
+        return new TraceContext(traceId, nextId(), spanId, this);
+    }
+
+    long traceId() {
+        return traceId;
+    }
+
+    long spanId() {
+        return spanId;
+    }
+
+    TraceContext enclosing() {
+        return enclosing;
+    }
+
+    // The trace ID, then this span's and its parent's, as TraceReport reads them
+    @Override
+    public String toString() {
+        return Long.toHexString(traceId) + " span=" + Long.toHexString(spanId) + " parent=" + Long.toHexString(parentSpanId);
+    }
+
+    private static long nextId() {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return id;
+    }
+}
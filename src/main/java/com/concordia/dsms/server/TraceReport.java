@@ -0,0 +1,191 @@
+package com.concordia.dsms.server;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Aggregates the trace files written by every store into a latency breakdown per entry
+ * operation: for each kind of root span, the mean total and self time of every span
+ * that took part in those traces, keyed by the store that recorded it.
+ * Usage: {@code TraceReport [trace files...]}, defaulting to {@code logs/*_trace.log}.
+ */
+public final class TraceReport {
+    private static final Pattern SPAN_LINE = Pattern.compile(
+            "\\[(\\w+)] (\\S+) trace=(\\p{XDigit}+) span=(\\p{XDigit}+) parent=(\\p{XDigit}+) nanos=(\\d+)$");
+
+    // Spans of each trace, by trace ID
+    private final Map<String, List<Span>> traces = new HashMap<>();
+
+    private TraceReport() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (args.length == 0) {
+            try (DirectoryStream<Path> logs = Files.newDirectoryStream(Path.of("logs"), "*_trace.log")) {
+                logs.forEach(files::add);
+            }
+        } else {
+            Arrays.stream(args).map(Path::of).forEach(files::add);
+        }
+        read(files).print(System.out);
+    }
+
+    static TraceReport read(List<Path> files) throws IOException {
+        TraceReport report = new TraceReport();
+        for (Path file : files) {
+            try (var lines = Files.lines(file)) {
+                lines.forEach(report::add);
+            }
+        }
+        return report;
+    }
+
+    private void add(String line) {
+        Matcher matcher = SPAN_LINE.matcher(line);
+        if (!matcher.find()) {
+            return;
+        }
+        Span span = new Span(matcher.group(1) + " " + matcher.group(2), matcher.group(4), matcher.group(5),
+                Long.parseLong(matcher.group(6)));
+        traces.computeIfAbsent(matcher.group(3), key -> new ArrayList<>()).add(span);
+    }
+
+    // Breakdown of every trace whose root span was recorded, by root span name
+    Map<String, Breakdown> breakdowns() {
+        Map<String, Breakdown> breakdowns = new LinkedHashMap<>();
+        for (List<Span> spans : traces.values()) {
+            Span root = null;
+            Map<String, Long> childNanos = new HashMap<>();
+            for (Span span : spans) {
+                if (span.isRoot()) {
+                    root = span;
+                } else {
+                    childNanos.merge(span.parentId, span.nanos, Long::sum);
+                }
+            }
+            if (root == null) {
+                continue;
+            }
+            Breakdown breakdown = breakdowns.computeIfAbsent(root.name, Breakdown::new);
+            breakdown.traces++;
+            breakdown.totalNanos.add(root.nanos);
+            for (Span span : spans) {
+                // Fan-out calls overlap, so self time is clamped rather than allowed to go negative
+                long selfNanos = Math.max(0, span.nanos - childNanos.getOrDefault(span.spanId, 0L));
+                breakdown.rows.computeIfAbsent(span.name, SpanStats::new).add(span.nanos, selfNanos);
+            }
+        }
+        return breakdowns;
+    }
+
+    void print(PrintStream out) {
+        Map<String, Breakdown> breakdowns = breakdowns();
+        if (breakdowns.isEmpty()) {
+            out.println("No complete traces found.");
+            return;
+        }
+        for (Breakdown breakdown : breakdowns.values()) {
+            double meanMicros = breakdown.meanTotalMicros();
+            out.printf(Locale.CANADA, "%s: %d traces, mean %.1f us, p50 %.1f us, p99 %.1f us%n", breakdown.root,
+                    breakdown.traces, meanMicros, breakdown.percentileMicros(0.50), breakdown.percentileMicros(0.99));
+            out.printf(Locale.CANADA, "  %-36s %8s %12s %12s %8s%n", "span", "count", "mean us", "self us", "% total");
+            breakdown.rows.values().stream()
+                    .sorted(Comparator.comparingLong((SpanStats row) -> row.selfNanos).reversed())
+                    .forEach(row -> out.printf(Locale.CANADA, "  %-36s %8d %12.1f %12.1f %8.1f%n", row.name, row.count,
+                            row.meanMicros(), row.meanSelfMicros(),
+                            meanMicros == 0 ? 0 : 100.0 * row.selfNanos / breakdown.traces / 1000.0 / meanMicros));
+            out.println();
+        }
+    }
+
+    private static final class Span {
+        private final String name;
+        private final String spanId;
+        private final String parentId;
+        private final long nanos;
+
+        private Span(String name, String spanId, String parentId, long nanos) {
+            this.name = name;
+            this.spanId = spanId;
+            this.parentId = parentId;
+            this.nanos = nanos;
+        }
+
+        private boolean isRoot() {
+            return "0".equals(parentId);
+        }
+    }
+
+    static final class Breakdown {
+        private final String root;
+        private final List<Long> totalNanos = new ArrayList<>();
+        // Spans by "<store> <name>", in order of first appearance
+        private final Map<String, SpanStats> rows = new LinkedHashMap<>();
+        private int traces;
+
+        private Breakdown(String root) {
+            this.root = root;
+        }
+
+        int getTraceCount() {
+            return traces;
+        }
+
+        Map<String, SpanStats> getSpans() {
+            return rows;
+        }
+
+        double meanTotalMicros() {
+            return totalNanos.stream().mapToLong(Long::longValue).average().orElse(0) / 1000.0;
+        }
+
+        double percentileMicros(double quantile) {
+            long[] sorted = totalNanos.stream().mapToLong(Long::longValue).sorted().toArray();
+            int index = (int) Math.ceil(quantile * sorted.length) - 1;
+            return sorted[Math.max(0, index)] / 1000.0;
+        }
+    }
+
+    static final class SpanStats {
+        private final String name;
+        private int count;
+        private long nanos;
+        private long selfNanos;
+
+        private SpanStats(String name) {
+            this.name = name;
+        }
+
+        private void add(long spanNanos, long spanSelfNanos) {
+            count++;
+            nanos += spanNanos;
+            selfNanos += spanSelfNanos;
+        }
+
+        int getCount() {
+            return count;
+        }
+
+        double meanMicros() {
+            return nanos / 1000.0 / count;
+        }
+
+        double meanSelfMicros() {
+            return selfNanos / 1000.0 / count;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.concordia.dsms.server;
+
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Records trace spans for one store to {@code logs/<STORE>_trace.log}. A request entering
+ * a store starts a root span (subject to the sample rate) or, when it came from another
+ * store, a child of the caller's span. The active span is kept per thread and its IDs are
+ * carried in the header of every inter-server request. {@link TraceReport} aggregates the
+ * files of all stores into a per-operation latency breakdown.
+ */
+class Tracer implements AutoCloseable {
+    private static final ThreadLocal<TraceContext> CURRENT = new ThreadLocal<>();
+
+    private final ServerEventLog traceLog;
+    private final double sampleRate;
+
+    Tracer(ServerEventLog traceLog, double sampleRate) {
+        if (sampleRate < 0 || sampleRate > 1) {
+            throw new IllegalArgumentException("Trace sample rate must be between 0 and 1.");
+        }
+        this.traceLog = Objects.requireNonNull(traceLog, "traceLog");
+        this.sampleRate = sampleRate;
+    }
+
+    // Opens the trace file of a store; -Ddsms.trace.sampleRate sets the share of requests traced (default all)
+    static Tracer open(String storeCode) {
+        double sampleRate = Double.parseDouble(System.getProperty("dsms.trace.sampleRate", "1.0"));
+        ServerEventLog traceLog = new ServerEventLog(storeCode, Path.of("logs", storeCode + "_trace.log"),
+                ServerEventLog.DEFAULT_CAPACITY, ServerEventLog.Backpressure.DROP);
+        return new Tracer(traceLog, sampleRate);
+    }
+
+    static TraceContext current() {
+        return CURRENT.get();
+    }
+
+    // Makes a span received from another store the parent of the spans started on this thread
+    static void attach(TraceContext remote) {
+        CURRENT.set(remote);
+    }
+
+    static void detach() {
+        CURRENT.remove();
+    }
+
+    // Starts a span on this thread; returns null when the request is not sampled
+    TraceContext enter() {
+        TraceContext parent = CURRENT.get();
+        TraceContext span;
+        if (parent != null) {
+            span = parent.child();
+        } else if (sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate) {
+            span = TraceContext.root();
+        } else {
+            return null;
+        }
+        CURRENT.set(span);
+        return span;
+    }
+
+    void exit(TraceContext span, Object operation, long startNanos) {
+        if (span == null) {
+            return;
+        }
+        record(span, operation, startNanos);
+        CURRENT.set(span.enclosing());
+    }
+
+    void record(TraceContext span, Object operation, long startNanos) {
+        traceLog.log(ServerEvent.TRACE_SPAN, operation, span, System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public void close() {
+        traceLog.close();
+    }
+}
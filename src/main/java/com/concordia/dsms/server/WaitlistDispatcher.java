@@ -0,0 +1,248 @@
+package com.concordia.dsms.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fulfils waitlists in the background. Request threads only enqueue customers and
+ * signal that stock changed; a small worker pool drains each item's queue in batches.
+ * At most one worker drains a given item at a time, and an item with more waiters than
+ * one batch is requeued behind other items so a long waitlist cannot starve the rest.
+ */
+class WaitlistDispatcher implements AutoCloseable {
+    static final int DEFAULT_BATCH_SIZE = 64;
+    static final int DEFAULT_THREADS = 2;
+
+    enum Outcome {
+        FULFILLED, FAILED, OUT_OF_STOCK
+    }
+
+    // Store-side operations used while draining a queue
+    interface Handler {
+        int available(String itemId);
+
+        // Throws only when nothing was bought, so the customer can be served again
+        Outcome fulfil(String itemId, String customerId);
+    }
+
+    private final Handler handler;
+    private final ServerEventLog eventLog;
+    private final int batchSize;
+    private final ExecutorService workers;
+    private final Map<String, ItemQueue> queues = new ConcurrentHashMap<>();
+    private final AtomicLong queueDepth = new AtomicLong();
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder fulfilled = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder drainNanos = new LongAdder();
+
+    WaitlistDispatcher(String storeCode, Handler handler, ServerEventLog eventLog, ExecutionMode executionMode) {
+        this(storeCode, handler, eventLog, Integer.getInteger("dsms.waitlist.threads", DEFAULT_THREADS),
+                Integer.getInteger("dsms.waitlist.batchSize", DEFAULT_BATCH_SIZE), executionMode);
+    }
+
+    WaitlistDispatcher(String storeCode, Handler handler, ServerEventLog eventLog, int threads, int batchSize) {
+        this(storeCode, handler, eventLog, threads, batchSize, ExecutionMode.PLATFORM);
+    }
+
+    WaitlistDispatcher(String storeCode, Handler handler, ServerEventLog eventLog, int threads, int batchSize,
+                       ExecutionMode executionMode) {
+        if (threads <= 0 || batchSize <= 0) {
+            throw new IllegalArgumentException("Waitlist threads and batch size must be greater than zero.");
+        }
+        Objects.requireNonNull(storeCode, "storeCode");
+        this.handler = Objects.requireNonNull(handler, "handler");
+        this.eventLog = Objects.requireNonNull(eventLog, "eventLog");
+        this.batchSize = batchSize;
+        this.workers = Executors.newFixedThreadPool(threads, executionMode.threadFactory("DSMS-" + storeCode + "-waitlist"));
+    }
+
+    // Adds a customer to the end of the item's waitlist; returns false if they are already waiting
+    boolean enqueue(String itemId, String customerId) {
+        ItemQueue queue = queues.computeIfAbsent(itemId, key -> new ItemQueue());
+        if (!queue.members.add(customerId)) {
+            return false;
+        }
+        queue.customers.add(customerId);
+        queueDepth.incrementAndGet();
+        enqueued.increment();
+        return true;
+    }
+
+    // Installs a recovered waitlist without journaling it again
+    void restore(String itemId, Collection<String> customerIds) {
+        for (String customerId : customerIds) {
+            enqueue(itemId, customerId);
+        }
+    }
+
+    // Stock for the item may have increased; schedules a drain unless one is already running
+    void signal(String itemId) {
+        ItemQueue queue = queues.get(itemId);
+        if (queue == null || queue.customers.isEmpty()) {
+            return;
+        }
+        if (queue.scheduled.compareAndSet(false, true)) {
+            submit(itemId, queue);
+        }
+    }
+
+    void signalAll() {
+        queues.keySet().forEach(this::signal);
+    }
+
+    // Drops the waitlist of an item that no longer exists
+    void discard(String itemId) {
+        ItemQueue queue = queues.remove(itemId);
+        if (queue != null) {
+            queueDepth.addAndGet(-queue.members.size());
+        }
+    }
+
+    // Removes an item's waitlist to hand it to another shard, in queue order; null while a drain
+    // of the item is running, so the caller can try again later
+    List<String> take(String itemId) {
+        ItemQueue queue = queues.get(itemId);
+        if (queue == null) {
+            return List.of();
+        }
+        // Marking the queue scheduled keeps any drain from starting on it
+        if (!queue.scheduled.compareAndSet(false, true)) {
+            return null;
+        }
+        queues.remove(itemId, queue);
+        queueDepth.addAndGet(-queue.members.size());
+        return new ArrayList<>(queue.customers);
+    }
+
+    boolean isWaiting(String itemId, String customerId) {
+        ItemQueue queue = queues.get(itemId);
+        return queue != null && queue.members.contains(customerId);
+    }
+
+    long getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    int getQueueDepth(String itemId) {
+        ItemQueue queue = queues.get(itemId);
+        return queue == null ? 0 : queue.members.size();
+    }
+
+    long getEnqueuedCount() {
+        return enqueued.sum();
+    }
+
+    long getFulfilledCount() {
+        return fulfilled.sum();
+    }
+
+    long getFailedCount() {
+        return failed.sum();
+    }
+
+    // Waitlist entries processed per second of worker time spent draining
+    double getDrainRate() {
+        long nanos = drainNanos.sum();
+        return nanos == 0 ? 0 : (fulfilled.sum() + failed.sum()) * 1e9 / nanos;
+    }
+
+    private void submit(String itemId, ItemQueue queue) {
+        try {
+            workers.execute(() -> drain(itemId, queue));
+        } catch (RejectedExecutionException e) {
+            queue.scheduled.set(false);
+        }
+    }
+
+    private void drain(String itemId, ItemQueue queue) {
+        long start = System.nanoTime();
+        int processed = 0;
+        boolean stopped = false;
+        boolean broken = false;
+        boolean resubmitted = false;
+        try {
+            while (processed < batchSize && !stopped) {
+                String customerId = queue.customers.poll();
+                if (customerId == null) {
+                    break;
+                }
+                Outcome outcome;
+                try {
+                    outcome = handler.fulfil(itemId, customerId);
+                } catch (RuntimeException e) {
+                    // Nothing was bought: the customer keeps their place and the item waits for the next signal
+                    queue.customers.addFirst(customerId);
+                    eventLog.log(ServerEvent.WAITLIST_DRAIN_FAILED, itemId, customerId, e);
+                    stopped = true;
+                    broken = true;
+                    continue;
+                }
+                if (outcome == Outcome.OUT_OF_STOCK) {
+                    // Stock ran out before this customer was served, keep their place at the front
+                    queue.customers.addFirst(customerId);
+                    stopped = true;
+                    continue;
+                }
+                queue.members.remove(customerId);
+                queueDepth.decrementAndGet();
+                processed++;
+                (outcome == Outcome.FULFILLED ? fulfilled : failed).increment();
+            }
+            StoreJournal.commitPending();
+            if (processed > 0) {
+                eventLog.log(ServerEvent.WAITLIST_DRAINED, itemId, processed, queue.members.size());
+            }
+            if (!stopped && processed == batchSize && !queue.customers.isEmpty()) {
+                // More to do: go to the back of the executor queue, still marked as scheduled
+                resubmitted = true;
+                submit(itemId, queue);
+                return;
+            }
+        } finally {
+            drainNanos.add(System.nanoTime() - start);
+            if (!resubmitted) {
+                queue.scheduled.set(false);
+            }
+        }
+        // A signal that arrived while this drain was finishing would have been ignored
+        if (!broken && !queue.customers.isEmpty() && handler.available(itemId) > 0 && queues.get(itemId) == queue) {
+            signal(itemId);
+        }
+    }
+
+    // Stops the workers after letting queued drains finish
+    @Override
+    public void close() {
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(5, TimeUnit.SECONDS)) {
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class ItemQueue {
+        private final Deque<String> customers = new ConcurrentLinkedDeque<>();
+        // Customers currently queued or being served, for constant-time duplicate checks
+        private final Set<String> members = ConcurrentHashMap.newKeySet();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+    }
+}
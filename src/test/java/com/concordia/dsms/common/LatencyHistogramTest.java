@@ -0,0 +1,48 @@
+package com.concordia.dsms.common;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    void testQuantilesStayWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100_000; value++) {
+            histogram.record(value * 1_000);
+        }
+
+        assertEquals(100_000, histogram.getCount());
+        assertEquals(100_000_000, histogram.getMax());
+        assertEquals(50_000_500, histogram.getMean(), 1);
+        assertWithinPrecision(50_000_000, histogram.getValueAtQuantile(0.5));
+        assertWithinPrecision(99_000_000, histogram.getValueAtQuantile(0.99));
+        assertWithinPrecision(99_900_000, histogram.getValueAtQuantile(0.999));
+        assertEquals(100_000_000, histogram.getValueAtQuantile(1.0));
+    }
+
+    @Test
+    void testBucketBoundsCoverEveryValue() {
+        for (long value : new long[]{0, 1, 15, 16, 17, 31, 32, 1_000, 123_456_789, Long.MAX_VALUE}) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(value <= LatencyHistogram.upperBoundOf(bucket), "upper bound of " + value);
+            assertTrue(bucket == 0 || value > LatencyHistogram.upperBoundOf(bucket - 1), "lower bound of " + value);
+        }
+    }
+
+    @Test
+    void testResetClearsEverything() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(42);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getValueAtQuantile(0.5));
+    }
+
+    private static void assertWithinPrecision(long expected, long actual) {
+        assertTrue(Math.abs(actual - expected) <= expected / 16, "expected about " + expected + " but was " + actual);
+    }
+}
@@ -0,0 +1,73 @@
+package com.concordia.dsms.server;
+
+import com.concordia.dsms.common.ItemChange;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClusterConfigTest {
+
+    @Test
+    void testReadsStoresItemsAndRegistries() {
+        Properties properties = new Properties();
+        properties.setProperty("stores", "QC, NB ,PE");
+        properties.setProperty("store.NB.items", "NB1001:Lobster Trap:3:75.5, NB1002:Canoe:1:900");
+        properties.setProperty("registry.port", "2099");
+        properties.setProperty("registry.peers", "east-1:2099,east-2");
+
+        ClusterConfig config = ClusterConfig.from(properties);
+
+        assertEquals(List.of("QC", "NB", "PE"), config.getStoreCodes());
+        List<ItemChange> items = config.getInitialItems("NB");
+        assertEquals(2, items.size());
+        assertEquals("Lobster Trap", items.get(0).getItemName());
+        assertEquals(75.5, items.get(0).getPrice());
+        assertTrue(config.getInitialItems("PE").isEmpty());
+        assertEquals(2099, config.getRegistryPort());
+        assertEquals(2, config.getRegistryPeers().size());
+        assertEquals("east-2", config.getRegistryPeers().get(1).getHostString());
+        assertEquals(1099, config.getRegistryPeers().get(1).getPort());
+    }
+
+    @Test
+    void testDefaultsAreTheThreeProvinces() {
+        ClusterConfig config = ClusterConfig.defaults();
+        assertEquals(List.of("QC", "ON", "BC"), config.getStoreCodes());
+        assertEquals(2, config.getInitialItems("ON").size());
+    }
+
+    @Test
+    void testShardsBecomeNodes() {
+        Properties properties = stores("QC,ON");
+        properties.setProperty("store.QC.shards", "3");
+        ClusterConfig config = ClusterConfig.from(properties);
+        assertEquals(List.of("QC", "QC1", "QC2", "ON"), config.getNodeNames());
+
+        properties.setProperty("store.ON.shards", "0");
+        assertThrows(IllegalArgumentException.class, () -> ClusterConfig.from(properties));
+    }
+
+    @Test
+    void testRejectsInvalidConfigurations() {
+        assertThrows(IllegalArgumentException.class, () -> ClusterConfig.from(new Properties()));
+        assertThrows(IllegalArgumentException.class, () -> ClusterConfig.from(stores("QC,Quebec")));
+        assertThrows(IllegalArgumentException.class, () -> ClusterConfig.from(stores("QC,QC")));
+
+        Properties foreignItem = stores("QC");
+        foreignItem.setProperty("store.QC.items", "ON1001:Camera:1:10");
+        assertThrows(IllegalArgumentException.class, () -> ClusterConfig.from(foreignItem));
+
+        Properties badPeer = stores("QC");
+        badPeer.setProperty("registry.peers", "east-1:port");
+        assertThrows(IllegalArgumentException.class, () -> ClusterConfig.from(badPeer));
+    }
+
+    private static Properties stores(String storeCodes) {
+        Properties properties = new Properties();
+        properties.setProperty("stores", storeCodes);
+        return properties;
+    }
+}
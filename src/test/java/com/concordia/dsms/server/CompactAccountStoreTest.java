@@ -0,0 +1,143 @@
+package com.concordia.dsms.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompactAccountStoreTest {
+
+    private static final LocalDate JANUARY = LocalDate.of(2025, 1, 1);
+
+    @Test
+    void testRemoteStoreLimitAndBudget() {
+        CompactAccountStore accounts = new CompactAccountStore();
+
+        assertTrue(accounts.attemptPurchase("QCU0001", "QC", "QC1001", 100.0, JANUARY));
+        assertTrue(accounts.attemptPurchase("QCU0001", "QC", "QC1001", 100.0, JANUARY));
+        assertTrue(accounts.attemptPurchase("QCU0001", "ON", "ON1001", 100.0, JANUARY));
+        assertFalse(accounts.attemptPurchase("QCU0001", "ON", "ON1002", 100.0, JANUARY), "Second item from ON breaks the policy");
+        assertFalse(accounts.attemptPurchase("QCU0001", "QC", "QC1002", 700.01, JANUARY), "Over budget");
+
+        assertEquals(700.0, accounts.getRemainingBudget("QCU0001"));
+        assertEquals(2, accounts.getPurchaseCount("QCU0001", "QC"));
+        assertEquals(1, accounts.getPurchaseCount("QCU0001", "ON"));
+        assertEquals(1000.0, accounts.getRemainingBudget("QCU0002"));
+        assertEquals(1, accounts.size(), "Reading a budget does not create the customer");
+    }
+
+    @Test
+    void testCartIsAllOrNothing() {
+        CompactAccountStore accounts = new CompactAccountStore();
+
+        assertFalse(accounts.attemptCart("QCU0001", List.of(
+                new PurchaseRecord("BC1001", "BC", JANUARY, 10.0),
+                new PurchaseRecord("BC1002", "BC", JANUARY, 10.0))));
+        assertEquals(1000.0, accounts.getRemainingBudget("QCU0001"));
+
+        assertTrue(accounts.attemptCart("QCU0001", List.of(
+                new PurchaseRecord("BC1001", "BC", JANUARY, 10.0),
+                new PurchaseRecord("QC1001", "QC", JANUARY, 20.5))));
+        assertEquals(969.5, accounts.getRemainingBudget("QCU0001"));
+        assertTrue(accounts.hasPurchaseRecord("QCU0001", "QC1001"));
+    }
+
+    @Test
+    void testOldestRecordIsConsumedFirstAndRestoredInFront() {
+        CompactAccountStore accounts = new CompactAccountStore();
+        PurchaseRecord older = new PurchaseRecord("QC1001", "QC", JANUARY, 10.0);
+        PurchaseRecord newer = new PurchaseRecord("QC1001", "QC", JANUARY.plusDays(5), 12.0);
+        accounts.recordPurchase("QCU0001", older);
+        accounts.recordPurchase("QCU0001", new PurchaseRecord("QC1002", "QC", JANUARY, 1.0));
+        accounts.recordPurchase("QCU0001", newer);
+
+        assertEquals(older, accounts.consumePurchaseRecord("QCU0001", "QC1001"));
+        assertEquals(987.0, accounts.getRemainingBudget("QCU0001"));
+        accounts.restorePurchaseRecord("QCU0001", older);
+        assertEquals(977.0, accounts.getRemainingBudget("QCU0001"));
+
+        assertEquals(older, accounts.consumePurchaseRecord("QCU0001", "QC1001"));
+        assertEquals(newer, accounts.consumePurchaseRecord("QCU0001", "QC1001"));
+        assertNull(accounts.consumePurchaseRecord("QCU0001", "QC1001"));
+        assertNull(accounts.consumePurchaseRecord("QCU0009", "QC1001"));
+        assertEquals(1, accounts.getPurchaseCount("QCU0001", "QC"));
+    }
+
+    @Test
+    void testOldestReturnableRecordIsConsumed() {
+        CompactAccountStore accounts = new CompactAccountStore();
+        PurchaseRecord expired = new PurchaseRecord("QC1001", "QC", JANUARY, 10.0);
+        PurchaseRecord february = new PurchaseRecord("QC1001", "QC", LocalDate.of(2025, 2, 1), 10.0);
+        PurchaseRecord january = new PurchaseRecord("QC1001", "QC", LocalDate.of(2025, 1, 15), 10.0);
+        accounts.recordPurchase("QCU0001", february);
+        accounts.recordPurchase("QCU0001", expired);
+        accounts.recordPurchase("QCU0001", january);
+        LocalDate returnDate = LocalDate.of(2025, 2, 10);
+
+        assertEquals(january, accounts.consumeReturnable("QCU0001", "QC1001", returnDate));
+        assertEquals(february, accounts.consumeReturnable("QCU0001", "QC1001", returnDate));
+        assertNull(accounts.consumeReturnable("QCU0001", "QC1001", returnDate));
+        assertTrue(accounts.hasPurchaseRecord("QCU0001", "QC1001"));
+
+        assertTrue(accounts.expireBefore(LocalDate.of(2025, 1, 10).toEpochDay()));
+        assertFalse(accounts.expireBefore(LocalDate.of(2025, 1, 9).toEpochDay()), "The cutoff never moves back");
+        assertNull(accounts.consumePurchaseRecord("QCU0001", "QC1001"), "Expired records are not returnable before the sweep");
+        assertEquals(1, accounts.sweepExpired());
+        assertFalse(accounts.hasPurchaseRecord("QCU0001", "QC1001"));
+        assertEquals(990.0, accounts.getRemainingBudget("QCU0001"));
+    }
+
+    @Test
+    void testReplayedConsumeRefundsAnExpiredRecord() {
+        CompactAccountStore accounts = new CompactAccountStore();
+        PurchaseRecord record = new PurchaseRecord("ON1001", "ON", JANUARY, 25.0);
+        accounts.recordPurchase("QCU0001", record);
+        accounts.expireBefore(JANUARY.plusDays(1).toEpochDay());
+        accounts.sweepExpired();
+
+        accounts.applyConsumed("QCU0001", record);
+
+        assertEquals(1000.0, accounts.getRemainingBudget("QCU0001"));
+        assertEquals(0, accounts.getPurchaseCount("QCU0001", "ON"));
+    }
+
+    @Test
+    void testAmountsAreKeptInCents() {
+        CompactAccountStore accounts = new CompactAccountStore();
+
+        for (int i = 0; i < 10; i++) {
+            accounts.recordPurchase("QCU0001", new PurchaseRecord("QC1001", "QC", JANUARY, 0.1));
+        }
+        assertEquals(999.0, accounts.getRemainingBudget("QCU0001"));
+        accounts.refund("QCU0001", 0.3);
+        assertEquals(999.3, accounts.getRemainingBudget("QCU0001"));
+    }
+
+    @Test
+    void testSnapshotRoundTrip() throws Exception {
+        CompactAccountStore accounts = new CompactAccountStore();
+        // Enough customers to grow every segment past its initial capacity
+        for (int i = 0; i < 10_000; i++) {
+            String customerId = String.format("QCU%04d", i);
+            accounts.recordPurchase(customerId, new PurchaseRecord("QC" + (1000 + i % 50), "QC", JANUARY.plusDays(i % 30), 1.25));
+        }
+        accounts.recordPurchase("QCU0001", new PurchaseRecord("ON1001", "ON", JANUARY, 50.0));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        accounts.writeTo(new DataOutputStream(bytes));
+        CompactAccountStore restored = CompactAccountStore.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertEquals(10_000, restored.size());
+        assertEquals(948.75, restored.getRemainingBudget("QCU0001"));
+        assertEquals(1, restored.getPurchaseCount("QCU0001", "ON"));
+        assertFalse(restored.attemptPurchase("QCU0001", "ON", "ON1002", 1.0, JANUARY));
+        assertEquals(new PurchaseRecord("QC1027", "QC", JANUARY.plusDays(7777 % 30), 1.25),
+                restored.consumePurchaseRecord("QCU7777", "QC1027"));
+    }
+}
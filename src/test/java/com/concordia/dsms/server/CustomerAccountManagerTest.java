@@ -0,0 +1,125 @@
+package com.concordia.dsms.server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CustomerAccountManagerTest {
+
+    private static final LocalDate PURCHASE_DATE = LocalDate.of(2025, 1, 1);
+
+    @Test
+    void testConfirmedHoldBecomesPurchase() {
+        CustomerAccountManager accounts = new CustomerAccountManager("QC", StoreJournal.DISABLED);
+
+        String holdId = accounts.placeHold("QCU0001", "ON", "ON1001", 300.0, PURCHASE_DATE);
+
+        assertNotNull(holdId);
+        assertEquals(700.0, accounts.getRemainingBudget("QCU0001"));
+        assertTrue(accounts.confirmHold(holdId));
+        assertFalse(accounts.releaseHold(holdId), "A confirmed hold cannot be released");
+        assertTrue(accounts.confirmHold(holdId), "A retried confirmation is answered the same way");
+        assertEquals(700.0, accounts.getRemainingBudget("QCU0001"));
+        assertEquals(0, accounts.getPendingHoldCount());
+        assertTrue(accounts.consumeReturnable("QCU0001", "ON1001", PURCHASE_DATE).isPresent());
+    }
+
+    @Test
+    void testHoldsCountTowardsBudgetAndRemoteStoreLimit() {
+        CustomerAccountManager accounts = new CustomerAccountManager("QC", StoreJournal.DISABLED);
+
+        String onHold = accounts.placeHold("QCU0002", "ON", "ON1001", 10.0, PURCHASE_DATE);
+        assertNotNull(onHold);
+        assertNull(accounts.placeHold("QCU0002", "ON", "ON1002", 10.0, PURCHASE_DATE), "Second item from ON breaks the policy");
+        assertNull(accounts.placeHold("QCU0002", "BC", "BC1001", 995.0, PURCHASE_DATE), "Held budget is not available");
+
+        assertTrue(accounts.releaseHold(onHold));
+        assertEquals(1000.0, accounts.getRemainingBudget("QCU0002"));
+        assertNotNull(accounts.placeHold("QCU0002", "ON", "ON1002", 10.0, PURCHASE_DATE));
+    }
+
+    @Test
+    void testCancelledCartPurchasesAreRefunded() {
+        CustomerAccountManager accounts = new CustomerAccountManager("QC", StoreJournal.DISABLED);
+        PurchaseRecord local = new PurchaseRecord("QC1001", "QC", PURCHASE_DATE, 100.0);
+        PurchaseRecord remote = new PurchaseRecord("ON1001", "ON", PURCHASE_DATE, 200.0);
+
+        assertTrue(accounts.attemptCart("QCU0004", List.of(local, remote)));
+        accounts.cancelPurchases("QCU0004", List.of(remote));
+
+        assertEquals(900.0, accounts.getRemainingBudget("QCU0004"));
+        assertFalse(accounts.hasPurchaseRecord("QCU0004", "ON1001"));
+        assertTrue(accounts.hasPurchaseRecord("QCU0004", "QC1001"));
+        assertNotNull(accounts.placeHold("QCU0004", "ON", "ON1002", 10.0, PURCHASE_DATE), "The refunded item no longer counts against ON");
+    }
+
+    @Test
+    void testUnsettledHoldExpires() throws Exception {
+        CustomerAccountManager accounts = new CustomerAccountManager("QC", StoreJournal.DISABLED, Duration.ofMillis(50));
+
+        String holdId = accounts.placeHold("QCU0003", "BC", "BC1001", 400.0, PURCHASE_DATE);
+        assertEquals(600.0, accounts.getRemainingBudget("QCU0003"));
+
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (accounts.getPendingHoldCount() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(accounts.confirmHold(holdId));
+        assertEquals(1000.0, accounts.getRemainingBudget("QCU0003"));
+    }
+
+    @Test
+    void testSweeperDropsRecordsPastTheReturnWindow(@TempDir Path logDir) {
+        CustomerAccountManager accounts = new CustomerAccountManager("QC", StoreJournal.DISABLED);
+        ServerEventLog eventLog = new ServerEventLog("QC", logDir.resolve("QC_server.log"), 1024, ServerEventLog.Backpressure.DROP);
+        Clock today = Clock.fixed(LocalDate.of(2025, 2, 15).atStartOfDay().toInstant(ZoneOffset.UTC), ZoneOffset.UTC);
+        try (ReturnWindowSweeper sweeper = new ReturnWindowSweeper("QC", accounts, eventLog, today, Duration.ofHours(1))) {
+            assertTrue(accounts.attemptPurchase("QCU0004", "QC", "QC1001", 10.0, PURCHASE_DATE));
+            assertTrue(accounts.attemptPurchase("QCU0004", "QC", "QC1002", 10.0, LocalDate.of(2025, 1, 20)));
+            // A date past the clock's does not move the cutoff beyond the clock's
+            assertTrue(accounts.attemptPurchase("QCU0005", "QC", "QC1003", 10.0, LocalDate.of(2030, 1, 1)));
+
+            assertEquals(1, sweeper.sweep());
+            assertEquals(0, sweeper.sweep());
+            assertFalse(accounts.hasPurchaseRecord("QCU0004", "QC1001"));
+            assertTrue(accounts.hasPurchaseRecord("QCU0004", "QC1002"));
+            assertEquals(980.0, accounts.getRemainingBudget("QCU0004"), "Budget is kept when a record expires");
+
+            // Late records dated before the cutoff are charged but never kept
+            assertTrue(accounts.attemptPurchase("QCU0004", "QC", "QC1001", 10.0, PURCHASE_DATE));
+            assertFalse(accounts.hasPurchaseRecord("QCU0004", "QC1001"));
+            assertEquals(970.0, accounts.getRemainingBudget("QCU0004"));
+        } finally {
+            eventLog.close();
+        }
+    }
+
+    @Test
+    void testFutureDatedPurchaseDoesNotMoveTheCutoff() {
+        CustomerAccountManager accounts = new CustomerAccountManager("QC", StoreJournal.DISABLED);
+        LocalDate today = LocalDate.of(2025, 2, 15);
+
+        assertEquals(LocalDate.of(2025, 1, 16), accounts.expirePurchases(today), "The cutoff follows the clock alone");
+        assertTrue(accounts.attemptPurchase("QCU0006", "QC", "QC1004", 10.0, LocalDate.of(2025, 1, 20)));
+        assertTrue(accounts.attemptPurchase("QCU0007", "QC", "QC1005", 10.0, LocalDate.of(2030, 1, 1)));
+
+        assertNull(accounts.expirePurchases(today), "Another customer's future date leaves the cutoff where it was");
+        assertEquals(0, accounts.sweepExpired());
+        assertTrue(accounts.consumeReturnable("QCU0006", "QC1004", today).isPresent());
+    }
+
+    @Test
+    void testAccountsOfOtherStoresAreRejected() {
+        CustomerAccountManager accounts = new CustomerAccountManager("QC", StoreJournal.DISABLED);
+
+        assertThrows(IllegalArgumentException.class, () -> accounts.getRemainingBudget("ONU0001"));
+    }
+}
@@ -0,0 +1,45 @@
+package com.concordia.dsms.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExecutionModeTest {
+
+    @Test
+    void testParseIgnoresCase() {
+        assertEquals(ExecutionMode.VIRTUAL, ExecutionMode.parse(" Virtual "));
+        assertEquals(ExecutionMode.PLATFORM, ExecutionMode.parse("platform"));
+        assertThrows(IllegalArgumentException.class, () -> ExecutionMode.parse("green"));
+    }
+
+    @Test
+    void testPlatformThreadsAreNamedDaemons() {
+        Thread first = ExecutionMode.PLATFORM.threadFactory("DSMS-QC-test").newThread(() -> { });
+        Thread second = ExecutionMode.PLATFORM.threadFactory("DSMS-QC-test").newThread(() -> { });
+        assertEquals("DSMS-QC-test-1", first.getName());
+        assertEquals("DSMS-QC-test-1", second.getName());
+        assertTrue(first.isDaemon());
+    }
+
+    @Test
+    void testVirtualModeRunsTasksOnAnyRuntime() throws Exception {
+        ExecutionMode effective = ExecutionMode.VIRTUAL.effective();
+        assertEquals(ExecutionMode.isVirtualSupported() ? ExecutionMode.VIRTUAL : ExecutionMode.PLATFORM, effective);
+
+        ExecutorService executor = Executors.newCachedThreadPool(ExecutionMode.VIRTUAL.threadFactory("DSMS-QC-test"));
+        try {
+            CompletableFuture<Thread> ran = CompletableFuture.supplyAsync(Thread::currentThread, executor);
+            Thread thread = ran.get(5, TimeUnit.SECONDS);
+            assertTrue(thread.getName().startsWith("DSMS-QC-test-"));
+            assertTrue(thread.isDaemon());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
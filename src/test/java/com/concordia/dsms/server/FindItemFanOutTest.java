@@ -0,0 +1,105 @@
+package com.concordia.dsms.server;
+
+import com.concordia.dsms.common.ItemChange;
+import com.concordia.dsms.common.StoreServer;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.rmi.RemoteException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FindItemFanOutTest {
+
+    private static final long SLOW_STORE_DELAY_MS = 400;
+
+    @BeforeAll
+    static void setupRegistry() throws Exception {
+        StoreServerRegistry.bind("QC", new StoreServerImpl("QC", Duration.ofMillis(1_000)));
+        StoreServerRegistry.bind("ON", new SlowStoreServer("ON", SLOW_STORE_DELAY_MS));
+        StoreServerRegistry.bind("BC", new SlowStoreServer("BC", SLOW_STORE_DELAY_MS));
+    }
+
+    @Test
+    void testRemoteLookupsRunConcurrently() throws RemoteException {
+        StoreServerRegistry.lookup("ON").addItem("ONM0001", "ON7001", "FanOutItem", 1, 10.0);
+        StoreServerRegistry.lookup("BC").addItem("BCM0001", "BC7001", "FanOutItem", 1, 10.0);
+
+        long start = System.nanoTime();
+        String result = StoreServerRegistry.lookup("QC").findItem("QCU7001", "FanOutItem");
+        long elapsedMs = Duration.ofNanos(System.nanoTime() - start).toMillis();
+
+        assertTrue(elapsedMs < 2 * SLOW_STORE_DELAY_MS, "Slow stores should be queried in parallel, took " + elapsedMs + " ms");
+        assertTrue(result.indexOf("BC7001") < result.indexOf("ON7001"), "Results should follow store code order");
+        assertFalse(result.contains("Partial results"), "All stores answered within the deadline");
+    }
+
+    @Test
+    void testSlowStoreIsReportedAsPartial() throws RemoteException {
+        StoreServer server = new StoreServerImpl("QC", Duration.ofMillis(100));
+        server.addItem("QCM0001", "QC7002", "PartialItem", 1, 10.0);
+
+        long start = System.nanoTime();
+        String result = server.findItem("QCU7002", "PartialItem");
+        long elapsedMs = Duration.ofNanos(System.nanoTime() - start).toMillis();
+
+        assertTrue(elapsedMs < SLOW_STORE_DELAY_MS, "Lookup should not wait past the deadline, took " + elapsedMs + " ms");
+        assertTrue(result.contains("QC7002"), "Local results should still be returned");
+        assertTrue(result.contains("Partial results: no response from store(s) BC, ON"), "Missing stores should be flagged");
+    }
+
+    @Test
+    void testResultsLargerThanOneDatagramAreFetchedOverRmi() throws RemoteException {
+        // Each line is 18 bytes, so the matches need about 108 KB
+        List<ItemChange> items = new ArrayList<>();
+        for (int i = 0; i < 6_000; i++) {
+            items.add(new ItemChange(String.format("BC%06d", i), "BulkItem", 1, 10.0));
+        }
+        StoreServerRegistry.lookup("BC").addItems("BCM0001", items);
+
+        String result = StoreServerRegistry.lookup("QC").findItem("QCU7004", "BulkItem");
+        assertFalse(result.contains("Partial results"), "The large reply should not count as missing");
+        assertEquals(6_000, result.lines().filter(line -> line.startsWith("BC")).count());
+    }
+
+    @Test
+    void testMalformedDatagramDoesNotStopTheListener() throws Exception {
+        StoreServerRegistry.lookup("ON").addItem("ONM0001", "ON7003", "SurvivorItem", 1, 10.0);
+        InetSocketAddress target = StoreServerRegistry.lookupInterServerAddress("ON");
+        // A valid header announcing an invalidation, without the strings it carries
+        byte[] truncated = InterServerMessage.writer(InterServerMessage.LOOKUP_INVALIDATION, 1).toBytes();
+        try (DatagramChannel channel = DatagramChannel.open()) {
+            channel.send(ByteBuffer.wrap(truncated), target);
+        }
+
+        String result = StoreServerRegistry.lookup("QC").findItem("QCU7003", "SurvivorItem");
+        assertTrue(result.contains("ON7003"), result);
+        assertFalse(result.contains("Partial results"), result);
+    }
+
+    // Store whose inter-server lookups are artificially delayed
+    private static final class SlowStoreServer extends StoreServerImpl {
+        private final long delayMs;
+
+        SlowStoreServer(String storeCode, long delayMs) throws RemoteException {
+            super(storeCode);
+            this.delayMs = delayMs;
+        }
+
+        @Override
+        public String requestRemoteItemLookup(String itemName) {
+            try {
+                Thread.sleep(delayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.requestRemoteItemLookup(itemName);
+        }
+    }
+}
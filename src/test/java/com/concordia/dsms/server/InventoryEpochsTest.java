@@ -0,0 +1,125 @@
+package com.concordia.dsms.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InventoryEpochsTest {
+
+    @Test
+    void testSnapshotKeepsItsViewWhileStockChanges() {
+        InventoryEpochs epochs = new InventoryEpochs();
+        ItemRecord lamp = attached(epochs, "QC1001", 5);
+
+        try (InventoryEpochs.Snapshot snapshot = epochs.open()) {
+            assertTrue(lamp.tryReserve());
+            assertEquals(7, lamp.increaseQuantity(3));
+            assertEquals(5, lamp.getQuantityAt(snapshot));
+            assertEquals(7, lamp.getQuantity());
+        }
+        try (InventoryEpochs.Snapshot snapshot = epochs.open()) {
+            assertEquals(7, lamp.getQuantityAt(snapshot));
+        }
+    }
+
+    @Test
+    void testItemsAreSeenFromTheirPublicationUntilTheirRemoval() {
+        InventoryEpochs epochs = new InventoryEpochs();
+        ItemRecord lamp = new ItemRecord("QC1001", "Lamp", 2, 20.0);
+        lamp.attach(epochs);
+
+        try (InventoryEpochs.Snapshot snapshot = epochs.open()) {
+            assertEquals(ItemRecord.ABSENT, lamp.getQuantityAt(snapshot), "Not published yet");
+        }
+        lamp.markPresent();
+        InventoryEpochs.Snapshot before = epochs.open();
+        lamp.markRemoved();
+        epochs.retire(lamp);
+        lamp.markPresent();
+        try (InventoryEpochs.Snapshot after = epochs.open()) {
+            assertEquals(ItemRecord.ABSENT, lamp.getQuantityAt(after), "Publishing does not bring a removed item back");
+        }
+        assertEquals(2, lamp.getQuantityAt(before));
+        assertTrue(epochs.retired().contains(lamp));
+        before.close();
+        assertTrue(epochs.retired().isEmpty(), "No open snapshot needs the record");
+
+        lamp.markRestored();
+        try (InventoryEpochs.Snapshot restored = epochs.open()) {
+            assertEquals(2, lamp.getQuantityAt(restored));
+        }
+    }
+
+    @Test
+    void testRemovalWithoutOpenSnapshotIsNotRetained() {
+        InventoryEpochs epochs = new InventoryEpochs();
+        ItemRecord lamp = attached(epochs, "QC1001", 1);
+
+        lamp.markRemoved();
+        epochs.retire(lamp);
+
+        assertTrue(epochs.retired().isEmpty());
+    }
+
+    @Test
+    void testOverlappingSnapshotsOnlyKeepWhatTheOldestReads() {
+        InventoryEpochs epochs = new InventoryEpochs();
+        ItemRecord lamp = attached(epochs, "QC1001", 0);
+        ItemRecord desk = attached(epochs, "QC1002", 1);
+
+        InventoryEpochs.Snapshot older = epochs.open();
+        desk.markRemoved();
+        epochs.retire(desk);
+        // There is always a snapshot open, but each one closes after the next has opened
+        for (int i = 1; i <= 1_000; i++) {
+            lamp.increaseQuantity(1);
+            InventoryEpochs.Snapshot newer = epochs.open();
+            lamp.increaseQuantity(1);
+            assertEquals(2 * i - 1, lamp.getQuantityAt(newer));
+            older.close();
+            older = newer;
+        }
+        assertTrue(lamp.getVersionCount() <= 3, lamp.getVersionCount() + " versions kept");
+        assertTrue(epochs.retired().isEmpty(), "No open snapshot sees the removed record");
+        older.close();
+    }
+
+    @Test
+    void testSnapshotsNeverSeeALaterChangeWithoutAnEarlierOne() throws Exception {
+        InventoryEpochs epochs = new InventoryEpochs();
+        ItemRecord first = attached(epochs, "QC1001", 0);
+        ItemRecord second = attached(epochs, "QC1002", 0);
+        AtomicBoolean running = new AtomicBoolean(true);
+        // Every change to the second item follows one to the first, so a consistent view has first - second in {0, 1}
+        Thread writer = new Thread(() -> {
+            while (running.get()) {
+                first.increaseQuantity(1);
+                second.increaseQuantity(1);
+            }
+        });
+        writer.start();
+        try {
+            for (int i = 0; i < 20_000; i++) {
+                try (InventoryEpochs.Snapshot snapshot = epochs.open()) {
+                    int secondQuantity = second.getQuantityAt(snapshot);
+                    int firstQuantity = first.getQuantityAt(snapshot);
+                    int difference = firstQuantity - secondQuantity;
+                    assertTrue(difference == 0 || difference == 1, firstQuantity + " then " + secondQuantity);
+                }
+            }
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+        assertEquals(first.getQuantity(), second.getQuantity());
+    }
+
+    private static ItemRecord attached(InventoryEpochs epochs, String itemId, int quantity) {
+        ItemRecord record = new ItemRecord(itemId, "Item", quantity, 1.0);
+        record.attach(epochs);
+        record.markPresent();
+        return record;
+    }
+}
@@ -0,0 +1,158 @@
+package com.concordia.dsms.server;
+
+import com.concordia.dsms.common.InventoryChange;
+import com.concordia.dsms.common.InventoryListener;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.rmi.RemoteException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InventoryFeedTest {
+
+    @TempDir
+    Path logDir;
+
+    private ServerEventLog eventLog;
+
+    @BeforeEach
+    void openLog() {
+        eventLog = new ServerEventLog("QC", logDir.resolve("QC_server.log"), 1024, ServerEventLog.Backpressure.DROP);
+    }
+
+    @AfterEach
+    void closeLog() {
+        eventLog.close();
+    }
+
+    @Test
+    void testChangesAreCoalescedPerItem() throws Exception {
+        GatedListener listener = new GatedListener();
+        ItemRecord laptop = new ItemRecord("QC1001", "Laptop", 5, 900.0);
+        ItemRecord mouse = new ItemRecord("QC1002", "Mouse", 10, 20.0);
+        try (InventoryFeed feed = new InventoryFeed("QC", eventLog, 100)) {
+            feed.subscribe("QCM0001", listener);
+            feed.publish(laptop, InventoryChange.Kind.ADDED, false);
+            assertTrue(listener.delivering.await(5, TimeUnit.SECONDS));
+
+            // The first delivery is blocked, so everything below waits and is merged per item
+            for (int i = 0; i < 3; i++) {
+                assertTrue(mouse.tryReserve());
+                feed.publish(mouse, InventoryChange.Kind.QUANTITY_CHANGED, false);
+            }
+            assertTrue(laptop.tryReserve());
+            feed.publish(laptop, InventoryChange.Kind.QUANTITY_CHANGED, true);
+            listener.gate.countDown();
+
+            assertEquals(1, listener.batches.poll(5, TimeUnit.SECONDS).size());
+            List<InventoryChange> merged = listener.batches.poll(5, TimeUnit.SECONDS);
+            assertNotNull(merged);
+            assertEquals(2, merged.size());
+            for (InventoryChange change : merged) {
+                assertEquals(InventoryChange.Kind.QUANTITY_CHANGED, change.getKind());
+                if (change.getItemId().equals("QC1002")) {
+                    assertEquals(7, change.getQuantity());
+                    assertEquals(0, change.getWaitlistFulfilments());
+                } else {
+                    assertEquals(4, change.getQuantity());
+                    assertEquals(1, change.getWaitlistFulfilments());
+                }
+            }
+        }
+    }
+
+    @Test
+    void testSlowSubscriberIsDroppedWhenBoundIsExceeded() throws Exception {
+        GatedListener listener = new GatedListener();
+        try (InventoryFeed feed = new InventoryFeed("QC", eventLog, 2)) {
+            feed.subscribe("QCM0001", listener);
+            feed.publish(new ItemRecord("QC1000", "Item", 1, 1.0), InventoryChange.Kind.ADDED, false);
+            assertTrue(listener.delivering.await(5, TimeUnit.SECONDS));
+            for (int i = 1; i <= 3; i++) {
+                feed.publish(new ItemRecord("QC100" + i, "Item", 1, 1.0), InventoryChange.Kind.ADDED, false);
+            }
+
+            assertEquals(0, feed.getSubscriberCount());
+            assertNotNull(listener.closedReason.poll(5, TimeUnit.SECONDS));
+            listener.gate.countDown();
+        }
+    }
+
+    @Test
+    void testSubscriberWithHangingCallbackIsDropped() throws Exception {
+        GatedListener listener = new GatedListener();
+        try (InventoryFeed feed = new InventoryFeed("QC", eventLog, 100, Duration.ofMillis(200), ExecutionMode.PLATFORM)) {
+            feed.subscribe("QCM0001", listener);
+            feed.publish(new ItemRecord("QC1001", "Laptop", 1, 900.0), InventoryChange.Kind.ADDED, false);
+            assertTrue(listener.delivering.await(5, TimeUnit.SECONDS));
+            feed.publish(new ItemRecord("QC1002", "Mouse", 1, 20.0), InventoryChange.Kind.ADDED, false);
+            assertEquals(1, feed.getSubscriberCount(), "The callback is still within its timeout");
+
+            Thread.sleep(300);
+            feed.publish(new ItemRecord("QC1003", "Desk", 1, 150.0), InventoryChange.Kind.ADDED, false);
+            assertEquals(0, feed.getSubscriberCount());
+            listener.gate.countDown();
+        }
+    }
+
+    @Test
+    void testFailingListenerIsDropped() throws Exception {
+        CountDownLatch called = new CountDownLatch(1);
+        InventoryListener failing = new InventoryListener() {
+            @Override
+            public void onChanges(List<InventoryChange> changes) throws RemoteException {
+                called.countDown();
+                throw new RemoteException("Client gone");
+            }
+
+            @Override
+            public void onSubscriptionClosed(String reason) {
+            }
+        };
+        try (InventoryFeed feed = new InventoryFeed("QC", eventLog, 100)) {
+            feed.subscribe("QCM0001", failing);
+            feed.publish(new ItemRecord("QC1001", "Laptop", 1, 900.0), InventoryChange.Kind.ADDED, false);
+            assertTrue(called.await(5, TimeUnit.SECONDS));
+
+            long deadline = System.nanoTime() + 5_000_000_000L;
+            while (feed.getSubscriberCount() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, feed.getSubscriberCount());
+        }
+    }
+
+    // Holds its first delivery until the gate opens
+    private static final class GatedListener implements InventoryListener {
+        private final CountDownLatch delivering = new CountDownLatch(1);
+        private final CountDownLatch gate = new CountDownLatch(1);
+        private final BlockingQueue<List<InventoryChange>> batches = new LinkedBlockingQueue<>();
+        private final BlockingQueue<String> closedReason = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onChanges(List<InventoryChange> changes) {
+            batches.add(changes);
+            delivering.countDown();
+            try {
+                gate.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void onSubscriptionClosed(String reason) {
+            closedReason.add(reason);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.concordia.dsms.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ItemNameIndexTest {
+
+    @Test
+    void testExactMatching() {
+        ItemNameIndex index = new ItemNameIndex();
+        index.add("QC1002", "Coffee Maker");
+        index.add("QC1001", "coffee maker");
+        index.add("QC1003", "Coffee Grinder");
+        index.add("QC1004", "Laptop");
+
+        assertEquals(List.of("QC1001", "QC1002"), index.exact(" COFFEE MAKER "));
+        assertTrue(index.exact("Coffee").isEmpty(), "Exact match should not match partial names");
+    }
+
+    @Test
+    void testRemoveDropsEmptyEntries() {
+        ItemNameIndex index = new ItemNameIndex();
+        index.add("QC1001", "Laptop");
+        index.add("QC1002", "Laptop Bag");
+
+        index.remove("QC1001", "Laptop");
+
+        assertTrue(index.exact("Laptop").isEmpty());
+        assertEquals(List.of("QC1002"), index.exact("laptop bag"));
+    }
+}
@@ -0,0 +1,168 @@
+package com.concordia.dsms.server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedStoreJournalTest {
+
+    private static final int SEGMENT_BYTES = 64 * 1024;
+    private static final Duration NO_PERIODIC_SNAPSHOT = Duration.ofHours(1);
+
+    @TempDir
+    Path dataDir;
+
+    @Test
+    void testReplayRestoresInventoryWaitlistsAndAccounts() throws Exception {
+        MappedStoreJournal journal = MappedStoreJournal.open("QC", dataDir, SEGMENT_BYTES, NO_PERIODIC_SNAPSHOT);
+        journal.itemCreated("QC1001", "Laptop", 5, 900.0);
+        journal.quantityChanged("QC1001", -1);
+        journal.itemCreated("QC1002", "Headphones", 1, 150.0);
+        journal.itemRemoved("QC1002");
+        journal.waitlistAdded("QC1001", "QCU0001");
+        journal.waitlistAdded("QC1001", "QCU0002");
+        journal.waitlistRemoved("QC1001", "QCU0001");
+        journal.purchaseRecorded("QCU0003", new PurchaseRecord("QC1001", "QC", LocalDate.of(2025, 1, 1), 900.0));
+        journal.commit();
+        journal.close();
+
+        JournalState state = MappedStoreJournal.open("QC", dataDir, SEGMENT_BYTES, NO_PERIODIC_SNAPSHOT).takeRecoveredState();
+
+        assertEquals(4, state.items().get("QC1001").getQuantity());
+        assertFalse(state.items().containsKey("QC1002"));
+        assertEquals("QCU0002", state.waitLists().get("QC1001").peek());
+        assertEquals(1, state.accounts().size());
+        assertEquals(100.0, state.accounts().getRemainingBudget("QCU0003"));
+        assertTrue(state.accounts().hasPurchaseRecord("QCU0003", "QC1001"));
+    }
+
+    @Test
+    void testUnfinishedShardMovesSurviveSnapshotAndReplay() throws Exception {
+        MappedStoreJournal journal = MappedStoreJournal.open("QC", dataDir, SEGMENT_BYTES, NO_PERIODIC_SNAPSHOT);
+        journal.itemCreated("QC1001", "Laptop", 5, 900.0);
+        journal.itemCreated("QC1002", "Headphones", 1, 150.0);
+        journal.itemCreated("QC1003", "Mouse", 2, 20.0);
+        journal.itemMoving("QC1001", "QC-move-1", "QC1");
+        journal.itemMoving("QC1002", "QC-move-2", "QC1");
+        journal.itemRemoved("QC1002");
+        journal.shardMoveAccepted("QC2-move-3", "QC1003");
+        journal.snapshot();
+        journal.itemMoving("QC1003", "QC-move-4", "QC2");
+        journal.itemMoveCancelled("QC1003");
+        journal.commit();
+        journal.close();
+
+        JournalState state = MappedStoreJournal.open("QC", dataDir, SEGMENT_BYTES, NO_PERIODIC_SNAPSHOT).takeRecoveredState();
+
+        assertEquals(Set.of("QC1001"), state.movingItems().keySet());
+        assertEquals("QC-move-1", state.movingItems().get("QC1001").moveId());
+        assertEquals("QC1", state.movingItems().get("QC1001").owner());
+        assertEquals(5, state.items().get("QC1001").getQuantity(), "The stock stays until the move completes");
+        assertEquals(Map.of("QC2-move-3", "QC1003"), state.acceptedMoves());
+    }
+
+    @Test
+    void testSnapshotPlusTailSurvivesSegmentRotation() throws Exception {
+        MappedStoreJournal journal = MappedStoreJournal.open("QC", dataDir, SEGMENT_BYTES, NO_PERIODIC_SNAPSHOT);
+        journal.itemCreated("QC1001", "Laptop", 1, 900.0);
+        // Enough records to fill several segments
+        for (int i = 0; i < 10_000; i++) {
+            journal.quantityChanged("QC1001", 1);
+        }
+        journal.snapshot();
+        journal.quantityChanged("QC1001", 5);
+        journal.commit();
+        journal.close();
+
+        JournalState state = MappedStoreJournal.open("QC", dataDir, SEGMENT_BYTES, NO_PERIODIC_SNAPSHOT).takeRecoveredState();
+
+        assertEquals(10_006, state.items().get("QC1001").getQuantity());
+        assertTrue(state.replayedRecords() <= 1, "Only the journal tail should be replayed after the snapshot");
+    }
+
+    @Test
+    void testExpiredPurchasesStayExpiredAcrossSnapshots() throws Exception {
+        MappedStoreJournal journal = MappedStoreJournal.open("QC", dataDir, SEGMENT_BYTES, NO_PERIODIC_SNAPSHOT);
+        PurchaseRecord returned = new PurchaseRecord("QC1001", "QC", LocalDate.of(2025, 1, 1), 100.0);
+        journal.purchaseRecorded("QCU0001", returned);
+        journal.purchaseRecorded("QCU0001", new PurchaseRecord("QC1001", "QC", LocalDate.of(2025, 3, 1), 50.0));
+        journal.purchaseRecorded("QCU0001", new PurchaseRecord("QC1002", "QC", LocalDate.of(2025, 1, 2), 10.0));
+        journal.purchaseConsumed("QCU0001", returned);
+        journal.purchasesExpired(LocalDate.of(2025, 1, 31));
+        journal.snapshot();
+        journal.commit();
+        journal.close();
+
+        JournalState state = MappedStoreJournal.open("QC", dataDir, SEGMENT_BYTES, NO_PERIODIC_SNAPSHOT).takeRecoveredState();
+
+        CompactAccountStore accounts = state.accounts();
+        assertEquals(940.0, accounts.getRemainingBudget("QCU0001"));
+        assertFalse(accounts.hasPurchaseRecord("QCU0001", "QC1002"));
+        assertEquals(LocalDate.of(2025, 1, 31).toEpochDay(), accounts.getExpiredBefore());
+        assertEquals(LocalDate.of(2025, 3, 1), accounts.consumePurchaseRecord("QCU0001", "QC1001").purchaseDate());
+    }
+
+    @Test
+    void testFailedSnapshotIsLoggedToTheStore() throws Exception {
+        Path logFile = dataDir.resolve("QC_server.log");
+        ServerEventLog log = new ServerEventLog("QC", logFile, 16, ServerEventLog.Backpressure.BLOCK);
+        // A directory where the snapshot is written first, so every snapshot fails
+        Files.createDirectories(dataDir.resolve("journal").resolve("snapshot.bin.tmp"));
+        MappedStoreJournal journal = MappedStoreJournal.open("QC", dataDir.resolve("journal"), SEGMENT_BYTES, Duration.ofMillis(20));
+        try {
+            journal.reportTo(log);
+            journal.itemCreated("QC1001", "Laptop", 1, 900.0);
+            journal.commit();
+            long deadline = System.nanoTime() + 5_000_000_000L;
+            while (!loggedSnapshotFailure(logFile) && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+        } finally {
+            journal.close();
+            log.close();
+        }
+        assertTrue(loggedSnapshotFailure(logFile));
+    }
+
+    @Test
+    void testInstalledSnapshotAndReplicatedRecordsSurviveRestart() throws Exception {
+        MappedStoreJournal primary = MappedStoreJournal.open("QC", dataDir.resolve("primary"), SEGMENT_BYTES, NO_PERIODIC_SNAPSHOT);
+        primary.itemCreated("QC1001", "Laptop", 5, 900.0);
+        primary.purchaseRecorded("QCU0001", new PurchaseRecord("QC1001", "QC", LocalDate.of(2025, 1, 1), 900.0));
+        MappedStoreJournal.CapturedSnapshot snapshot = primary.captureSnapshot();
+        assertEquals(2, snapshot.sequence());
+        primary.close();
+
+        MappedStoreJournal standby = MappedStoreJournal.open("QC", dataDir.resolve("standby"), SEGMENT_BYTES, NO_PERIODIC_SNAPSHOT);
+        standby.itemCreated("QC9999", "Left over from an earlier run", 1, 1.0);
+        standby.installSnapshot(JournalState.readSnapshot(new DataInputStream(new ByteArrayInputStream(snapshot.bytes()))));
+        ByteBuffer payload = ByteBuffer.allocate(64);
+        payload.putShort((short) 6).put("QC1001".getBytes(StandardCharsets.UTF_8)).putInt(-1).flip();
+        standby.appendReplicated(MappedStoreJournal.QUANTITY_CHANGED, payload);
+        standby.commit();
+        standby.close();
+
+        JournalState state = MappedStoreJournal.open("QC", dataDir.resolve("standby"), SEGMENT_BYTES, NO_PERIODIC_SNAPSHOT).takeRecoveredState();
+
+        assertEquals(4, state.items().get("QC1001").getQuantity());
+        assertFalse(state.items().containsKey("QC9999"));
+        assertEquals(100.0, state.accounts().getRemainingBudget("QCU0001"));
+    }
+
+    private static boolean loggedSnapshotFailure(Path logFile) throws IOException {
+        return Files.exists(logFile) && Files.readString(logFile).contains("Unable to fold the journal of QC into a snapshot");
+    }
+}
@@ -0,0 +1,63 @@
+package com.concordia.dsms.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PeerHealthTest {
+
+    @Test
+    void testBreakerOpensAfterConsecutiveFailures() {
+        PeerHealth health = new PeerHealth(3, Duration.ofHours(1));
+
+        for (int i = 0; i < 2; i++) {
+            assertTrue(health.tryAcquire());
+            health.recordFailure(System.nanoTime());
+        }
+        assertTrue(health.tryAcquire());
+        health.recordSuccess(System.nanoTime());
+        assertEquals(PeerHealth.State.CLOSED, health.getState(), "A success resets the count");
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(health.tryAcquire());
+            health.recordFailure(System.nanoTime());
+        }
+        assertEquals(PeerHealth.State.OPEN, health.getState());
+        assertFalse(health.tryAcquire());
+        assertEquals(1, health.getLatency().getSuccesses());
+        assertEquals(5, health.getLatency().getFailures());
+    }
+
+    @Test
+    void testOneTrialCallAfterTheOpenInterval() throws Exception {
+        PeerHealth health = new PeerHealth(1, Duration.ofMillis(20));
+        health.recordFailure(System.nanoTime());
+        assertFalse(health.tryAcquire());
+
+        Thread.sleep(30);
+        assertTrue(health.tryAcquire());
+        assertEquals(PeerHealth.State.HALF_OPEN, health.getState());
+        assertFalse(health.tryAcquire(), "Only one trial at a time");
+        health.recordFailure(System.nanoTime());
+        assertEquals(PeerHealth.State.OPEN, health.getState());
+
+        Thread.sleep(30);
+        assertTrue(health.tryAcquire());
+        health.recordSuccess(System.nanoTime());
+        assertEquals(PeerHealth.State.CLOSED, health.getState());
+    }
+
+    @Test
+    void testProbeClosesAnOpenBreaker() {
+        PeerHealth health = new PeerHealth(1, Duration.ofHours(1));
+        health.recordFailure(System.nanoTime());
+        health.recordProbe(false);
+        assertEquals(PeerHealth.State.OPEN, health.getState());
+
+        health.recordProbe(true);
+        assertEquals(PeerHealth.State.CLOSED, health.getState());
+        assertTrue(health.tryAcquire());
+    }
+}
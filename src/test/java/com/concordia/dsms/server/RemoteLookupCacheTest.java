@@ -0,0 +1,77 @@
+package com.concordia.dsms.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RemoteLookupCacheTest {
+
+    private static final Duration MAX_AGE = Duration.ofMinutes(1);
+
+    @Test
+    void testHitsAreKeyedByNormalizedName() {
+        RemoteLookupCache cache = new RemoteLookupCache(16, Duration.ZERO, MAX_AGE);
+        assertNull(cache.get("ON", "Camera"));
+        cache.put("ON", "Camera", "ON2001 4 550.00", cache.generation("ON"), System.nanoTime());
+
+        assertEquals("ON2001 4 550.00", cache.get("ON", "  CAMERA "));
+        assertNull(cache.get("BC", "Camera"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    void testLeastRecentlyUsedEntryIsEvicted() {
+        RemoteLookupCache cache = new RemoteLookupCache(2, Duration.ZERO, MAX_AGE);
+        cache.put("ON", "a", "A", cache.generation("ON"), System.nanoTime());
+        cache.put("ON", "b", "B", cache.generation("ON"), System.nanoTime());
+        assertEquals("A", cache.get("ON", "a"));
+        cache.put("ON", "c", "C", cache.generation("ON"), System.nanoTime());
+
+        assertEquals(2, cache.size());
+        assertEquals("A", cache.get("ON", "a"));
+        assertNull(cache.get("ON", "b"));
+    }
+
+    @Test
+    void testQuantityChangeIsServedWithinStalenessBound() throws Exception {
+        RemoteLookupCache cache = new RemoteLookupCache(16, Duration.ofMillis(100), MAX_AGE);
+        cache.put("ON", "camera", "ON2001 4 550.00", cache.generation("ON"), System.nanoTime());
+
+        cache.invalidate("ON", "camera", false);
+        assertEquals("ON2001 4 550.00", cache.get("ON", "camera"));
+        Thread.sleep(150);
+        assertNull(cache.get("ON", "camera"));
+    }
+
+    @Test
+    void testCatalogChangeDropsEntryAtOnce() {
+        RemoteLookupCache cache = new RemoteLookupCache(16, Duration.ofMinutes(1), MAX_AGE);
+        cache.put("ON", "camera", "ON2001 4 550.00", cache.generation("ON"), System.nanoTime());
+
+        cache.invalidate("ON", "camera", true);
+        assertNull(cache.get("ON", "camera"));
+        assertEquals(1, cache.getInvalidationCount());
+    }
+
+    @Test
+    void testResponseRacingAnInvalidationIsNotServedFresh() {
+        RemoteLookupCache cache = new RemoteLookupCache(16, Duration.ZERO, MAX_AGE);
+        long generation = cache.generation("ON");
+        long requestStart = System.nanoTime();
+        cache.invalidate("ON", "camera", false);
+        cache.put("ON", "camera", "ON2001 4 550.00", generation, requestStart);
+
+        assertNull(cache.get("ON", "camera"));
+    }
+
+    @Test
+    void testZeroCapacityDisablesCaching() {
+        RemoteLookupCache cache = new RemoteLookupCache(0, Duration.ZERO, MAX_AGE);
+        cache.put("ON", "camera", "ON2001 4 550.00", cache.generation("ON"), System.nanoTime());
+        assertNull(cache.get("ON", "camera"));
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,55 @@
+package com.concordia.dsms.server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ServerEventLogTest {
+    @TempDir
+    Path logDir;
+
+    @Test
+    void testPublishDropsEventsOnceTheWriterFailed() throws Exception {
+        // A file where the log's directory should be, so the writer cannot open the log
+        Path blocker = Files.createFile(logDir.resolve("blocker"));
+        ServerEventLog log = new ServerEventLog("EL", blocker.resolve("EL_server.log"), 4, ServerEventLog.Backpressure.BLOCK);
+        try {
+            awaitTrue(log::isFailed);
+            // Far more events than the buffer holds, which would block forever without a writer
+            assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+                for (int i = 0; i < 100; i++) {
+                    log.log(ServerEvent.ITEM_REMOVED, "EL0001");
+                }
+            });
+            assertEquals(100, log.getDroppedCount());
+        } finally {
+            log.close();
+        }
+    }
+
+    @Test
+    void testEventsAreWrittenInOrder() throws Exception {
+        Path file = logDir.resolve("EL_server.log");
+        try (ServerEventLog log = new ServerEventLog("EL", file, 4, ServerEventLog.Backpressure.BLOCK)) {
+            for (int i = 0; i < 10; i++) {
+                log.log(ServerEvent.ITEM_REMOVED, "EL000" + i);
+            }
+        }
+        assertEquals(10, Files.readAllLines(file).size());
+        assertTrue(Files.readAllLines(file).get(9).endsWith("Removed item EL0009 from inventory."));
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+}
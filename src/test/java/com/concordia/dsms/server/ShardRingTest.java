@@ -0,0 +1,58 @@
+package com.concordia.dsms.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardRingTest {
+    private static final int ITEMS = 30_000;
+
+    @Test
+    void testItemsSpreadEvenlyAcrossShards() {
+        ShardRing ring = new ShardRing(List.of("QC", "QC1", "QC2"));
+        Map<String, Integer> owned = new HashMap<>();
+        for (int i = 0; i < ITEMS; i++) {
+            owned.merge(ring.owner("QC" + i), 1, Integer::sum);
+        }
+        assertEquals(3, owned.size());
+        for (int count : owned.values()) {
+            assertTrue(count > ITEMS * 0.25 && count < ITEMS * 0.42, "Uneven share: " + owned);
+        }
+    }
+
+    @Test
+    void testJoiningShardOnlyTakesItsShare() {
+        ShardRing before = new ShardRing(List.of("QC", "QC1", "QC2"));
+        ShardRing after = new ShardRing(List.of("QC", "QC1", "QC2", "QC3"));
+        int moved = 0;
+        for (int i = 0; i < ITEMS; i++) {
+            String itemId = "QC" + i;
+            if (!before.owner(itemId).equals(after.owner(itemId))) {
+                assertEquals("QC3", after.owner(itemId), "Items only move to the new shard");
+                moved++;
+            }
+        }
+        assertTrue(moved > ITEMS * 0.15 && moved < ITEMS * 0.35, "Moved " + moved + " of " + ITEMS);
+    }
+
+    @Test
+    void testOwnershipIsDeterministic() {
+        ShardRing ring = new ShardRing(List.of("ON", "ON1"));
+        ShardRing same = new ShardRing(List.of("ON", "ON1"));
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(ring.owner("ON" + i), same.owner("ON" + i));
+        }
+        ShardRing single = new ShardRing(List.of("BC"));
+        assertEquals("BC", single.owner("BC1001"));
+        assertThrows(IllegalArgumentException.class, () -> new ShardRing(List.of()));
+    }
+
+    @Test
+    void testStoreWithoutRegisteredShardsOwnsItsItems() {
+        assertEquals("XQ", ShardRing.ownerOf("XQ1234"));
+    }
+}
@@ -0,0 +1,181 @@
+package com.concordia.dsms.server;
+
+import com.concordia.dsms.common.InventoryChange;
+import com.concordia.dsms.common.InventoryListener;
+import com.concordia.dsms.common.ItemAvailability;
+import com.concordia.dsms.common.ItemChange;
+import com.concordia.dsms.common.ItemPage;
+import com.concordia.dsms.common.PurchaseResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardedStoreTest {
+    private static final String MANAGER = "SHM0001";
+    private static final int ITEMS = 40;
+
+    private final List<StoreServerImpl> servers = new ArrayList<>();
+
+    @AfterEach
+    void stopShards() throws Exception {
+        for (StoreServerImpl server : servers) {
+            StoreServerRegistry.unbind(server.getShardName());
+        }
+        for (StoreServerImpl server : servers) {
+            server.shutdown();
+            UnicastRemoteObject.unexportObject(server, true);
+        }
+    }
+
+    @Test
+    void testShardsShareTheCatalogBehindThePrimary() throws Exception {
+        StoreServerImpl primary = start(0);
+        StoreServerImpl shard = start(1);
+        List<ItemChange> items = new ArrayList<>();
+        for (int i = 0; i < ITEMS; i++) {
+            items.add(new ItemChange(itemId(i), "Widget", 2, 10.0));
+        }
+        primary.addItems(MANAGER, items);
+
+        int onShard = lines(shard.listItemAvailability(MANAGER));
+        assertTrue(onShard > 0 && onShard < ITEMS, "Items should be split, shard has " + onShard);
+        assertOwnedWhereTheyLive(primary, shard);
+        List<String> listing = shard.listItemAvailability(MANAGER).lines().toList();
+
+        String all = primary.listItemAvailability(MANAGER);
+        assertEquals(ITEMS, lines(all));
+        assertEquals(all.lines().sorted().toList(), all.lines().toList());
+        String found = primary.findItem("SHU0001", "Widget");
+        assertEquals(ITEMS, found.lines().filter(line -> line.startsWith("SH")).count());
+        assertFalse(found.contains("Partial results"));
+
+        String shardItem = listing.get(0).substring(9, 15);
+        PurchaseResult result = primary.purchaseItem("SHU0001", shardItem, "01012025");
+        assertTrue(result.isSuccess(), result.getMessage());
+        assertEquals(990.0, primary.getAccounts().getRemainingBudget("SHU0001"));
+        assertEquals("Return successful for item " + shardItem, primary.returnItem("SHU0001", shardItem, "02012025"));
+    }
+
+    @Test
+    void testJoiningAndLeavingShardsRebalance() throws Exception {
+        StoreServerImpl primary = start(0);
+        StoreServerImpl first = start(1);
+        for (int i = 0; i < ITEMS; i++) {
+            primary.addItem(MANAGER, itemId(i), "Widget", 2, 10.0);
+        }
+        // An item the third shard will own, sold out with a customer waiting for it
+        String waitedFor = null;
+        ShardRing grown = new ShardRing(List.of("SH", "SH1", "SH2"));
+        for (int i = ITEMS; waitedFor == null; i++) {
+            if (grown.owner(itemId(i)).equals("SH2")) {
+                waitedFor = itemId(i);
+            }
+        }
+        primary.addItem(MANAGER, waitedFor, "Gadget", 1, 100.0);
+        assertTrue(primary.purchaseItem("SHU0002", waitedFor, "01012025").isSuccess());
+        assertFalse(primary.purchaseItem("SHU0003", waitedFor, "01012025").isSuccess());
+
+        StoreServerImpl second = start(2);
+        // Direct passes; a scheduled pass that got there first leaves them nothing to do
+        primary.getBalancer().rebalance();
+        first.getBalancer().rebalance();
+        int moved = lines(second.listItemAvailability(MANAGER));
+        assertTrue(moved > 0 && moved < ITEMS, "Moved " + moved);
+        assertOwnedWhereTheyLive(primary, first, second);
+        assertEquals(ITEMS + 1, lines(primary.listItemAvailability(MANAGER)));
+
+        // Restocking at the new owner serves the waitlist that moved with the item
+        primary.addItem(MANAGER, waitedFor, "Gadget", 1, 100.0);
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (primary.getAccounts().getRemainingBudget("SHU0003") == 1000.0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(900.0, primary.getAccounts().getRemainingBudget("SHU0003"));
+
+        List<String> paged = new ArrayList<>();
+        String cursor = null;
+        do {
+            ItemPage page = primary.listItemAvailability(MANAGER, cursor, 7);
+            page.getItems().forEach(item -> paged.add(item.getItemId()));
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        assertEquals(ITEMS + 1, paged.size());
+        assertEquals(paged.stream().sorted().toList(), paged);
+
+        StoreServerRegistry.unbind("SH2");
+        second.getBalancer().handOff();
+        assertEquals(0, lines(second.listItemAvailability(MANAGER)));
+        servers.remove(second);
+        second.shutdown();
+        UnicastRemoteObject.unexportObject(second, true);
+        assertOwnedWhereTheyLive(primary, first);
+        List<ItemAvailability> snapshot = primary.subscribeInventory(MANAGER, new InventoryListener() {
+            @Override
+            public void onChanges(List<InventoryChange> changes) {
+            }
+
+            @Override
+            public void onSubscriptionClosed(String reason) {
+            }
+        });
+        assertEquals(ITEMS + 1, snapshot.size());
+        assertEquals(snapshot.stream().map(ItemAvailability::getItemId).sorted().toList(),
+                snapshot.stream().map(ItemAvailability::getItemId).toList());
+    }
+
+    @Test
+    void testRepeatedHandOverIsMergedOnce() throws Exception {
+        StoreServerImpl primary = start(0);
+        StoreServerImpl shard = start(1);
+        String itemId = null;
+        for (int i = 0; itemId == null; i++) {
+            if (ShardRing.ownerOf(itemId(i)).equals("SH1")) {
+                itemId = itemId(i);
+            }
+        }
+        ItemAvailability item = new ItemAvailability(itemId, "Widget", 3, 10.0);
+
+        // No waiting customers, whom a drain would sell units to while the test counts them
+        shard.acceptShardItem("SH-move-1", item, List.of());
+        // The sender did not hear back and repeats the same hand-over
+        shard.acceptShardItem("SH-move-1", item, List.of());
+        assertTrue(shard.listItemAvailability(MANAGER).contains("Item Quantity: 3,"), shard.listItemAvailability(MANAGER));
+
+        shard.acceptShardItem("SH-move-2", new ItemAvailability(itemId, "Widget", 2, 10.0), List.of());
+        assertTrue(shard.listItemAvailability(MANAGER).contains("Item Quantity: 5,"), shard.listItemAvailability(MANAGER));
+        assertEquals(1, lines(primary.listItemAvailability(MANAGER)));
+    }
+
+    private StoreServerImpl start(int shard) throws Exception {
+        StoreServerImpl server = new StoreServerImpl("SH", shard, StoreServerImpl.DEFAULT_REMOTE_LOOKUP_TIMEOUT,
+                StoreJournal.DISABLED, ExecutionMode.PLATFORM);
+        servers.add(server);
+        StoreServerRegistry.bind(server.getShardName(), server);
+        return server;
+    }
+
+    private static void assertOwnedWhereTheyLive(StoreServerImpl... shards) throws Exception {
+        for (StoreServerImpl shard : shards) {
+            // Non-primary shards list only their own items
+            String listing = shard.isPrimary() ? null : shard.listItemAvailability(MANAGER);
+            if (listing != null && !listing.equals("No items available.")) {
+                for (String line : listing.lines().toList()) {
+                    assertEquals(shard.getShardName(), ShardRing.ownerOf(line.substring(9, 15)), line);
+                }
+            }
+        }
+    }
+
+    private static int lines(String listing) {
+        return listing.equals("No items available.") ? 0 : (int) listing.lines().count();
+    }
+
+    private static String itemId(int index) {
+        return String.format("SH%04d", index);
+    }
+}
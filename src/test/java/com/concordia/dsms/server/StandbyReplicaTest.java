@@ -0,0 +1,136 @@
+package com.concordia.dsms.server;
+
+import com.concordia.dsms.common.PurchaseResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.rmi.NoSuchObjectException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StandbyReplicaTest {
+    private static final String MANAGER = "HSM0001";
+
+    @TempDir
+    Path dataDir;
+
+    private StoreServerImpl primary;
+    private StoreServerImpl standby;
+
+    @BeforeEach
+    void startPrimary() throws Exception {
+        System.setProperty("dsms.standby.heartbeatMs", "50");
+        System.setProperty("dsms.standby.failoverMs", "400");
+        System.setProperty("dsms.standby.fenceCheckMs", "50");
+        MappedStoreJournal journal = MappedStoreJournal.open("HS", dataDir.resolve("HS"));
+        primary = new StoreServerImpl("HS", 0, StoreServerImpl.DEFAULT_REMOTE_LOOKUP_TIMEOUT, journal, ExecutionMode.PLATFORM);
+        primary.startLogShipping(journal);
+        StoreServerRegistry.bind("HS", primary);
+    }
+
+    @AfterEach
+    void stopStores() throws Exception {
+        System.clearProperty("dsms.standby.heartbeatMs");
+        System.clearProperty("dsms.standby.failoverMs");
+        System.clearProperty("dsms.standby.fenceCheckMs");
+        StoreServerRegistry.unbind("HS");
+        StoreServerRegistry.unbind("HS-standby");
+        for (StoreServerImpl server : new StoreServerImpl[]{primary, standby}) {
+            if (server != null) {
+                server.shutdown();
+                try {
+                    UnicastRemoteObject.unexportObject(server, true);
+                } catch (NoSuchObjectException e) {
+                    // Stopped by the test
+                }
+            }
+        }
+    }
+
+    @Test
+    void testStandbyFollowsThePrimaryAndServesLookups() throws Exception {
+        primary.addItem(MANAGER, "HS1001", "Lamp", 5, 20.0);
+        assertTrue(primary.purchaseItem("HSU0001", "HS1001", "01012025").isSuccess());
+
+        startStandby();
+        // The first item arrives with the snapshot, the second one as a shipped record
+        awaitTrue(() -> standby.requestRemoteItemLookup("Lamp").contains("HS1001 4 20.00"));
+        primary.addItem(MANAGER, "HS1002", "Lamp", 1, 35.0);
+        // Removing all the stock removes the item
+        primary.removeItem(MANAGER, "HS1001", 4);
+        awaitTrue(() -> standby.requestRemoteItemLookup("Lamp").equals("HS1002 1 35.00"));
+        assertEquals(980.0, standby.getAccounts().getRemainingBudget("HSU0001"));
+        awaitTrue(() -> primary.getShipper().getLagRecords() == 0);
+
+        assertThrows(IllegalStateException.class, () -> standby.purchaseItem("HSU0002", "HS1002", "01012025"));
+        assertThrows(IllegalStateException.class, () -> standby.addItem(MANAGER, "HS1003", "Desk", 1, 10.0));
+        // Lookups alternate between the primary and the standby
+        Set<InetSocketAddress> readers = new HashSet<>();
+        readers.add(StoreServerRegistry.lookupReadAddress("HS"));
+        readers.add(StoreServerRegistry.lookupReadAddress("HS"));
+        assertEquals(Set.of(primary.getInterServerAddress(), standby.getInterServerAddress()), readers);
+    }
+
+    @Test
+    void testStandbyTakesOverWhenThePrimaryStops() throws Exception {
+        startStandby();
+        primary.addItem(MANAGER, "HS1001", "Lamp", 2, 20.0);
+        assertTrue(primary.purchaseItem("HSU0001", "HS1001", "01012025").isSuccess());
+        awaitTrue(() -> standby.getAccounts().getRemainingBudget("HSU0001") == 980.0);
+
+        // Gone without unbinding, as after a crash
+        primary.shutdown();
+        UnicastRemoteObject.unexportObject(primary, true);
+        primary = null;
+        long stopped = System.nanoTime();
+        // The store leaves standby mode while the replica is still finishing the promotion
+        awaitTrue(() -> standby.getReplica().isPromoted());
+        assertTrue(System.nanoTime() - stopped < 5_000_000_000L);
+
+        assertFalse(standby.isStandby());
+        assertSame(standby, StoreServerRegistry.lookup("HS"));
+        assertNull(StoreServerRegistry.lookupStandby("HS"));
+        PurchaseResult result = standby.purchaseItem("HSU0002", "HS1001", "02012025");
+        assertTrue(result.isSuccess(), result.getMessage());
+        assertEquals("Return successful for item HS1001", standby.returnItem("HSU0001", "HS1001", "03012025"));
+    }
+
+    @Test
+    void testPrimaryStepsDownOnceItsStandbyTookOver() throws Exception {
+        startStandby();
+        primary.addItem(MANAGER, "HS1001", "Lamp", 2, 20.0);
+        awaitTrue(() -> primary.getShipper().getLagRecords() == 0);
+
+        // Taken over while the primary is still up, as when the standby lost contact with it
+        standby.getReplica().promote();
+        awaitTrue(primary::isSuperseded);
+
+        assertThrows(IllegalStateException.class, () -> primary.purchaseItem("HSU0001", "HS1001", "01012025"));
+        assertThrows(IllegalStateException.class, () -> primary.addItem(MANAGER, "HS1002", "Desk", 1, 10.0));
+        assertSame(standby, StoreServerRegistry.lookup("HS"));
+        PurchaseResult result = standby.purchaseItem("HSU0001", "HS1001", "01012025");
+        assertTrue(result.isSuccess(), result.getMessage());
+    }
+
+    private void startStandby() throws Exception {
+        MappedStoreJournal journal = MappedStoreJournal.open("HS", dataDir.resolve("HS-standby"));
+        standby = StoreServerImpl.standby("HS", 0, journal, ExecutionMode.PLATFORM);
+        StoreServerRegistry.bind(standby.getRegistryName(), standby);
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+}
@@ -1,19 +1,43 @@
 package com.concordia.dsms.server;
 
+import com.concordia.dsms.common.InventoryChange;
+import com.concordia.dsms.common.InventoryListener;
+import com.concordia.dsms.common.ItemAvailability;
+import com.concordia.dsms.common.ItemChange;
+import com.concordia.dsms.common.ItemPage;
 import com.concordia.dsms.common.PurchaseResult;
 import com.concordia.dsms.common.StoreServer;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import java.lang.management.ManagementFactory;
 import java.rmi.RemoteException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 class StoreServerImplTest {
 
+    private static StoreServerImpl qc;
+
     @BeforeAll
     static void setupRegistry() throws Exception {
-        StoreServer qc = new StoreServerImpl("QC");
+        qc = new StoreServerImpl("QC");
         StoreServer on = new StoreServerImpl("ON");
         StoreServer bc = new StoreServerImpl("BC");
         StoreServerRegistry.bind("QC", qc);
@@ -41,6 +65,299 @@ class StoreServerImplTest {
         assertTrue(returnResult.toLowerCase().contains("successful"), "Return should be successful");
     }
 
+    @Test
+    void testConcurrentPurchasesNeverOversell() throws Exception {
+        int buyers = 16;
+        int quantity = 5;
+        StoreServer server = StoreServerRegistry.lookup("QC");
+        server.addItem("QCM0001", "QC8301", "ContendedItem", quantity, 20.0);
+        ExecutorService pool = Executors.newFixedThreadPool(buyers);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<PurchaseResult>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < buyers; i++) {
+                String customerId = String.format("QCU83%02d", i);
+                results.add(pool.submit(() -> {
+                    start.await();
+                    return server.purchaseItem(customerId, "QC8301", "01012025");
+                }));
+            }
+            start.countDown();
+            int succeeded = 0;
+            for (Future<PurchaseResult> result : results) {
+                if (result.get(10, TimeUnit.SECONDS).isSuccess()) {
+                    succeeded++;
+                }
+            }
+            assertEquals(quantity, succeeded);
+        } finally {
+            pool.shutdownNow();
+        }
+        assertTrue(server.findItem("QCU8300", "ContendedItem").contains("QC8301 0 20.00"));
+    }
+
+    @Test
+    void testCrossStorePurchaseAndReturnFlow() throws Exception {
+        StoreServerRegistry.lookup("ON").addItem("ONM0001", "ON5555", "RemoteItem", 1, 100.0);
+        StoreServer server = StoreServerRegistry.lookup("QC");
+
+        PurchaseResult purchase = server.purchaseItem("QCU2001", "ON5555", "01012025");
+        assertTrue(purchase.isSuccess(), "Remote purchase should succeed");
+        assertEquals(100.0, purchase.getPriceCharged());
+
+        String returnResult = server.returnItem("QCU2001", "ON5555", "05012025");
+        assertTrue(returnResult.contains("Return processed by store ON"), "Remote return should be accepted");
+    }
+
+    @Test
+    void testWaitlistedRemoteCustomerIsChargedByHomeStore() throws Exception {
+        StoreServer on = StoreServerRegistry.lookup("ON");
+        on.addItem("ONM0001", "ON5601", "HeldItem", 1, 250.0);
+        StoreServer server = StoreServerRegistry.lookup("QC");
+        assertTrue(on.purchaseItem("ONU5601", "ON5601", "01012025").isSuccess());
+
+        PurchaseResult waitlisted = server.purchaseItem("QCU5601", "ON5601", "01012025");
+        assertFalse(waitlisted.isSuccess());
+        on.addItem("ONM0001", "ON5601", "HeldItem", 1, 250.0);
+
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        // The budget is taken when the hold is placed, the hold goes away once it is confirmed
+        while ((qc.getAccounts().getRemainingBudget("QCU5601") == 1000.0 || qc.getAccounts().getPendingHoldCount() > 0)
+                && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(750.0, qc.getAccounts().getRemainingBudget("QCU5601"));
+        assertEquals(0, qc.getAccounts().getPendingHoldCount());
+    }
+
+    @Test
+    void testPurchaseIsPendingWhileTheHomeStoreHasNotConfirmed() throws Exception {
+        CountDownLatch confirming = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        // Holds the home store's confirmation past the selling store's deadline
+        StoreJournal slowConfirms = new StoreJournal() {
+            @Override
+            public void purchaseRecorded(String customerId, PurchaseRecord record) {
+                confirming.countDown();
+                try {
+                    release.await(30, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        StoreServerImpl home = new StoreServerImpl("HC", StoreServerImpl.DEFAULT_REMOTE_LOOKUP_TIMEOUT, slowConfirms);
+        StoreServerImpl seller = new StoreServerImpl("SC");
+        StoreServerRegistry.bind("HC", home);
+        StoreServerRegistry.bind("SC", seller);
+        try {
+            seller.addItem("SCM0001", "SC0001", "SlowConfirm", 1, 80.0);
+            String today = LocalDate.now().format(DateTimeFormatter.ofPattern("ddMMyyyy"));
+
+            PurchaseResult result = home.purchaseItem("HCU0001", "SC0001", today);
+            assertTrue(confirming.await(0, TimeUnit.SECONDS));
+            assertTrue(result.isPending(), result.getMessage());
+            assertFalse(result.isSuccess());
+            assertEquals(80.0, result.getPriceCharged());
+            // The unit stays sold while the confirmation is outstanding
+            assertTrue(seller.findItem("SCU0001", "SlowConfirm").contains("SC0001 0 80.00"));
+
+            release.countDown();
+            assertEquals(920.0, home.getAccounts().getRemainingBudget("HCU0001"));
+            assertEquals("Return processed by store SC", home.returnItem("HCU0001", "SC0001", today));
+        } finally {
+            release.countDown();
+            StoreServerRegistry.unbind("HC");
+            StoreServerRegistry.unbind("SC");
+            home.shutdown();
+            seller.shutdown();
+        }
+    }
+
+    @Test
+    void testFutureDatesAreTakenAsTheServersDate() throws Exception {
+        StoreServer server = StoreServerRegistry.lookup("QC");
+        server.addItem("QCM0001", "QC8201", "FutureDated", 1, 10.0);
+        String nextYear = LocalDate.now().plusYears(1).format(DateTimeFormatter.ofPattern("ddMMyyyy"));
+
+        assertTrue(server.purchaseItem("QCU8201", "QC8201", nextYear).isSuccess());
+
+        PurchaseRecord record = qc.getAccounts().consumeReturnable("QCU8201", "QC8201", LocalDate.now()).orElseThrow();
+        assertEquals(LocalDate.now(), record.purchaseDate());
+    }
+
+    @Test
+    void testCartCheckoutAcrossStores() throws Exception {
+        StoreServerRegistry.lookup("QC").addItem("QCM0001", "QC6001", "CartLocal", 2, 100.0);
+        StoreServerRegistry.lookup("ON").addItem("ONM0001", "ON6001", "CartRemote", 1, 200.0);
+        StoreServerRegistry.lookup("BC").addItem("BCM0001", "BC6001", "CartRemote", 1, 50.0);
+        StoreServer server = StoreServerRegistry.lookup("QC");
+
+        PurchaseResult result = server.checkoutCart("QCU3001", List.of("QC6001", "ON6001", "QC6001", "BC6001"), "01012025");
+
+        assertTrue(result.isSuccess(), result.getMessage());
+        assertEquals(450.0, result.getPriceCharged());
+        assertEquals(550.0, qc.getAccounts().getRemainingBudget("QCU3001"));
+        assertTrue(server.findItem("QCU3001", "CartRemote").contains("ON6001 0 200.00"));
+    }
+
+    @Test
+    void testCartCheckoutIsAllOrNothing() throws Exception {
+        StoreServerRegistry.lookup("QC").addItem("QCM0001", "QC6101", "CartPolicy", 5, 10.0);
+        StoreServerRegistry.lookup("ON").addItem("ONM0001", "ON6101", "CartPolicy", 5, 10.0);
+        StoreServerRegistry.lookup("ON").addItem("ONM0001", "ON6102", "CartPolicy", 5, 10.0);
+        StoreServer server = StoreServerRegistry.lookup("QC");
+
+        PurchaseResult twoFromOneStore = server.checkoutCart("QCU3101", List.of("QC6101", "ON6101", "ON6102"), "01012025");
+        assertFalse(twoFromOneStore.isSuccess(), "Two items from one remote store break the policy");
+
+        PurchaseResult soldOut = server.checkoutCart("QCU3102", List.of("QC6101", "ON6404"), "01012025");
+        assertFalse(soldOut.isSuccess(), "A missing item fails the whole cart");
+
+        assertEquals(1000.0, qc.getAccounts().getRemainingBudget("QCU3101"));
+        assertEquals(1000.0, qc.getAccounts().getRemainingBudget("QCU3102"));
+        String stock = server.findItem("QCU3101", "CartPolicy");
+        assertTrue(stock.contains("QC6101 5 10.00"), stock);
+        assertTrue(stock.contains("ON6101 5 10.00"), stock);
+        assertTrue(stock.contains("ON6102 5 10.00"), stock);
+    }
+
+    @Test
+    void testBulkAddAndRemoveReportPerItemResults() throws Exception {
+        StoreServer server = StoreServerRegistry.lookup("QC");
+        List<String> added = server.addItems("QCM0001", List.of(
+                new ItemChange("QC7001", "BulkItem", 3, 10.0),
+                new ItemChange("ON7002", "WrongStore", 1, 10.0),
+                new ItemChange("QC7003", "BulkItem", 0, 10.0),
+                new ItemChange("QC7001", "BulkItem", 2, 10.0)));
+
+        assertEquals(4, added.size());
+        assertTrue(added.get(0).contains("successfully"));
+        assertTrue(added.get(1).contains("not added"));
+        assertTrue(added.get(2).contains("not added"));
+        assertTrue(added.get(3).contains("successfully"));
+        assertTrue(server.listItemAvailability("QCM0001").contains("Item ID: QC7001, Item Name: BulkItem, Item Quantity: 5"));
+
+        List<String> removed = server.removeItems("QCM0001", List.of(
+                new ItemChange("QC7001", 2),
+                new ItemChange("QC7404", 1),
+                new ItemChange("QC7001", 0)));
+
+        assertEquals(List.of(
+                "Item QC7001 quantity decreased by 2.",
+                "Item QC7404 does not exist.",
+                "Item QC7001 removed from inventory."), removed);
+    }
+
+    @Test
+    void testPagedListingWalksInventoryInItemIdOrder() throws Exception {
+        StoreServer server = StoreServerRegistry.lookup("BC");
+        server.addItems("BCM0001", List.of(
+                new ItemChange("BC8003", "PagedItem", 3, 30.0),
+                new ItemChange("BC8001", "PagedItem", 1, 10.0),
+                new ItemChange("BC8002", "PagedItem", 2, 20.0)));
+
+        List<String> listed = new ArrayList<>();
+        String cursor = null;
+        do {
+            ItemPage page = server.listItemAvailability("BCM0001", cursor, 2);
+            assertTrue(page.getItems().size() <= 2);
+            page.getItems().forEach(item -> listed.add(item.getItemId()));
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+
+        List<String> sorted = new ArrayList<>(listed);
+        Collections.sort(sorted);
+        assertEquals(sorted, listed);
+        assertEquals(listed.size(), new HashSet<>(listed).size());
+        assertTrue(listed.containsAll(List.of("BC8001", "BC8002", "BC8003")));
+
+        ItemAvailability second = server.listItemAvailability("BCM0001", "BC8001", 1).getItems().get(0);
+        assertEquals("BC8002", second.getItemId());
+        assertEquals(2, second.getQuantity());
+        assertEquals(20.0, second.getPrice());
+    }
+
+    @Test
+    void testOperationsArePublishedOverJmx() throws Exception {
+        StoreServer server = StoreServerRegistry.lookup("QC");
+        server.addItem("QCM0001", "QC9101", "MeteredItem", 1, 5.0);
+        server.purchaseItem("QCU9101", "QC9101", "01012025");
+
+        ObjectName name = new ObjectName("com.concordia.dsms:type=StoreServer,store=QC");
+        TabularData operations = (TabularData) ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Operations");
+        CompositeData purchases = (CompositeData) operations.get(new Object[]{"PURCHASE_ITEM"}).get("value");
+
+        assertTrue((Long) purchases.get("count") >= 1);
+        assertTrue((Long) purchases.get("successes") >= 1);
+        assertTrue((Double) purchases.get("p99Micros") > 0);
+    }
+
+    @Test
+    void testRemoteLookupsAreCachedUntilInvalidated() throws Exception {
+        StoreServer on = StoreServerRegistry.lookup("ON");
+        long invalidations = qc.getLookupCache().getInvalidationCount();
+        on.addItem("ONM0001", "ON7001", "CachedItem", 3, 20.0);
+        // Let the invalidation for the new item arrive first, it would otherwise drop the entry cached below
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (qc.getLookupCache().getInvalidationCount() == invalidations && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        StoreServer server = StoreServerRegistry.lookup("QC");
+        long hits = qc.getLookupCache().getHitCount();
+
+        assertTrue(server.findItem("QCU7001", "CachedItem").contains("ON7001 3 20.00"));
+        assertTrue(server.findItem("QCU7001", " cacheditem ").contains("ON7001 3 20.00"));
+        assertEquals(hits + 2, qc.getLookupCache().getHitCount(), "Second search should be answered by the cache for ON and BC");
+
+        assertTrue(on.purchaseItem("ONU7001", "ON7001", "01012025").isSuccess());
+        deadline = System.nanoTime() + 5_000_000_000L;
+        String result = server.findItem("QCU7001", "CachedItem");
+        while (!result.contains("ON7001 2 20.00") && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+            result = server.findItem("QCU7001", "CachedItem");
+        }
+        assertTrue(result.contains("ON7001 2 20.00"), "Purchase on ON should invalidate the cached lookup");
+    }
+
+    @Test
+    void testInventorySubscriberGetsSnapshotThenChanges() throws Exception {
+        StoreServer server = StoreServerRegistry.lookup("QC");
+        server.addItem("QCM0001", "QC7101", "WatchedItem", 2, 30.0);
+        BlockingQueue<InventoryChange> changes = new LinkedBlockingQueue<>();
+        InventoryListener listener = new InventoryListener() {
+            @Override
+            public void onChanges(List<InventoryChange> batch) {
+                changes.addAll(batch);
+            }
+
+            @Override
+            public void onSubscriptionClosed(String reason) {
+            }
+        };
+
+        List<ItemAvailability> snapshot = server.subscribeInventory("QCM0001", listener);
+        try {
+            assertTrue(snapshot.stream().anyMatch(item -> item.getItemId().equals("QC7101") && item.getQuantity() == 2));
+            assertTrue(server.purchaseItem("QCU7101", "QC7101", "01012025").isSuccess());
+            server.removeItem("QCM0001", "QC7101", 0);
+
+            InventoryChange last = null;
+            long deadline = System.nanoTime() + 5_000_000_000L;
+            while ((last == null || last.getKind() != InventoryChange.Kind.REMOVED) && System.nanoTime() < deadline) {
+                InventoryChange next = changes.poll(100, TimeUnit.MILLISECONDS);
+                if (next != null && next.getItemId().equals("QC7101")) {
+                    last = next;
+                }
+            }
+            assertNotNull(last);
+            assertEquals(InventoryChange.Kind.REMOVED, last.getKind());
+        } finally {
+            server.unsubscribeInventory("QCM0001", listener);
+        }
+        assertEquals(0, qc.getInventoryFeed().getSubscriberCount());
+    }
+
     @Test
     void testFindItem() throws RemoteException {
         StoreServer server = StoreServerRegistry.lookup("QC");
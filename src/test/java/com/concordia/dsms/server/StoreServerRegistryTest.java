@@ -0,0 +1,109 @@
+package com.concordia.dsms.server;
+
+import com.concordia.dsms.common.StoreServer;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StoreServerRegistryTest {
+
+    @Test
+    void testStoresJoinAndLeaveTheCluster() throws Exception {
+        StoreServerImpl zz = new StoreServerImpl("ZZ");
+        try {
+            StoreServerRegistry.bind("ZZ", zz);
+            assertTrue(StoreServerRegistry.getStores().contains("ZZ"));
+            assertFalse(StoreServerRegistry.getOtherStores("ZZ").contains("ZZ"));
+            assertSame(zz, StoreServerRegistry.lookup("ZZ"));
+
+            StoreServerRegistry.unbind("ZZ");
+            assertFalse(StoreServerRegistry.getStores().contains("ZZ"));
+            assertThrows(RemoteException.class, () -> StoreServerRegistry.lookup("ZZ"));
+        } finally {
+            StoreServerRegistry.unbind("ZZ");
+            zz.shutdown();
+            UnicastRemoteObject.unexportObject(zz, true);
+        }
+    }
+
+    @Test
+    void testStoresOfOtherProcessesArePickedUpInTheBackground() throws Exception {
+        Registry registry = LocateRegistry.getRegistry(Registry.REGISTRY_PORT);
+        StoreServerImpl zw = new StoreServerImpl("ZW");
+        try {
+            StoreServerRegistry.getStores();
+            // Bound straight into the registry, as a store of another process would be
+            registry.rebind("ZW", zw);
+            awaitTrue(() -> StoreServerRegistry.getStores().contains("ZW"));
+
+            registry.unbind("ZW");
+            awaitTrue(() -> !StoreServerRegistry.getStores().contains("ZW"));
+        } finally {
+            StoreServerRegistry.unbind("ZW");
+            zw.shutdown();
+            UnicastRemoteObject.unexportObject(zw, true);
+        }
+    }
+
+    @Test
+    void testUnknownStoreIsARemoteFailure() {
+        RemoteException e = assertThrows(RemoteException.class, () -> StoreServerRegistry.lookup("ZY"));
+        assertTrue(e.getMessage().contains("ZY"));
+    }
+
+    @Test
+    void testStoreOfAnotherProcessFailsFastAndRecovers() throws Exception {
+        // Bound straight into the registry, as a store of another process would be
+        Registry registry = LocateRegistry.getRegistry(Registry.REGISTRY_PORT);
+        StoreServerImpl first = new StoreServerImpl("ZX");
+        StoreServerImpl second = null;
+        try {
+            StoreServerRegistry.getStores();
+            registry.rebind("ZX", first);
+            StoreServer guarded = StoreServerRegistry.lookup("ZX");
+            assertNotSame(first, guarded);
+            assertEquals(first.getInterServerAddress(), guarded.getInterServerAddress());
+
+            // Gone without unbinding
+            first.shutdown();
+            UnicastRemoteObject.unexportObject(first, true);
+            first = null;
+            for (int i = 0; i < PeerHealth.DEFAULT_FAILURE_THRESHOLD; i++) {
+                assertThrows(RemoteException.class, guarded::getInterServerAddress);
+            }
+            assertEquals(PeerHealth.State.OPEN, StoreServerRegistry.getBreakerState("ZX"));
+            RemoteException fast = assertThrows(RemoteException.class, guarded::getInterServerAddress);
+            assertTrue(fast.getMessage().contains("fail fast"), fast.getMessage());
+
+            // Restarted under the same name: the background check resolves the new stub and closes the breaker
+            second = new StoreServerImpl("ZX");
+            registry.rebind("ZX", second);
+            awaitTrue(() -> StoreServerRegistry.getBreakerState("ZX") == PeerHealth.State.CLOSED);
+            InetSocketAddress address = guarded.getInterServerAddress();
+            assertEquals(second.getInterServerAddress(), address);
+        } finally {
+            StoreServerRegistry.unbind("ZX");
+            for (StoreServerImpl server : new StoreServerImpl[]{first, second}) {
+                if (server != null) {
+                    server.shutdown();
+                    UnicastRemoteObject.unexportObject(server, true);
+                }
+            }
+        }
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+}
@@ -0,0 +1,87 @@
+package com.concordia.dsms.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TraceReportTest {
+
+    @TempDir
+    Path logDir;
+
+    @AfterEach
+    void clearContext() {
+        Tracer.detach();
+    }
+
+    private Tracer openTracer(String storeCode, double sampleRate) {
+        ServerEventLog traceLog = new ServerEventLog(storeCode, logDir.resolve(storeCode + "_trace.log"), 1024,
+                ServerEventLog.Backpressure.BLOCK);
+        return new Tracer(traceLog, sampleRate);
+    }
+
+    @Test
+    void testForwardedPurchaseJoinsCallerTrace() throws Exception {
+        Tracer qc = openTracer("QC", 1.0);
+        Tracer on = openTracer("ON", 1.0);
+
+        long start = System.nanoTime();
+        TraceContext root = qc.enter();
+        assertSame(root, Tracer.current());
+
+        // What the transport does around a peer call: a hop span on the caller, a child span on the peer
+        long hopStart = System.nanoTime();
+        TraceContext hop = Tracer.current().child();
+        Tracer.attach(TraceContext.remote(hop.traceId(), hop.spanId()));
+        long remoteStart = System.nanoTime();
+        TraceContext remote = on.enter();
+        assertEquals(root.traceId(), remote.traceId());
+        on.exit(remote, StoreMetrics.Operation.REMOTE_PURCHASE, remoteStart);
+        Tracer.attach(root);
+        qc.record(hop, "CALL_PURCHASE@ON", hopStart);
+
+        qc.exit(root, StoreMetrics.Operation.PURCHASE_ITEM, start);
+        assertNull(Tracer.current());
+        qc.close();
+        on.close();
+
+        TraceReport report = TraceReport.read(List.of(logDir.resolve("QC_trace.log"), logDir.resolve("ON_trace.log")));
+        Map<String, TraceReport.Breakdown> breakdowns = report.breakdowns();
+        assertEquals(1, breakdowns.size());
+        TraceReport.Breakdown purchase = breakdowns.get("QC PURCHASE_ITEM");
+        assertNotNull(purchase);
+        assertEquals(1, purchase.getTraceCount());
+        assertEquals(1, purchase.getSpans().get("QC CALL_PURCHASE@ON").getCount());
+        assertEquals(1, purchase.getSpans().get("ON REMOTE_PURCHASE").getCount());
+        TraceReport.SpanStats remoteStats = purchase.getSpans().get("ON REMOTE_PURCHASE");
+        assertEquals(remoteStats.meanMicros(), remoteStats.meanSelfMicros(), 1e-9);
+    }
+
+    @Test
+    void testUnsampledRequestsRecordNothing() throws Exception {
+        Tracer qc = openTracer("QC", 0.0);
+        assertNull(qc.enter());
+        assertNull(Tracer.current());
+        qc.exit(null, StoreMetrics.Operation.PURCHASE_ITEM, System.nanoTime());
+        qc.close();
+
+        TraceReport report = TraceReport.read(List.of(logDir.resolve("QC_trace.log")));
+        assertTrue(report.breakdowns().isEmpty());
+    }
+
+    @Test
+    void testSampleRateIsValidated() {
+        ServerEventLog traceLog = new ServerEventLog("QC", logDir.resolve("QC_trace.log"), 16, ServerEventLog.Backpressure.DROP);
+        try {
+            assertThrows(IllegalArgumentException.class, () -> new Tracer(traceLog, 1.5));
+        } finally {
+            traceLog.close();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.concordia.dsms.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WaitlistDispatcherTest {
+
+    @TempDir
+    Path logDir;
+
+    private ServerEventLog eventLog;
+
+    @BeforeEach
+    void openLog() {
+        eventLog = new ServerEventLog("QC", logDir.resolve("QC_server.log"), 1024, ServerEventLog.Backpressure.DROP);
+    }
+
+    @AfterEach
+    void closeLog() {
+        eventLog.close();
+    }
+
+    @Test
+    void testDuplicateEntriesAreRejected() {
+        StockHandler handler = new StockHandler();
+        try (WaitlistDispatcher dispatcher = new WaitlistDispatcher("QC", handler, eventLog, 1, 8)) {
+            assertTrue(dispatcher.enqueue("QC1001", "QCU0001"));
+            assertFalse(dispatcher.enqueue("QC1001", "QCU0001"));
+            assertTrue(dispatcher.enqueue("QC1001", "QCU0002"));
+            assertTrue(dispatcher.enqueue("QC1002", "QCU0001"));
+
+            assertEquals(3, dispatcher.getQueueDepth());
+            assertEquals(2, dispatcher.getQueueDepth("QC1001"));
+            assertTrue(dispatcher.isWaiting("QC1002", "QCU0001"));
+        }
+    }
+
+    @Test
+    void testDrainServesCustomersInOrderUntilStockRunsOut() throws Exception {
+        StockHandler handler = new StockHandler();
+        try (WaitlistDispatcher dispatcher = new WaitlistDispatcher("QC", handler, eventLog, 2, 2)) {
+            for (int i = 0; i < 5; i++) {
+                dispatcher.enqueue("QC1001", "QCU000" + i);
+            }
+            handler.restock("QC1001", 3);
+            dispatcher.signal("QC1001");
+            handler.awaitServed(3);
+
+            assertEquals(List.of("QCU0000", "QCU0001", "QCU0002"), handler.served);
+            assertEquals(2, dispatcher.getQueueDepth("QC1001"));
+
+            handler.restock("QC1001", 5);
+            dispatcher.signal("QC1001");
+            handler.awaitServed(5);
+
+            assertEquals(List.of("QCU0000", "QCU0001", "QCU0002", "QCU0003", "QCU0004"), handler.served);
+            assertEquals(0, dispatcher.getQueueDepth());
+            assertEquals(5, dispatcher.getFulfilledCount());
+            assertTrue(dispatcher.getDrainRate() > 0);
+        }
+    }
+
+    @Test
+    void testEachItemIsDrainedByOneWorkerAtATime() throws Exception {
+        StockHandler handler = new StockHandler();
+        try (WaitlistDispatcher dispatcher = new WaitlistDispatcher("QC", handler, eventLog, 4, 3)) {
+            for (int i = 0; i < 200; i++) {
+                dispatcher.enqueue("QC1001", "QCU" + i);
+            }
+            handler.restock("QC1001", 200);
+            Thread[] signallers = new Thread[4];
+            for (int i = 0; i < signallers.length; i++) {
+                signallers[i] = new Thread(() -> {
+                    for (int j = 0; j < 100; j++) {
+                        dispatcher.signal("QC1001");
+                    }
+                });
+                signallers[i].start();
+            }
+            for (Thread signaller : signallers) {
+                signaller.join();
+            }
+            handler.awaitServed(200);
+
+            assertEquals(1, handler.maxConcurrent.get());
+            // The last customer is counted out of the queue just after being served
+            awaitTrue(() -> dispatcher.getQueueDepth() == 0);
+        }
+    }
+
+    @Test
+    void testFailedFulfilmentKeepsTheCustomersPlace() throws Exception {
+        StockHandler handler = new StockHandler();
+        try (WaitlistDispatcher dispatcher = new WaitlistDispatcher("QC", handler, eventLog, 1, 8)) {
+            dispatcher.enqueue("QC1001", "QCU0000");
+            dispatcher.enqueue("QC1001", "QCU0001");
+            handler.restock("QC1001", 2);
+            handler.failures.set(1);
+            dispatcher.signal("QC1001");
+            awaitTrue(() -> handler.failures.get() == 0);
+
+            assertTrue(dispatcher.isWaiting("QC1001", "QCU0000"));
+            assertFalse(dispatcher.enqueue("QC1001", "QCU0000"));
+            // The next signal drains the item again, starting with the customer who was not served
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (handler.served.size() < 2 && System.nanoTime() < deadline) {
+                dispatcher.signal("QC1001");
+                Thread.sleep(10);
+            }
+            assertEquals(List.of("QCU0000", "QCU0001"), handler.served);
+            awaitTrue(() -> dispatcher.getQueueDepth() == 0);
+        }
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    // Sells from an in-memory stock count and records who was served
+    private static final class StockHandler implements WaitlistDispatcher.Handler {
+        private final Map<String, AtomicInteger> stock = new ConcurrentHashMap<>();
+        private final List<String> served = new CopyOnWriteArrayList<>();
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger maxConcurrent = new AtomicInteger();
+        // Calls to fail before anything is bought, as when the journal cannot be written
+        private final AtomicInteger failures = new AtomicInteger();
+
+        void restock(String itemId, int quantity) {
+            stock.computeIfAbsent(itemId, key -> new AtomicInteger()).addAndGet(quantity);
+        }
+
+        void awaitServed(int count) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (served.size() < count) {
+                assertTrue(System.nanoTime() < deadline, "Waitlist was not drained in time");
+                Thread.sleep(10);
+            }
+        }
+
+        @Override
+        public int available(String itemId) {
+            AtomicInteger quantity = stock.get(itemId);
+            return quantity == null ? 0 : quantity.get();
+        }
+
+        @Override
+        public WaitlistDispatcher.Outcome fulfil(String itemId, String customerId) {
+            maxConcurrent.accumulateAndGet(active.incrementAndGet(), Math::max);
+            try {
+                if (failures.getAndUpdate(count -> Math.max(0, count - 1)) > 0) {
+                    throw new IllegalStateException("Journal is closed");
+                }
+                AtomicInteger quantity = stock.get(itemId);
+                if (quantity == null || quantity.get() == 0) {
+                    return WaitlistDispatcher.Outcome.OUT_OF_STOCK;
+                }
+                quantity.decrementAndGet();
+                served.add(customerId);
+                return WaitlistDispatcher.Outcome.FULFILLED;
+            } finally {
+                active.decrementAndGet();
+            }
+        }
+    }
+}